@@ -538,6 +538,7 @@ public class Connector extends DiagramElement {
         centerEventBox.translate(delta.x, delta.y);
         leftEventBox.translate(delta.x, delta.y);
         rightEventBox.translate(delta.x, delta.y);
+        computeBounds();
     }
 
     @Override
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package templates.diagram;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A uniform-grid index over the bounds of {@link DiagramElement}s, used to find
+ * the elements at a given point or within a given area without testing every
+ * element in the diagram.
+ * <p>
+ * The plane is divided into square cells of {@link #CELL_SIZE} pixels and every
+ * element is registered in all cells overlapped by its bounds (enlarged by
+ * {@link #MARGIN}). A query collects the elements registered in the cells
+ * overlapped by the query and then tests them exactly with
+ * {@link DiagramElement#contains(Point)} or
+ * {@link DiagramElement#intersects(Rectangle)}. Elements which span more than
+ * {@link #MAX_CELLS} cells are not registered in cells but are tested by every
+ * query.
+ * <p>
+ * The index does not observe the elements. Whenever the bounds of an element
+ * change, {@link #update(DiagramElement)} has to be called.
+ * 
+ * @param <T> the type of the indexed elements
+ * @author Lenko Grigorov
+ */
+public class SpatialIndex<T extends DiagramElement> {
+    /**
+     * The width and height of the cells of the grid.
+     */
+    public static final int CELL_SIZE = 128;
+
+    /**
+     * The margin by which the bounds of elements are enlarged before indexing.
+     * Accounts for hit-testing which extends slightly beyond the bounds (e.g., the
+     * sensitivity around the line of a {@link Connector}).
+     */
+    protected static final int MARGIN = 8;
+
+    /**
+     * The maximum number of cells in which an element will be registered.
+     */
+    protected static final int MAX_CELLS = 256;
+
+    /**
+     * The elements registered in each cell of the grid, indexed by the key of the
+     * cell.
+     * 
+     * @see #cellKey(int, int)
+     */
+    protected Map<Long, Set<T>> cells = new HashMap<Long, Set<T>>();
+
+    /**
+     * The range of cells in which each indexed element is registered (in cell
+     * coordinates), or <code>null</code> if the element is oversized.
+     */
+    protected Map<T, Rectangle> ranges = new HashMap<T, Rectangle>();
+
+    /**
+     * The indexed elements which span too many cells to be registered in them.
+     */
+    protected Set<T> oversized = new HashSet<T>();
+
+    /**
+     * Compute the key of the cell with the given coordinates.
+     * 
+     * @param column the column of the cell
+     * @param row    the row of the cell
+     * @return the key of the cell
+     */
+    protected static long cellKey(int column, int row) {
+        return ((long) column << 32) | (row & 0xffffffffL);
+    }
+
+    /**
+     * Compute the range of cells (in cell coordinates) overlapped by the given
+     * area.
+     * 
+     * @param area the area
+     * @return the range of cells overlapped by the area
+     */
+    protected static Rectangle cellRange(Rectangle area) {
+        int minColumn = Math.floorDiv(area.x - MARGIN, CELL_SIZE);
+        int minRow = Math.floorDiv(area.y - MARGIN, CELL_SIZE);
+        int maxColumn = Math.floorDiv(area.x + Math.max(area.width, 0) + MARGIN, CELL_SIZE);
+        int maxRow = Math.floorDiv(area.y + Math.max(area.height, 0) + MARGIN, CELL_SIZE);
+        return new Rectangle(minColumn, minRow, maxColumn - minColumn + 1, maxRow - minRow + 1);
+    }
+
+    /**
+     * Add an element to the index. If the element is already indexed, its
+     * registration is updated.
+     * 
+     * @param element the element to add
+     */
+    public void add(T element) {
+        update(element);
+    }
+
+    /**
+     * Remove an element from the index. If the element is not indexed, the method
+     * does nothing.
+     * 
+     * @param element the element to remove
+     */
+    public void remove(T element) {
+        if (!ranges.containsKey(element)) {
+            return;
+        }
+        Rectangle range = ranges.remove(element);
+        if (range == null) {
+            oversized.remove(element);
+        } else {
+            unregister(element, range);
+        }
+    }
+
+    /**
+     * Update the registration of an element in the index after the bounds of the
+     * element changed. If the element is not indexed, it is added to the index.
+     * 
+     * @param element the element whose bounds changed
+     */
+    public void update(T element) {
+        Rectangle bounds = element.getBounds();
+        Rectangle range = bounds == null ? new Rectangle() : cellRange(bounds);
+        if ((long) range.width * range.height > MAX_CELLS) {
+            range = null;
+        }
+        boolean indexed = ranges.containsKey(element);
+        Rectangle old = ranges.get(element);
+        if (indexed && (old == null ? range == null : old.equals(range))) {
+            return;
+        }
+        if (indexed) {
+            remove(element);
+        }
+        ranges.put(element, range);
+        if (range == null) {
+            oversized.add(element);
+        } else {
+            for (int column = range.x; column < range.x + range.width; ++column) {
+                for (int row = range.y; row < range.y + range.height; ++row) {
+                    Long key = cellKey(column, row);
+                    Set<T> cell = cells.get(key);
+                    if (cell == null) {
+                        cell = new HashSet<T>();
+                        cells.put(key, cell);
+                    }
+                    cell.add(element);
+                }
+            }
+        }
+    }
+
+    /**
+     * Update the registration of the given elements in the index.
+     * 
+     * @param elements the elements whose bounds changed
+     * @see #update(DiagramElement)
+     */
+    public void updateAll(Collection<? extends T> elements) {
+        for (T element : elements) {
+            update(element);
+        }
+    }
+
+    /**
+     * Remove an element from the cells in the given range.
+     * 
+     * @param element the element to remove
+     * @param range   the range of cells in which the element is registered
+     */
+    protected void unregister(T element, Rectangle range) {
+        for (int column = range.x; column < range.x + range.width; ++column) {
+            for (int row = range.y; row < range.y + range.height; ++row) {
+                Long key = cellKey(column, row);
+                Set<T> cell = cells.get(key);
+                if (cell != null) {
+                    cell.remove(element);
+                    if (cell.isEmpty()) {
+                        cells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all elements from the index.
+     */
+    public void clear() {
+        cells.clear();
+        ranges.clear();
+        oversized.clear();
+    }
+
+    /**
+     * Retrieve the indexed elements which contain the given point.
+     * 
+     * @param p the point
+     * @return the indexed elements which contain the point
+     */
+    public Set<T> getElementsAt(Point p) {
+        Set<T> found = new HashSet<T>();
+        Set<T> cell = cells.get(cellKey(Math.floorDiv(p.x, CELL_SIZE), Math.floorDiv(p.y, CELL_SIZE)));
+        if (cell != null) {
+            for (T element : cell) {
+                if (element.contains(p)) {
+                    found.add(element);
+                }
+            }
+        }
+        for (T element : oversized) {
+            if (element.contains(p)) {
+                found.add(element);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Retrieve the indexed elements which intersect the given area.
+     * 
+     * @param area the area
+     * @return the indexed elements which intersect the area
+     */
+    public Set<T> getElementsIn(Rectangle area) {
+        Set<T> candidates = new HashSet<T>(oversized);
+        Rectangle range = cellRange(area);
+        if ((long) range.width * range.height > cells.size()) {
+            for (Set<T> cell : cells.values()) {
+                candidates.addAll(cell);
+            }
+        } else {
+            for (int column = range.x; column < range.x + range.width; ++column) {
+                for (int row = range.y; row < range.y + range.height; ++row) {
+                    Set<T> cell = cells.get(cellKey(column, row));
+                    if (cell != null) {
+                        candidates.addAll(cell);
+                    }
+                }
+            }
+        }
+        Set<T> found = new HashSet<T>();
+        for (T element : candidates) {
+            if (element.intersects(area)) {
+                found.add(element);
+            }
+        }
+        return found;
+    }
+}
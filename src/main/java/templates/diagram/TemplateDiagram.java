@@ -150,6 +150,18 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
      */
     protected Map<TemplateLink, Connector> link2Connector = new HashMap<TemplateLink, Connector>();
 
+    /**
+     * Spatial index of the {@link Entity}s in the template diagram, used for
+     * hit-testing.
+     */
+    protected SpatialIndex<Entity> entityIndex = new SpatialIndex<Entity>();
+
+    /**
+     * Spatial index of the {@link Connector}s in the template diagram, used for
+     * hit-testing.
+     */
+    protected SpatialIndex<Connector> connectorIndex = new SpatialIndex<Connector>();
+
     /**
      * Keep track of the {@link FSAModel} associated with each
      * {@link TemplateComponent} in the template diagram. This is necessary in order
@@ -201,6 +213,7 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
         clearSelection();
         component2Entity.clear();
         entities.clear();
+        entityIndex.clear();
         link2Connector.clear();
         for (FSAModel fsa : component2FSA.values()) {
             fsa.removeSubscriber(this);
@@ -208,6 +221,7 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
         component2FSA.clear();
         FSA2component.clear();
         connectors.clear();
+        connectorIndex.clear();
         boolean modelClean = !model.needsSave();
         for (TemplateComponent component : model.getComponents()) {
             EntityLayout layout = null;
@@ -219,6 +233,7 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
             }
             Entity newEntity = new Entity(component, layout);
             entities.add(newEntity);
+            entityIndex.add(newEntity);
             component2Entity.put(component, newEntity);
             if (component.hasModel()) {
                 component.getModel().setName(TemplateModel.FSA_NAME_PREFIX + layout.label);
@@ -250,6 +265,7 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
                 connectors.add(c);
             }
         }
+        connectorIndex.updateAll(connectors);
         new DiagramActions.ShiftDiagramInViewAction(new CompoundEdit(), this).execute();
     }
 
@@ -284,29 +300,34 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
         return layout;
     }
 
+    /**
+     * Update the template diagram after a change to the underlying
+     * {@link TemplateModel}. Only the diagram elements affected by the change are
+     * updated. If the change cannot be reflected incrementally, the whole layout is
+     * recovered from the {@link TemplateModel}.
+     * 
+     * @see #recoverLayout()
+     */
     public void templateModelStructureChanged(TemplateModelMessage message) {
-        if (message.getOperationType() == TemplateModelMessage.OP_MODIFY
-                && message.getElementType() == TemplateModelMessage.ELEMENT_COMPONENT) {
-            TemplateComponent component = model.getComponent(message.getElementId());
-            FSAModel fsa = component2FSA.get(component);
-            if (fsa != null) {
-                fsa.removeSubscriber(this);
-                FSA2component.remove(fsa);
+        boolean updated = false;
+        if (message.getElementType() == TemplateModelMessage.ELEMENT_COMPONENT) {
+            if (message.getOperationType() == TemplateModelMessage.OP_ADD) {
+                updated = componentAdded(message.getElementId());
+            } else if (message.getOperationType() == TemplateModelMessage.OP_REMOVE) {
+                updated = componentRemoved(message.getElementId());
+            } else if (message.getOperationType() == TemplateModelMessage.OP_MODIFY) {
+                updated = componentModified(message.getElementId());
             }
-            component2FSA.remove(component);
-            Entity entity = component2Entity.get(component);
-            if (entity != null) {
-                if (entity.getComponent().hasModel()) {
-                    component2FSA.put(entity.getComponent(), entity.getComponent().getModel());
-                    FSA2component.put(entity.getComponent().getModel(), entity.getComponent());
-                    entity.getComponent().getModel().addSubscriber(this);
-                }
-                entity.update();
-                fireDiagramChanged(new TemplateDiagramMessage(this, Arrays.asList(new DiagramElement[] { entity }),
-                        TemplateDiagramMessage.OP_MODIFY));
-                return;
+        } else if (message.getElementType() == TemplateModelMessage.ELEMENT_LINK) {
+            if (message.getOperationType() == TemplateModelMessage.OP_ADD) {
+                updated = linkAdded(message.getElementId());
+            } else if (message.getOperationType() == TemplateModelMessage.OP_REMOVE) {
+                updated = linkRemoved(message.getElementId());
             }
         }
+        if (updated) {
+            return;
+        }
         recoverLayout();
         updateEmptyConnectorList();
         Set<DiagramElement> elements = new HashSet<DiagramElement>();
@@ -315,6 +336,235 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
         fireDiagramChanged(new TemplateDiagramMessage(this, elements, TemplateDiagramMessage.OP_MODIFY));
     }
 
+    /**
+     * Create the {@link Entity} for a {@link TemplateComponent} which was added to
+     * the underlying {@link TemplateModel}.
+     * 
+     * @param componentId the ID of the added {@link TemplateComponent}
+     * @return <code>true</code> if the template diagram was updated;
+     *         <code>false</code> if the change cannot be reflected incrementally
+     */
+    protected boolean componentAdded(long componentId) {
+        TemplateComponent component = model.getComponent(componentId);
+        if (component == null) {
+            return false;
+        }
+        if (component2Entity.containsKey(component)) {
+            return true;
+        }
+        boolean modelClean = !model.needsSave();
+        EntityLayout layout = null;
+        if (component.hasAnnotation(EntityLayout.KEY)) {
+            layout = (EntityLayout) component.getAnnotation(EntityLayout.KEY);
+        }
+        if (layout == null) {
+            layout = createLayout(component);
+        }
+        Entity entity = new Entity(component, layout);
+        entities.add(entity);
+        entityIndex.add(entity);
+        component2Entity.put(component, entity);
+        if (component.hasModel()) {
+            component.getModel().setName(TemplateModel.FSA_NAME_PREFIX + layout.label);
+        }
+        subscribeToFSA(component);
+        if (modelClean) {
+            model.modelSaved();
+        }
+        if (entity.getBounds().x < 0 || entity.getBounds().y < 0) {
+            new DiagramActions.ShiftDiagramInViewAction(new CompoundEdit(), this).execute();
+        }
+        fireDiagramChanged(new TemplateDiagramMessage(this, Arrays.asList(new DiagramElement[] { entity }),
+                TemplateDiagramMessage.OP_ADD));
+        return true;
+    }
+
+    /**
+     * Remove the {@link Entity} of a {@link TemplateComponent} which was removed
+     * from the underlying {@link TemplateModel}, together with the adjacent
+     * {@link Connector}s.
+     * 
+     * @param componentId the ID of the removed {@link TemplateComponent}
+     * @return <code>true</code> if the template diagram was updated;
+     *         <code>false</code> if the change cannot be reflected incrementally
+     */
+    protected boolean componentRemoved(long componentId) {
+        Entity entity = null;
+        for (TemplateComponent component : component2Entity.keySet()) {
+            if (component.getId() == componentId) {
+                entity = component2Entity.get(component);
+                break;
+            }
+        }
+        if (entity == null) {
+            return true;
+        }
+        Collection<Connector> adjacent = getAdjacentConnectors(entity);
+        for (Connector c : adjacent) {
+            link2Connector.keySet().removeAll(c.getLinks());
+            connectors.remove(c);
+            connectorIndex.remove(c);
+        }
+        unsubscribeFromFSA(entity.getComponent());
+        component2Entity.remove(entity.getComponent());
+        entities.remove(entity);
+        entityIndex.remove(entity);
+        Collection<DiagramElement> removed = new HashSet<DiagramElement>(adjacent);
+        removed.add(entity);
+        deselect(removed);
+        updateEmptyConnectorList();
+        fireDiagramChanged(new TemplateDiagramMessage(this, removed, TemplateDiagramMessage.OP_REMOVE));
+        return true;
+    }
+
+    /**
+     * Update the {@link Entity} of a {@link TemplateComponent} which was modified
+     * in the underlying {@link TemplateModel} (e.g., when its FSA or type was
+     * changed).
+     * 
+     * @param componentId the ID of the modified {@link TemplateComponent}
+     * @return <code>true</code> if the template diagram was updated;
+     *         <code>false</code> if the change cannot be reflected incrementally
+     */
+    protected boolean componentModified(long componentId) {
+        TemplateComponent component = model.getComponent(componentId);
+        if (component == null) {
+            return false;
+        }
+        Entity entity = component2Entity.get(component);
+        if (entity == null) {
+            return componentAdded(componentId);
+        }
+        unsubscribeFromFSA(component);
+        subscribeToFSA(component);
+        entity.update();
+        entityIndex.update(entity);
+        fireDiagramChanged(new TemplateDiagramMessage(this, Arrays.asList(new DiagramElement[] { entity }),
+                TemplateDiagramMessage.OP_MODIFY));
+        return true;
+    }
+
+    /**
+     * Add a {@link TemplateLink} which was added to the underlying
+     * {@link TemplateModel} to the {@link Connector} between the linked
+     * {@link Entity}s. If there is no such {@link Connector}, it is created.
+     * 
+     * @param linkId the ID of the added {@link TemplateLink}
+     * @return <code>true</code> if the template diagram was updated;
+     *         <code>false</code> if the change cannot be reflected incrementally
+     */
+    protected boolean linkAdded(long linkId) {
+        TemplateLink link = model.getLink(linkId);
+        if (link == null) {
+            return false;
+        }
+        if (link2Connector.containsKey(link)) {
+            return true;
+        }
+        Entity left = component2Entity.get(link.getLeftComponent());
+        Entity right = component2Entity.get(link.getRightComponent());
+        if (left == null || right == null) {
+            return false;
+        }
+        int operation = TemplateDiagramMessage.OP_MODIFY;
+        Connector c = getConnector(left, right);
+        if (c == null) {
+            c = new Connector(left, right, Arrays.asList(new TemplateLink[] {}));
+            connectors.add(c);
+            operation = TemplateDiagramMessage.OP_ADD;
+        }
+        c.addLink(link);
+        connectorIndex.update(c);
+        link2Connector.put(link, c);
+        updateEmptyConnectorList();
+        fireDiagramChanged(new TemplateDiagramMessage(this, Arrays.asList(new DiagramElement[] { c }), operation));
+        return true;
+    }
+
+    /**
+     * Remove a {@link TemplateLink} which was removed from the underlying
+     * {@link TemplateModel} from its {@link Connector}. If the {@link Connector}
+     * is left without {@link TemplateLink}s, it is removed as well.
+     * 
+     * @param linkId the ID of the removed {@link TemplateLink}
+     * @return <code>true</code> if the template diagram was updated;
+     *         <code>false</code> if the change cannot be reflected incrementally
+     */
+    protected boolean linkRemoved(long linkId) {
+        TemplateLink link = null;
+        for (TemplateLink candidate : link2Connector.keySet()) {
+            if (candidate.getId() == linkId) {
+                link = candidate;
+                break;
+            }
+        }
+        if (link == null) {
+            return true;
+        }
+        Connector c = link2Connector.remove(link);
+        c.removeLink(link);
+        int operation = TemplateDiagramMessage.OP_MODIFY;
+        if (c.getLinks().isEmpty()) {
+            connectors.remove(c);
+            connectorIndex.remove(c);
+            deselect(Arrays.asList(new DiagramElement[] { c }));
+            operation = TemplateDiagramMessage.OP_REMOVE;
+        } else {
+            connectorIndex.update(c);
+        }
+        updateEmptyConnectorList();
+        fireDiagramChanged(new TemplateDiagramMessage(this, Arrays.asList(new DiagramElement[] { c }), operation));
+        return true;
+    }
+
+    /**
+     * Start listening to the {@link FSAModel} of the given
+     * {@link TemplateComponent}, if it has one.
+     * 
+     * @param component the {@link TemplateComponent}
+     */
+    protected void subscribeToFSA(TemplateComponent component) {
+        if (component.hasModel()) {
+            component2FSA.put(component, component.getModel());
+            FSA2component.put(component.getModel(), component);
+            component.getModel().addSubscriber(this);
+        }
+    }
+
+    /**
+     * Stop listening to the {@link FSAModel} which was associated with the given
+     * {@link TemplateComponent}. The {@link FSAModel} may have been replaced in
+     * the {@link TemplateComponent} already.
+     * 
+     * @param component the {@link TemplateComponent}
+     */
+    protected void unsubscribeFromFSA(TemplateComponent component) {
+        FSAModel fsa = component2FSA.remove(component);
+        if (fsa != null) {
+            fsa.removeSubscriber(this);
+            FSA2component.remove(fsa);
+        }
+    }
+
+    /**
+     * Remove the given {@link DiagramElement}s from the selection, if any of them
+     * are selected.
+     * 
+     * @param elements the {@link DiagramElement}s to deselect
+     */
+    protected void deselect(Collection<DiagramElement> elements) {
+        boolean changed = false;
+        for (DiagramElement element : elements) {
+            if (selection.remove(element)) {
+                element.setSelected(false);
+                changed = true;
+            }
+        }
+        if (changed) {
+            fireDiagramSelectionChanged(new TemplateDiagramMessage(this, selection, TemplateDiagramMessage.OP_MODIFY));
+        }
+    }
+
     /**
      * Retrieve the {@link TemplateModel} represented by this template diagram.
      * 
@@ -351,6 +601,7 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
         layout.label = Hub.string("TD_untitledEntityPrefix") + " " + component.getId();
         Entity entity = new Entity(component, layout);
         entities.add(entity);
+        entityIndex.add(entity);
         component2Entity.put(component, entity);
         FSAModel fsa = ModelManager.instance().createModel(FSAModel.class,
                 TemplateModel.FSA_NAME_PREFIX + layout.label);
@@ -378,6 +629,7 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
         try {
             model.addComponent(entity.getComponent());
             entities.add(entity);
+            entityIndex.add(entity);
             component2Entity.put(entity.getComponent(), entity);
             if (entity.getComponent().hasModel()) {
                 component2FSA.put(entity.getComponent(), entity.getComponent().getModel());
@@ -416,6 +668,7 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
         for (Connector c : adjacent) {
             link2Connector.keySet().removeAll(c.getLinks());
             connectors.remove(c);
+            connectorIndex.remove(c);
             for (TemplateLink link : c.getLinks()) {
                 model.removeLink(link.getId());
             }
@@ -427,6 +680,7 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
         }
         component2Entity.remove(entity.getComponent());
         entities.remove(entity);
+        entityIndex.remove(entity);
         model.removeComponent(entity.getComponent().getId());
         updateEmptyConnectorList();
         model.addSubscriber((TemplateModelSubscriber) this);
@@ -443,6 +697,7 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
      */
     public void labelEntity(Entity entity, String label) {
         entity.setLabel(label);
+        entityIndex.update(entity);
         if (entity.getComponent().getModel() != null) {
             entity.getComponent().getModel().setName(TemplateModel.FSA_NAME_PREFIX + label);
         }
@@ -459,6 +714,7 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
      */
     public void setEntityIcon(Entity entity, EntityIcon icon) {
         entity.setIcon(icon);
+        entityIndex.update(entity);
         model.metadataChanged();
         fireDiagramChanged(new TemplateDiagramMessage(this, Arrays.asList(new DiagramElement[] { entity }),
                 TemplateDiagramMessage.OP_MODIFY));
@@ -475,10 +731,8 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
      *         if no {@link Entity} contains the point
      */
     public Entity getEntityAt(Point location) {
-        for (Entity entity : entities) {
-            if (entity.contains(location)) {
-                return entity;
-            }
+        for (Entity entity : entityIndex.getElementsAt(location)) {
+            return entity;
         }
         return null;
     }
@@ -492,12 +746,18 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
      *         the given area; <code>false</code> otherwise
      */
     public boolean hasEntitiesAt(Rectangle area) {
-        for (Entity entity : entities) {
-            if (entity.intersects(area)) {
-                return true;
-            }
-        }
-        return false;
+        return !entityIndex.getElementsIn(area).isEmpty();
+    }
+
+    /**
+     * Retrieve the {@link Entity}s in the given area. An {@link Entity} is
+     * considered to be in the area if a part of it intersects the area.
+     * 
+     * @param area the area to examine for {@link Entity}s
+     * @return the {@link Entity}s a part of which intersects the given area
+     */
+    public Collection<Entity> getEntitiesIn(Rectangle area) {
+        return entityIndex.getElementsIn(area);
     }
 
     /**
@@ -613,6 +873,7 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
         }
         Connector c = new Connector(left, right, new HashSet<TemplateLink>());
         connectors.add(c);
+        connectorIndex.add(c);
         updateEmptyConnectorList();
         fireDiagramChanged(new TemplateDiagramMessage(this, Arrays.asList(new DiagramElement[] { c }),
                 TemplateDiagramMessage.OP_ADD));
@@ -644,6 +905,7 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
                 model.addLink(link);
             }
             connectors.add(c);
+            connectorIndex.add(c);
             for (TemplateLink link : c.getLinks()) {
                 link2Connector.put(link, c);
             }
@@ -674,6 +936,7 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
         }
         link2Connector.keySet().removeAll(c.getLinks());
         connectors.remove(c);
+        connectorIndex.remove(c);
         updateEmptyConnectorList();
         model.addSubscriber((TemplateModelSubscriber) this);
         fireDiagramChanged(new TemplateDiagramMessage(this, Arrays.asList(new DiagramElement[] { c }),
@@ -709,6 +972,7 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
             link.setLeftEventName(leftEvent);
             link.setRightEventName(rightEvent);
             c.addLink(link);
+            connectorIndex.update(c);
             link2Connector.put(link, c);
             updateEmptyConnectorList();
         } finally {
@@ -739,6 +1003,7 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
         try {
             model.addLink(link);
             c.addLink(link);
+            connectorIndex.update(c);
             link2Connector.put(link, c);
             updateEmptyConnectorList();
         } finally {
@@ -766,6 +1031,7 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
         try {
             link2Connector.remove(link);
             c.removeLink(link);
+            connectorIndex.update(c);
             model.removeLink(link.getId());
             updateEmptyConnectorList();
         } finally {
@@ -795,14 +1061,23 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
      *         <code>null</code> if no {@link Connector} contains the point
      */
     public Connector getConnectorAt(Point location) {
-        for (Connector c : connectors) {
-            if (c.contains(location)) {
-                return c;
-            }
+        for (Connector c : connectorIndex.getElementsAt(location)) {
+            return c;
         }
         return null;
     }
 
+    /**
+     * Retrieve the {@link Connector}s in the given area. A {@link Connector} is
+     * considered to be in the area if a part of it intersects the area.
+     * 
+     * @param area the area to examine for {@link Connector}s
+     * @return the {@link Connector}s a part of which intersects the given area
+     */
+    public Collection<Connector> getConnectorsIn(Rectangle area) {
+        return connectorIndex.getElementsIn(area);
+    }
+
     /**
      * Retrieve the bounds of the template diagram (the smallest rectangle which
      * contains all elements in the template diagram). If the template diagram is
@@ -849,6 +1124,8 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
         for (Connector c : getConnectors()) {
             c.translate(delta);
         }
+        entityIndex.updateAll(entities);
+        connectorIndex.updateAll(connectors);
         model.metadataChanged();
         Set<DiagramElement> elements = new HashSet<DiagramElement>();
         elements.addAll(entities);
@@ -874,6 +1151,7 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
                 }
             }
         }
+        updateIndex(elements);
         model.metadataChanged();
         fireDiagramChanged(new TemplateDiagramMessage(this, elements, TemplateDiagramMessage.OP_MODIFY));
     }
@@ -893,11 +1171,30 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
      * @param delta    the displacement of the translation
      */
     public void commitTranslation(Collection<DiagramElement> elements, Point delta) {
+        updateIndex(elements);
         new DiagramActions.MovedSelectionAction(this, elements, delta).execute();
         model.metadataChanged();
         fireDiagramChanged(new TemplateDiagramMessage(this, elements, TemplateDiagramMessage.OP_MODIFY));
     }
 
+    /**
+     * Update the spatial indices of the template diagram after the given
+     * {@link DiagramElement}s were translated. The {@link Connector}s adjacent to
+     * translated {@link Entity}s are updated as well.
+     * 
+     * @param elements the translated {@link DiagramElement}s
+     */
+    protected void updateIndex(Collection<DiagramElement> elements) {
+        for (DiagramElement element : elements) {
+            if (element instanceof Entity) {
+                entityIndex.update((Entity) element);
+                connectorIndex.updateAll(getAdjacentConnectors((Entity) element));
+            } else if (element instanceof Connector) {
+                connectorIndex.update((Connector) element);
+            }
+        }
+    }
+
     /**
      * Render the template diagram in the given graphical context, disregarding the
      * inconsistency setting. I.e., inconsistent diagram elements should be rendered
@@ -1070,6 +1367,7 @@ public class TemplateDiagram implements TemplateModelSubscriber, FSASubscriber {
             Entity entity = getEntityFor(component);
             if (entity != null) {
                 entity.update();
+                entityIndex.update(entity);
             }
         }
     }
@@ -41,6 +41,7 @@ import templates.diagram.Connector;
 import templates.diagram.DiagramElement;
 import templates.diagram.Entity;
 import templates.diagram.TemplateDiagram;
+import templates.library.SharedFSA;
 import templates.model.TemplateComponent;
 import templates.model.TemplateLink;
 import templates.model.TemplateModel;
@@ -1187,6 +1188,7 @@ public class DiagramUndoableEdits {
             if (model == null) {
                 throw new CannotRedoException();
             }
+            SharedFSA.materialize(model);
             SupervisoryEvent event = model.getEvent(eventID);
             if (event == null) {
                 throw new CannotRedoException();
@@ -1200,6 +1202,7 @@ public class DiagramUndoableEdits {
             if (model == null) {
                 throw new CannotUndoException();
             }
+            SharedFSA.materialize(model);
             SupervisoryEvent event = model.getEvent(eventID);
             if (event == null) {
                 throw new CannotUndoException();
@@ -0,0 +1,658 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package templates.io;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+import ides.api.core.Hub;
+import ides.api.model.fsa.FSAModel;
+import ides.api.model.fsa.FSAState;
+import ides.api.model.fsa.FSATransition;
+import ides.api.model.supeventset.SupervisoryEvent;
+import ides.api.plugin.io.FormatTranslationException;
+import ides.api.plugin.io.ImportExportPlugin;
+import ides.api.plugin.model.ModelManager;
+import templates.diagram.EmptyConnector;
+import templates.diagram.EmptyConnectorSet;
+import templates.diagram.Entity;
+import templates.diagram.EntityLayout;
+import templates.model.TemplateComponent;
+import templates.model.TemplateLink;
+import templates.model.TemplateModel;
+
+/**
+ * Exporter and importer of {@link TemplateModel}s to and from a compact binary
+ * format. A binary file contains the template design, the layout information
+ * and the models of all {@link TemplateComponent}s, together with the
+ * meta-data of the models (e.g., their graphical layout).
+ * <p>
+ * The file starts with the {@link #MAGIC} bytes and the {@link #VERSION} of the
+ * format, followed by a table of all strings in the file (names, labels and
+ * event symbols), after which the strings are referred to by their index in the
+ * table. All integers are stored as variable-length quantities, with signed
+ * integers in zig-zag encoding. The transitions of a model are stored in three
+ * columns: the sources, the targets and the events of all transitions, as
+ * indices in the lists of the states and events of the model, followed by the
+ * IDs of the transitions. The meta-data sections of a model are stored as the
+ * text written and read by the IDES plugins registered for them (see
+ * {@link FSAData}), so that the model is restored without loss.
+ * <p>
+ * Binary files are read through a memory mapping of the file (see
+ * {@link #load(File)}), and the template design is built directly from the
+ * mapping. An imported binary file becomes a packed template design (see
+ * {@link TemplateArchiveIO}): the file of the template design refers to a
+ * binary file, from which the template design is loaded and to which it is
+ * saved, so that no separate files of the models of the components are
+ * written.
+ * 
+ * @author Lenko Grigorov
+ */
+public class BinaryDesignIO implements ImportExportPlugin {
+    /**
+     * The description of the exporter which will appear in the dialog box where the
+     * user selects the export filter.
+     */
+    protected static final String description = Hub.string("TD_binaryName");
+
+    /**
+     * The file extension of the binary format.
+     */
+    protected static final String ext = "tdb";
+
+    /**
+     * The bytes at the beginning of every binary file.
+     */
+    protected static final byte[] MAGIC = new byte[] { 'T', 'D', 'B' };
+
+    /**
+     * The version of the binary format supported by this class.
+     */
+    protected static final int VERSION = 2;
+
+    /**
+     * The character set of the strings in the string table.
+     */
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Flag of a {@link TemplateComponent} which has a model.
+     */
+    protected static final int FLAG_MODEL = 1;
+
+    /**
+     * Flag of a {@link TemplateComponent} which has layout information.
+     */
+    protected static final int FLAG_LAYOUT = 2;
+
+    /**
+     * Flag of a {@link TemplateComponent} whose icon is flagged.
+     */
+    protected static final int FLAG_FLAGGED = 4;
+
+    /**
+     * Flag of a {@link TemplateComponent} whose icon has a color.
+     */
+    protected static final int FLAG_COLOR = 8;
+
+    /**
+     * Flag of a controllable event, or of an initial state.
+     */
+    protected static final int FLAG_FIRST = 1;
+
+    /**
+     * Flag of an observable event, or of a marked state.
+     */
+    protected static final int FLAG_SECOND = 2;
+
+    /**
+     * Writer of the binary format. The body of the file is accumulated in
+     * memory while the string table is being built.
+     */
+    public static class Writer {
+        /**
+         * The indices of the strings in the string table.
+         */
+        protected Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+
+        /**
+         * The body of the file.
+         */
+        protected ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        /**
+         * Write an unsigned integer to the body.
+         * 
+         * @param value the integer
+         */
+        protected void writeVarLong(long value) {
+            writeVarLong(body, value);
+        }
+
+        /**
+         * Write an unsigned integer to a stream.
+         * 
+         * @param out   the stream
+         * @param value the integer
+         */
+        protected static void writeVarLong(OutputStream out, long value) {
+            try {
+                while ((value & ~0x7FL) != 0) {
+                    out.write((int) ((value & 0x7F) | 0x80));
+                    value >>>= 7;
+                }
+                out.write((int) value);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Write a signed integer to the body.
+         * 
+         * @param value the integer
+         */
+        protected void writeSigned(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * Write a reference to a string to the body. The string is added to the
+         * string table if necessary.
+         * 
+         * @param s the string, or <code>null</code>
+         */
+        protected void writeString(String s) {
+            if (s == null) {
+                writeVarLong(0);
+                return;
+            }
+            Integer index = strings.get(s);
+            if (index == null) {
+                index = strings.size() + 1;
+                strings.put(s, index);
+            }
+            writeVarLong(index);
+        }
+
+        /**
+         * Write a model of a {@link TemplateComponent}, with its meta-data, to the
+         * body.
+         * 
+         * @param fsa the model
+         * @throws IOException if the meta-data of the model cannot be written
+         */
+        protected void writeFSA(FSAModel fsa) throws IOException {
+            writeString(fsa.getName());
+            Map<Long, Integer> eventIndices = new HashMap<Long, Integer>();
+            writeVarLong(fsa.getEventCount());
+            for (ListIterator<SupervisoryEvent> i = fsa.getEventIterator(); i.hasNext();) {
+                SupervisoryEvent event = i.next();
+                eventIndices.put(event.getId(), eventIndices.size());
+                writeVarLong(event.getId());
+                writeString(event.getSymbol());
+                body.write((event.isControllable() ? FLAG_FIRST : 0) | (event.isObservable() ? FLAG_SECOND : 0));
+            }
+            Map<Long, Integer> stateIndices = new HashMap<Long, Integer>();
+            writeVarLong(fsa.getStateCount());
+            for (ListIterator<FSAState> i = fsa.getStateIterator(); i.hasNext();) {
+                FSAState state = i.next();
+                stateIndices.put(state.getId(), stateIndices.size());
+                writeVarLong(state.getId());
+                writeString(state.getName());
+                body.write((state.isInitial() ? FLAG_FIRST : 0) | (state.isMarked() ? FLAG_SECOND : 0));
+            }
+            List<FSATransition> transitions = new ArrayList<FSATransition>();
+            for (ListIterator<FSATransition> i = fsa.getTransitionIterator(); i.hasNext();) {
+                transitions.add(i.next());
+            }
+            writeVarLong(transitions.size());
+            for (FSATransition t : transitions) {
+                writeVarLong(stateIndices.get(t.getSource().getId()));
+            }
+            for (FSATransition t : transitions) {
+                writeVarLong(stateIndices.get(t.getTarget().getId()));
+            }
+            for (FSATransition t : transitions) {
+                writeVarLong(t.getEvent() == null ? 0 : eventIndices.get(t.getEvent().getId()) + 1);
+            }
+            for (FSATransition t : transitions) {
+                writeVarLong(t.getId());
+            }
+            List<FSAData.Meta> metas = FSAData.writeMetas(fsa);
+            writeVarLong(metas.size());
+            for (FSAData.Meta meta : metas) {
+                writeString(meta.tag);
+                writeString(meta.version);
+                writeString(meta.contents);
+            }
+        }
+
+        /**
+         * Write a template design to the body.
+         * 
+         * @param model the template design
+         * @throws IOException if the meta-data of a model cannot be written
+         */
+        protected void writeDesign(TemplateModel model) throws IOException {
+            writeVarLong(model.getComponentCount());
+            for (TemplateComponent component : model.getComponents()) {
+                EntityLayout layout = (EntityLayout) component.getAnnotation(EntityLayout.KEY);
+                int flags = 0;
+                if (component.hasModel()) {
+                    flags |= FLAG_MODEL;
+                    if (component.getModel().hasAnnotation(Entity.FLAG_MARK)) {
+                        flags |= FLAG_FLAGGED;
+                    }
+                }
+                if (layout != null) {
+                    flags |= FLAG_LAYOUT;
+                    if (layout.color != null) {
+                        flags |= FLAG_COLOR;
+                    }
+                }
+                writeVarLong(component.getId());
+                writeVarLong(component.getType());
+                body.write(flags);
+                if (layout != null) {
+                    writeString(layout.label);
+                    writeSigned(layout.location.x);
+                    writeSigned(layout.location.y);
+                    writeString(layout.tag);
+                    if (layout.color != null) {
+                        writeVarLong(layout.color.getRGB() & 0xFFFFFF);
+                    }
+                }
+                if (component.hasModel()) {
+                    writeFSA(component.getModel());
+                }
+            }
+            writeVarLong(model.getLinks().size());
+            for (TemplateLink link : model.getLinks()) {
+                writeVarLong(link.getId());
+                writeVarLong(link.getLeftComponent().getId());
+                writeVarLong(link.getRightComponent().getId());
+                writeString(link.getLeftEventName());
+                writeString(link.getRightEventName());
+            }
+            EmptyConnectorSet emptyConnectors = (EmptyConnectorSet) model.getAnnotation(EmptyConnectorSet.KEY);
+            if (emptyConnectors == null) {
+                emptyConnectors = new EmptyConnectorSet();
+            }
+            writeVarLong(emptyConnectors.size());
+            for (EmptyConnector c : emptyConnectors) {
+                writeVarLong(c.leftComponent);
+                writeVarLong(c.rightComponent);
+            }
+        }
+
+        /**
+         * Write the header, the string table and the body to a stream.
+         * 
+         * @param out the stream
+         * @throws IOException if there is a problem writing to the stream
+         */
+        protected void writeTo(OutputStream out) throws IOException {
+            out.write(MAGIC);
+            writeVarLong(out, VERSION);
+            writeVarLong(out, strings.size());
+            for (String s : strings.keySet()) {
+                byte[] bytes = s.getBytes(UTF8);
+                writeVarLong(out, bytes.length);
+                out.write(bytes);
+            }
+            body.writeTo(out);
+        }
+    }
+
+    /**
+     * Reader of the binary format.
+     */
+    public static class Reader {
+        /**
+         * The contents of the file.
+         */
+        protected ByteBuffer buffer;
+
+        /**
+         * The string table of the file.
+         */
+        protected String[] strings;
+
+        /**
+         * The version of the format of the file.
+         */
+        protected int version;
+
+        /**
+         * Construct a reader of the given contents of a binary file. The header
+         * and the string table are read right away.
+         * 
+         * @param buffer the contents of the file
+         * @throws IOException if the contents are not in the binary format, or
+         *                     their version is not supported; all earlier
+         *                     versions are supported
+         */
+        protected Reader(ByteBuffer buffer) throws IOException {
+            this.buffer = buffer;
+            for (int i = 0; i < MAGIC.length; ++i) {
+                if (buffer.get() != MAGIC[i]) {
+                    throw new IOException(Hub.string("TD_ioCantParseFile"));
+                }
+            }
+            version = readInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException(Hub.string("TD_ioUnsupportedVer"));
+            }
+            strings = new String[readInt()];
+            for (int i = 0; i < strings.length; ++i) {
+                byte[] bytes = new byte[readInt()];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, UTF8);
+            }
+        }
+
+        /**
+         * Read an unsigned integer.
+         * 
+         * @return the integer
+         * @throws IOException if the integer is malformed
+         */
+        protected long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException(Hub.string("TD_ioCantParseFile"));
+        }
+
+        /**
+         * Read an unsigned integer which has to fit into an <code>int</code>.
+         * 
+         * @return the integer
+         * @throws IOException if the integer is malformed or too large
+         */
+        protected int readInt() throws IOException {
+            long value = readVarLong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IOException(Hub.string("TD_ioCantParseFile"));
+            }
+            return (int) value;
+        }
+
+        /**
+         * Read a signed integer.
+         * 
+         * @return the integer
+         * @throws IOException if the integer is malformed
+         */
+        protected int readSigned() throws IOException {
+            long value = readVarLong();
+            return (int) ((value >>> 1) ^ -(value & 1));
+        }
+
+        /**
+         * Read a reference to a string.
+         * 
+         * @return the string, or <code>null</code>
+         * @throws IOException if the reference is not in the string table
+         */
+        protected String readString() throws IOException {
+            int index = readInt();
+            if (index == 0) {
+                return null;
+            }
+            if (index > strings.length) {
+                throw new IOException(Hub.string("TD_ioCantParseFile"));
+            }
+            return strings[index - 1];
+        }
+
+        /**
+         * Read the model of a {@link TemplateComponent}, with its meta-data. The
+         * files of the first version of the format contain neither the IDs of the
+         * transitions nor the meta-data.
+         * 
+         * @return the model
+         * @throws IOException if the model is malformed
+         */
+        protected FSAModel readFSA() throws IOException {
+            FSAData data = new FSAData(null);
+            data.name = readString();
+            int eventCount = readInt();
+            for (int i = 0; i < eventCount; ++i) {
+                FSAData.Event event = new FSAData.Event();
+                event.id = readVarLong();
+                event.name = readString();
+                int flags = buffer.get();
+                event.controllable = (flags & FLAG_FIRST) != 0;
+                event.observable = (flags & FLAG_SECOND) != 0;
+                data.events.add(event);
+            }
+            int stateCount = readInt();
+            for (int i = 0; i < stateCount; ++i) {
+                FSAData.State state = new FSAData.State();
+                state.id = readVarLong();
+                state.name = readString();
+                int flags = buffer.get();
+                state.initial = (flags & FLAG_FIRST) != 0;
+                state.marked = (flags & FLAG_SECOND) != 0;
+                data.states.add(state);
+            }
+            int[][] columns = new int[3][readInt()];
+            for (int c = 0; c < columns.length; ++c) {
+                int bound = c < 2 ? stateCount : eventCount + 1;
+                for (int i = 0; i < columns[c].length; ++i) {
+                    columns[c][i] = readInt();
+                    if (columns[c][i] >= bound) {
+                        throw new IOException(Hub.string("TD_ioCantParseFile"));
+                    }
+                }
+            }
+            for (int i = 0; i < columns[0].length; ++i) {
+                FSAData.Transition t = new FSAData.Transition();
+                t.id = version > 1 ? readVarLong() : i + 1;
+                t.source = data.states.get(columns[0][i]).id;
+                t.target = data.states.get(columns[1][i]).id;
+                if (columns[2][i] > 0) {
+                    t.event = data.events.get(columns[2][i] - 1).id;
+                }
+                data.transitions.add(t);
+            }
+            int metaCount = version > 1 ? readInt() : 0;
+            for (int i = 0; i < metaCount; ++i) {
+                FSAData.Meta meta = new FSAData.Meta();
+                meta.tag = readString();
+                meta.version = readString();
+                meta.contents = readString();
+                data.metas.add(meta);
+            }
+            return data.build();
+        }
+
+        /**
+         * Read a template design.
+         * 
+         * @return the template design
+         * @throws IOException if the template design is malformed
+         */
+        protected TemplateModel readDesign() throws IOException {
+            TemplateModel model = ModelManager.instance().createModel(TemplateModel.class);
+            int componentCount = readInt();
+            for (int i = 0; i < componentCount; ++i) {
+                TemplateComponent component = model.assembleComponent();
+                component.setId(readVarLong());
+                component.setType(readInt());
+                int flags = buffer.get();
+                if ((flags & FLAG_LAYOUT) != 0) {
+                    EntityLayout layout = new EntityLayout();
+                    layout.label = readString();
+                    layout.location = new Point(readSigned(), readSigned());
+                    layout.tag = readString();
+                    layout.color = (flags & FLAG_COLOR) != 0 ? new Color(readInt()) : null;
+                    component.setAnnotation(EntityLayout.KEY, layout);
+                }
+                if ((flags & FLAG_MODEL) != 0) {
+                    FSAModel fsa = readFSA();
+                    if ((flags & FLAG_FLAGGED) != 0) {
+                        fsa.setAnnotation(Entity.FLAG_MARK, new Object());
+                    }
+                    fsa.setParentModel(model);
+                    component.setModel(fsa);
+                }
+                model.addComponent(component);
+            }
+            int linkCount = readInt();
+            for (int i = 0; i < linkCount; ++i) {
+                long id = readVarLong();
+                TemplateLink link = model.assembleLink(readVarLong(), readVarLong());
+                link.setId(id);
+                link.setLeftEventName(readString());
+                link.setRightEventName(readString());
+                model.addLink(link);
+            }
+            int connectorCount = readInt();
+            if (connectorCount > 0) {
+                EmptyConnectorSet emptyConnectors = new EmptyConnectorSet();
+                for (int i = 0; i < connectorCount; ++i) {
+                    emptyConnectors.add(new EmptyConnector(readVarLong(), readVarLong()));
+                }
+                model.setAnnotation(EmptyConnectorSet.KEY, emptyConnectors);
+            }
+            return model;
+        }
+    }
+
+    /**
+     * Save a template design, together with the models of its components, to a
+     * binary file.
+     * 
+     * @param model the template design
+     * @param file  the binary file
+     * @throws IOException if there is a problem writing to the file
+     */
+    public static void save(TemplateModel model, File file) throws IOException {
+        Writer writer = new Writer();
+        writer.writeDesign(model);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            writer.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Load a template design, together with the models of its components, from
+     * a binary file. The file is mapped into memory and read from the mapping.
+     * The template design is marked as packed in the binary file (see
+     * {@link TemplateFileIO}).
+     * 
+     * @param file the binary file
+     * @return the template design
+     * @throws IOException if the file cannot be read or is not in the binary
+     *                     format
+     */
+    public static TemplateModel load(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            TemplateModel model = new Reader(buffer).readDesign();
+            String name = file.getName();
+            if (name.endsWith("." + ext)) {
+                name = name.substring(0, name.length() - ext.length() - 1);
+            }
+            model.setName(name);
+            model.setAnnotation(TemplateFileIO.ARCHIVE, file.getAbsoluteFile());
+            return model;
+        } catch (BufferUnderflowException e) {
+            throw new IOException(Hub.string("TD_ioCantParseFile"));
+        } catch (RuntimeException e) {
+            // e.g., a link to a missing component rejected by the template design
+            throw new IOException(Hub.string("TD_ioCantParseFile") + " (" + e.getMessage() + ")");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Export the template design in the given file to the binary format.
+     */
+    public void exportFile(File src, File dst) throws FormatTranslationException {
+        try {
+            TemplateModel model = (TemplateModel) Hub.getIOSubsystem().load(src);
+            save(model, dst);
+        } catch (IOException e) {
+            dst.delete();
+            throw new FormatTranslationException(e);
+        }
+    }
+
+    /**
+     * Import a template design from the binary format, as a packed template
+     * design. The file of the template design is written to the given file, and
+     * the binary file of the template design is written to the same directory.
+     */
+    public void importFile(File src, File dst) throws FormatTranslationException {
+        try {
+            TemplateModel model = load(src);
+            if (!Hub.getIOSubsystem().save(model, dst)) {
+                throw new FormatTranslationException(Hub.string("TD_ioCantSaveFSA") + " " + dst.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            throw new FormatTranslationException(e);
+        }
+    }
+
+    public String getFileDescription() {
+        return description;
+    }
+
+    public String getFileExtension() {
+        return ext;
+    }
+
+}
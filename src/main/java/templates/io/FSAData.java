@@ -0,0 +1,650 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package templates.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import ides.api.core.Hub;
+import ides.api.model.fsa.FSAModel;
+import ides.api.model.fsa.FSAState;
+import ides.api.model.fsa.FSATransition;
+import ides.api.model.supeventset.SupervisoryEvent;
+import ides.api.plugin.io.FileIOPlugin;
+import ides.api.plugin.io.FileLoadException;
+import ides.api.plugin.io.FileSaveException;
+import ides.api.plugin.io.IOPluginManager;
+import ides.api.plugin.model.ModelManager;
+
+/**
+ * The contents of the file of an {@link FSAModel}, as plain data. The file is
+ * parsed without creating any IDES models, so that the files of many FSAs can
+ * be parsed concurrently on any threads; the {@link FSAModel} is then built
+ * from the data with {@link #toModel()} on the thread which uses the IDES
+ * models.
+ * <p>
+ * The states, events and transitions of the FSA are read directly. The
+ * meta-data sections of the file (e.g., the graphical layout of the FSA) are
+ * kept as text and passed to the IDES plugins registered to load them when the
+ * {@link FSAModel} is built. If the data of the FSA is in a version of the
+ * format other than the one written by IDES, {@link #toModel()} loads the FSA
+ * with IDES instead.
+ * <p>
+ * Conversely, {@link #write(FSAModel, OutputStream, String)} writes an
+ * {@link FSAModel} in the format of the files written by IDES to any stream,
+ * e.g., to an entry of an archive (see {@link TemplateArchiveIO}).
+ * 
+ * @author Lenko Grigorov
+ */
+public class FSAData {
+    /**
+     * The type of the models read by this class.
+     */
+    protected static final String TYPE = "FSA";
+
+    /**
+     * The factory for the writers of the contents of meta-data sections.
+     */
+    protected static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    /**
+     * The character set of the contents of meta-data sections.
+     */
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * A state of an FSA.
+     */
+    public static class State {
+        /**
+         * The ID of the state.
+         */
+        public long id;
+
+        /**
+         * The name of the state, or <code>null</code> if the file does not give
+         * a name.
+         */
+        public String name = null;
+
+        /**
+         * Whether the state is initial.
+         */
+        public boolean initial = false;
+
+        /**
+         * Whether the state is marked.
+         */
+        public boolean marked = false;
+    }
+
+    /**
+     * An event of an FSA.
+     */
+    public static class Event {
+        /**
+         * The ID of the event.
+         */
+        public long id;
+
+        /**
+         * The name of the event.
+         */
+        public String name = "";
+
+        /**
+         * Whether the event is controllable.
+         */
+        public boolean controllable = false;
+
+        /**
+         * Whether the event is observable.
+         */
+        public boolean observable = false;
+    }
+
+    /**
+     * A transition of an FSA.
+     */
+    public static class Transition {
+        /**
+         * The ID of the transition.
+         */
+        public long id;
+
+        /**
+         * The ID of the source state of the transition.
+         */
+        public long source;
+
+        /**
+         * The ID of the target state of the transition.
+         */
+        public long target;
+
+        /**
+         * The ID of the event of the transition, or <code>null</code> if the
+         * transition is an epsilon transition.
+         */
+        public Long event = null;
+    }
+
+    /**
+     * A meta-data section of the file of an FSA.
+     */
+    public static class Meta {
+        /**
+         * The tag of the section.
+         */
+        public String tag;
+
+        /**
+         * The version of the format of the section.
+         */
+        public String version;
+
+        /**
+         * The contents of the section, in XML.
+         */
+        public String contents;
+    }
+
+    /**
+     * The file of the FSA, or <code>null</code> if the FSA was not read from a
+     * file.
+     */
+    public File file;
+
+    /**
+     * The version of the format of the data of the FSA.
+     */
+    public String version = null;
+
+    /**
+     * The name of the FSA, or <code>null</code> if the file does not give a
+     * name.
+     */
+    public String name = null;
+
+    /**
+     * The states of the FSA.
+     */
+    public List<State> states = new ArrayList<State>();
+
+    /**
+     * The events of the FSA.
+     */
+    public List<Event> events = new ArrayList<Event>();
+
+    /**
+     * The transitions of the FSA.
+     */
+    public List<Transition> transitions = new ArrayList<Transition>();
+
+    /**
+     * The meta-data sections of the file of the FSA.
+     */
+    public List<Meta> metas = new ArrayList<Meta>();
+
+    /**
+     * Construct new empty data for the FSA in the given file.
+     * 
+     * @param file the file of the FSA, or <code>null</code> if the FSA is not
+     *             read from a file
+     */
+    protected FSAData(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Read the contents of the file of an FSA. No IDES models are created, so the
+     * file can be read on any thread.
+     * 
+     * @param file the file of the FSA
+     * @return the contents of the file, or <code>null</code> if the file does
+     *         not contain an FSA in a format which can be read by this class
+     * @throws IOException if the file cannot be read or is not well-formed
+     */
+    public static FSAData read(File file) throws IOException {
+        return read(file, false);
+    }
+
+    /**
+     * Read the header of the file of an FSA, i.e., the name of the FSA and its
+     * events. The file is read only up to the end of the events, which precede
+     * the transitions and the meta-data, so errors in the rest of the file are
+     * reported only when the whole file is read. No IDES models are created, so
+     * the header can be read on any thread.
+     * 
+     * @param file the file of the FSA
+     * @return the header of the FSA, without states, transitions and meta-data,
+     *         or <code>null</code> if the file does not contain an FSA in a
+     *         format which can be read by this class
+     * @throws IOException if the file cannot be read or its header is not
+     *                     well-formed
+     */
+    public static FSAData readHeader(File file) throws IOException {
+        return read(file, true);
+    }
+
+    /**
+     * Read the contents of the file of an FSA.
+     * 
+     * @param file       the file of the FSA
+     * @param headerOnly whether only the name and the events of the FSA should
+     *                   be read
+     * @return the contents of the file, or <code>null</code> if the file does
+     *         not contain an FSA in a format which can be read by this class
+     * @throws IOException if the file cannot be read or is not well-formed
+     */
+    protected static FSAData read(File file, boolean headerOnly) throws IOException {
+        InputStream stream = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return read(stream, file, headerOnly);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Read an FSA from a stream, e.g., from an entry of an archive (see
+     * {@link TemplateArchiveIO}). The stream is not closed. No IDES models are
+     * created, so the stream can be read on any thread.
+     * 
+     * @param stream the stream with the contents of the file of the FSA
+     * @return the contents of the file, or <code>null</code> if the stream does
+     *         not contain an FSA in a format which can be read by this class
+     * @throws IOException if the stream cannot be read or is not well-formed
+     */
+    public static FSAData read(InputStream stream) throws IOException {
+        return read(stream, null, false);
+    }
+
+    /**
+     * Read the contents of the file of an FSA from a stream. The stream is not
+     * closed.
+     * 
+     * @param stream     the stream with the contents of the file
+     * @param file       the file of the FSA, or <code>null</code> if the FSA is
+     *                   not read from a file
+     * @param headerOnly whether only the name and the events of the FSA should
+     *                   be read
+     * @return the contents of the file, or <code>null</code> if the file does
+     *         not contain an FSA in a format which can be read by this class
+     * @throws IOException if the stream cannot be read or is not well-formed
+     */
+    protected static FSAData read(InputStream stream, File file, boolean headerOnly) throws IOException {
+        XMLStreamReader reader = null;
+        try {
+            synchronized (XMLSectionReader.FACTORY) {
+                reader = XMLSectionReader.FACTORY.createXMLStreamReader(stream);
+            }
+            if (reader.nextTag() != XMLStreamConstants.START_ELEMENT || !"model".equals(reader.getLocalName())
+                    || !TYPE.equals(reader.getAttributeValue(null, "type"))) {
+                return null;
+            }
+            FSAData data = new FSAData(file);
+            data.version = reader.getAttributeValue(null, "version");
+            data.name = reader.getAttributeValue(null, "id");
+            boolean hasData = false;
+            while (XMLSectionReader.nextChild(reader)) {
+                if ("data".equals(reader.getLocalName()) && !hasData) {
+                    hasData = true;
+                    if (!data.readData(reader, headerOnly)) {
+                        return null;
+                    }
+                    if (headerOnly) {
+                        return data;
+                    }
+                } else if ("meta".equals(reader.getLocalName()) && !headerOnly) {
+                    Meta meta = new Meta();
+                    meta.tag = XMLSectionReader.getAttribute(reader, "tag");
+                    meta.version = XMLSectionReader.getAttribute(reader, "version");
+                    meta.contents = readContents(reader);
+                    data.metas.add(meta);
+                } else {
+                    XMLSectionReader.skipElement(reader);
+                }
+            }
+            while (reader.hasNext()) {
+                reader.next();
+            }
+            return hasData ? data : null;
+        } catch (XMLStreamException e) {
+            throw new FileLoadException(e.getMessage());
+        } catch (NumberFormatException e) {
+            throw new FileLoadException(Hub.string("TD_ioCantParseFile") + " (" + e.getMessage() + ")");
+        } finally {
+            if (reader != null) {
+                XMLSectionReader.close(reader);
+            }
+        }
+    }
+
+    /**
+     * Read the states, events and transitions of the FSA. The reader has to be
+     * positioned at the start of the "data" element, and is left at its end. If
+     * only the events are read, the reader stops at the first element which
+     * follows the events, or at the first transition if there are no events.
+     * 
+     * @param reader     the reader
+     * @param headerOnly whether only the events of the FSA should be read
+     * @return <code>true</code> if the data was read; <code>false</code> if the
+     *         data contains elements which cannot be read by this class
+     * @throws XMLStreamException if there is an error parsing the file
+     * @throws FileLoadException  if an element lacks a required attribute
+     */
+    protected boolean readData(XMLStreamReader reader, boolean headerOnly)
+            throws XMLStreamException, FileLoadException {
+        while (XMLSectionReader.nextChild(reader)) {
+            String element = reader.getLocalName();
+            if ("event".equals(element)) {
+                events.add(readEvent(reader));
+            } else if (headerOnly && (!events.isEmpty() || "transition".equals(element))) {
+                return true;
+            } else if (headerOnly) {
+                XMLSectionReader.skipElement(reader);
+            } else if ("state".equals(element)) {
+                states.add(readState(reader));
+            } else if ("transition".equals(element)) {
+                Transition transition = new Transition();
+                transition.id = Long.parseLong(XMLSectionReader.getAttribute(reader, "id"));
+                transition.source = Long.parseLong(XMLSectionReader.getAttribute(reader, "source"));
+                transition.target = Long.parseLong(XMLSectionReader.getAttribute(reader, "target"));
+                String event = reader.getAttributeValue(null, "event");
+                if (event != null) {
+                    transition.event = Long.parseLong(event);
+                }
+                transitions.add(transition);
+                XMLSectionReader.skipElement(reader);
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read a state of the FSA. The reader has to be positioned at the start of
+     * the element of the state, and is left at its end.
+     * 
+     * @param reader the reader
+     * @return the state
+     * @throws XMLStreamException if there is an error parsing the file
+     * @throws FileLoadException  if the element lacks a required attribute
+     */
+    protected static State readState(XMLStreamReader reader) throws XMLStreamException, FileLoadException {
+        State state = new State();
+        state.id = Long.parseLong(XMLSectionReader.getAttribute(reader, "id"));
+        while (XMLSectionReader.nextChild(reader)) {
+            if ("name".equals(reader.getLocalName())) {
+                state.name = XMLSectionReader.readText(reader);
+            } else if ("properties".equals(reader.getLocalName())) {
+                while (XMLSectionReader.nextChild(reader)) {
+                    if ("initial".equals(reader.getLocalName())) {
+                        state.initial = true;
+                    } else if ("marked".equals(reader.getLocalName())) {
+                        state.marked = true;
+                    }
+                    XMLSectionReader.skipElement(reader);
+                }
+            } else {
+                XMLSectionReader.skipElement(reader);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Read an event of the FSA. The reader has to be positioned at the start of
+     * the element of the event, and is left at its end.
+     * 
+     * @param reader the reader
+     * @return the event
+     * @throws XMLStreamException if there is an error parsing the file
+     * @throws FileLoadException  if the element lacks a required attribute
+     */
+    protected static Event readEvent(XMLStreamReader reader) throws XMLStreamException, FileLoadException {
+        Event event = new Event();
+        event.id = Long.parseLong(XMLSectionReader.getAttribute(reader, "id"));
+        while (XMLSectionReader.nextChild(reader)) {
+            if ("name".equals(reader.getLocalName())) {
+                event.name = XMLSectionReader.readText(reader);
+            } else if ("properties".equals(reader.getLocalName())) {
+                while (XMLSectionReader.nextChild(reader)) {
+                    if ("controllable".equals(reader.getLocalName())) {
+                        event.controllable = true;
+                    } else if ("observable".equals(reader.getLocalName())) {
+                        event.observable = true;
+                    }
+                    XMLSectionReader.skipElement(reader);
+                }
+            } else {
+                XMLSectionReader.skipElement(reader);
+            }
+        }
+        return event;
+    }
+
+    /**
+     * Read the contents of the current element as XML text, and advance the
+     * reader to the end of the element. The reader has to be positioned at the
+     * start of the element.
+     * 
+     * @param reader the reader
+     * @return the contents of the element
+     * @throws XMLStreamException if there is an error parsing the file
+     */
+    protected static String readContents(XMLStreamReader reader) throws XMLStreamException {
+        StringWriter text = new StringWriter();
+        XMLStreamWriter writer;
+        synchronized (OUTPUT_FACTORY) {
+            writer = OUTPUT_FACTORY.createXMLStreamWriter(text);
+        }
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                ++depth;
+                writer.writeStartElement(reader.getLocalName());
+                for (int i = 0; i < reader.getAttributeCount(); ++i) {
+                    writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (--depth > 0) {
+                    writer.writeEndElement();
+                }
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                writer.writeCharacters(reader.getText());
+            }
+        }
+        writer.close();
+        return text.toString();
+    }
+
+    /**
+     * Build the {@link FSAModel} from the data. The meta-data of the FSA is
+     * loaded by the IDES plugins registered for the tags of the meta-data
+     * sections. If the data is in a version of the format other than the one
+     * written by IDES, the FSA is loaded from its file by IDES instead. Has to
+     * be called on the thread which uses the IDES models.
+     * 
+     * @return the FSA
+     * @throws IOException if the FSA cannot be built or loaded, e.g., if the
+     *                     data is in another version of the format and was not
+     *                     read from a file
+     */
+    public FSAModel toModel() throws IOException {
+        FileIOPlugin loader = IOPluginManager.instance().getDataLoader(TYPE);
+        if (loader == null || version == null || !version.equals(loader.getSaveDataVersion())) {
+            if (file == null) {
+                throw new FileLoadException(Hub.string("TD_ioUnsupportedVer"));
+            }
+            return (FSAModel) Hub.getIOSubsystem().load(file);
+        }
+        return build();
+    }
+
+    /**
+     * Build the {@link FSAModel} from the data, regardless of the version of the
+     * format of the data. Used when the data does not come from the files
+     * written by IDES (e.g., see {@link BinaryDesignIO}). Has to be called on the
+     * thread which uses the IDES models.
+     * 
+     * @return the FSA
+     * @throws IOException if the FSA cannot be built
+     */
+    protected FSAModel build() throws IOException {
+        FSAModel fsa = ModelManager.instance().createModel(FSAModel.class);
+        if (name != null) {
+            fsa.setName(name);
+        }
+        for (State s : states) {
+            FSAState state = fsa.assembleState();
+            state.setId(s.id);
+            if (s.name != null) {
+                state.setName(s.name);
+            }
+            state.setInitial(s.initial);
+            state.setMarked(s.marked);
+            fsa.add(state);
+        }
+        for (Event e : events) {
+            SupervisoryEvent event = fsa.assembleEvent(e.name);
+            event.setId(e.id);
+            event.setControllable(e.controllable);
+            event.setObservable(e.observable);
+            fsa.add(event);
+        }
+        for (Transition t : transitions) {
+            if (fsa.getState(t.source) == null || fsa.getState(t.target) == null
+                    || (t.event != null && fsa.getEvent(t.event) == null)) {
+                throw new FileLoadException(Hub.string("TD_ioCantParseFile") + " (transition: " + t.id + ")");
+            }
+            FSATransition transition = t.event == null ? fsa.assembleEpsilonTransition(t.source, t.target)
+                    : fsa.assembleTransition(t.source, t.target, t.event);
+            transition.setId(t.id);
+            fsa.add(transition);
+        }
+        for (Meta meta : metas) {
+            Set<FileIOPlugin> metaLoaders = IOPluginManager.instance().getMetaLoaders(TYPE, meta.tag);
+            if (metaLoaders == null) {
+                continue;
+            }
+            for (FileIOPlugin metaLoader : metaLoaders) {
+                metaLoader.loadMeta(meta.version, new ByteArrayInputStream(meta.contents.getBytes(UTF8)), fsa,
+                        meta.tag);
+            }
+        }
+        fsa.modelSaved();
+        return fsa;
+    }
+
+    /**
+     * Write an {@link FSAModel} to a stream, in the same format as the files of
+     * FSAs written by IDES. The data and the meta-data of the FSA are written by
+     * the IDES plugins registered to save them. The stream is not closed. Has to
+     * be called on the thread which uses the IDES models.
+     * 
+     * @param fsa    the FSA
+     * @param stream the stream
+     * @param name   the name of the file where the FSA is written, passed on to
+     *               the IDES plugins
+     * @throws IOException if the FSA cannot be written
+     */
+    public static void write(FSAModel fsa, OutputStream stream, String name) throws IOException {
+        FileIOPlugin saver = IOPluginManager.instance().getDataSaver(FSAModel.class);
+        if (saver == null) {
+            throw new FileSaveException(Hub.string("TD_ioCantSaveFSA") + " " + name);
+        }
+        PrintStream out = new PrintStream(stream, false, "UTF-8");
+        out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        out.println("<model version=\"" + saver.getSaveDataVersion() + "\" type=\"" + TYPE + "\" id=\""
+                + fsa.getName() + "\">");
+        out.println("<data>");
+        saver.saveData(out, fsa, name);
+        out.println("</data>");
+        for (Meta meta : writeMetas(fsa)) {
+            out.println("<meta tag=\"" + meta.tag + "\" version=\"" + meta.version + "\">");
+            out.print(meta.contents);
+            out.println("</meta>");
+        }
+        out.println("</model>");
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException(Hub.string("TD_ioCantSaveFSA") + " " + name);
+        }
+    }
+
+    /**
+     * Write the meta-data of an {@link FSAModel} (e.g., the graphical layout of
+     * the FSA), with the IDES plugins registered to save it. Has to be called on
+     * the thread which uses the IDES models.
+     * 
+     * @param fsa the FSA
+     * @return the meta-data sections of the FSA, in the same format as in the
+     *         files of FSAs written by IDES
+     * @throws IOException if the meta-data cannot be written
+     */
+    public static List<Meta> writeMetas(FSAModel fsa) throws IOException {
+        List<Meta> metas = new ArrayList<Meta>();
+        Set<FileIOPlugin> metaSavers = IOPluginManager.instance().getMetaSavers(FSAModel.class);
+        if (metaSavers == null) {
+            return metas;
+        }
+        for (FileIOPlugin metaSaver : metaSavers) {
+            for (String tag : metaSaver.getMetaTags()) {
+                ByteArrayOutputStream contents = new ByteArrayOutputStream();
+                PrintStream out = new PrintStream(contents, false, "UTF-8");
+                metaSaver.saveMeta(out, fsa, tag);
+                out.flush();
+                Meta meta = new Meta();
+                meta.tag = tag;
+                meta.version = metaSaver.getSaveMetaVersion(tag);
+                meta.contents = new String(contents.toByteArray(), UTF8);
+                metas.add(meta);
+            }
+        }
+        return metas;
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package templates.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import ides.api.core.Hub;
+import ides.api.model.fsa.FSAMessage;
+import ides.api.model.fsa.FSAModel;
+import ides.api.model.fsa.FSASubscriber;
+import ides.api.model.supeventset.SupervisoryEvent;
+import ides.api.plugin.model.DESModelMessage;
+import ides.api.plugin.model.DESModelSubscriber;
+import ides.api.plugin.model.ModelManager;
+
+/**
+ * Proxy for an {@link FSAModel} which is loaded from its file only when it is
+ * first needed. Until then, the proxy is backed by a lightweight header model
+ * which contains only the name and the events of the FSA, read from the file
+ * without reading the states and transitions. The name, the annotations, the
+ * parent model, the subscribers and the events of the FSA are served by the
+ * header; any other access loads the FSA.
+ * <p>
+ * Subscribers always subscribe to the proxy, and the messages of the header
+ * and of the loaded FSA are forwarded to them with the proxy as the source, so
+ * that the identity of the FSA does not change when it is loaded.
+ * <p>
+ * The header is read from the file in two steps:
+ * {@link FSAData#readHeader(File)} parses the file without creating any IDES
+ * models, so it can run on any thread, while {@link #load(File, FSAData)}
+ * creates the header model and the proxy, and has to run on the thread which
+ * uses the IDES models. Likewise, the FSA is built from the data parsed with
+ * {@link FSAData#read(File)}. Since only the beginning of the file is read for
+ * the header, errors in the rest of the file are reported when the FSA is
+ * loaded, with an {@link IllegalStateException} from the method which needed
+ * the FSA.
+ * <p>
+ * Subclasses can serve methods from other models and obtain the FSA in other
+ * ways, see {@link #getPendingTarget(String)} and {@link #loadModel()}.
+ * 
+ * @author Lenko Grigorov
+ */
+public class LazyFSA implements InvocationHandler, FSASubscriber, DESModelSubscriber {
+    /**
+     * Names of the methods which are served by the header model until the FSA
+     * is loaded.
+     */
+    protected static final Set<String> HEADER_METHODS = new HashSet<String>(Arrays.asList(new String[] {
+            "getName", "setName", "getModelType", "hasAnnotation", "getAnnotation", "setAnnotation",
+            "removeAnnotation", "getParentModel", "setParentModel", "needsSave", "modelSaved", "metadataChanged",
+            "getEventSet", "getEventIterator", "getEventCount", "getEvent" }));
+
+    /**
+     * The file of the FSA.
+     */
+    protected File file;
+
+    /**
+     * The header model of the FSA.
+     */
+    protected FSAModel header;
+
+    /**
+     * The FSA, or <code>null</code> if it is not loaded yet.
+     */
+    protected FSAModel model = null;
+
+    /**
+     * The proxy handled by this handler.
+     */
+    protected FSAModel proxy;
+
+    /**
+     * The keys of the annotations set through the proxy, to be transferred to the
+     * FSA when it is loaded.
+     */
+    protected Set<String> annotations = new HashSet<String>();
+
+    /**
+     * The {@link FSASubscriber}s of the proxy.
+     */
+    protected List<FSASubscriber> fsaSubscribers = new ArrayList<FSASubscriber>();
+
+    /**
+     * The {@link DESModelSubscriber}s of the proxy.
+     */
+    protected List<DESModelSubscriber> desSubscribers = new ArrayList<DESModelSubscriber>();
+
+    /**
+     * Construct a new handler for the FSA in the given file.
+     * 
+     * @param file   the file of the FSA
+     * @param header the header model of the FSA
+     */
+    protected LazyFSA(File file, FSAModel header) {
+        this.file = file;
+        this.header = header;
+        header.addSubscriber((FSASubscriber) this);
+        header.addSubscriber((DESModelSubscriber) this);
+    }
+
+    /**
+     * Create a proxy for the FSA in the given file. Only the header of the FSA is
+     * read. If the file is not in a format which can be read by {@link FSAData},
+     * the FSA is loaded right away and returned instead of a proxy.
+     * 
+     * @param file the file of the FSA
+     * @return a proxy for the FSA, or the FSA itself if the header of the FSA
+     *         cannot be read
+     * @throws IOException if the file cannot be read or the FSA cannot be loaded
+     */
+    public static FSAModel load(File file) throws IOException {
+        return load(file, FSAData.readHeader(file));
+    }
+
+    /**
+     * Create a proxy for the FSA in the given file, using the header read
+     * beforehand with {@link FSAData#readHeader(File)}. If there is no header, the
+     * FSA is loaded right away and returned instead of a proxy.
+     * 
+     * @param file       the file of the FSA
+     * @param fileHeader the header of the FSA, or <code>null</code> if the file
+     *                   is not in a format which can be read by {@link FSAData}
+     * @return a proxy for the FSA, or the FSA itself if there is no header
+     * @throws IOException if the FSA cannot be loaded
+     */
+    protected static FSAModel load(File file, FSAData fileHeader) throws IOException {
+        if (fileHeader == null) {
+            return (FSAModel) Hub.getIOSubsystem().load(file);
+        }
+        FSAModel header = ModelManager.instance().createModel(FSAModel.class);
+        if (fileHeader.name != null) {
+            header.setName(fileHeader.name);
+        }
+        for (FSAData.Event e : fileHeader.events) {
+            SupervisoryEvent event = header.assembleEvent(e.name);
+            event.setId(e.id);
+            event.setControllable(e.controllable);
+            event.setObservable(e.observable);
+            header.add(event);
+        }
+        LazyFSA handler = new LazyFSA(file, header);
+        handler.proxy = (FSAModel) Proxy.newProxyInstance(FSAModel.class.getClassLoader(),
+                new Class<?>[] { FSAModel.class }, handler);
+        return handler.proxy;
+    }
+
+    /**
+     * Check if the FSA has been loaded.
+     * 
+     * @return <code>true</code> if the FSA has been loaded; <code>false</code>
+     *         otherwise
+     */
+    public synchronized boolean isLoaded() {
+        return model != null;
+    }
+
+    /**
+     * Load the FSA from its file.
+     * 
+     * @return the FSA
+     * @throws IllegalStateException if the FSA cannot be loaded
+     */
+    protected FSAModel loadModel() {
+        try {
+            FSAData data = FSAData.read(file);
+            if (data == null) {
+                return (FSAModel) Hub.getIOSubsystem().load(file);
+            }
+            return data.toModel();
+        } catch (IOException e) {
+            throw new IllegalStateException(Hub.string("TD_ioCantLoadFSA") + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Select the model which serves the given method while the FSA is not
+     * loaded yet.
+     * 
+     * @param name the name of the method
+     * @return the model which serves the method, or <code>null</code> if the FSA
+     *         has to be loaded to serve the method
+     */
+    protected FSAModel getPendingTarget(String name) {
+        return HEADER_METHODS.contains(name) ? header : null;
+    }
+
+    /**
+     * Retrieve the FSA, loading it if necessary. The name, the annotations and
+     * the parent model set through the proxy are transferred to the FSA. If
+     * there were no unsaved changes through the proxy, the loaded FSA does not
+     * need to be saved either.
+     * 
+     * @return the FSA
+     * @throws IllegalStateException if the FSA cannot be loaded
+     */
+    protected synchronized FSAModel getModel() {
+        if (model == null) {
+            FSAModel loaded = loadModel();
+            boolean saved = !header.needsSave();
+            loaded.setName(header.getName());
+            for (String key : annotations) {
+                loaded.setAnnotation(key, header.getAnnotation(key));
+            }
+            loaded.setParentModel(header.getParentModel());
+            if (saved) {
+                loaded.modelSaved();
+            }
+            header.removeSubscriber((FSASubscriber) this);
+            header.removeSubscriber((DESModelSubscriber) this);
+            loaded.addSubscriber((FSASubscriber) this);
+            loaded.addSubscriber((DESModelSubscriber) this);
+            model = loaded;
+        }
+        return model;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (method.getDeclaringClass() == Object.class) {
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("toString".equals(name)) {
+                return getClass().getSimpleName() + "[" + header.getName() + "]";
+            }
+        }
+        if ("addSubscriber".equals(name) || "removeSubscriber".equals(name)) {
+            subscribe(args[0], "addSubscriber".equals(name));
+            return null;
+        } else if ("getFSASubscribers".equals(name)) {
+            return getFSASubscribers();
+        } else if ("getDESModelSubscribers".equals(name)) {
+            return getDESModelSubscribers();
+        }
+        FSAModel target;
+        synchronized (this) {
+            target = model == null ? getPendingTarget(name) : null;
+            if (target == header) {
+                if ("setAnnotation".equals(name)) {
+                    annotations.add((String) args[0]);
+                } else if ("removeAnnotation".equals(name)) {
+                    annotations.remove(args[0]);
+                }
+            } else if (target == null) {
+                target = getModel();
+            }
+        }
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Add or remove a subscriber of the proxy.
+     * 
+     * @param subscriber the subscriber
+     * @param add        <code>true</code> to add the subscriber,
+     *                   <code>false</code> to remove it
+     */
+    protected synchronized void subscribe(Object subscriber, boolean add) {
+        if (subscriber instanceof FSASubscriber) {
+            fsaSubscribers.remove(subscriber);
+            if (add) {
+                fsaSubscribers.add((FSASubscriber) subscriber);
+            }
+        }
+        if (subscriber instanceof DESModelSubscriber) {
+            desSubscribers.remove(subscriber);
+            if (add) {
+                desSubscribers.add((DESModelSubscriber) subscriber);
+            }
+        }
+    }
+
+    /**
+     * Forward the message to the subscribers of the proxy, with the proxy as the
+     * source.
+     */
+    public void fsaStructureChanged(FSAMessage message) {
+        FSAMessage forwarded = new FSAMessage(message.getEventType(), message.getElementType(),
+                message.getElementId(), proxy);
+        for (FSASubscriber subscriber : getFSASubscribers()) {
+            subscriber.fsaStructureChanged(forwarded);
+        }
+    }
+
+    /**
+     * Forward the message to the subscribers of the proxy, with the proxy as the
+     * source.
+     */
+    public void fsaEventSetChanged(FSAMessage message) {
+        FSAMessage forwarded = new FSAMessage(message.getEventType(), message.getElementType(),
+                message.getElementId(), proxy);
+        for (FSASubscriber subscriber : getFSASubscribers()) {
+            subscriber.fsaEventSetChanged(forwarded);
+        }
+    }
+
+    /**
+     * Forward the message to the subscribers of the proxy, with the proxy as the
+     * source.
+     */
+    public void modelNameChanged(DESModelMessage message) {
+        DESModelMessage forwarded = new DESModelMessage(message.getEventType(), proxy);
+        for (DESModelSubscriber subscriber : getDESModelSubscribers()) {
+            subscriber.modelNameChanged(forwarded);
+        }
+    }
+
+    /**
+     * Forward the message to the subscribers of the proxy, with the proxy as the
+     * source.
+     */
+    public void saveStatusChanged(DESModelMessage message) {
+        DESModelMessage forwarded = new DESModelMessage(message.getEventType(), proxy);
+        for (DESModelSubscriber subscriber : getDESModelSubscribers()) {
+            subscriber.saveStatusChanged(forwarded);
+        }
+    }
+
+    /**
+     * Retrieve a snapshot of the {@link FSASubscriber}s of the proxy.
+     * 
+     * @return the {@link FSASubscriber}s of the proxy
+     */
+    protected synchronized FSASubscriber[] getFSASubscribers() {
+        return fsaSubscribers.toArray(new FSASubscriber[0]);
+    }
+
+    /**
+     * Retrieve a snapshot of the {@link DESModelSubscriber}s of the proxy.
+     * 
+     * @return the {@link DESModelSubscriber}s of the proxy
+     */
+    protected synchronized DESModelSubscriber[] getDESModelSubscribers() {
+        return desSubscribers.toArray(new DESModelSubscriber[0]);
+    }
+}
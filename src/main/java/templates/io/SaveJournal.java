@@ -0,0 +1,486 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package templates.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import ides.api.core.Hub;
+import ides.api.plugin.model.DESModel;
+
+/**
+ * Transactional saving of a template design together with the files of the
+ * {@link DESModel}s which belong to it. The models are first saved to temporary
+ * files in the directories of their target files and the temporary files are
+ * synchronized with the storage device. The targets are new files, which are
+ * not referenced by the version of the template design on the disk. Then a
+ * journal listing the temporary files, their targets and the files to be
+ * erased is written next to the file of the template design. Only then the
+ * template design, which references the targets, is written.
+ * <p>
+ * The temporary files are moved to their targets and the obsolete files are
+ * erased only after the file of the template design is written, either when
+ * the saving of the template design is completed or the next time the template
+ * design is loaded or saved (see {@link #recover(File)}). At that point the
+ * file of the template design on the disk decides the outcome: the temporary
+ * files whose targets it references are moved to their targets, the other
+ * temporary files are erased, and the files scheduled to be erased are erased
+ * only if it does not reference them. Thus, if the saving is interrupted at any
+ * point, the template design on the disk and the files it references remain
+ * consistent.
+ * 
+ * @author Lenko Grigorov
+ */
+public class SaveJournal {
+    /**
+     * The extension of the journal files.
+     */
+    protected static final String JOURNAL_EXT = "journal";
+
+    /**
+     * The extension of the temporary files.
+     */
+    protected static final String TEMP_EXT = "tmp";
+
+    /**
+     * Prefix of the journal entries for the moving of a temporary file to its
+     * target.
+     */
+    protected static final String MOVE = "move";
+
+    /**
+     * Prefix of the journal entries for the erasing of a file.
+     */
+    protected static final String ERASE = "erase";
+
+    /**
+     * The file of the template design.
+     */
+    protected File designFile;
+
+    /**
+     * The temporary files written so far, mapped to their targets.
+     */
+    protected Map<File, File> moves = new LinkedHashMap<File, File>();
+
+    /**
+     * The files to be erased.
+     */
+    protected Set<File> erases = new HashSet<File>();
+
+    /**
+     * Whether the journal was written to the storage device. From that point on
+     * the saving is completed (or undone, if the template design is not written)
+     * by {@link #recover(File)}.
+     */
+    protected boolean committed = false;
+
+    /**
+     * Whether this journal started writing its journal file.
+     */
+    protected boolean written = false;
+
+    /**
+     * Construct a new journal for saving the models which belong to the template
+     * design saved in the given file.
+     * 
+     * @param designFile the file of the template design
+     */
+    public SaveJournal(File designFile) {
+        this.designFile = designFile.getAbsoluteFile();
+    }
+
+    /**
+     * Retrieve the journal file for the template design saved in the given file.
+     * 
+     * @param designFile the file of the template design
+     * @return the journal file for the template design
+     */
+    protected static File getJournalFile(File designFile) {
+        return new File(designFile.getAbsolutePath() + "." + JOURNAL_EXT);
+    }
+
+    /**
+     * Retrieve the prefix of the names of the temporary files for the template
+     * design saved in the given file.
+     * 
+     * @param designFile the file of the template design
+     * @return the prefix of the names of the temporary files
+     */
+    protected static String getTempPrefix(File designFile) {
+        return "." + designFile.getName() + "-";
+    }
+
+    /**
+     * Save a model to a temporary file in the directory of the target file and
+     * synchronize the temporary file with the storage device. The temporary file
+     * will be moved to the target file once the template design which references
+     * the target is written. The target has to be a file which is not referenced
+     * by the version of the template design on the disk.
+     * 
+     * @param model  the model to be saved
+     * @param target the file where the model has to be saved
+     * @throws IOException if the model cannot be saved
+     */
+    public void stage(DESModel model, File target) throws IOException {
+        File temp = stage(target);
+        if (!Hub.getIOSubsystem().save(model, temp)) {
+            throw new IOException(Hub.string("TD_ioCantSaveFSA") + " " + target.getAbsolutePath());
+        }
+        sync(temp);
+    }
+
+    /**
+     * Create a temporary file in the directory of the target file, to be moved
+     * to the target file once the template design which references the target
+     * is written. The caller has to write the contents of the temporary file and
+     * synchronize it with the storage device (see {@link #sync(File)}) before
+     * the journal is committed. The target has to be a file which is not
+     * referenced by the version of the template design on the disk.
+     * 
+     * @param target the file where the contents have to be saved
+     * @return the temporary file
+     * @throws IOException if the temporary file cannot be created
+     */
+    public File stage(File target) throws IOException {
+        File temp = File.createTempFile(getTempPrefix(designFile), "." + TEMP_EXT,
+                target.getAbsoluteFile().getParentFile());
+        moves.put(temp, target.getAbsoluteFile());
+        return temp;
+    }
+
+    /**
+     * Schedule a file to be erased once the template design is written. The file
+     * is not erased if the template design written references it.
+     * 
+     * @param file the file to be erased
+     */
+    public void erase(File file) {
+        erases.add(file.getAbsoluteFile());
+    }
+
+    /**
+     * Write the journal and synchronize it with the storage device. The
+     * temporary files are not moved and the obsolete files are not erased until
+     * the template design is written and {@link #recover(File)} is invoked.
+     * <p>
+     * If the journal of an earlier saving is still present, that saving is
+     * completed first; if the file of the template design cannot be read, the
+     * earlier saving is undone instead, since the template design is about to be
+     * overwritten.
+     * 
+     * @throws IOException if the journal cannot be written, or if the journal of
+     *                     an earlier saving cannot be processed
+     */
+    public void commit() throws IOException {
+        if (moves.isEmpty() && erases.isEmpty()) {
+            return;
+        }
+        rollForward(designFile, true);
+        File journal = getJournalFile(designFile);
+        written = true;
+        FileOutputStream out = new FileOutputStream(journal);
+        try {
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, "UTF-8"));
+            for (Map.Entry<File, File> move : moves.entrySet()) {
+                writer.println(
+                        MOVE + "\t" + move.getKey().getAbsolutePath() + "\t" + move.getValue().getAbsolutePath());
+            }
+            for (File file : erases) {
+                writer.println(ERASE + "\t" + file.getAbsolutePath());
+            }
+            writer.flush();
+            if (writer.checkError()) {
+                throw new IOException(Hub.string("TD_ioCantWriteJournal") + " " + journal.getAbsolutePath());
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        syncDirectory(journal.getParentFile());
+        committed = true;
+        moves.clear();
+        erases.clear();
+    }
+
+    /**
+     * Erase the temporary files written so far and the partially written journal,
+     * if any. Used when the saving fails before the journal is committed.
+     * <p>
+     * If the journal was already written to the storage device, the temporary
+     * files and the journal are left in place, so that {@link #recover(File)}
+     * decides the outcome based on the template design on the disk.
+     */
+    public void abort() {
+        if (committed) {
+            return;
+        }
+        for (File temp : moves.keySet()) {
+            temp.delete();
+        }
+        if (written) {
+            getJournalFile(designFile).delete();
+        }
+        moves.clear();
+        erases.clear();
+    }
+
+    /**
+     * Check if the journal was written to the storage device, i.e., if the
+     * saving will be completed (or undone) by {@link #recover(File)}.
+     * 
+     * @return <code>true</code> if the journal was written to the storage
+     *         device; <code>false</code> otherwise
+     */
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * Complete or undo a saving of the template design in the given file whose
+     * journal was written, and erase the stray temporary files of a saving which
+     * was interrupted before that. Used once the template design is written, and
+     * when the template design is loaded or saved again.
+     * <p>
+     * If the file of the template design cannot be parsed (e.g., because its
+     * writing was interrupted), the journal and the files listed in it are left
+     * in place.
+     * 
+     * @param designFile the file of the template design
+     * @throws IOException if the journal cannot be read or a temporary file
+     *                     cannot be moved
+     */
+    public static void recover(File designFile) throws IOException {
+        designFile = designFile.getAbsoluteFile();
+        if (!rollForward(designFile, false)) {
+            return;
+        }
+        File[] strays = designFile.getParentFile().listFiles();
+        if (strays != null) {
+            for (File stray : strays) {
+                if (stray.getName().startsWith(getTempPrefix(designFile))
+                        && stray.getName().endsWith("." + TEMP_EXT)) {
+                    stray.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Complete or undo a saving of the template design in the given file whose
+     * journal was written. The temporary files whose targets are referenced by
+     * the file of the template design are moved to their targets, the rest of
+     * the temporary files are erased, and the files scheduled to be erased are
+     * erased if they are not referenced by the file of the template design.
+     * 
+     * @param designFile the file of the template design
+     * @param discard    whether to undo the saving if the file of the template
+     *                   design cannot be parsed; if <code>false</code>, the
+     *                   journal is left in place in this case
+     * @return <code>true</code> if there is no journal left for the template
+     *         design; <code>false</code> otherwise
+     * @throws IOException if the journal cannot be read or a temporary file
+     *                     cannot be moved
+     */
+    protected static boolean rollForward(File designFile, boolean discard) throws IOException {
+        File journal = getJournalFile(designFile);
+        if (!journal.exists()) {
+            return true;
+        }
+        Map<File, File> moves = new LinkedHashMap<File, File>();
+        Set<File> erases = new HashSet<File>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length == 3 && MOVE.equals(fields[0])) {
+                    moves.put(new File(fields[1]), new File(fields[2]));
+                } else if (fields.length == 2 && ERASE.equals(fields[0])) {
+                    erases.add(new File(fields[1]));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        Set<File> referenced = getReferencedFiles(designFile);
+        if (referenced == null) {
+            if (!discard) {
+                return false;
+            }
+            referenced = new HashSet<File>();
+            erases.clear();
+        } else if (designFile.exists()) {
+            sync(designFile);
+        }
+        apply(moves, erases, referenced);
+        journal.delete();
+        return true;
+    }
+
+    /**
+     * Retrieve the files of the component models, or the archive with the
+     * component models (see {@link TemplateArchiveIO}), referenced by the file of
+     * a template design.
+     * 
+     * @param designFile the file of the template design
+     * @return the files referenced by the template design (an empty set if the
+     *         file of the template design does not exist); <code>null</code> if
+     *         the file of the template design cannot be parsed
+     * @throws IOException if the file of the template design cannot be read
+     */
+    protected static Set<File> getReferencedFiles(File designFile) throws IOException {
+        Set<File> referenced = new HashSet<File>();
+        if (!designFile.exists()) {
+            return referenced;
+        }
+        InputStream in = new FileInputStream(designFile);
+        try {
+            XMLStreamReader reader;
+            synchronized (XMLSectionReader.FACTORY) {
+                reader = XMLSectionReader.FACTORY.createXMLStreamReader(in);
+            }
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    String name = null;
+                    if (TemplateFileIO.ELEMENT_COMPONENT.equals(reader.getLocalName())) {
+                        name = reader.getAttributeValue(null, TemplateFileIO.ATTRIBUTE_FSA);
+                    } else if (TemplateFileIO.ELEMENT_ARCHIVE.equals(reader.getLocalName())) {
+                        name = reader.getAttributeValue(null, TemplateFileIO.ATTRIBUTE_FILE);
+                    }
+                    if (name != null) {
+                        referenced.add(new File(designFile.getParentFile(), name).getAbsoluteFile());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            return null;
+        } finally {
+            in.close();
+        }
+        return referenced;
+    }
+
+    /**
+     * Move the temporary files whose targets are referenced by the template
+     * design to their targets, erase the other temporary files, and erase the
+     * obsolete files which are not referenced by the template design. Temporary
+     * files which do not exist anymore are assumed to have been processed
+     * already.
+     * 
+     * @param moves      the temporary files mapped to their targets
+     * @param erases     the files to be erased
+     * @param referenced the files referenced by the template design
+     * @throws IOException if a temporary file cannot be moved
+     */
+    protected static void apply(Map<File, File> moves, Set<File> erases, Set<File> referenced) throws IOException {
+        Set<File> directories = new HashSet<File>();
+        for (Map.Entry<File, File> move : moves.entrySet()) {
+            if (!move.getKey().exists()) {
+                continue;
+            }
+            if (!referenced.contains(move.getValue())) {
+                move.getKey().delete();
+                continue;
+            }
+            try {
+                Files.move(move.getKey().toPath(), move.getValue().toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(move.getKey().toPath(), move.getValue().toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            directories.add(move.getValue().getParentFile());
+        }
+        List<File> obsolete = new ArrayList<File>(erases);
+        obsolete.removeAll(referenced);
+        for (File file : obsolete) {
+            file.delete();
+            directories.add(file.getParentFile());
+        }
+        for (File directory : directories) {
+            syncDirectory(directory);
+        }
+    }
+    /**
+     * Synchronize the contents of a file with the storage device.
+     * 
+     * @param file the file
+     * @throws IOException if the file cannot be synchronized
+     */
+    protected static void sync(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Synchronize the entries of a directory with the storage device, so that
+     * the creation, renaming and erasing of files in the directory are durable.
+     * Not all platforms support this, in which case the directory is not
+     * synchronized.
+     * 
+     * @param directory the directory
+     */
+    protected static void syncDirectory(File directory) {
+        try {
+            FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+        }
+    }
+}
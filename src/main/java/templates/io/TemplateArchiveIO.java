@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package templates.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import ides.api.core.Hub;
+import ides.api.model.fsa.FSAModel;
+import ides.api.plugin.io.FileLoadException;
+import ides.api.plugin.io.FormatTranslationException;
+import ides.api.plugin.io.IOSubsytem;
+import ides.api.plugin.io.ImportExportPlugin;
+import templates.model.TemplateComponent;
+import templates.model.TemplateModel;
+
+/**
+ * Single-file archives of {@link TemplateModel}s. An archive contains the
+ * template design, with the layout information, and the models of all
+ * {@link TemplateComponent}s, in the same format as the separate files written
+ * by {@link TemplateFileIO}. The archive is a ZIP file whose first entry is a
+ * table of contents listing the entry of the template design followed by the
+ * entries of the models of the components. Since the ZIP file has a central
+ * directory, each model is read directly from its entry, without scanning the
+ * rest of the archive.
+ * <p>
+ * A <i>packed</i> template design is saved in an archive next to the file of
+ * the template design. IDES opens only XML files, so the file of a packed
+ * template design contains only a reference to its archive; when the file is
+ * loaded, the template design is read from the archive, with the models of the
+ * components parsed concurrently as for separate files (see
+ * {@link TemplateFileIO}). A packed template design is saved to its archive
+ * again, with the models which were not modified copied from the entries of the
+ * previous archive. Packed template designs are always loaded in full, without
+ * lazy loading.
+ * <p>
+ * Exporting a template design to this format writes an archive with the whole
+ * template design. Importing an archive turns it into a packed template
+ * design: only the file of the template design and a new archive next to it
+ * are written, and no separate files of the models of the components.
+ * 
+ * @author Lenko Grigorov
+ */
+public class TemplateArchiveIO implements ImportExportPlugin {
+    /**
+     * The description of the exporter which will appear in the dialog box where the
+     * user selects the export filter.
+     */
+    protected static final String description = Hub.string("TD_archiveName");
+
+    /**
+     * The file extension of the archives.
+     */
+    protected static final String ext = "tdz";
+
+    /**
+     * The name of the entry with the table of contents of an archive.
+     */
+    protected static final String TOC_ENTRY = "contents";
+
+    /**
+     * Write a template design, together with the models of its components, to an
+     * archive. The models of a packed template design which were not modified
+     * since they were loaded or saved are copied from the previous archive of the
+     * template design.
+     * 
+     * @param td         the template design
+     * @param designFile the file of the template design, which determines the
+     *                   names of the entries
+     * @param file       the archive
+     * @return the names of the entries with the models of the components
+     * @throws IOException if the archive cannot be written
+     */
+    public static Map<TemplateComponent, String> write(TemplateModel td, File designFile, File file)
+            throws IOException {
+        TemplateFileIO io = new TemplateFileIO();
+        Map<TemplateComponent, String> names = new LinkedHashMap<TemplateComponent, String>();
+        for (TemplateComponent component : td.getComponents()) {
+            if (component.hasModel()) {
+                names.put(component, io.component2File(designFile, component, 0));
+            }
+        }
+        ZipFile previous = null;
+        if (td.hasAnnotation(TemplateFileIO.ARCHIVE)) {
+            File previousFile = (File) td.getAnnotation(TemplateFileIO.ARCHIVE);
+            if (previousFile.exists() && !TemplateFileIO.isBinaryArchive(previousFile)) {
+                previous = new ZipFile(previousFile);
+            }
+        }
+        ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.putNextEntry(new ZipEntry(TOC_ENTRY));
+            Writer toc = new OutputStreamWriter(out, "UTF-8");
+            toc.write(designFile.getName() + "\n");
+            for (String name : names.values()) {
+                toc.write(name + "\n");
+            }
+            toc.flush();
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry(designFile.getName()));
+            PrintStream design = new PrintStream(out, false, "UTF-8");
+            io.writeDesign(design, td, names);
+            design.flush();
+            out.closeEntry();
+            for (TemplateComponent component : names.keySet()) {
+                out.putNextEntry(new ZipEntry(names.get(component)));
+                FSAModel fsa = component.getModel();
+                ZipEntry saved = previous == null || !fsa.hasAnnotation(TemplateFileIO.ENTRY) ? null
+                        : previous.getEntry((String) fsa.getAnnotation(TemplateFileIO.ENTRY));
+                if (saved != null && !fsa.needsSave()) {
+                    InputStream in = previous.getInputStream(saved);
+                    try {
+                        copy(in, out);
+                    } finally {
+                        in.close();
+                    }
+                } else {
+                    FSAData.write(fsa, out, names.get(component));
+                }
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+            if (previous != null) {
+                previous.close();
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Load a template design, together with the models of its components, from
+     * an archive. The template design is annotated as a packed template design
+     * saved in the archive.
+     * 
+     * @param file the archive
+     * @return the template design
+     * @throws IOException if the archive cannot be read or the template design
+     *                     cannot be loaded
+     */
+    public static TemplateModel load(File file) throws IOException {
+        ZipFile archive = new ZipFile(file);
+        try {
+            List<String> entries = readContents(archive);
+            if (entries.isEmpty()) {
+                throw new FileLoadException(Hub.string("TD_ioCantParseFile"));
+            }
+            String version = null;
+            String data = null;
+            String layout = null;
+            String layoutVersion = null;
+            InputStream in = new BufferedInputStream(openEntry(archive, entries.get(0)));
+            XMLStreamReader reader = null;
+            try {
+                synchronized (XMLSectionReader.FACTORY) {
+                    reader = XMLSectionReader.FACTORY.createXMLStreamReader(in);
+                }
+                if (reader.nextTag() != XMLStreamConstants.START_ELEMENT || !"model".equals(reader.getLocalName())
+                        || !TemplateFileIO.TYPE.equals(reader.getAttributeValue(null, "type"))) {
+                    throw new FileLoadException(Hub.string("TD_ioCantParseFile") + " (" + entries.get(0) + ")");
+                }
+                version = reader.getAttributeValue(null, "version");
+                while (XMLSectionReader.nextChild(reader)) {
+                    if (TemplateFileIO.ELEMENT_DATA.equals(reader.getLocalName())) {
+                        data = FSAData.readContents(reader);
+                    } else if ("meta".equals(reader.getLocalName())
+                            && TemplateFileIO.META.equals(reader.getAttributeValue(null, "tag"))) {
+                        layoutVersion = reader.getAttributeValue(null, "version");
+                        layout = FSAData.readContents(reader);
+                    } else {
+                        XMLSectionReader.skipElement(reader);
+                    }
+                }
+            } catch (XMLStreamException e) {
+                throw new FileLoadException(e.getMessage());
+            } finally {
+                if (reader != null) {
+                    XMLSectionReader.close(reader);
+                }
+                in.close();
+            }
+            if (!TemplateFileIO.VERSION.equals(version)) {
+                throw new FileLoadException(Hub.string("TD_ioUnsupportedVer"));
+            }
+            if (data == null) {
+                throw new FileLoadException(Hub.string("TD_ioCantParseFile") + " (" + entries.get(0) + ")");
+            }
+            TemplateFileIO io = new TemplateFileIO();
+            TemplateModel model = io.readDesign(new ByteArrayInputStream(data.getBytes(FSAData.UTF8)),
+                    new File(entries.get(0)), archive, new HashSet<String>(entries.subList(1, entries.size())));
+            if (layout != null) {
+                io.loadMeta(layoutVersion, new ByteArrayInputStream(layout.getBytes(FSAData.UTF8)), model,
+                        TemplateFileIO.META);
+            }
+            String name = entries.get(0);
+            if (name.endsWith("." + IOSubsytem.MODEL_FILE_EXT)) {
+                name = name.substring(0, name.lastIndexOf('.'));
+            }
+            model.setName(name);
+            model.setAnnotation(TemplateFileIO.ARCHIVE, file.getAbsoluteFile());
+            return model;
+        } finally {
+            archive.close();
+        }
+    }
+
+    /**
+     * Export the template design in the given file, together with the models of
+     * its components, to an archive.
+     */
+    public void exportFile(File src, File dst) throws FormatTranslationException {
+        try {
+            TemplateModel model = (TemplateModel) Hub.getIOSubsystem().load(src);
+            write(model, src, dst);
+        } catch (IOException e) {
+            dst.delete();
+            throw new FormatTranslationException(e);
+        }
+    }
+
+    /**
+     * Import a template design from an archive, as a packed template design. The
+     * file of the template design is written to the given file, and the archive
+     * of the template design is written to the same directory.
+     */
+    public void importFile(File src, File dst) throws FormatTranslationException {
+        try {
+            TemplateModel model = load(src);
+            if (!Hub.getIOSubsystem().save(model, dst)) {
+                throw new FormatTranslationException(Hub.string("TD_ioCantSaveFSA") + " " + dst.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            throw new FormatTranslationException(e);
+        }
+    }
+
+    /**
+     * Read the table of contents of an archive.
+     * 
+     * @param archive the archive
+     * @return the names of the entries in the archive: first the entry of the
+     *         template design, followed by the entries of the models of its
+     *         components
+     * @throws IOException if the table of contents cannot be read
+     */
+    protected static List<String> readContents(ZipFile archive) throws IOException {
+        List<String> entries = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(openEntry(archive, TOC_ENTRY), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!"".equals(line)) {
+                    entries.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Open an entry of an archive for reading.
+     * 
+     * @param archive the archive
+     * @param name    the name of the entry
+     * @return the stream with the contents of the entry
+     * @throws IOException if the archive does not contain the entry or the entry
+     *                     cannot be read
+     */
+    protected static InputStream openEntry(ZipFile archive, String name) throws IOException {
+        ZipEntry entry = archive.getEntry(name);
+        if (entry == null) {
+            throw new IOException(Hub.string("TD_ioCantParseFile") + " (" + name + ")");
+        }
+        return archive.getInputStream(entry);
+    }
+
+    /**
+     * Copy the contents of a stream to another stream.
+     * 
+     * @param in  the source stream
+     * @param out the destination stream
+     * @throws IOException if there is a problem reading or writing
+     */
+    protected static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    public String getFileDescription() {
+        return description;
+    }
+
+    public String getFileExtension() {
+        return ext;
+    }
+
+}
@@ -30,22 +30,20 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipFile;
 
-import javax.swing.JOptionPane;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamReader;
 
 import ides.api.core.Hub;
 import ides.api.model.fsa.FSAModel;
@@ -54,9 +52,9 @@ import ides.api.plugin.io.FileLoadException;
 import ides.api.plugin.io.FileSaveException;
 import ides.api.plugin.io.IOSubsytem;
 import ides.api.plugin.model.DESModel;
+import ides.api.plugin.model.DESModelMessage;
+import ides.api.plugin.model.DESModelSubscriber;
 import ides.api.plugin.model.ModelManager;
-import ides.api.utilities.GeneralUtils;
-import ides.api.utilities.HeadTailInputStream;
 import templates.diagram.Connector;
 import templates.diagram.EmptyConnector;
 import templates.diagram.EmptyConnectorSet;
@@ -72,6 +70,38 @@ import templates.model.TemplateModel;
  * layout information needed for the associated {@link TemplateDiagram}s, as
  * well as manages the storing and loading of the separate files with the models
  * of the {@link TemplateComponent}s in {@link TemplateModel}s.
+ * <p>
+ * When a {@link TemplateModel} is loaded, the files with the models of the
+ * {@link TemplateComponent}s are read concurrently on a pool with as many
+ * threads as there are available processors. Since the IDES models are not
+ * meant to be used from multiple threads, the pool threads only parse the files
+ * into plain data (see {@link FSAData}; in the lazy loading mode, only the
+ * headers of the files are parsed); the models are built from the data on the
+ * loading thread. The models are attached to the components, and the
+ * components and links are added to the {@link TemplateModel}, in the order in
+ * which they appear in the file, once the whole file is read.
+ * <p>
+ * When a {@link TemplateModel} is saved, only the models of the
+ * {@link TemplateComponent}s which were modified, or whose files were renamed,
+ * are saved again. They are saved to new files, not referenced by the file of
+ * the {@link TemplateModel} on the disk, and the files which are not needed
+ * anymore are erased only once the file of the {@link TemplateModel} which
+ * references the new files is written. A journal allows the completion of an
+ * interrupted save when the {@link TemplateModel} is loaded or saved again (see
+ * {@link SaveJournal}).
+ * <p>
+ * In the lazy loading mode (see {@link #setLazyLoading(boolean)}), only the
+ * names and the events of the models of the {@link TemplateComponent}s are read
+ * when a {@link TemplateModel} is loaded, and each model is loaded from its
+ * file when it is first needed (see {@link LazyFSA}).
+ * <p>
+ * A <i>packed</i> {@link TemplateModel} is saved, together with the models of
+ * its {@link TemplateComponent}s, in a single archive next to its file, and
+ * the file only refers to the archive (see {@link TemplateArchiveIO}). The
+ * archive is replaced as a whole, through the same journal as the separate
+ * files of the models. The archive of a packed {@link TemplateModel} imported
+ * from the binary format is a binary file (see {@link BinaryDesignIO}), and it
+ * is saved again in the same format.
  * 
  * @author Lenko Grigorov
  */
@@ -104,6 +134,21 @@ public class TemplateFileIO implements FileIOPlugin {
      */
     protected static final String LAST_SAVE_FILE = "templateLastSaveFile";
 
+    /**
+     * Key for the annotation of a {@link TemplateModel} with information about the
+     * location of the archive where the model and the models of its components
+     * are saved (see {@link TemplateArchiveIO}). Only packed designs have this
+     * annotation.
+     */
+    protected static final String ARCHIVE = "templateArchiveFile";
+
+    /**
+     * Key for the annotation of a {@link FSAModel} component of a packed
+     * {@link TemplateModel} with the name of the entry of the archive where the
+     * component is saved.
+     */
+    protected static final String ENTRY = "templateComponentEntry";
+
     /**
      * "DATA" element of the XML structure used to save a {@link TemplateModel} and
      * the associated {@link TemplateDiagram}. Denotes the element which contains
@@ -140,6 +185,13 @@ public class TemplateFileIO implements FileIOPlugin {
      */
     protected static final String ELEMENT_CONNECTOR = "connector";
 
+    /**
+     * "ARCHIVE" element of the XML structure used to save a {@link TemplateModel}
+     * and the associated {@link TemplateDiagram}. Denotes the element which
+     * refers to the archive where a packed {@link TemplateModel} is saved.
+     */
+    protected static final String ELEMENT_ARCHIVE = "archive";
+
     /**
      * "ID" attribute of the XML structure used to save a {@link TemplateModel} and
      * the associated {@link TemplateDiagram}. Contains the ID of an element in a
@@ -245,6 +297,153 @@ public class TemplateFileIO implements FileIOPlugin {
      */
     protected static final String ATTRIBUTE_ICON = "icon";
 
+    /**
+     * "FILE" attribute of the XML structure used to save a {@link TemplateModel}
+     * and the associated {@link TemplateDiagram}. Contains the name of the
+     * archive where a packed {@link TemplateModel} is saved.
+     */
+    protected static final String ATTRIBUTE_FILE = "file";
+
+    /**
+     * Whether the models of {@link TemplateComponent}s are loaded only when they
+     * are first needed. The default value is given by the system property
+     * <code>templates.lazyLoading</code>.
+     */
+    protected static boolean lazyLoading = Boolean.getBoolean("templates.lazyLoading");
+
+    /**
+     * Set whether the models of the {@link TemplateComponent}s of the
+     * {@link TemplateModel}s loaded from now on should be loaded only when they
+     * are first needed.
+     * 
+     * @param lazy <code>true</code> to load the models of the components only
+     *             when they are first needed; <code>false</code> to load them
+     *             together with the {@link TemplateModel}
+     * @see LazyFSA
+     */
+    public static void setLazyLoading(boolean lazy) {
+        lazyLoading = lazy;
+    }
+
+    /**
+     * Check whether the models of {@link TemplateComponent}s are loaded only when
+     * they are first needed.
+     * 
+     * @return <code>true</code> if the models of the components are loaded only
+     *         when they are first needed; <code>false</code> otherwise
+     */
+    public static boolean isLazyLoading() {
+        return lazyLoading;
+    }
+
+    /**
+     * A {@link TemplateComponent} read from a file, whose {@link FSAModel} may
+     * still be loading.
+     */
+    protected static class PendingComponent {
+        /**
+         * The component.
+         */
+        public TemplateComponent component;
+
+        /**
+         * The file with the FSA of the component, or <code>null</code> if the
+         * component does not have an FSA or the FSA is read from an archive.
+         */
+        public File file = null;
+
+        /**
+         * The parsing of the file with the FSA of the component, or
+         * <code>null</code> if the component does not have an FSA. The result is
+         * only the header of the FSA in the lazy loading mode (see
+         * {@link FSAData#readHeader(File)}).
+         */
+        public Future<FSAData> data = null;
+
+        /**
+         * The entry of the archive with the FSA of the component, or
+         * <code>null</code> if the FSA is not read from an archive.
+         */
+        public String entry = null;
+
+        /**
+         * Whether the FSA of the component is loaded only when it is first
+         * needed.
+         */
+        public boolean lazy = false;
+    }
+
+    /**
+     * Completes the saving of a {@link TemplateModel} once IDES reports that the
+     * model was saved, i.e., once the file of the model, which references the new
+     * files of the models of its components, is written (see
+     * {@link SaveJournal#recover(File)}). The subscriber removes itself from the
+     * model afterwards.
+     */
+    protected static class SaveCompletion implements DESModelSubscriber {
+        /**
+         * The file where the {@link TemplateModel} was saved.
+         */
+        protected File file;
+
+        /**
+         * Construct a new subscriber which completes the saving of a
+         * {@link TemplateModel} to the given file.
+         * 
+         * @param file the file where the {@link TemplateModel} is saved
+         */
+        public SaveCompletion(File file) {
+            this.file = file;
+        }
+
+        public void saveStatusChanged(DESModelMessage message) {
+            if (message.getEventType() != DESModelMessage.CLEAN) {
+                return;
+            }
+            message.getSource().removeSubscriber(this);
+            try {
+                SaveJournal.recover(file);
+            } catch (IOException e) {
+                Hub.getNoticeManager().postWarningTemporary(Hub.string("TD_ioSaveInterruptedTitle"),
+                        Hub.string("TD_ioSaveInterrupted") + " " + e.getMessage());
+            }
+        }
+
+        public void modelNameChanged(DESModelMessage message) {
+        }
+    }
+
+    /**
+     * A {@link TemplateLink} read from a file, to be added to the
+     * {@link TemplateModel} after all components are added.
+     */
+    protected static class PendingLink {
+        /**
+         * The ID of the link.
+         */
+        public long id;
+
+        /**
+         * The ID of the "left" component of the link.
+         */
+        public long leftId;
+
+        /**
+         * The ID of the "right" component of the link.
+         */
+        public long rightId;
+
+        /**
+         * The name of the linked event of the "left" component.
+         */
+        public String leftEvent;
+
+        /**
+         * The name of the linked event of the "right" component.
+         */
+        public String rightEvent;
+    }
+
     public String getIOTypeDescriptor() {
         return TYPE;
     }
@@ -258,14 +457,18 @@ public class TemplateFileIO implements FileIOPlugin {
     /**
      * Derive a name for the file where the model of a {@link TemplateComponent}
      * will be saved, from the name of the model of the {@link TemplateComponent}.
+     * Since the model is saved to a new file each time, a version number
+     * distinguishes the names of the successive files of the model.
      * 
      * @param parentFile name of the file where the {@link TemplateModel} is saved
      * @param component  the {@link TemplateComponent} for which to derive a file
      *                   name
+     * @param version    the version of the file name; if zero, the name does not
+     *                   contain a version number
      * @return the file name to be used for saving the model of the
      *         {@link TemplateComponent}
      */
-    protected String component2File(File parentFile, TemplateComponent component) {
+    protected String component2File(File parentFile, TemplateComponent component, int version) {
         StringBuffer name = new StringBuffer();
         if (component.hasModel()) {
             name.append("_");
@@ -283,7 +486,63 @@ public class TemplateFileIO implements FileIOPlugin {
         if (parentName.endsWith("." + IOSubsytem.MODEL_FILE_EXT)) {
             parentName = parentName.substring(0, parentName.length() - IOSubsytem.MODEL_FILE_EXT.length() - 1);
         }
-        return parentName + "_" + component.getId() + name + "." + IOSubsytem.MODEL_FILE_EXT;
+        return parentName + "_" + component.getId() + (version > 0 ? "." + version : "") + name + "."
+                + IOSubsytem.MODEL_FILE_EXT;
+    }
+
+    /**
+     * Choose a new file where the model of a {@link TemplateComponent} will be
+     * saved. The file is in the directory of the {@link TemplateModel}, does not
+     * exist and is not referenced by the file of the {@link TemplateModel} on the
+     * disk, so that saving to it does not affect the saved design.
+     * 
+     * @param parentFile the file where the {@link TemplateModel} is saved
+     * @param component  the {@link TemplateComponent}
+     * @param referenced the files referenced by the file of the
+     *                   {@link TemplateModel} on the disk
+     * @return the new file for the model of the {@link TemplateComponent}
+     */
+    protected File newComponentFile(File parentFile, TemplateComponent component, Set<File> referenced) {
+        File directory = parentFile.getAbsoluteFile().getParentFile();
+        for (int version = 0;; ++version) {
+            File file = new File(directory, component2File(parentFile, component, version));
+            if (!file.exists() && !referenced.contains(file)) {
+                return file;
+            }
+        }
+    }
+
+    /**
+     * Check if the given file is one of the files where the model of a
+     * {@link TemplateComponent} may be saved, i.e., if it is in the directory of
+     * the {@link TemplateModel} and its name is derived from the current name of
+     * the model (see {@link #component2File(File, TemplateComponent, int)}).
+     * 
+     * @param parentFile the file where the {@link TemplateModel} is saved
+     * @param component  the {@link TemplateComponent}
+     * @param file       the file
+     * @return <code>true</code> if the model of the component may be saved to the
+     *         file; <code>false</code> otherwise
+     */
+    protected boolean isComponentFile(File parentFile, TemplateComponent component, File file) {
+        if (!parentFile.getAbsoluteFile().getParentFile().equals(file.getAbsoluteFile().getParentFile())) {
+            return false;
+        }
+        // the names of the versions differ only in the inserted version number
+        String base = component2File(parentFile, component, 0);
+        String first = component2File(parentFile, component, 1);
+        int split = 0;
+        while (base.charAt(split) == first.charAt(split)) {
+            ++split;
+        }
+        String prefix = base.substring(0, split);
+        String suffix = base.substring(split);
+        String name = file.getName();
+        if (!name.startsWith(prefix) || !name.endsWith(suffix) || name.length() < prefix.length() + suffix.length()) {
+            return false;
+        }
+        String version = name.substring(prefix.length(), name.length() - suffix.length());
+        return "".equals(version) || version.matches("\\.[1-9][0-9]*");
     }
 
     /**
@@ -316,64 +575,174 @@ public class TemplateFileIO implements FileIOPlugin {
         return name;
     }
 
+    /**
+     * Check if the model of a {@link TemplateComponent} has to be saved again. The
+     * model has to be saved if it was modified since it was last saved or loaded,
+     * if the file where it was last saved (or loaded from) does not belong to the
+     * {@link TemplateModel} (see
+     * {@link #isComponentFile(File, TemplateComponent, File)}), or if the file
+     * does not exist anymore.
+     * 
+     * @param parentFile the file where the {@link TemplateModel} is saved
+     * @param component  the {@link TemplateComponent}
+     * @return <code>true</code> if the model has to be saved again;
+     *         <code>false</code> if its file is up to date
+     */
+    protected boolean needsSave(File parentFile, TemplateComponent component) {
+        FSAModel fsa = component.getModel();
+        return fsa.needsSave() || !fsa.hasAnnotation(FILE)
+                || !isComponentFile(parentFile, component, (File) fsa.getAnnotation(FILE))
+                || !((File) fsa.getAnnotation(FILE)).exists();
+    }
+
+    /**
+     * Check if the archive of a packed {@link TemplateModel} is a binary file
+     * (see {@link BinaryDesignIO}) rather than a ZIP archive (see
+     * {@link TemplateArchiveIO}).
+     * 
+     * @param archiveFile the archive
+     * @return <code>true</code> if the archive is a binary file;
+     *         <code>false</code> otherwise
+     */
+    protected static boolean isBinaryArchive(File archiveFile) {
+        return archiveFile.getName().endsWith("." + BinaryDesignIO.ext);
+    }
+
+    /**
+     * Choose a new file for the archive where a packed {@link TemplateModel} will
+     * be saved (see {@link TemplateArchiveIO}). The file is in the directory of
+     * the {@link TemplateModel}, does not exist and is not referenced by the file
+     * of the {@link TemplateModel} on the disk, so that saving to it does not
+     * affect the saved design.
+     * 
+     * @param parentFile the file where the {@link TemplateModel} is saved
+     * @param referenced the files referenced by the file of the
+     *                   {@link TemplateModel} on the disk
+     * @param ext        the extension of the archive
+     * @return the new file for the archive
+     */
+    protected File newArchiveFile(File parentFile, Set<File> referenced, String ext) {
+        File directory = parentFile.getAbsoluteFile().getParentFile();
+        String parentName = parentFile.getName();
+        if (parentName.endsWith("." + IOSubsytem.MODEL_FILE_EXT)) {
+            parentName = parentName.substring(0, parentName.length() - IOSubsytem.MODEL_FILE_EXT.length() - 1);
+        }
+        for (int version = 0;; ++version) {
+            File file = new File(directory,
+                    parentName + (version > 0 ? "." + version : "") + "." + ext);
+            if (!file.exists() && !referenced.contains(file)) {
+                return file;
+            }
+        }
+    }
+
     public void saveData(PrintStream stream, DESModel model, String file) throws FileSaveException {
         if (!(model instanceof TemplateModel)) {
             throw new FileSaveException(Hub.string("TD_ioWrongModelType"));
         }
         TemplateModel td = (TemplateModel) model;
-        File outFile = new File(file);
+        File outFile = new File(file).getAbsoluteFile();
         boolean savingToNewFile = !td.hasAnnotation(LAST_SAVE_FILE)
-                || !outFile.equals(td.getAnnotation(LAST_SAVE_FILE));
-        Map<TemplateComponent, File> fileMap = new HashMap<TemplateComponent, File>();
-        Set<File> overwritten = new TreeSet<File>();
-        for (TemplateComponent component : td.getComponents()) {
-            if (component.hasModel()) {
-                fileMap.put(component, new File(outFile.getParentFile().getAbsolutePath() + File.separator
-                        + component2File(outFile, component)));
-                if (!component.getModel().hasAnnotation(FILE)
-                        || !fileMap.get(component).equals(component.getModel().getAnnotation(FILE))) {
-                    if (fileMap.get(component).exists()) {
-                        overwritten.add(fileMap.get(component));
-                    }
-                }
-            }
+                || !outFile.equals(((File) td.getAnnotation(LAST_SAVE_FILE)).getAbsoluteFile());
+        boolean packed = td.hasAnnotation(ARCHIVE);
+        Set<File> referenced;
+        try {
+            SaveJournal.recover(outFile);
+            referenced = SaveJournal.getReferencedFiles(outFile);
+        } catch (IOException e) {
+            throw new FileSaveException(e);
         }
-        if (!overwritten.isEmpty()) {
-            String message = Hub.string("TD_ioWarnOverwrite1") + "\n";
-            for (File overfile : overwritten) {
-                message += overfile.getAbsolutePath() + "\n";
-            }
-            message += Hub.string("TD_ioWarnOverwrite2") + "\n" + Hub.string("TD_ioWarnOverwrite3");
-            int choice = JOptionPane.showConfirmDialog(Hub.getMainWindow(),
-                    GeneralUtils.JOptionPaneKeyBinder.messageLabel(message), Hub.string("TD_ioWarnOverwriteTitle"),
-                    JOptionPane.YES_NO_OPTION);
-            if (choice != JOptionPane.YES_OPTION) {
-                throw new FileSaveException(Hub.string("TD_ioDontOverwrite"));
-            }
+        if (referenced == null) {
+            referenced = new HashSet<File>();
         }
-        Set<File> filesToErase = new HashSet<File>();
+        Map<TemplateComponent, File> fileMap = new HashMap<TemplateComponent, File>();
+        Map<TemplateComponent, String> entryMap = null;
+        File archiveFile = null;
+        SaveJournal journal = new SaveJournal(outFile);
         try {
-            for (TemplateComponent component : fileMap.keySet()) {
-                Hub.getIOSubsystem().save(component.getModel(), fileMap.get(component));
-                if (!savingToNewFile && component.getModel().hasAnnotation(FILE)
-                        && !fileMap.get(component).equals(component.getModel().getAnnotation(FILE))) {
-                    filesToErase.add((File) component.getModel().getAnnotation(FILE));
+            if (packed && isBinaryArchive((File) td.getAnnotation(ARCHIVE))) {
+                archiveFile = newArchiveFile(outFile, referenced, BinaryDesignIO.ext);
+                File temp = journal.stage(archiveFile);
+                BinaryDesignIO.save(td, temp);
+                SaveJournal.sync(temp);
+                // the models are not stored as separate entries
+                entryMap = new HashMap<TemplateComponent, String>();
+                if (!savingToNewFile) {
+                    journal.erase((File) td.getAnnotation(ARCHIVE));
+                }
+            } else if (packed) {
+                archiveFile = newArchiveFile(outFile, referenced, TemplateArchiveIO.ext);
+                File temp = journal.stage(archiveFile);
+                entryMap = TemplateArchiveIO.write(td, outFile, temp);
+                SaveJournal.sync(temp);
+                if (!savingToNewFile) {
+                    journal.erase((File) td.getAnnotation(ARCHIVE));
+                }
+            } else {
+                for (TemplateComponent component : td.getComponents()) {
+                    if (!component.hasModel() || !needsSave(outFile, component)) {
+                        continue;
+                    }
+                    File target = newComponentFile(outFile, component, referenced);
+                    journal.stage(component.getModel(), target);
+                    if (!savingToNewFile && component.getModel().hasAnnotation(FILE)) {
+                        journal.erase((File) component.getModel().getAnnotation(FILE));
+                    }
+                    fileMap.put(component, target);
                 }
-                component.getModel().setAnnotation(FILE, fileMap.get(component));
             }
+            journal.commit();
         } catch (IOException e) {
+            journal.abort();
             throw new FileSaveException(e);
+        } catch (IllegalStateException e) {
+            // the model of a component could not be loaded from its file (see LazyFSA)
+            journal.abort();
+            throw new FileSaveException(e.getMessage());
+        }
+        for (TemplateComponent component : fileMap.keySet()) {
+            component.getModel().setAnnotation(FILE, fileMap.get(component));
+        }
+        if (journal.isCommitted()) {
+            td.addSubscriber(new SaveCompletion(outFile));
         }
         td.setAnnotation(LAST_SAVE_FILE, outFile);
-        for (File f : filesToErase) {
-            f.delete();
+        if (packed) {
+            td.setAnnotation(ARCHIVE, archiveFile);
+            for (TemplateComponent component : td.getComponents()) {
+                if (component.hasModel()) {
+                    if (entryMap.containsKey(component)) {
+                        component.getModel().setAnnotation(ENTRY, entryMap.get(component));
+                    }
+                    component.getModel().modelSaved();
+                }
+            }
+            stream.println("\t<" + ELEMENT_ARCHIVE + " " + ATTRIBUTE_FILE + "=\"" + archiveFile.getName() + "\"/>");
+            return;
         }
+        Map<TemplateComponent, String> names = new HashMap<TemplateComponent, String>();
+        for (TemplateComponent component : td.getComponents()) {
+            if (component.hasModel()) {
+                names.put(component, ((File) component.getModel().getAnnotation(FILE)).getName());
+            }
+        }
+        writeData(stream, td, names);
+    }
+
+    /**
+     * Write the components and the links of a {@link TemplateModel}.
+     * 
+     * @param stream the stream where the data is written
+     * @param td     the {@link TemplateModel}
+     * @param names  the names of the files (or of the entries of the archive)
+     *               where the models of the components are saved
+     */
+    protected void writeData(PrintStream stream, TemplateModel td, Map<TemplateComponent, String> names) {
         for (TemplateComponent component : td.getComponents()) {
             stream.print("\t<" + ELEMENT_COMPONENT + " " + ATTRIBUTE_ID + "=\"" + component.getId() + "\" "
                     + ATTRIBUTE_TYPE + "=\"" + component.getType() + "\"");
             if (component.hasModel()) {
-                stream.print(" " + ATTRIBUTE_FSA + "=\"" + ((File) component.getModel().getAnnotation(FILE)).getName()
-                        + "\"");
+                stream.print(" " + ATTRIBUTE_FSA + "=\"" + names.get(component) + "\"");
             }
             stream.println("/>");
         }
@@ -385,6 +754,28 @@ public class TemplateFileIO implements FileIOPlugin {
         }
     }
 
+    /**
+     * Write a whole {@link TemplateModel}, with its layout information, in the
+     * same format as the files of template designs written by IDES. Used to
+     * store the template design in an archive (see {@link TemplateArchiveIO}).
+     * 
+     * @param stream the stream where the template design is written
+     * @param td     the {@link TemplateModel}
+     * @param names  the names of the entries of the archive where the models of
+     *               the components are saved
+     */
+    protected void writeDesign(PrintStream stream, TemplateModel td, Map<TemplateComponent, String> names) {
+        stream.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        stream.println("<model version=\"" + VERSION + "\" type=\"" + TYPE + "\" id=\"" + td.getName() + "\">");
+        stream.println("<" + ELEMENT_DATA + ">");
+        writeData(stream, td, names);
+        stream.println("</" + ELEMENT_DATA + ">");
+        stream.println("<meta tag=\"" + META + "\" version=\"" + VERSION + "\">");
+        writeLayout(stream, td);
+        stream.println("</meta>");
+        stream.println("</model>");
+    }
+
     public void saveMeta(PrintStream stream, DESModel arg1, String arg2) throws FileSaveException {
         if (!(arg1 instanceof TemplateModel)) {
             throw new FileSaveException(Hub.string("TD_ioWrongModelType"));
@@ -392,7 +783,19 @@ public class TemplateFileIO implements FileIOPlugin {
         if (!META.equals(arg2)) {
             throw new FileSaveException("TD_ioUnsupportedTag");
         }
-        TemplateModel td = (TemplateModel) arg1;
+        // the layout of a packed design is saved in its archive
+        if (!arg1.hasAnnotation(ARCHIVE)) {
+            writeLayout(stream, (TemplateModel) arg1);
+        }
+    }
+
+    /**
+     * Write the layout information of a {@link TemplateModel}.
+     * 
+     * @param stream the stream where the layout information is written
+     * @param td     the {@link TemplateModel}
+     */
+    protected void writeLayout(PrintStream stream, TemplateModel td) {
         for (TemplateComponent c : td.getComponents()) {
             if (c.hasAnnotation(EntityLayout.KEY)) {
                 EntityLayout layout = (EntityLayout) c.getAnnotation(EntityLayout.KEY);
@@ -437,74 +840,147 @@ public class TemplateFileIO implements FileIOPlugin {
         if (!VERSION.equals(arg0)) {
             throw new FileLoadException(Hub.string("TD_ioUnsupportedVer"));
         }
-        Document doc = null;
         try {
-            byte[] FILE_HEADER = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + System.getProperty("line.separator")
-                    + "<data>" + System.getProperty("line.separator")).getBytes();
-            HeadTailInputStream dataSection = new HeadTailInputStream(arg1, FILE_HEADER, "</data>".getBytes());
-            DocumentBuilder parser = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-            doc = parser.parse(dataSection);
-        } catch (ParserConfigurationException e) {
-            throw new FileLoadException(e.getMessage());
+            SaveJournal.recover(new File(file));
         } catch (IOException e) {
             throw new FileLoadException(e.getMessage());
-        } catch (SAXException e) {
-            throw new FileLoadException(e.getMessage());
-        }
-        if (doc == null) {
-            throw new FileLoadException(Hub.string("TD_ioCantParseFile"));
-        }
-        Node dataNode = null;
-        for (int i = 0; i < doc.getChildNodes().getLength(); ++i) {
-            // System.out.println(doc.getChildNodes().item(i).getNodeName());
-            if (doc.getChildNodes().item(i).getNodeName().equals(ELEMENT_DATA)) {
-                dataNode = doc.getChildNodes().item(i);
-            }
-        }
-        if (dataNode == null) {
-            throw new FileLoadException(Hub.string("TD_ioCantParseFile"));
         }
+        TemplateModel model = readDesign(arg1, new File(file), null, null);
+        model.setAnnotation(LAST_SAVE_FILE, new File(file));
+        return model;
+    }
+
+    /**
+     * Read the data of a {@link TemplateModel}, i.e., its components and links.
+     * The models of the components are read from their files, or from the
+     * entries of the archive of a packed template design (see
+     * {@link TemplateArchiveIO}). If the data refers to an archive, the whole
+     * template design is read from the archive instead.
+     * 
+     * @param stream  the stream with the data section of the template design
+     * @param file    the file of the template design
+     * @param archive the archive with the models of the components, or
+     *                <code>null</code> if the models are read from separate
+     *                files
+     * @param entries the entries of the archive listed in its table of contents,
+     *                or <code>null</code> if the models are read from separate
+     *                files
+     * @return the template design
+     * @throws FileLoadException if the template design cannot be read
+     */
+    protected TemplateModel readDesign(InputStream stream, File file, final ZipFile archive, Set<String> entries)
+            throws FileLoadException {
+        XMLStreamReader reader = XMLSectionReader.open(stream, ELEMENT_DATA);
         String errors = "";
         TemplateModel model = ModelManager.instance().createModel(TemplateModel.class);
-        model.setAnnotation(LAST_SAVE_FILE, new File(file));
-        NodeList children = dataNode.getChildNodes();
+        File archiveFile = null;
+        List<PendingComponent> components = new ArrayList<PendingComponent>();
+        List<PendingLink> links = new ArrayList<PendingLink>();
+        ExecutorService executor = null;
         try {
-            for (int i = 0; i < children.getLength(); i++) {
-                Node node = children.item(i);
-                NamedNodeMap attributes = node.getAttributes();
-                if (node.getNodeName().equals(ELEMENT_COMPONENT)) {
-                    TemplateComponent component = model.assembleComponent();
-                    component.setId(Long.parseLong(attributes.getNamedItem(ATTRIBUTE_ID).getNodeValue()));
-                    component.setType(Integer.parseInt(attributes.getNamedItem(ATTRIBUTE_TYPE).getNodeValue()));
-                    if (attributes.getNamedItem(ATTRIBUTE_FSA) != null) {
-                        File f = new File(new File(file).getParentFile().getAbsolutePath() + File.separator
-                                + attributes.getNamedItem(ATTRIBUTE_FSA).getNodeValue());
-                        try {
-                            FSAModel fsa = (FSAModel) Hub.getIOSubsystem().load(f);
-                            fsa.setName(file2Component(new File(file), f));
-                            fsa.setAnnotation(FILE, f);
-                            fsa.setParentModel(model);
-                            component.setModel(fsa);
-                        } catch (IOException e) {
-                            errors += Hub.string("TD_ioCantLoadFSA") + f.getAbsolutePath() + "\n";
-                        }
+            while (XMLSectionReader.nextChild(reader)) {
+                String element = reader.getLocalName();
+                if (element.equals(ELEMENT_COMPONENT)) {
+                    PendingComponent pending = new PendingComponent();
+                    pending.component = model.assembleComponent();
+                    pending.component.setId(Long.parseLong(XMLSectionReader.getAttribute(reader, ATTRIBUTE_ID)));
+                    pending.component
+                            .setType(Integer.parseInt(XMLSectionReader.getAttribute(reader, ATTRIBUTE_TYPE)));
+                    final String fsaFile = reader.getAttributeValue(null, ATTRIBUTE_FSA);
+                    if (fsaFile != null && executor == null) {
+                        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
                     }
-                    model.addComponent(component);
-                } else if (node.getNodeName().equals(ELEMENT_LINK)) {
-                    long leftId = Long.parseLong(attributes.getNamedItem(ATTRIBUTE_LEFT).getNodeValue());
-                    long rightId = Long.parseLong(attributes.getNamedItem(ATTRIBUTE_RIGHT).getNodeValue());
-                    TemplateLink link = model.assembleLink(leftId, rightId);
-                    link.setId(Long.parseLong(attributes.getNamedItem(ATTRIBUTE_ID).getNodeValue()));
-                    link.setLeftEventName(attributes.getNamedItem(ATTRIBUTE_LEFTEVENT).getNodeValue());
-                    link.setRightEventName(attributes.getNamedItem(ATTRIBUTE_RIGHTEVENT).getNodeValue());
-                    if (link.getLeftEventName() == null || link.getRightEventName() == null) {
-                        throw new RuntimeException(Hub.string("TD_ioCantParseFile"));
+                    if (fsaFile != null && archive != null) {
+                        if (!entries.contains(fsaFile)) {
+                            errors += Hub.string("TD_ioCantLoadFSA") + fsaFile + "\n";
+                        } else {
+                            pending.entry = fsaFile;
+                            pending.data = executor.submit(new Callable<FSAData>() {
+                                public FSAData call() throws IOException {
+                                    InputStream in = TemplateArchiveIO.openEntry(archive, fsaFile);
+                                    try {
+                                        return FSAData.read(in);
+                                    } finally {
+                                        in.close();
+                                    }
+                                }
+                            });
+                        }
+                    } else if (fsaFile != null) {
+                        final File f = new File(file.getAbsoluteFile().getParentFile(), fsaFile);
+                        final boolean lazy = lazyLoading;
+                        pending.file = f;
+                        pending.lazy = lazy;
+                        pending.data = executor.submit(new Callable<FSAData>() {
+                            public FSAData call() throws IOException {
+                                return lazy ? FSAData.readHeader(f) : FSAData.read(f);
+                            }
+                        });
                     }
-                    model.addLink(link);
-                } else if (node.getNodeType() == Node.TEXT_NODE) {
+                    components.add(pending);
+                } else if (element.equals(ELEMENT_LINK)) {
+                    PendingLink pending = new PendingLink();
+                    pending.id = Long.parseLong(XMLSectionReader.getAttribute(reader, ATTRIBUTE_ID));
+                    pending.leftId = Long.parseLong(XMLSectionReader.getAttribute(reader, ATTRIBUTE_LEFT));
+                    pending.rightId = Long.parseLong(XMLSectionReader.getAttribute(reader, ATTRIBUTE_RIGHT));
+                    pending.leftEvent = XMLSectionReader.getAttribute(reader, ATTRIBUTE_LEFTEVENT);
+                    pending.rightEvent = XMLSectionReader.getAttribute(reader, ATTRIBUTE_RIGHTEVENT);
+                    links.add(pending);
+                } else if (element.equals(ELEMENT_ARCHIVE) && archive == null) {
+                    archiveFile = new File(file.getAbsoluteFile().getParentFile(),
+                            XMLSectionReader.getAttribute(reader, ATTRIBUTE_FILE));
                 } else {
-                    errors += Hub.string("TD_ioCantParseFile") + " (" + node.getNodeName() + ")\n";
+                    errors += Hub.string("TD_ioCantParseFile") + " (" + element + ")\n";
                 }
+                XMLSectionReader.skipElement(reader);
+            }
+            if (archiveFile != null) {
+                model = isBinaryArchive(archiveFile) ? BinaryDesignIO.load(archiveFile)
+                        : TemplateArchiveIO.load(archiveFile);
+                return model;
+            }
+            for (PendingComponent pending : components) {
+                if (pending.data != null) {
+                    String source = pending.entry != null ? pending.entry : pending.file.getAbsolutePath();
+                    try {
+                        FSAData data = pending.data.get();
+                        FSAModel fsa;
+                        if (pending.entry != null) {
+                            if (data == null) {
+                                throw new FileLoadException(Hub.string("TD_ioCantParseFile"));
+                            }
+                            fsa = data.toModel();
+                            fsa.setName(file2Component(file, new File(pending.entry)));
+                            fsa.setAnnotation(ENTRY, pending.entry);
+                        } else {
+                            if (pending.lazy) {
+                                fsa = LazyFSA.load(pending.file, data);
+                            } else if (data == null) {
+                                fsa = (FSAModel) Hub.getIOSubsystem().load(pending.file);
+                            } else {
+                                fsa = data.toModel();
+                            }
+                            fsa.setName(file2Component(file, pending.file));
+                            fsa.setAnnotation(FILE, pending.file);
+                        }
+                        fsa.setParentModel(model);
+                        pending.component.setModel(fsa);
+                    } catch (ExecutionException e) {
+                        errors += Hub.string("TD_ioCantLoadFSA") + source + " (" + e.getCause().getMessage() + ")\n";
+                    } catch (IOException e) {
+                        errors += Hub.string("TD_ioCantLoadFSA") + source + "\n";
+                    } catch (RuntimeException e) {
+                        errors += Hub.string("TD_ioCantLoadFSA") + source + " (" + e.getMessage() + ")\n";
+                    }
+                }
+                model.addComponent(pending.component);
+            }
+            for (PendingLink pending : links) {
+                TemplateLink link = model.assembleLink(pending.leftId, pending.rightId);
+                link.setId(pending.id);
+                link.setLeftEventName(pending.leftEvent);
+                link.setRightEventName(pending.rightEvent);
+                model.addLink(link);
             }
             if (!"".equals(errors)) {
                 throw new RuntimeException(errors);
@@ -512,6 +988,11 @@ public class TemplateFileIO implements FileIOPlugin {
         } catch (Exception e) {
             // e.printStackTrace();
             throw new FileLoadException(e.getMessage(), model);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            XMLSectionReader.close(reader);
         }
         return model;
     }
@@ -523,59 +1004,30 @@ public class TemplateFileIO implements FileIOPlugin {
         if (!META.equals(arg3)) {
             throw new FileLoadException("TD_ioUnsupportedTag");
         }
-        Document doc = null;
-        try {
-            byte[] FILE_HEADER = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + System.getProperty("line.separator")
-                    + "<data>" + System.getProperty("line.separator")).getBytes();
-            HeadTailInputStream dataSection = new HeadTailInputStream(arg1, FILE_HEADER, "</data>".getBytes());
-            DocumentBuilder parser = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-            doc = parser.parse(dataSection);
-        } catch (ParserConfigurationException e) {
-            throw new FileLoadException(e.getMessage());
-        } catch (IOException e) {
-            throw new FileLoadException(e.getMessage());
-        } catch (SAXException e) {
-            throw new FileLoadException(e.getMessage());
-        }
-        if (doc == null) {
-            throw new FileLoadException(Hub.string("TD_ioCantParseFile"));
-        }
-        Node dataNode = null;
-        for (int i = 0; i < doc.getChildNodes().getLength(); ++i) {
-            if (doc.getChildNodes().item(i).getNodeName().equals(ELEMENT_DATA)) {
-                dataNode = doc.getChildNodes().item(i);
-            }
-        }
-        if (dataNode == null) {
-            throw new FileLoadException(Hub.string("TD_ioCantParseFile"));
-        }
+        XMLStreamReader reader = XMLSectionReader.open(arg1, ELEMENT_DATA);
         String errors = "";
-        NodeList children = dataNode.getChildNodes();
         try {
-            for (int i = 0; i < children.getLength(); i++) {
-                Node node = children.item(i);
-                NamedNodeMap attributes = node.getAttributes();
-                if (node.getNodeName().equals(ELEMENT_ENTITY)) {
+            while (XMLSectionReader.nextChild(reader)) {
+                String element = reader.getLocalName();
+                if (element.equals(ELEMENT_ENTITY)) {
                     EntityLayout layout = new EntityLayout();
-                    long id = Long.parseLong(attributes.getNamedItem(ATTRIBUTE_COMPONENT).getNodeValue());
-                    layout.label = attributes.getNamedItem(ATTRIBUTE_LABEL).getNodeValue();
+                    long id = Long.parseLong(XMLSectionReader.getAttribute(reader, ATTRIBUTE_COMPONENT));
+                    layout.label = reader.getAttributeValue(null, ATTRIBUTE_LABEL);
                     if (layout.label == null) {
                         layout.label = "" + id;
                     }
-                    layout.location = new Point(Integer.parseInt(attributes.getNamedItem(ATTRIBUTE_X).getNodeValue()),
-                            Integer.parseInt(attributes.getNamedItem(ATTRIBUTE_Y).getNodeValue()));
-                    boolean flag = Boolean.parseBoolean(attributes.getNamedItem(ATTRIBUTE_FLAG).getNodeValue());
-                    if (attributes.getNamedItem(ATTRIBUTE_COLOR) != null) {
+                    layout.location = new Point(Integer.parseInt(XMLSectionReader.getAttribute(reader, ATTRIBUTE_X)),
+                            Integer.parseInt(XMLSectionReader.getAttribute(reader, ATTRIBUTE_Y)));
+                    boolean flag = Boolean.parseBoolean(XMLSectionReader.getAttribute(reader, ATTRIBUTE_FLAG));
+                    String color = reader.getAttributeValue(null, ATTRIBUTE_COLOR);
+                    if (color != null) {
                         try {
-                            layout.color = Color.decode(attributes.getNamedItem(ATTRIBUTE_COLOR).getNodeValue());
+                            layout.color = Color.decode(color);
                         } catch (NumberFormatException e) {
-                            errors += Hub.string("TD_ioCantParseFile") + " ("
-                                    + attributes.getNamedItem(ATTRIBUTE_COLOR).getNodeValue() + ")\n";
+                            errors += Hub.string("TD_ioCantParseFile") + " (" + color + ")\n";
                         }
                     }
-                    if (attributes.getNamedItem(ATTRIBUTE_TAG) != null) {
-                        layout.tag = attributes.getNamedItem(ATTRIBUTE_TAG).getNodeValue();
-                    }
+                    layout.tag = reader.getAttributeValue(null, ATTRIBUTE_TAG);
                     if (layout.tag == null) {
                         layout.tag = "";
                     }
@@ -588,19 +1040,19 @@ public class TemplateFileIO implements FileIOPlugin {
                             component.getModel().setAnnotation(Entity.FLAG_MARK, new Object());
                         }
                     }
-                } else if (node.getNodeName().equals(ELEMENT_CONNECTOR)) {
+                } else if (element.equals(ELEMENT_CONNECTOR)) {
                     EmptyConnectorSet emptyConnectors = (EmptyConnectorSet) model.getAnnotation(EmptyConnectorSet.KEY);
                     if (emptyConnectors == null) {
                         emptyConnectors = new EmptyConnectorSet();
                     }
-                    emptyConnectors.add(
-                            new EmptyConnector(Long.parseLong(attributes.getNamedItem(ATTRIBUTE_LEFT).getNodeValue()),
-                                    Long.parseLong(attributes.getNamedItem(ATTRIBUTE_RIGHT).getNodeValue())));
+                    long leftId = Long.parseLong(XMLSectionReader.getAttribute(reader, ATTRIBUTE_LEFT));
+                    long rightId = Long.parseLong(XMLSectionReader.getAttribute(reader, ATTRIBUTE_RIGHT));
+                    emptyConnectors.add(new EmptyConnector(leftId, rightId));
                     model.setAnnotation(EmptyConnectorSet.KEY, emptyConnectors);
-                } else if (node.getNodeType() == Node.TEXT_NODE) {
                 } else {
-                    errors += Hub.string("TD_ioCantParseFile") + " (" + node.getNodeName() + ")\n";
+                    errors += Hub.string("TD_ioCantParseFile") + " (" + element + ")\n";
                 }
+                XMLSectionReader.skipElement(reader);
             }
             if (!"".equals(errors)) {
                 throw new RuntimeException(errors);
@@ -608,6 +1060,8 @@ public class TemplateFileIO implements FileIOPlugin {
         } catch (Exception e) {
             // e.printStackTrace();
             throw new FileLoadException(e.getMessage(), model);
+        } finally {
+            XMLSectionReader.close(reader);
         }
     }
 
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package templates.io;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import ides.api.core.Hub;
+import ides.api.plugin.io.FileLoadException;
+import ides.api.utilities.HeadTailInputStream;
+
+/**
+ * Helper methods for the streaming (StAX) reading of the sections of IDES
+ * files which contain the data or the meta-data of a model. The elements of a
+ * section are processed as they are read, without building a document tree in
+ * memory.
+ * 
+ * @author Lenko Grigorov
+ */
+public class XMLSectionReader {
+    /**
+     * The factory for the readers of sections.
+     */
+    protected static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    /**
+     * Open a reader for a section of an IDES file. Since the section is only a
+     * fragment of the file, it is wrapped with an XML header and the root element
+     * of the section. The returned reader is positioned at the start of the root
+     * element.
+     * 
+     * @param stream the stream with the contents of the section
+     * @param root   the name of the root element of the section
+     * @return a reader positioned at the start of the root element of the
+     *         section
+     * @throws FileLoadException if the section cannot be parsed
+     */
+    public static XMLStreamReader open(InputStream stream, String root) throws FileLoadException {
+        byte[] FILE_HEADER = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + System.getProperty("line.separator") + "<"
+                + root + ">" + System.getProperty("line.separator")).getBytes();
+        HeadTailInputStream section = new HeadTailInputStream(stream, FILE_HEADER, ("</" + root + ">").getBytes());
+        try {
+            XMLStreamReader reader;
+            synchronized (FACTORY) {
+                reader = FACTORY.createXMLStreamReader(section);
+            }
+            if (reader.nextTag() != XMLStreamConstants.START_ELEMENT || !root.equals(reader.getLocalName())) {
+                throw new FileLoadException(Hub.string("TD_ioCantParseFile"));
+            }
+            return reader;
+        } catch (XMLStreamException e) {
+            throw new FileLoadException(e.getMessage());
+        }
+    }
+
+    /**
+     * Open a reader for a whole IDES file. The returned reader is positioned at
+     * the start of the root element of the file.
+     * 
+     * @param stream the stream with the contents of the file
+     * @param root   the name of the root element of the file
+     * @return a reader positioned at the start of the root element of the file
+     * @throws FileLoadException if the file cannot be parsed or its root element
+     *                           has a different name
+     */
+    public static XMLStreamReader openDocument(InputStream stream, String root) throws FileLoadException {
+        try {
+            XMLStreamReader reader;
+            synchronized (FACTORY) {
+                reader = FACTORY.createXMLStreamReader(stream);
+            }
+            if (reader.nextTag() != XMLStreamConstants.START_ELEMENT || !root.equals(reader.getLocalName())) {
+                throw new FileLoadException(Hub.string("TD_ioCantParseFile"));
+            }
+            return reader;
+        } catch (XMLStreamException e) {
+            throw new FileLoadException(e.getMessage());
+        }
+    }
+
+    /**
+     * Advance the reader to the start of the next child of the current element.
+     * The reader has to be positioned at the start of the current element or at
+     * the end of one of its children.
+     * 
+     * @param reader the reader
+     * @return <code>true</code> if the reader is positioned at the start of the
+     *         next child; <code>false</code> if there are no more children and
+     *         the reader is positioned at the end of the current element
+     * @throws XMLStreamException if there is an error parsing the section
+     */
+    public static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Advance the reader to the end of the current element, skipping all of its
+     * contents. The reader has to be positioned at the start of the element.
+     * 
+     * @param reader the reader
+     * @throws XMLStreamException if there is an error parsing the section
+     */
+    public static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                ++depth;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                --depth;
+            }
+        }
+    }
+
+    /**
+     * Read all text contained in the current element, including the text of
+     * nested elements, and advance the reader to the end of the element. The
+     * reader has to be positioned at the start of the element.
+     * 
+     * @param reader the reader
+     * @return the text contained in the element
+     * @throws XMLStreamException if there is an error parsing the section
+     */
+    public static String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                ++depth;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                --depth;
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                text.append(reader.getText());
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Close the reader, ignoring any errors. The underlying stream is not closed.
+     * 
+     * @param reader the reader
+     */
+    public static void close(XMLStreamReader reader) {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+        }
+    }
+
+    /**
+     * Retrieve the value of an attribute of the current element.
+     * 
+     * @param reader the reader positioned at the start of the element
+     * @param name   the name of the attribute
+     * @return the value of the attribute
+     * @throws FileLoadException if the element does not have the attribute
+     */
+    public static String getAttribute(XMLStreamReader reader, String name) throws FileLoadException {
+        String value = reader.getAttributeValue(null, name);
+        if (value == null) {
+            throw new FileLoadException(
+                    Hub.string("TD_ioCantParseFile") + " (" + reader.getLocalName() + ": " + name + ")");
+        }
+        return value;
+    }
+}
@@ -24,13 +24,27 @@
 
 package templates.library;
 
+import java.io.File;
+
 import ides.api.core.Hub;
+import ides.api.model.fsa.FSAMessage;
 import ides.api.model.fsa.FSAModel;
+import ides.api.model.fsa.FSASubscriber;
+import ides.api.plugin.io.FileLoadException;
+import ides.api.plugin.model.ModelManager;
+import ides.api.utilities.GeneralUtils;
 import templates.diagram.SimpleIcon;
 import templates.utils.EntityIcon;
 
 /**
  * Implementation of a {@link Template} which is based on an {@link FSAModel}.
+ * The {@link FSAModel} can be loaded from its file only when it is first
+ * needed, see {@link #FSATemplate(TemplateDescriptor, File)}.
+ * <p>
+ * The instances of the template share a read-only snapshot of the
+ * {@link FSAModel} until they are modified (see {@link SharedFSA}). The
+ * snapshot is discarded when the {@link FSAModel} of the template is modified,
+ * so that the following instances reflect the modification.
  * 
  * @author Lenko Grigorov
  */
@@ -47,9 +61,37 @@ public class FSATemplate implements Template {
     protected String description;
 
     /**
-     * The {@link FSAModel} underlying the template.
+     * The {@link FSAModel} underlying the template, or <code>null</code> if it is
+     * not loaded yet.
+     */
+    protected FSAModel model = null;
+
+    /**
+     * The file with the {@link FSAModel} underlying the template, or
+     * <code>null</code> if the model is not loaded from a file.
      */
-    protected FSAModel model;
+    protected File file = null;
+
+    /**
+     * The read-only snapshot of the {@link FSAModel} underlying the template,
+     * shared by the instances of the template, or <code>null</code> if there is
+     * no up-to-date snapshot.
+     */
+    protected FSAModel snapshot = null;
+
+    /**
+     * The listener which discards the snapshot when the {@link FSAModel}
+     * underlying the template is modified.
+     */
+    protected FSASubscriber snapshotInvalidator = new FSASubscriber() {
+        public void fsaStructureChanged(FSAMessage message) {
+            discardSnapshot();
+        }
+
+        public void fsaEventSetChanged(FSAMessage message) {
+            discardSnapshot();
+        }
+    };
 
     /**
      * The icon of the template.
@@ -70,6 +112,20 @@ public class FSATemplate implements Template {
         icon = new SimpleIcon(tag, td.color, Hub.getMainWindow().getGraphics().create());
     }
 
+    /**
+     * Create a template based on the {@link FSAModel} in the given file, with the
+     * properties provided in the given {@link TemplateDescriptor}. The model is
+     * loaded from the file only when it is first needed.
+     * 
+     * @param td   the descriptor with the properties for the new template
+     * @param file the file with the FSA model on which the template should be
+     *             based
+     */
+    public FSATemplate(TemplateDescriptor td, File file) {
+        this(td, (FSAModel) null);
+        this.file = file;
+    }
+
     public EntityIcon getIcon() {
         return icon;
     }
@@ -79,15 +135,66 @@ public class FSATemplate implements Template {
     }
 
     public FSAModel instantiate() {
-        return model.clone();
+        return SharedFSA.share(getSnapshot());
+    }
+
+    /**
+     * Retrieve the read-only snapshot of the {@link FSAModel} underlying the
+     * template, creating it if necessary.
+     * 
+     * @return the snapshot of the FSA model underlying the template
+     */
+    protected synchronized FSAModel getSnapshot() {
+        if (snapshot == null) {
+            FSAModel fsa = getModel();
+            snapshot = fsa.clone();
+            fsa.removeSubscriber(snapshotInvalidator);
+            fsa.addSubscriber(snapshotInvalidator);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Discard the snapshot of the {@link FSAModel} underlying the template. The
+     * existing instances keep sharing the old snapshot.
+     */
+    protected synchronized void discardSnapshot() {
+        snapshot = null;
     }
 
     public String getDescription() {
         return description;
     }
 
-    public FSAModel getModel() {
+    public synchronized FSAModel getModel() {
+        if (model == null) {
+            model = load();
+        }
         return model;
     }
 
+    /**
+     * Load the {@link FSAModel} underlying the template from its file. Problems
+     * encountered when loading the model are reported in the notice manager; if
+     * the model cannot be loaded at all, an empty model is used instead.
+     * 
+     * @return the FSA model underlying the template
+     */
+    protected FSAModel load() {
+        FSAModel fsa;
+        try {
+            fsa = TemplateLibrary.loadTemplateModel(file);
+        } catch (FileLoadException e) {
+            fsa = (FSAModel) e.getPartialModel();
+            Hub.getNoticeManager().postErrorTemporary(Hub.string("TD_problemLoadingTemplate"),
+                    GeneralUtils.truncateMessage(e.getMessage()));
+            if (fsa == null) {
+                fsa = ModelManager.instance().createModel(FSAModel.class);
+            }
+        }
+        fsa.setName(tag);
+        fsa.modelSaved();
+        return fsa;
+    }
+
 }
@@ -45,12 +45,15 @@ import javax.swing.BoxLayout;
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
 import javax.swing.JComponent;
+import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.JScrollPane;
 import javax.swing.ListCellRenderer;
 import javax.swing.ListModel;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
 
 import ides.api.core.Hub;
 import ides.api.core.WorkspaceMessage;
@@ -64,12 +67,15 @@ import templates.model.TemplateModel;
 
 /**
  * The UI for the template library. Displays a list of the templates in the
- * library, as well as buttons to edit the content of the library.
+ * main and the shared libraries, as well as buttons to edit the content of the
+ * main library. The templates of the shared library cannot be removed or
+ * edited. The main library can be packed into a file which can then be used as
+ * a shared library (see {@link SharedTemplateLibrary}).
  * 
  * @author Lenko Grigorov
  */
 public class LibraryUI extends Box
-        implements Presentation, TemplateLibraryListener, MouseMotionListener, MouseListener {
+        implements Presentation, TemplateLibraryListener, MouseMotionListener, MouseListener, ListSelectionListener {
     private static final long serialVersionUID = -666343525812865685L;
 
     /**
@@ -102,6 +108,51 @@ public class LibraryUI extends Box
         }
     }
 
+    /**
+     * The UI action to pack the templates of the main template library into a
+     * file which can be opened as a shared template library.
+     * 
+     * @author Lenko Grigorov
+     */
+    public static class PackLibraryAction extends AbstractAction {
+        private static final long serialVersionUID = 6316251409825839507L;
+
+        /**
+         * Initialize the action.
+         */
+        public PackLibraryAction() {
+            super(Hub.string("TD_comPackLibrary"));
+            putValue(SHORT_DESCRIPTION, Hub.string("TD_comHintPackLibrary"));
+        }
+
+        /**
+         * Ask the user for the file where the library should be packed and pack the
+         * templates of the main library into it. Asks for confirmation before
+         * overwriting an existing file.
+         * 
+         * @see SharedTemplateLibrary#pack(java.util.Collection, File)
+         */
+        public void actionPerformed(ActionEvent evt) {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setDialogTitle(Hub.string("TD_packLibraryTitle"));
+            if (chooser.showSaveDialog(Hub.getMainWindow()) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            File file = chooser.getSelectedFile();
+            if (file.exists() && JOptionPane.showConfirmDialog(Hub.getMainWindow(),
+                    GeneralUtils.JOptionPaneKeyBinder.messageLabel(Hub.string("TD_confirmOverwriteLibrary")),
+                    Hub.string("TD_packLibraryTitle"), JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+                return;
+            }
+            try {
+                SharedTemplateLibrary.pack(TemplateManager.instance().getMainLibrary().getTemplates(), file);
+            } catch (IOException e) {
+                Hub.displayAlert(Hub.string("TD_errorPackingLibrary") + " " + file.getAbsolutePath() + ".\n"
+                        + GeneralUtils.truncateMessage(e.getMessage()));
+            }
+        }
+    }
+
     /**
      * The UI action to remove a template from the template library.
      * 
@@ -268,7 +319,7 @@ public class LibraryUI extends Box
          * events from the model and reload the template from the original file.
          */
         public void saveStatusChanged(DESModelMessage arg0) {
-            if (!file.equals(Hub.getIOSubsystem().getFileOfModel(arg0.getSource()))) {
+            if (file == null || !file.equals(Hub.getIOSubsystem().getFileOfModel(arg0.getSource()))) {
                 unsubscribeAndReload();
             }
         }
@@ -385,6 +436,18 @@ public class LibraryUI extends Box
      */
     protected ViewTemplateAction viewAction;
 
+    /**
+     * The action to remove templates from the main library, enabled only when
+     * all selected templates are in the main library.
+     */
+    protected DeleteTemplateAction deleteAction;
+
+    /**
+     * The action to edit a template of the main library, enabled only when a
+     * single template of the main library is selected.
+     */
+    protected EditTemplateAction editAction;
+
     /**
      * Set up the UI for the template library.
      */
@@ -397,12 +460,19 @@ public class LibraryUI extends Box
         updateList();
         list.setModel(model);
         TemplateManager.instance().getMainLibrary().addListener(this);
+        if (TemplateManager.instance().getSharedLibrary() != null) {
+            TemplateManager.instance().getSharedLibrary().addListener(this);
+        }
         list.addMouseMotionListener(this);
         list.addMouseListener(this);
         list.setTransferHandler(new LibraryTransferHandler());
         list.setDragEnabled(true);
 
         viewAction = new ViewTemplateAction();
+        deleteAction = new DeleteTemplateAction();
+        editAction = new EditTemplateAction();
+        list.addListSelectionListener(this);
+        updateActions();
 
         Box titleBox = Box.createHorizontalBox();
         titleBox.add(new JLabel(Hub.string("TD_avaliableTemplates")));
@@ -420,17 +490,45 @@ public class LibraryUI extends Box
         JButton addBut = new JButton(new AddTemplateAction());
         buttonBox.add(addBut);
         buttonBox.add(Box.createRigidArea(new Dimension(5, 0)));
-        JButton delBut = new JButton(new DeleteTemplateAction());
+        JButton delBut = new JButton(deleteAction);
         buttonBox.add(delBut);
         buttonBox.add(Box.createRigidArea(new Dimension(5, 0)));
-        JButton editBut = new JButton(new EditTemplateAction());
+        JButton editBut = new JButton(editAction);
         buttonBox.add(editBut);
         buttonBox.add(Box.createRigidArea(new Dimension(5, 0)));
         JButton viewBut = new JButton(viewAction);
         buttonBox.add(viewBut);
+        buttonBox.add(Box.createRigidArea(new Dimension(5, 0)));
+        JButton packBut = new JButton(new PackLibraryAction());
+        buttonBox.add(packBut);
         add(buttonBox);
     }
 
+    /**
+     * Enable the actions which modify templates only if all selected templates
+     * are in the main library. The templates of the shared library are
+     * read-only.
+     */
+    protected void updateActions() {
+        Object[] selected = list.getSelectedValues();
+        boolean editable = selected.length > 0;
+        for (Object template : selected) {
+            if (TemplateManager.instance().getMainLibrary().getTemplate(((Template) template).getName()) != template) {
+                editable = false;
+                break;
+            }
+        }
+        deleteAction.setEnabled(editable);
+        editAction.setEnabled(editable && selected.length == 1);
+    }
+
+    /**
+     * Update the actions which modify templates according to the selection.
+     */
+    public void valueChanged(ListSelectionEvent arg0) {
+        updateActions();
+    }
+
     /**
      * Update the list of templates to be displayed according to the current content
      * of the template library.
@@ -443,7 +541,7 @@ public class LibraryUI extends Box
             }
 
         });
-        for (Template t : TemplateManager.instance().getMainLibrary().getTemplates()) {
+        for (Template t : TemplateManager.instance().getTemplates()) {
             templates.add(t);
         }
         model.removeAllElements();
@@ -482,10 +580,11 @@ public class LibraryUI extends Box
     }
 
     /**
-     * Update the list of templates.
+     * Update the list of templates and the actions which modify templates.
      */
     public void templateCollectionChanged(TemplateLibrary source) {
         updateList();
+        updateActions();
     }
 
     /**
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package templates.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Watcher of the directory of a {@link TemplateLibrary}. When files in the
+ * directory are created, modified or deleted, the catalog of the library is
+ * revalidated on the thread of the watcher, and the changes to the templates
+ * are applied to the library on the event dispatch thread, so that the
+ * listeners of the library are notified once per batch of changes.
+ * <p>
+ * The events of the file system are debounced: the revalidation starts only
+ * after there have been no events for {@link #DEBOUNCE_DELAY} milliseconds, so
+ * that a file which is being written is read only once.
+ * 
+ * @author Lenko Grigorov
+ */
+public class LibraryWatcher implements Runnable {
+    /**
+     * The time, in milliseconds, without events in the directory after which the
+     * catalog is revalidated.
+     */
+    protected static final long DEBOUNCE_DELAY = 500;
+
+    /**
+     * The library whose directory is watched.
+     */
+    protected TemplateLibrary library;
+
+    /**
+     * The watch service of the directory, or <code>null</code> if the directory
+     * cannot be watched.
+     */
+    protected WatchService watcher = null;
+
+    /**
+     * Whether the catalog should be revalidated as soon as the watcher starts.
+     */
+    protected boolean revalidateOnStart;
+
+    /**
+     * Create a watcher for the directory of the given library.
+     * 
+     * @param library           the library whose directory will be watched
+     * @param revalidateOnStart whether the catalog of the library should be
+     *                          revalidated as soon as the watcher starts
+     */
+    public LibraryWatcher(TemplateLibrary library, boolean revalidateOnStart) {
+        this.library = library;
+        this.revalidateOnStart = revalidateOnStart;
+    }
+
+    /**
+     * Start watching the directory of the library on a new daemon thread. If the
+     * directory cannot be watched, changes to the files are not noticed, but the
+     * initial revalidation of the catalog is still performed if requested.
+     */
+    public void start() {
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            library.dir.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            stop();
+        }
+        Thread thread = new Thread(this, "Template library watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop watching the directory of the library.
+     */
+    public synchronized void stop() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+            }
+            watcher = null;
+        }
+    }
+
+    public void run() {
+        if (revalidateOnStart) {
+            refresh();
+        }
+        WatchService service;
+        synchronized (this) {
+            service = watcher;
+        }
+        if (service == null) {
+            return;
+        }
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean relevant = false;
+                while (key != null) {
+                    relevant |= isRelevant(key);
+                    if (!key.reset()) {
+                        stop();
+                        return;
+                    }
+                    key = service.poll(DEBOUNCE_DELAY, TimeUnit.MILLISECONDS);
+                }
+                if (relevant) {
+                    refresh();
+                }
+            }
+        } catch (InterruptedException e) {
+            stop();
+        } catch (ClosedWatchServiceException e) {
+        }
+    }
+
+    /**
+     * Check if any of the events of the given key concern files with models of
+     * templates. Events for the file of the catalog are ignored.
+     * 
+     * @param key the key with the events
+     * @return <code>true</code> if the events may concern files with models of
+     *         templates; <code>false</code> otherwise
+     */
+    protected boolean isRelevant(WatchKey key) {
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || !(event.context() instanceof Path)) {
+                relevant = true;
+            } else if (!TemplateCatalog.isCatalog(new File(((Path) event.context()).toString()))) {
+                relevant = true;
+            }
+        }
+        return relevant;
+    }
+
+    /**
+     * Revalidate the catalog of the library and apply the changes to the library
+     * on the event dispatch thread.
+     */
+    protected void refresh() {
+        final TemplateLibrary.CatalogChanges changes = library.revalidate();
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                library.applyChanges(changes);
+            }
+        });
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package templates.library;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import ides.api.model.fsa.FSAModel;
+import ides.api.plugin.model.ModelManager;
+import templates.io.LazyFSA;
+
+/**
+ * Copy-on-write proxy for an instance of the {@link FSAModel} of a
+ * {@link Template}. All instances of a template share a single read-only copy
+ * of the model of the template, and an instance gets a private copy of the
+ * model only when it is modified for the first time.
+ * <p>
+ * The name, the annotations, the parent model and the subscribers of each
+ * instance are kept separately, in a header model. The methods which only read
+ * the states, transitions and events are served by the shared model; any other
+ * method makes a private copy of the shared model first. Since the states,
+ * transitions and events returned by the shared model must not be modified,
+ * code which modifies them directly has to call {@link #materialize(FSAModel)}
+ * beforehand. Copies of an instance made with {@link FSAModel#clone()} are
+ * always private.
+ * 
+ * @author Lenko Grigorov
+ */
+public class SharedFSA extends LazyFSA {
+    /**
+     * Names of the methods which are served by the header model until the
+     * instance gets a private copy of the shared model.
+     */
+    protected static final Set<String> INSTANCE_METHODS = new HashSet<String>(Arrays.asList(new String[] {
+            "getName", "setName", "getModelType", "hasAnnotation", "getAnnotation", "setAnnotation",
+            "removeAnnotation", "getParentModel", "setParentModel", "needsSave", "modelSaved",
+            "metadataChanged" }));
+
+    /**
+     * Names of the methods which are served by the shared model until the
+     * instance gets a private copy of the shared model.
+     */
+    protected static final Set<String> READ_METHODS = new HashSet<String>(Arrays.asList(new String[] {
+            "getState", "getTransition", "getEvent", "getStateCount", "getTransitionCount", "getEventCount",
+            "getStateIterator", "getTransitionIterator", "getEventIterator", "getEventSet" }));
+
+    /**
+     * The model shared by all instances of the template.
+     */
+    protected FSAModel shared;
+
+    /**
+     * Construct a new handler for an instance of the given shared model.
+     * 
+     * @param shared the model shared by all instances of the template
+     * @param header the header model of the instance
+     */
+    protected SharedFSA(FSAModel shared, FSAModel header) {
+        super(null, header);
+        this.shared = shared;
+    }
+
+    /**
+     * Create a new instance of the given shared model. The shared model must not
+     * be modified afterwards.
+     * 
+     * @param shared the model shared by all instances of the template
+     * @return a proxy for the new instance
+     */
+    public static FSAModel share(FSAModel shared) {
+        FSAModel header = ModelManager.instance().createModel(FSAModel.class);
+        header.setName(shared.getName());
+        SharedFSA handler = new SharedFSA(shared, header);
+        handler.proxy = (FSAModel) Proxy.newProxyInstance(FSAModel.class.getClassLoader(),
+                new Class<?>[] { FSAModel.class }, handler);
+        return handler.proxy;
+    }
+
+    /**
+     * Make sure that the given instance has a private copy of the shared model,
+     * so that its states, transitions and events can be modified directly. Has
+     * no effect on models which are not instances of shared models.
+     * 
+     * @param fsa the model
+     */
+    public static void materialize(FSAModel fsa) {
+        if (Proxy.isProxyClass(fsa.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(fsa);
+            if (handler instanceof SharedFSA) {
+                ((SharedFSA) handler).getModel();
+            }
+        }
+    }
+
+    /**
+     * Make a private copy of the shared model.
+     */
+    @Override
+    protected FSAModel loadModel() {
+        return shared.clone();
+    }
+
+    @Override
+    protected FSAModel getPendingTarget(String name) {
+        if (INSTANCE_METHODS.contains(name)) {
+            return header;
+        } else if (READ_METHODS.contains(name)) {
+            return shared;
+        }
+        return null;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if ("clone".equals(method.getName()) && (args == null || args.length == 0)) {
+            FSAModel copy;
+            synchronized (this) {
+                if (model != null) {
+                    return model.clone();
+                }
+                copy = shared.clone();
+            }
+            copy.setName(header.getName());
+            return copy;
+        }
+        return super.invoke(proxy, method, args);
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package templates.library;
+
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+
+import ides.api.core.Hub;
+import ides.api.model.fsa.FSAModel;
+import ides.api.plugin.model.ModelManager;
+import templates.io.BinaryDesignIO;
+
+/**
+ * Read-only library of {@link Template}s shared by all users. The descriptions
+ * and the models of all templates are stored in a single packed file, which is
+ * mapped into memory: the catalog of the templates is read when the library is
+ * opened, and the model of a template is read from the mapping only when it is
+ * first needed. Since the file is mapped read-only, the IDES instances on the
+ * same host share the pages of the file.
+ * <p>
+ * The packed file starts with the {@link #MAGIC} bytes and the
+ * {@link #VERSION} of the format, followed by a file in the binary format of
+ * {@link BinaryDesignIO}, whose body contains the models of the templates and,
+ * after them, the catalog of the templates. The last four bytes of the file
+ * give the offset of the catalog in the body. Packed files are created with
+ * {@link #pack(Collection, File)}.
+ * 
+ * @author Lenko Grigorov
+ */
+public class SharedTemplateLibrary extends TemplateLibrary {
+    /**
+     * The bytes at the beginning of every packed file.
+     */
+    protected static final byte[] MAGIC = new byte[] { 'T', 'D', 'L' };
+
+    /**
+     * The version of the packed format supported by this class.
+     */
+    protected static final int VERSION = 1;
+
+    /**
+     * Writer of packed files.
+     */
+    protected static class PackWriter extends BinaryDesignIO.Writer {
+        /**
+         * Write the models and the catalog of the given templates to the body.
+         * 
+         * @param templates the templates
+         * @throws IOException if the meta-data of a model cannot be written
+         */
+        protected void writeTemplates(Collection<Template> templates) throws IOException {
+            int[] offsets = new int[templates.size()];
+            int i = 0;
+            for (Template template : templates) {
+                offsets[i++] = body.size();
+                writeFSA(template.getModel());
+            }
+            int catalog = body.size();
+            writeVarLong(templates.size());
+            i = 0;
+            for (Template template : templates) {
+                TemplateDescriptor td = new TemplateDescriptor();
+                if (template.getModel().hasAnnotation(Template.TEMPLATE_DESC)) {
+                    td = (TemplateDescriptor) template.getModel().getAnnotation(Template.TEMPLATE_DESC);
+                }
+                writeString(template.getName());
+                writeVarLong(td.color.getRGB() & 0xFFFFFF);
+                writeString(template.getDescription());
+                writeVarLong(offsets[i++]);
+            }
+            body.write(catalog >>> 24);
+            body.write(catalog >>> 16);
+            body.write(catalog >>> 8);
+            body.write(catalog);
+        }
+
+        /**
+         * Write the header of the packed file, followed by the header, the string
+         * table and the body of the binary format, to a stream.
+         * 
+         * @param out the stream
+         * @throws IOException if there is a problem writing to the stream
+         */
+        protected void writePackedTo(OutputStream out) throws IOException {
+            out.write(MAGIC);
+            out.write(VERSION);
+            writeTo(out);
+        }
+    }
+
+    /**
+     * Reader of packed files.
+     */
+    protected static class PackReader extends BinaryDesignIO.Reader {
+        /**
+         * The position of the body in the packed file.
+         */
+        protected int bodyStart;
+
+        /**
+         * Construct a reader of the given contents of a packed file, positioned
+         * after the header of the packed file.
+         * 
+         * @param buffer the contents of the packed file
+         * @throws IOException if the contents are not in the packed format
+         */
+        protected PackReader(ByteBuffer buffer) throws IOException {
+            super(buffer);
+            bodyStart = buffer.position();
+        }
+
+        /**
+         * Read the catalog of the packed file and create the templates in it.
+         * 
+         * @param library the library where the templates will be added
+         * @throws IOException if the catalog is malformed
+         */
+        protected synchronized void readCatalog(SharedTemplateLibrary library) throws IOException {
+            buffer.position(bodyStart + buffer.getInt(buffer.limit() - 4));
+            int count = readInt();
+            for (int i = 0; i < count; ++i) {
+                TemplateDescriptor td = new TemplateDescriptor();
+                td.tag = readString();
+                td.color = new Color(readInt());
+                td.description = readString();
+                Template template = new SharedTemplate(td, this, readInt());
+                library.templates.put(template.getName(), template);
+            }
+        }
+
+        /**
+         * Read the model of a template.
+         * 
+         * @param offset the offset of the model in the body
+         * @return the model of the template
+         * @throws IOException if the model is malformed
+         */
+        protected synchronized FSAModel readTemplate(int offset) throws IOException {
+            try {
+                buffer.position(bodyStart + offset);
+                return readFSA();
+            } catch (BufferUnderflowException e) {
+                throw new IOException(Hub.string("TD_ioCantParseFile"));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(Hub.string("TD_ioCantParseFile"));
+            }
+        }
+    }
+
+    /**
+     * A template whose model is read from a packed file when it is first needed.
+     */
+    protected static class SharedTemplate extends FSATemplate {
+        /**
+         * The reader of the packed file.
+         */
+        protected PackReader reader;
+
+        /**
+         * The offset of the model of the template in the body of the packed file.
+         */
+        protected int offset;
+
+        /**
+         * Create a template whose model is in a packed file.
+         * 
+         * @param td     the descriptor with the properties of the template
+         * @param reader the reader of the packed file
+         * @param offset the offset of the model of the template in the body of the
+         *               packed file
+         */
+        public SharedTemplate(TemplateDescriptor td, PackReader reader, int offset) {
+            super(td, (FSAModel) null);
+            this.reader = reader;
+            this.offset = offset;
+        }
+
+        /**
+         * Read the model of the template from the packed file. If the model cannot
+         * be read, the problem is reported in the notice manager and an empty
+         * model is used instead.
+         */
+        @Override
+        protected FSAModel load() {
+            FSAModel fsa;
+            try {
+                fsa = reader.readTemplate(offset);
+            } catch (IOException e) {
+                Hub.getNoticeManager().postErrorTemporary(Hub.string("TD_problemLoadingTemplate"),
+                        Hub.string("TD_cantLoadTemplate") + " " + tag + " [" + e.getMessage() + "]");
+                fsa = ModelManager.instance().createModel(FSAModel.class);
+            }
+            fsa.setName(tag);
+            fsa.modelSaved();
+            return fsa;
+        }
+    }
+
+    /**
+     * The packed file of the library.
+     */
+    protected File file;
+
+    /**
+     * Create a shared library from the given packed file. Use
+     * {@link #open(File)}.
+     * 
+     * @param file the packed file
+     */
+    protected SharedTemplateLibrary(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Open the shared library in the given packed file. The file is mapped into
+     * memory and the catalog of the templates is read.
+     * 
+     * @param file the packed file
+     * @return the shared library
+     * @throws IOException if the file cannot be read or is not in the packed
+     *                     format
+     */
+    public static SharedTemplateLibrary open(File file) throws IOException {
+        SharedTemplateLibrary library = new SharedTemplateLibrary(file);
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            for (int i = 0; i < MAGIC.length; ++i) {
+                if (buffer.get() != MAGIC[i]) {
+                    throw new IOException(Hub.string("TD_ioCantParseFile"));
+                }
+            }
+            if (buffer.get() != VERSION) {
+                throw new IOException(Hub.string("TD_ioUnsupportedVer"));
+            }
+            new PackReader(buffer).readCatalog(library);
+        } catch (BufferUnderflowException e) {
+            throw new IOException(Hub.string("TD_ioCantParseFile"));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(Hub.string("TD_ioCantParseFile"));
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException(Hub.string("TD_ioCantParseFile"));
+        } finally {
+            in.close();
+        }
+        return library;
+    }
+
+    /**
+     * Pack the given templates into a file which can be opened as a shared
+     * library.
+     * 
+     * @param templates the templates
+     * @param file      the packed file
+     * @throws IOException if there is a problem writing the file
+     */
+    public static void pack(Collection<Template> templates, File file) throws IOException {
+        PackWriter writer = new PackWriter();
+        writer.writeTemplates(templates);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            writer.writePackedTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Retrieve the packed file of the library.
+     * 
+     * @return the packed file of the library
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @throws IOException the shared library cannot be modified
+     */
+    @Override
+    public void addTemplate(TemplateDescriptor td, FSAModel model) throws IOException {
+        throw new IOException(Hub.string("TD_readOnlyLibrary"));
+    }
+
+    /**
+     * @throws IOException the shared library cannot be modified
+     */
+    @Override
+    public void removeTemplate(String name) throws IOException {
+        throw new IOException(Hub.string("TD_readOnlyLibrary"));
+    }
+
+    /**
+     * @throws IOException the shared library cannot be modified
+     */
+    @Override
+    public void reloadTemplate(String name) throws IOException {
+        throw new IOException(Hub.string("TD_readOnlyLibrary"));
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package templates.library;
+
+import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Catalog of the {@link Template}s in the directory of a
+ * {@link TemplateLibrary}. For every file with the model of a template, the
+ * catalog stores the description of the template, together with the time of
+ * the last modification, the size and a checksum of the file. This allows the
+ * template library to be populated without reading the files of the templates.
+ * <p>
+ * The catalog is kept in a file in the directory of the template library and
+ * is only a cache: if it is missing or cannot be read, it is rebuilt from the
+ * files of the templates.
+ * 
+ * @author Lenko Grigorov
+ */
+public class TemplateCatalog {
+    /**
+     * The name of the file of the catalog.
+     */
+    protected static final String FILE_NAME = ".catalog";
+
+    /**
+     * The version of the format of the file of the catalog.
+     */
+    protected static final int VERSION = 1;
+
+    /**
+     * The information about a file with the model of a template.
+     */
+    public static class Entry {
+        /**
+         * The description of the template.
+         */
+        public TemplateDescriptor descriptor;
+
+        /**
+         * The time of the last modification of the file.
+         */
+        public long modified;
+
+        /**
+         * The size of the file.
+         */
+        public long size;
+
+        /**
+         * The checksum of the contents of the file.
+         */
+        public long checksum;
+    }
+
+    /**
+     * The file of the catalog.
+     */
+    protected File file;
+
+    /**
+     * The entries of the catalog. The key is the name of the file with the model
+     * of the template.
+     */
+    protected Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Create an empty catalog for the given directory of a template library.
+     * 
+     * @param dir the directory of the template library
+     */
+    public TemplateCatalog(File dir) {
+        file = new File(dir, FILE_NAME);
+    }
+
+    /**
+     * Check if the given file is the file of a catalog, or a temporary file
+     * created while saving a catalog.
+     * 
+     * @param file the file to check
+     * @return <code>true</code> if the file is the file of a catalog or a
+     *         temporary file of a catalog; <code>false</code> otherwise
+     */
+    public static boolean isCatalog(File file) {
+        return file.getName().startsWith(FILE_NAME);
+    }
+
+    /**
+     * Load the catalog from its file, replacing the current entries.
+     * 
+     * @return <code>true</code> if the catalog was loaded; <code>false</code> if
+     *         the file of the catalog does not exist or cannot be read
+     */
+    public synchronized boolean load() {
+        if (!file.exists()) {
+            return false;
+        }
+        Map<String, Entry> loaded = new HashMap<String, Entry>();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != VERSION) {
+                    return false;
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; ++i) {
+                    String name = in.readUTF();
+                    Entry entry = new Entry();
+                    entry.modified = in.readLong();
+                    entry.size = in.readLong();
+                    entry.checksum = in.readLong();
+                    entry.descriptor = new TemplateDescriptor();
+                    entry.descriptor.tag = in.readUTF();
+                    entry.descriptor.color = new Color(in.readInt());
+                    entry.descriptor.description = in.readUTF();
+                    loaded.put(name, entry);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        entries = loaded;
+        return true;
+    }
+
+    /**
+     * Save the catalog to its file. The file is replaced atomically.
+     * 
+     * @throws IOException if there is a problem writing the file
+     */
+    public synchronized void save() throws IOException {
+        File temp = File.createTempFile(FILE_NAME, ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeLong(e.getValue().modified);
+                    out.writeLong(e.getValue().size);
+                    out.writeLong(e.getValue().checksum);
+                    out.writeUTF(e.getValue().descriptor.tag);
+                    out.writeInt(e.getValue().descriptor.color.getRGB());
+                    out.writeUTF(e.getValue().descriptor.description);
+                }
+            } finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Retrieve the names of the files in the catalog.
+     * 
+     * @return the names of the files in the catalog
+     */
+    public synchronized Set<String> getFileNames() {
+        return new HashSet<String>(entries.keySet());
+    }
+
+    /**
+     * Retrieve the entry for the given file.
+     * 
+     * @param file the file with the model of a template
+     * @return the entry for the file, or <code>null</code> if the catalog does
+     *         not contain the file
+     */
+    public synchronized Entry get(File file) {
+        return entries.get(file.getName());
+    }
+
+    /**
+     * Check if the entry for the given file is up to date, i.e., if the time of
+     * the last modification and the size of the file are the same as when the
+     * entry was created.
+     * 
+     * @param file the file with the model of a template
+     * @return <code>true</code> if the catalog contains an up-to-date entry for
+     *         the file; <code>false</code> otherwise
+     */
+    public synchronized boolean isCurrent(File file) {
+        Entry entry = entries.get(file.getName());
+        return entry != null && entry.modified == file.lastModified() && entry.size == file.length();
+    }
+
+    /**
+     * Set the entry for the given file.
+     * 
+     * @param file  the file with the model of a template
+     * @param entry the entry for the file
+     */
+    public synchronized void put(File file, Entry entry) {
+        entries.put(file.getName(), entry);
+    }
+
+    /**
+     * Remove the entry for the given file.
+     * 
+     * @param file the file with the model of a template
+     */
+    public synchronized void remove(File file) {
+        entries.remove(file.getName());
+    }
+
+    /**
+     * Create an entry for the given file, with the current time of the last
+     * modification, size and checksum of the file. The description of the
+     * template is not set.
+     * 
+     * @param file the file with the model of a template
+     * @return the entry for the file
+     * @throws IOException if the file cannot be read
+     */
+    public static Entry describe(File file) throws IOException {
+        Entry entry = new Entry();
+        entry.modified = file.lastModified();
+        entry.size = file.length();
+        CRC32 crc = new CRC32();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        entry.checksum = crc.getValue();
+        return entry;
+    }
+}
@@ -31,6 +31,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import ides.api.core.Hub;
 import ides.api.model.fsa.FSAModel;
@@ -42,6 +43,15 @@ import ides.api.utilities.GeneralUtils;
 
 /**
  * Library of {@link Template}s.
+ * <p>
+ * The descriptions of the templates are kept in a {@link TemplateCatalog} in
+ * the directory of the library, so that the library can be populated without
+ * loading the models of the templates; each model is loaded from its file when
+ * it is first needed (see {@link FSATemplate}). The directory is watched by a
+ * {@link LibraryWatcher}: when the library is created from an existing catalog
+ * and whenever files in the directory change, the catalog is revalidated
+ * against the files in the background, and the templates whose files were
+ * added, modified or removed are updated once the revalidation completes.
  * 
  * @author Lenko Grigorov
  */
@@ -64,6 +74,45 @@ public class TemplateLibrary {
      */
     File dir;
 
+    /**
+     * The catalog of the templates in the directory.
+     */
+    TemplateCatalog catalog;
+
+    /**
+     * The watcher of the directory.
+     */
+    LibraryWatcher watcher;
+
+    /**
+     * The changes to the templates in the library found when the catalog is
+     * revalidated against the files in the directory.
+     */
+    protected static class CatalogChanges {
+        /**
+         * The files which were added or modified, with the new descriptions of
+         * their templates.
+         */
+        public Map<File, TemplateDescriptor> changed = new HashMap<File, TemplateDescriptor>();
+
+        /**
+         * The files which were removed or cannot be used anymore.
+         */
+        public Set<File> removed = new HashSet<File>();
+
+        /**
+         * The problems encountered during the revalidation.
+         */
+        public String errors = "";
+    }
+
+    /**
+     * Create an empty template library which is not backed by a directory. Used
+     * by subclasses which provide the templates in a different way.
+     */
+    protected TemplateLibrary() {
+    }
+
     /**
      * Create a new template library using the files in the given directory.
      * Problems encountered when loading the templates are reported in the
@@ -74,28 +123,140 @@ public class TemplateLibrary {
      */
     public TemplateLibrary(File dir) {
         this.dir = dir;
-        String errors = "";
+        catalog = new TemplateCatalog(dir);
+        boolean cataloged = catalog.load();
+        if (cataloged) {
+            for (String name : catalog.getFileNames()) {
+                File file = new File(dir, name);
+                Template template = new FSATemplate(catalog.get(file).descriptor, file);
+                templates.put(template.getName(), template);
+                files.put(template, file);
+            }
+        } else {
+            applyChanges(revalidate());
+        }
+        watcher = new LibraryWatcher(this, cataloged);
+        watcher.start();
+    }
+
+    /**
+     * Revalidate the catalog against the files in the directory. The
+     * descriptions of the templates are read only from the files which are not
+     * in the catalog, or whose time of the last modification or size differ
+     * from the catalog, and whose contents have changed. The updated catalog is
+     * saved.
+     * 
+     * @return the changes to the templates in the library
+     */
+    protected synchronized CatalogChanges revalidate() {
+        CatalogChanges changes = new CatalogChanges();
+        Set<String> present = new HashSet<String>();
         for (File file : dir.listFiles()) {
-            FSAModel model = null;
-            try {
-                model = loadTemplateModel(file);
-            } catch (FileLoadException e) {
-                model = (FSAModel) e.getPartialModel();
-                errors += e.getMessage();
+            if (!file.isFile() || TemplateCatalog.isCatalog(file)) {
+                continue;
             }
-            if (model == null) {
+            present.add(file.getName());
+            if (catalog.isCurrent(file)) {
                 continue;
             }
-            TemplateDescriptor td = (TemplateDescriptor) model.getAnnotation(Template.TEMPLATE_DESC);
-            model.setName(td.tag);
-            model.modelSaved();
-            Template template = new FSATemplate(td, model);
+            try {
+                TemplateCatalog.Entry entry = TemplateCatalog.describe(file);
+                TemplateCatalog.Entry old = catalog.get(file);
+                if (old != null && old.checksum == entry.checksum) {
+                    entry.descriptor = old.descriptor;
+                } else {
+                    entry.descriptor = TemplateMetaIO.readDescriptor(file);
+                    changes.changed.put(file, entry.descriptor);
+                }
+                catalog.put(file, entry);
+            } catch (IOException e) {
+                changes.errors += Hub.string("TD_cantLoadTemplate") + " " + file.getAbsolutePath() + " ["
+                        + e.getMessage() + "]\n";
+                if (catalog.get(file) != null) {
+                    catalog.remove(file);
+                    changes.removed.add(file);
+                }
+            }
+        }
+        for (String name : catalog.getFileNames()) {
+            if (!present.contains(name)) {
+                File file = new File(dir, name);
+                catalog.remove(file);
+                changes.removed.add(file);
+            }
+        }
+        saveCatalog();
+        return changes;
+    }
+
+    /**
+     * Apply the changes found when the catalog was revalidated to the templates
+     * in the library. Problems encountered during the revalidation are reported
+     * in the {@link NoticeManager}.
+     * 
+     * @param changes the changes to the templates in the library
+     */
+    protected void applyChanges(CatalogChanges changes) {
+        for (File file : changes.removed) {
+            removeFile(file);
+        }
+        for (Map.Entry<File, TemplateDescriptor> change : changes.changed.entrySet()) {
+            removeFile(change.getKey());
+            Template template = new FSATemplate(change.getValue(), change.getKey());
             templates.put(template.getName(), template);
-            files.put(template, file);
+            files.put(template, change.getKey());
         }
-        if (!"".equals(errors)) {
+        if (!changes.removed.isEmpty() || !changes.changed.isEmpty()) {
+            fireCollectionChanged();
+        }
+        if (!"".equals(changes.errors)) {
             Hub.getNoticeManager().postErrorTemporary(Hub.string("TD_problemLoadingTemplate"),
-                    GeneralUtils.truncateMessage(errors));
+                    GeneralUtils.truncateMessage(changes.errors));
+        }
+    }
+
+    /**
+     * Remove the template saved in the given file from the library. The file
+     * itself is not removed.
+     * 
+     * @param file the file with the model of the template
+     */
+    protected void removeFile(File file) {
+        for (Template template : new HashSet<Template>(files.keySet())) {
+            if (file.equals(files.get(template))) {
+                files.remove(template);
+                if (templates.get(template.getName()) == template) {
+                    templates.remove(template.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Update the entry of the catalog for the given file and save the catalog.
+     * 
+     * @param file the file with the model of the template
+     * @param td   the description of the template
+     */
+    protected void updateCatalog(File file, TemplateDescriptor td) {
+        try {
+            TemplateCatalog.Entry entry = TemplateCatalog.describe(file);
+            entry.descriptor = td;
+            catalog.put(file, entry);
+        } catch (IOException e) {
+            catalog.remove(file);
+        }
+        saveCatalog();
+    }
+
+    /**
+     * Save the catalog. Problems are ignored, since the catalog is rebuilt from
+     * the files in the directory when it cannot be loaded.
+     */
+    protected void saveCatalog() {
+        try {
+            catalog.save();
+        } catch (IOException e) {
         }
     }
 
@@ -156,6 +317,7 @@ public class TemplateLibrary {
         Template template = new FSATemplate(td, model);
         templates.put(template.getName(), template);
         files.put(template, file);
+        updateCatalog(file, td);
         fireCollectionChanged();
     }
 
@@ -174,6 +336,8 @@ public class TemplateLibrary {
             if (file != null) {
                 file.delete();
                 files.remove(template);
+                catalog.remove(file);
+                saveCatalog();
             }
             templates.remove(name);
             fireCollectionChanged();
@@ -211,6 +375,7 @@ public class TemplateLibrary {
         Template newTemplate = new FSATemplate((TemplateDescriptor) model.getAnnotation(Template.TEMPLATE_DESC), model);
         templates.put(newTemplate.getName(), newTemplate);
         files.put(newTemplate, file);
+        updateCatalog(file, (TemplateDescriptor) model.getAnnotation(Template.TEMPLATE_DESC));
         fireCollectionChanged();
         if (!"".equals(errors)) {
             throw new IOException(errors);
@@ -227,7 +392,7 @@ public class TemplateLibrary {
      *                           exception may contain the partially-loaded model
      * @see TemplateDescriptor
      */
-    protected FSAModel loadTemplateModel(File file) throws FileLoadException {
+    protected static FSAModel loadTemplateModel(File file) throws FileLoadException {
         String errors = "";
         DESModel model = null;
         try {
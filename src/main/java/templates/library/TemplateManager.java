@@ -25,11 +25,22 @@
 package templates.library;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import ides.api.core.Hub;
 
 /**
- * Singleton manager of the {@link TemplateLibrary}s available at runtime. As of
- * Template Design plugin version 3, a single template library is maintained, in
- * the "templates" sub-directory of the IDES installation.
+ * Singleton manager of the {@link TemplateLibrary}s available at runtime. The
+ * main template library is maintained in the "templates" sub-directory of the
+ * IDES installation. In addition, a read-only {@link SharedTemplateLibrary} is
+ * opened from the packed file given by the system property
+ * <code>templates.sharedLibrary</code>, if the property is set. The templates of
+ * the two libraries are merged by their "ID", with the templates in the main
+ * library taking precedence.
  * 
  * @author Lenko Grigorov
  */
@@ -45,17 +56,15 @@ public class TemplateManager {
     protected TemplateLibrary localLib;
 
     /**
-     * The library shared by all users.
-     * <p>
-     * Note: As of Template Design plugin version 3, shared libraries are not
-     * supported. This functionality is reserved for future releases of the Template
-     * Design plugin.
+     * The library shared by all users, or <code>null</code> if there is no shared
+     * library.
      */
-    protected TemplateLibrary sharedLib;
+    protected TemplateLibrary sharedLib = null;
 
     /**
      * Initialize the template manager. If the "templates" sub-directory does not
-     * exist, it is created.
+     * exist, it is created. If the packed file of the shared library cannot be
+     * opened, the problem is reported in the notice manager.
      */
     private TemplateManager() {
         File local = new File("templates");
@@ -63,6 +72,15 @@ public class TemplateManager {
             local.mkdir();
         }
         localLib = new TemplateLibrary(local);
+        String shared = System.getProperty("templates.sharedLibrary");
+        if (shared != null) {
+            try {
+                sharedLib = SharedTemplateLibrary.open(new File(shared));
+            } catch (IOException e) {
+                Hub.getNoticeManager().postErrorTemporary(Hub.string("TD_problemLoadingTemplate"),
+                        Hub.string("TD_cantLoadSharedLibrary") + " " + shared + " [" + e.getMessage() + "]");
+            }
+        }
     }
 
     /**
@@ -86,14 +104,58 @@ public class TemplateManager {
     }
 
     /**
-     * Retrieve the main template library.
-     * <p>
-     * Note: As of Template Design plugin version 3, only one library is supported
-     * by the {@link TemplateManager}. This method returns this library.
+     * Retrieve the main template library. This is the library where new templates
+     * are added.
      * 
      * @return the main template library
      */
     public TemplateLibrary getMainLibrary() {
         return localLib;
     }
+
+    /**
+     * Retrieve the shared template library.
+     * 
+     * @return the shared template library, or <code>null</code> if there is no
+     *         shared library
+     */
+    public TemplateLibrary getSharedLibrary() {
+        return sharedLib;
+    }
+
+    /**
+     * Retrieve the templates of the main and the shared template libraries. If
+     * both libraries contain a template with the same "ID", the template from the
+     * main library is returned.
+     * 
+     * @return the templates of the main and the shared template libraries
+     */
+    public Collection<Template> getTemplates() {
+        Map<String, Template> templates = new HashMap<String, Template>();
+        if (sharedLib != null) {
+            for (Template template : sharedLib.getTemplates()) {
+                templates.put(template.getName(), template);
+            }
+        }
+        for (Template template : localLib.getTemplates()) {
+            templates.put(template.getName(), template);
+        }
+        return new HashSet<Template>(templates.values());
+    }
+
+    /**
+     * Retrieve the template with the given "ID" from the main or the shared
+     * template library. The main library takes precedence.
+     * 
+     * @param name the "ID" of the template
+     * @return the template with the given "ID" if one of the libraries contains
+     *         it; <code>null</code> otherwise
+     */
+    public Template getTemplate(String name) {
+        Template template = localLib.getTemplate(name);
+        if (template == null && sharedLib != null) {
+            template = sharedLib.getTemplate(name);
+        }
+        return template;
+    }
 }
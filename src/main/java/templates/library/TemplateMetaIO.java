@@ -25,21 +25,17 @@
 package templates.library;
 
 import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.HashSet;
 import java.util.Set;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import ides.api.core.Hub;
 import ides.api.plugin.io.FileIOPlugin;
@@ -47,7 +43,7 @@ import ides.api.plugin.io.FileLoadException;
 import ides.api.plugin.io.FileSaveException;
 import ides.api.plugin.io.UnsupportedVersionException;
 import ides.api.plugin.model.DESModel;
-import ides.api.utilities.HeadTailInputStream;
+import templates.io.XMLSectionReader;
 
 /**
  * Stores and loads the descriptions of {@link Template}s when the models of the
@@ -132,64 +128,105 @@ public class TemplateMetaIO implements FileIOPlugin {
         if (!VERSION.equals(version)) {
             throw new UnsupportedVersionException(Hub.string("TD_unsupportedVersion"));
         }
-        byte[] FILE_HEADER = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + System.getProperty("line.separator") + "<"
-                + ELEMENT_META + ">" + System.getProperty("line.separator")).getBytes();
-        HeadTailInputStream metaField = new HeadTailInputStream(stream, FILE_HEADER,
-                ("</" + ELEMENT_META + ">").getBytes());
-        Document doc = null;
-        try {
-            DocumentBuilder parser = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-            doc = parser.parse(metaField);
-        } catch (ParserConfigurationException e) {
-            throw new FileLoadException(e.getMessage());
-        } catch (IOException e) {
-            throw new FileLoadException(e.getMessage());
-        } catch (SAXException e) {
-            throw new FileLoadException(e.getMessage());
-        }
-        if (doc == null) {
-            throw new FileLoadException(Hub.string("TD_ioCantParseFile"));
-        }
-        Node dataNode = null;
-        for (int i = 0; i < doc.getChildNodes().getLength(); ++i) {
-            if (doc.getChildNodes().item(i).getNodeName().equals(ELEMENT_META)) {
-                dataNode = doc.getChildNodes().item(i);
-            }
-        }
-        if (dataNode == null) {
-            throw new FileLoadException(Hub.string("TD_ioCantParseFile"));
-        }
+        XMLStreamReader reader = XMLSectionReader.open(stream, ELEMENT_META);
         String errors = "";
-        NodeList children = dataNode.getChildNodes();
         try {
-            for (int i = 0; i < children.getLength(); i++) {
-                Node node = children.item(i);
-                if (node.getNodeName().equals(ELEMENT_INFO)) {
-                    NamedNodeMap attributes = node.getAttributes();
+            while (XMLSectionReader.nextChild(reader)) {
+                if (reader.getLocalName().equals(ELEMENT_INFO)) {
                     TemplateDescriptor td = new TemplateDescriptor();
-                    td.tag = attributes.getNamedItem(ATTRIBUTE_TAG).getNodeValue();
-                    try {
-                        td.color = Color.decode(attributes.getNamedItem(ATTRIBUTE_COLOR).getNodeValue());
-                    } catch (NumberFormatException e) {
-                        errors += Hub.string("TD_ioCantParseFile") + " ("
-                                + attributes.getNamedItem(ATTRIBUTE_COLOR).getNodeValue() + ")\n";
-                    }
-                    for (int j = 0; j < node.getChildNodes().getLength(); j++) {
-                        Node child = node.getChildNodes().item(j);
-                        if (child.getNodeName().equals(ELEMENT_DESC)) {
-                            td.description = child.getTextContent();
-                            break;
-                        }
-                    }
+                    errors += readInfo(reader, td);
                     model.setAnnotation(Template.TEMPLATE_DESC, td);
                     break;
                 }
+                XMLSectionReader.skipElement(reader);
             }
             if (!"".equals(errors)) {
                 throw new RuntimeException(errors);
             }
         } catch (Exception e) {
             throw new FileLoadException(e.getMessage(), model);
+        } finally {
+            XMLSectionReader.close(reader);
+        }
+    }
+
+    /**
+     * Read the information pertaining to a template from the "template" XML
+     * element at the current position of the reader.
+     * 
+     * @param reader the reader positioned at the start of the "template" element
+     * @param td     the descriptor where the information will be stored
+     * @return the description of the problems encountered, or an empty string if
+     *         there were no problems
+     * @throws XMLStreamException if the XML structure cannot be read
+     * @throws FileLoadException  if the element lacks a required attribute
+     */
+    protected static String readInfo(XMLStreamReader reader, TemplateDescriptor td)
+            throws XMLStreamException, FileLoadException {
+        String errors = "";
+        td.tag = XMLSectionReader.getAttribute(reader, ATTRIBUTE_TAG);
+        String color = XMLSectionReader.getAttribute(reader, ATTRIBUTE_COLOR);
+        try {
+            td.color = Color.decode(color);
+        } catch (NumberFormatException e) {
+            errors += Hub.string("TD_ioCantParseFile") + " (" + color + ")\n";
+        }
+        while (XMLSectionReader.nextChild(reader)) {
+            if (reader.getLocalName().equals(ELEMENT_DESC)) {
+                td.description = XMLSectionReader.readText(reader);
+                break;
+            }
+            XMLSectionReader.skipElement(reader);
+        }
+        return errors;
+    }
+
+    /**
+     * Read the description of the template in the given file, without loading the
+     * model of the template.
+     * 
+     * @param file the file with the model of the template
+     * @return the description of the template
+     * @throws IOException if the file cannot be read, it does not contain an FSA
+     *                     or it does not contain the description of a template
+     */
+    public static TemplateDescriptor readDescriptor(File file) throws IOException {
+        InputStream stream = new BufferedInputStream(new FileInputStream(file));
+        XMLStreamReader reader = null;
+        try {
+            reader = XMLSectionReader.openDocument(stream, "model");
+            if (!"FSA".equals(reader.getAttributeValue(null, "type"))) {
+                throw new IOException(Hub.string("TD_nonFSATemplate"));
+            }
+            while (XMLSectionReader.nextChild(reader)) {
+                if (!ELEMENT_META.equals(reader.getLocalName())
+                        || !META_TAG.equals(reader.getAttributeValue(null, "tag"))) {
+                    XMLSectionReader.skipElement(reader);
+                    continue;
+                }
+                if (!VERSION.equals(reader.getAttributeValue(null, "version"))) {
+                    throw new IOException(Hub.string("TD_unsupportedVersion"));
+                }
+                while (XMLSectionReader.nextChild(reader)) {
+                    if (reader.getLocalName().equals(ELEMENT_INFO)) {
+                        TemplateDescriptor td = new TemplateDescriptor();
+                        String errors = readInfo(reader, td);
+                        if (!"".equals(errors)) {
+                            throw new IOException(errors);
+                        }
+                        return td;
+                    }
+                    XMLSectionReader.skipElement(reader);
+                }
+            }
+            throw new IOException(Hub.string("TD_missingTemplateInfo"));
+        } catch (XMLStreamException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            if (reader != null) {
+                XMLSectionReader.close(reader);
+            }
+            stream.close();
         }
     }
 
@@ -0,0 +1,458 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package templates.model;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ides.api.model.fsa.FSAMessage;
+import ides.api.model.fsa.FSAModel;
+import ides.api.model.fsa.FSASubscriber;
+import ides.api.plugin.model.DESModelMessage;
+import ides.api.plugin.model.DESModelSubscriber;
+import templates.model.Validator.ValidatorResult;
+
+/**
+ * Keeps the consistency issues of a {@link TemplateModel} up to date between
+ * validations. The validator listens to the changes in the template design and
+ * in the FSAs of its components, and when the issues are requested, it
+ * re-evaluates only the components, links and <i>channels</i> affected by the
+ * changes since the previous request. The issues reported are the same as the
+ * issues reported by {@link Validator#validate(TemplateModel)}, and they are
+ * reported in the same order.
+ * <p>
+ * The re-evaluation is postponed until the issues are requested since the
+ * events of a new link are set only after the link is added to the design.
+ * <p>
+ * A validator is attached to the template design as an annotation; use
+ * {@link #getValidator(TemplateModel)} to retrieve it.
+ * 
+ * @author Lenko Grigorov
+ */
+public class IncrementalValidator implements TemplateModelSubscriber, FSASubscriber, DESModelSubscriber {
+    /**
+     * Key for the annotation of the template design which stores the validator.
+     */
+    protected static final String VALIDATOR = "templates.model.IncrementalValidator";
+
+    /**
+     * The template design monitored by the validator.
+     */
+    protected TemplateModel model;
+
+    /**
+     * The issues of each component which do not depend on other components,
+     * indexed by the ID of the component.
+     */
+    protected Map<Long, List<ValidatorResult>> componentIssues = new HashMap<Long, List<ValidatorResult>>();
+
+    /**
+     * The issues of each link, indexed by the ID of the link.
+     */
+    protected Map<Long, List<ValidatorResult>> linkIssues = new HashMap<Long, List<ValidatorResult>>();
+
+    /**
+     * The issues with the linking of the events of each <i>channel</i>, indexed
+     * by the ID of the <i>channel</i>.
+     */
+    protected Map<Long, List<ValidatorResult>> channelIssues = new HashMap<Long, List<ValidatorResult>>();
+
+    /**
+     * The IDs of the components which have to be re-evaluated.
+     */
+    protected Set<Long> dirtyComponents = new HashSet<Long>();
+
+    /**
+     * The IDs of the links which have to be re-evaluated.
+     */
+    protected Set<Long> dirtyLinks = new HashSet<Long>();
+
+    /**
+     * The IDs of the components whose issues as <i>channels</i> have to be
+     * re-evaluated.
+     */
+    protected Set<Long> dirtyChannels = new HashSet<Long>();
+
+    /**
+     * The links in the design, indexed by their IDs. Used to find the components
+     * which were linked by a removed link.
+     */
+    protected Map<Long, TemplateLink> links = new HashMap<Long, TemplateLink>();
+
+    /**
+     * The types of the evaluated components, indexed by the ID of the
+     * component.
+     */
+    protected Map<Long, Integer> types = new HashMap<Long, Integer>();
+
+    /**
+     * The number of evaluated <i>modules</i>.
+     */
+    protected int moduleCount = 0;
+
+    /**
+     * The number of evaluated <i>channels</i>.
+     */
+    protected int channelCount = 0;
+
+    /**
+     * The names of the FSAs of the evaluated components, indexed by the ID of
+     * the component.
+     */
+    protected Map<Long, String> names = new HashMap<Long, String>();
+
+    /**
+     * The evaluated components, indexed by the name of their FSAs.
+     */
+    protected Map<String, Set<TemplateComponent>> components = new HashMap<String, Set<TemplateComponent>>();
+
+    /**
+     * The names of FSAs shared by more than one component.
+     */
+    protected Set<String> duplicateNames = new HashSet<String>();
+
+    /**
+     * The FSAs of the components to which the validator subscribes, indexed by
+     * the ID of the component.
+     */
+    protected Map<Long, FSAModel> fsas = new HashMap<Long, FSAModel>();
+
+    /**
+     * The IDs of the components, indexed by the FSA of the component.
+     */
+    protected Map<FSAModel, Long> fsa2component = new IdentityHashMap<FSAModel, Long>();
+
+    /**
+     * Constructs a new validator for the given template design and subscribes to
+     * the design and the FSAs of its components.
+     * 
+     * @param model the template design to be monitored
+     */
+    protected IncrementalValidator(TemplateModel model) {
+        this.model = model;
+        for (TemplateComponent component : model.getComponents()) {
+            dirtyComponents.add(component.getId());
+            dirtyChannels.add(component.getId());
+            track(component.getId());
+        }
+        for (TemplateLink link : model.getLinks()) {
+            dirtyLinks.add(link.getId());
+            links.put(link.getId(), link);
+        }
+        model.addSubscriber((TemplateModelSubscriber) this);
+    }
+
+    /**
+     * Retrieves the validator for the given template design. If the design does
+     * not have a validator yet, a new validator is created.
+     * 
+     * @param model the template design
+     * @return the validator for the template design
+     */
+    public static synchronized IncrementalValidator getValidator(TemplateModel model) {
+        if (!model.hasAnnotation(VALIDATOR)) {
+            model.setAnnotation(VALIDATOR, new IncrementalValidator(model));
+        }
+        return (IncrementalValidator) model.getAnnotation(VALIDATOR);
+    }
+
+    /**
+     * Returns all consistency issues of the template design. Only the elements
+     * affected by the changes since the last invocation are re-evaluated.
+     * 
+     * @return a collection of all consistency issues of the template design
+     * @see Validator#validate(TemplateModel)
+     */
+    public synchronized List<ValidatorResult> validate() {
+        refresh();
+        LinkedList<ValidatorResult> ret = new LinkedList<ValidatorResult>();
+        for (TemplateComponent component : model.getComponents()) {
+            addAll(ret, componentIssues.get(component.getId()));
+        }
+        if (moduleCount == 0) {
+            ret.add(new ValidatorResult(Validator.ERROR_NO_MODULE, ValidatorResult.ERROR));
+        }
+        if (channelCount == 0) {
+            ret.add(new ValidatorResult(Validator.WARNING_NO_CHANNEL, ValidatorResult.WARNING));
+        }
+        Set<String> reported = new HashSet<String>();
+        for (TemplateComponent component : model.getComponents()) {
+            String name = names.get(component.getId());
+            if (name != null && duplicateNames.contains(name) && reported.add(name)) {
+                ret.add(new ValidatorResult(Validator.ERROR_NONUNIQUE_NAME,
+                        new HashSet<TemplateComponent>(components.get(name)), ValidatorResult.ERROR));
+            }
+        }
+        for (TemplateLink link : model.getLinks()) {
+            addAll(ret, linkIssues.get(link.getId()));
+        }
+        for (TemplateComponent component : model.getChannels()) {
+            addAll(ret, channelIssues.get(component.getId()));
+        }
+        return ret;
+    }
+
+    /**
+     * Appends the given issues, if any, to the list of issues.
+     * 
+     * @param ret    the list of issues
+     * @param issues the issues to be appended, or <code>null</code> if there are
+     *               no issues
+     */
+    protected static void addAll(List<ValidatorResult> ret, List<ValidatorResult> issues) {
+        if (issues != null) {
+            ret.addAll(issues);
+        }
+    }
+
+    /**
+     * Re-evaluates the components, links and <i>channels</i> affected by the
+     * changes since the last re-evaluation.
+     */
+    protected void refresh() {
+        for (Long id : dirtyComponents) {
+            componentIssues.remove(id);
+            unindex(id);
+            TemplateComponent component = model.getComponent(id);
+            if (component != null) {
+                List<ValidatorResult> issues = new LinkedList<ValidatorResult>();
+                Validator.validateComponent(model, component, issues);
+                if (!issues.isEmpty()) {
+                    componentIssues.put(id, issues);
+                }
+                index(component);
+            }
+        }
+        for (Long id : dirtyLinks) {
+            linkIssues.remove(id);
+            TemplateLink link = model.getLink(id);
+            if (link != null) {
+                List<ValidatorResult> issues = new LinkedList<ValidatorResult>();
+                Validator.validateLink(link, issues);
+                if (!issues.isEmpty()) {
+                    linkIssues.put(id, issues);
+                }
+            }
+        }
+        for (Long id : dirtyChannels) {
+            channelIssues.remove(id);
+            TemplateComponent component = model.getComponent(id);
+            if (component != null && component.getType() == TemplateComponent.TYPE_CHANNEL) {
+                List<ValidatorResult> issues = new LinkedList<ValidatorResult>();
+                Validator.validateChannel(model, component, issues);
+                if (!issues.isEmpty()) {
+                    channelIssues.put(id, issues);
+                }
+            }
+        }
+        dirtyComponents.clear();
+        dirtyLinks.clear();
+        dirtyChannels.clear();
+    }
+
+    /**
+     * Adds the type and the FSA name of the given component to the counts of
+     * types and to the index of names.
+     * 
+     * @param component the component
+     */
+    protected void index(TemplateComponent component) {
+        types.put(component.getId(), component.getType());
+        if (component.getType() == TemplateComponent.TYPE_MODULE) {
+            moduleCount++;
+        } else if (component.getType() == TemplateComponent.TYPE_CHANNEL) {
+            channelCount++;
+        }
+        if (component.hasModel()) {
+            String name = component.getModel().getName();
+            names.put(component.getId(), name);
+            Set<TemplateComponent> named = components.get(name);
+            if (named == null) {
+                named = new HashSet<TemplateComponent>();
+                components.put(name, named);
+            }
+            named.add(component);
+            if (named.size() > 1) {
+                duplicateNames.add(name);
+            }
+        }
+    }
+
+    /**
+     * Removes the type and the FSA name of the component with the given ID from
+     * the counts of types and from the index of names.
+     * 
+     * @param componentId the ID of the component
+     */
+    protected void unindex(long componentId) {
+        Integer type = types.remove(componentId);
+        if (type != null) {
+            if (type == TemplateComponent.TYPE_MODULE) {
+                moduleCount--;
+            } else if (type == TemplateComponent.TYPE_CHANNEL) {
+                channelCount--;
+            }
+        }
+        String name = names.remove(componentId);
+        if (name != null) {
+            Set<TemplateComponent> named = components.get(name);
+            for (TemplateComponent component : new HashSet<TemplateComponent>(named)) {
+                if (component.getId() == componentId) {
+                    named.remove(component);
+                }
+            }
+            if (named.size() < 2) {
+                duplicateNames.remove(name);
+            }
+            if (named.isEmpty()) {
+                components.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Marks for re-evaluation the given component, its links and the
+     * <i>channels</i> linked to it.
+     * 
+     * @param componentId the ID of the component
+     */
+    protected void componentChanged(long componentId) {
+        dirtyComponents.add(componentId);
+        dirtyChannels.add(componentId);
+        for (TemplateLink link : model.getAdjacentLinks(componentId)) {
+            dirtyLinks.add(link.getId());
+            dirtyChannels.add(link.getLeftComponent().getId());
+            dirtyChannels.add(link.getRightComponent().getId());
+        }
+    }
+
+    /**
+     * Marks for re-evaluation the given link and the components linked by it.
+     * 
+     * @param link the link
+     */
+    protected void linkChanged(TemplateLink link) {
+        dirtyLinks.add(link.getId());
+        for (TemplateComponent component : link.getComponents()) {
+            dirtyComponents.add(component.getId());
+            dirtyChannels.add(component.getId());
+        }
+    }
+
+    /**
+     * Updates the subscription of the validator to the FSA of the given
+     * component.
+     * 
+     * @param componentId the ID of the component
+     */
+    protected void track(long componentId) {
+        untrack(componentId);
+        TemplateComponent component = model.getComponent(componentId);
+        if (component == null || !component.hasModel()) {
+            return;
+        }
+        FSAModel fsa = component.getModel();
+        fsas.put(componentId, fsa);
+        fsa2component.put(fsa, componentId);
+        fsa.addSubscriber((FSASubscriber) this);
+        fsa.addSubscriber((DESModelSubscriber) this);
+    }
+
+    /**
+     * Removes the subscription of the validator to the FSA of the given
+     * component.
+     * 
+     * @param componentId the ID of the component
+     */
+    protected void untrack(long componentId) {
+        FSAModel fsa = fsas.remove(componentId);
+        if (fsa != null) {
+            fsa2component.remove(fsa);
+            fsa.removeSubscriber((FSASubscriber) this);
+            fsa.removeSubscriber((DESModelSubscriber) this);
+        }
+    }
+
+    /**
+     * Marks for re-evaluation the elements affected by a change in the template
+     * design.
+     */
+    public synchronized void templateModelStructureChanged(TemplateModelMessage message) {
+        long id = message.getElementId();
+        if (message.getElementType() == TemplateModelMessage.ELEMENT_COMPONENT) {
+            componentChanged(id);
+            if (message.getOperationType() == TemplateModelMessage.OP_REMOVE) {
+                untrack(id);
+            } else {
+                track(id);
+            }
+        } else if (message.getElementType() == TemplateModelMessage.ELEMENT_LINK) {
+            TemplateLink link = model.getLink(id);
+            if (link != null) {
+                links.put(id, link);
+            } else {
+                link = links.remove(id);
+            }
+            if (link != null) {
+                linkChanged(link);
+            } else {
+                dirtyLinks.add(id);
+            }
+        }
+    }
+
+    /**
+     * Marks for re-evaluation the elements which depend on the events of the
+     * FSA.
+     */
+    public synchronized void fsaEventSetChanged(FSAMessage message) {
+        Long componentId = fsa2component.get(message.getSource());
+        if (componentId != null) {
+            componentChanged(componentId);
+        }
+    }
+
+    public void fsaStructureChanged(FSAMessage message) {
+    }
+
+    /**
+     * Marks for re-evaluation the component with the renamed FSA, since the
+     * names of the FSAs have to be unique.
+     */
+    public synchronized void modelNameChanged(DESModelMessage message) {
+        Long componentId = fsa2component.get(message.getSource());
+        if (componentId != null) {
+            dirtyComponents.add(componentId);
+        }
+    }
+
+    public void saveStatusChanged(DESModelMessage message) {
+    }
+}
@@ -28,6 +28,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -217,11 +218,152 @@ public class Validator {
         }
     }
 
+    /**
+     * A validation of the parts of a {@link TemplateModel} relevant to the
+     * computation of the local supervisors of individual <i>channels</i>. The
+     * part relevant to a <i>channel</i> consists of the <i>channel</i>, its
+     * cover and the links of the <i>channel</i>. The index of the names of the
+     * FSAs in the model is built once per pass, and the results for each
+     * <i>channel</i> are kept, so that a single pass can be shared by all
+     * computations within an operation.
+     * <p>
+     * The pass reflects the state of the model at the time of the first
+     * validation of each <i>channel</i>; a new pass has to be created after the
+     * model is modified.
+     * 
+     * @author Lenko Grigorov
+     */
+    public static class ValidationPass {
+        /**
+         * The model being validated.
+         */
+        protected TemplateModel model;
+
+        /**
+         * The {@link TemplateComponent}s of the model, indexed by the names of their
+         * {@link FSAModel}s. Built on demand.
+         */
+        protected Map<String, Set<TemplateComponent>> namesMap = null;
+
+        /**
+         * The consistency issues found so far, indexed by the id of the
+         * <i>channel</i> to whose part of the model they belong.
+         */
+        protected Map<Long, List<ValidatorResult>> results = new HashMap<Long, List<ValidatorResult>>();
+
+        /**
+         * Construct a new validation pass for the given model.
+         * 
+         * @param model the {@link TemplateModel} to be validated
+         */
+        public ValidationPass(TemplateModel model) {
+            this.model = model;
+        }
+
+        /**
+         * Validate the consistency of the part of the model relevant to the given
+         * <i>channel</i>, i.e., the <i>channel</i>, its cover and the links of the
+         * <i>channel</i>.
+         * 
+         * @param channelId the id of the <i>channel</i> {@link TemplateComponent}
+         * @return a collection of the consistency issues discovered in the part of
+         *         the model relevant to the <i>channel</i>; if the model does not
+         *         contain a component with the given id, the collection contains
+         *         a single {@link #ERROR_NO_COMPONENT} issue
+         */
+        public synchronized List<ValidatorResult> validate(long channelId) {
+            List<ValidatorResult> ret = results.get(channelId);
+            if (ret != null) {
+                return ret;
+            }
+            ret = new LinkedList<ValidatorResult>();
+            TemplateComponent channel = model.getComponent(channelId);
+            if (channel == null) {
+                ret.add(new ValidatorResult(ERROR_NO_COMPONENT, ValidatorResult.ERROR));
+                return ret;
+            }
+            Set<TemplateComponent> scope = new HashSet<TemplateComponent>(model.getCover(channelId));
+            scope.add(channel);
+            Set<String> reported = new HashSet<String>();
+            for (TemplateComponent component : scope) {
+                validateComponent(model, component, ret);
+                if (component.hasModel()) {
+                    String name = component.getModel().getName();
+                    Set<TemplateComponent> components = getNamesMap().get(name);
+                    if (components.size() != 1 && reported.add(name)) {
+                        ret.add(new ValidatorResult(ERROR_NONUNIQUE_NAME, components, ValidatorResult.ERROR));
+                    }
+                }
+            }
+            for (TemplateLink link : model.getAdjacentLinks(channelId)) {
+                validateLink(link, ret);
+            }
+            if (channel.getType() == TemplateComponent.TYPE_CHANNEL) {
+                validateChannel(model, channel, ret);
+            }
+            results.put(channelId, ret);
+            return ret;
+        }
+
+        /**
+         * Checks if a it is safe to compute the local supervisor for a
+         * <i>channel</i>, i.e., if the <i>channel</i> is indeed a <i>channel</i> and
+         * the part of the model relevant to it does not contain any consistency
+         * issues of type {@link ValidatorResult#ERROR}.
+         * 
+         * @param channelId the id of the <i>channel</i> {@link TemplateComponent}
+         * @return <code>true</code> if the local supervisor for the <i>channel</i>
+         *         can be computed; <code>false</code> otherwise
+         * @see #validate(long)
+         */
+        public boolean canComputeSup(long channelId) {
+            TemplateComponent channel = model.getComponent(channelId);
+            if (channel == null || channel.getType() != TemplateComponent.TYPE_CHANNEL) {
+                return false;
+            }
+            for (ValidatorResult result : validate(channelId)) {
+                if (result.type == ValidatorResult.ERROR) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Retrieve the index of the {@link TemplateComponent}s of the model by the
+         * names of their {@link FSAModel}s, building it if necessary.
+         * 
+         * @return the index of the components by the names of their FSAs
+         */
+        protected Map<String, Set<TemplateComponent>> getNamesMap() {
+            if (namesMap == null) {
+                namesMap = new HashMap<String, Set<TemplateComponent>>();
+                for (TemplateComponent component : model.getComponents()) {
+                    if (component.hasModel()) {
+                        Set<TemplateComponent> components = namesMap.get(component.getModel().getName());
+                        if (components == null) {
+                            components = new HashSet<TemplateComponent>();
+                            namesMap.put(component.getModel().getName(), components);
+                        }
+                        components.add(component);
+                    }
+                }
+            }
+            return namesMap;
+        }
+    }
+
     /**
      * No <i>module</i> is present in the model.
      */
     public static final String ERROR_NO_MODULE = "TD_inconsistencyNoModule";
 
+    /**
+     * The model does not contain a {@link TemplateComponent} with the requested
+     * id.
+     */
+    public static final String ERROR_NO_COMPONENT = "TD_inconsistencyNoComponent";
+
     /**
      * A {@link TemplateComponent} does not have an assigned {@link FSAModel}.
      */
@@ -282,16 +424,14 @@ public class Validator {
         LinkedList<ValidatorResult> ret = new LinkedList<ValidatorResult>();
         boolean hasModule = false;
         boolean hasChannel = false;
-        Map<String, Set<TemplateComponent>> namesMap = new HashMap<String, Set<TemplateComponent>>();
+        Map<String, Set<TemplateComponent>> namesMap = new LinkedHashMap<String, Set<TemplateComponent>>();
         for (TemplateComponent component : model.getComponents()) {
             if (component.getType() == TemplateComponent.TYPE_MODULE) {
                 hasModule = true;
             } else if (component.getType() == TemplateComponent.TYPE_CHANNEL) {
                 hasChannel = true;
             }
-            if (!component.hasModel()) {
-                ret.add(new ValidatorResult(ERROR_NO_MODEL, component, ValidatorResult.ERROR));
-            } else {
+            if (component.hasModel()) {
                 Set<TemplateComponent> components = namesMap.get(component.getModel().getName());
                 if (components == null) {
                     components = new HashSet<TemplateComponent>();
@@ -299,9 +439,7 @@ public class Validator {
                 components.add(component);
                 namesMap.put(component.getModel().getName(), components);
             }
-            if (model.getAdjacentLinks(component.getId()).isEmpty()) {
-                ret.add(new ValidatorResult(WARNING_FREE_COMPONENT, component, ValidatorResult.WARNING));
-            }
+            validateComponent(model, component, ret);
         }
         if (!hasModule) {
             ret.add(new ValidatorResult(ERROR_NO_MODULE, ValidatorResult.ERROR));
@@ -316,78 +454,122 @@ public class Validator {
             }
         }
         for (TemplateLink link : model.getLinks()) {
-            TemplateComponent module = link.getModule();
-            TemplateComponent channel = link.getChannel();
-            if (module == null || channel == null) {
-                ret.add(new ValidatorResult(ERROR_MODULE_CHANNEL, link, ValidatorResult.ERROR));
-            }
-            if (!link.existsLeftEvent() || !link.existsRightEvent()) {
-                ret.add(new ValidatorResult(ERROR_NO_EVENT, link, ValidatorResult.ERROR));
-            }
+            validateLink(link, ret);
         }
         for (TemplateComponent component : model.getChannels()) {
-            Set<String> totalEvents = new HashSet<String>();
-            Set<String> linkedEvents = new HashSet<String>();
-            Set<String> doubleEvents = new HashSet<String>();
-            // key=module event,value=channel events it links to
-            Map<InjectionKey, Set<String>> injectionEvents = new HashMap<InjectionKey, Set<String>>();
-            if (component.hasModel()) {
-                for (DESEvent event : component.getModel().getEventSet()) {
-                    totalEvents.add(event.getSymbol());
-                }
+            validateChannel(model, component, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Validate the consistency of a single {@link TemplateComponent}, without
+     * regard to the other components in the model.
+     * 
+     * @param model     the {@link TemplateModel} containing the component
+     * @param component the {@link TemplateComponent} to be validated
+     * @param ret       the list where the consistency issues discovered will be
+     *                  added
+     */
+    protected static void validateComponent(TemplateModel model, TemplateComponent component,
+            List<ValidatorResult> ret) {
+        if (!component.hasModel()) {
+            ret.add(new ValidatorResult(ERROR_NO_MODEL, component, ValidatorResult.ERROR));
+        }
+        if (model.getAdjacentLinks(component.getId()).isEmpty()) {
+            ret.add(new ValidatorResult(WARNING_FREE_COMPONENT, component, ValidatorResult.WARNING));
+        }
+    }
+
+    /**
+     * Validate the consistency of a single {@link TemplateLink}.
+     * 
+     * @param link the {@link TemplateLink} to be validated
+     * @param ret  the list where the consistency issues discovered will be added
+     */
+    protected static void validateLink(TemplateLink link, List<ValidatorResult> ret) {
+        TemplateComponent module = link.getModule();
+        TemplateComponent channel = link.getChannel();
+        if (module == null || channel == null) {
+            ret.add(new ValidatorResult(ERROR_MODULE_CHANNEL, link, ValidatorResult.ERROR));
+        }
+        if (!link.existsLeftEvent() || !link.existsRightEvent()) {
+            ret.add(new ValidatorResult(ERROR_NO_EVENT, link, ValidatorResult.ERROR));
+        }
+    }
+
+    /**
+     * Validate the consistency of the links of a <i>channel</i> with the events
+     * of the <i>channel</i> and of the linked <i>modules</i>.
+     * 
+     * @param model     the {@link TemplateModel} containing the <i>channel</i>
+     * @param component the <i>channel</i> {@link TemplateComponent} to be
+     *                  validated
+     * @param ret       the list where the consistency issues discovered will be
+     *                  added
+     */
+    protected static void validateChannel(TemplateModel model, TemplateComponent component,
+            List<ValidatorResult> ret) {
+        Set<String> totalEvents = new HashSet<String>();
+        Set<String> linkedEvents = new HashSet<String>();
+        Set<String> doubleEvents = new HashSet<String>();
+        // key=module event,value=channel events it links to
+        Map<InjectionKey, Set<String>> injectionEvents = new HashMap<InjectionKey, Set<String>>();
+        if (component.hasModel()) {
+            for (DESEvent event : component.getModel().getEventSet()) {
+                totalEvents.add(event.getSymbol());
             }
-            for (TemplateLink link : model.getAdjacentLinks(component.getId())) {
-                String event;
-                TemplateComponent module = null;
-                String moduleEvent = null;
-                if (component == link.getLeftComponent()) {
-                    event = link.getLeftEventName();
-                    if (link.getRightComponent().getType() == TemplateComponent.TYPE_MODULE) {
-                        module = link.getRightComponent();
-                        moduleEvent = link.getRightEventName();
-                    }
-                } else {
-                    event = link.getRightEventName();
-                    if (link.getLeftComponent().getType() == TemplateComponent.TYPE_MODULE) {
-                        module = link.getLeftComponent();
-                        moduleEvent = link.getLeftEventName();
-                    }
-                }
-                if (linkedEvents.contains(event)) {
-                    doubleEvents.add(event);
-                } else {
-                    linkedEvents.add(event);
+        }
+        for (TemplateLink link : model.getAdjacentLinks(component.getId())) {
+            String event;
+            TemplateComponent module = null;
+            String moduleEvent = null;
+            if (component == link.getLeftComponent()) {
+                event = link.getLeftEventName();
+                if (link.getRightComponent().getType() == TemplateComponent.TYPE_MODULE) {
+                    module = link.getRightComponent();
+                    moduleEvent = link.getRightEventName();
                 }
-                if (moduleEvent != null) {
-                    Set<String> channelEvents = injectionEvents.get(new InjectionKey(module, moduleEvent));
-                    if (channelEvents == null) {
-                        channelEvents = new HashSet<String>();
-                    }
-                    channelEvents.add(event);
-                    injectionEvents.put(new InjectionKey(module, moduleEvent), channelEvents);
+            } else {
+                event = link.getRightEventName();
+                if (link.getLeftComponent().getType() == TemplateComponent.TYPE_MODULE) {
+                    module = link.getLeftComponent();
+                    moduleEvent = link.getLeftEventName();
                 }
             }
-            for (String event : doubleEvents) {
-                ret.add(new ValidatorResult(ERROR_FORKED_EVENT, component, linksWithEvent(model, component, event),
-                        event, ValidatorResult.ERROR));
+            if (linkedEvents.contains(event)) {
+                doubleEvents.add(event);
+            } else {
+                linkedEvents.add(event);
             }
-            for (InjectionKey key : injectionEvents.keySet()) {
-                if (injectionEvents.get(key).size() > 1) {
-                    Set<TemplateLink> links = new HashSet<TemplateLink>();
-                    for (String event : injectionEvents.get(key)) {
-                        links.addAll(linksWithEvent(model, component, event));
-                    }
-                    ret.add(new ValidatorResult(ERROR_MERGED_EVENT,
-                            Arrays.asList(new TemplateComponent[] { component, key.component }), links, key.event,
-                            ValidatorResult.ERROR));
+            if (moduleEvent != null) {
+                Set<String> channelEvents = injectionEvents.get(new InjectionKey(module, moduleEvent));
+                if (channelEvents == null) {
+                    channelEvents = new HashSet<String>();
                 }
+                channelEvents.add(event);
+                injectionEvents.put(new InjectionKey(module, moduleEvent), channelEvents);
             }
-            totalEvents.removeAll(linkedEvents);
-            if (!totalEvents.isEmpty()) {
-                ret.add(new ValidatorResult(WARNING_FREE_EVENT, component, ValidatorResult.WARNING));
+        }
+        for (String event : doubleEvents) {
+            ret.add(new ValidatorResult(ERROR_FORKED_EVENT, component, linksWithEvent(model, component, event),
+                    event, ValidatorResult.ERROR));
+        }
+        for (InjectionKey key : injectionEvents.keySet()) {
+            if (injectionEvents.get(key).size() > 1) {
+                Set<TemplateLink> links = new HashSet<TemplateLink>();
+                for (String event : injectionEvents.get(key)) {
+                    links.addAll(linksWithEvent(model, component, event));
+                }
+                ret.add(new ValidatorResult(ERROR_MERGED_EVENT,
+                        Arrays.asList(new TemplateComponent[] { component, key.component }), links, key.event,
+                        ValidatorResult.ERROR));
             }
         }
-        return ret;
+        totalEvents.removeAll(linkedEvents);
+        if (!totalEvents.isEmpty()) {
+            ret.add(new ValidatorResult(WARNING_FREE_EVENT, component, ValidatorResult.WARNING));
+        }
     }
 
     /**
@@ -402,40 +584,10 @@ public class Validator {
      *         <i>channel</i> and the immediate neighbors of the <i>channel</i> does
      *         not contain any consistency issues of type
      *         {@link ValidatorResult#ERROR}; <code>false</code> otherwise
+     * @see ValidationPass
      */
     public static boolean canComputeSup(TemplateModel model, long channelId) {
-        TemplateComponent channel = model.getComponent(channelId);
-        if (channel.getType() != TemplateComponent.TYPE_CHANNEL) {
-            return false;
-        }
-        Collection<TemplateComponent> cover = model.getCover(channel.getId());
-        Collection<TemplateLink> links = model.getAdjacentLinks(channel.getId());
-        Collection<ValidatorResult> results = validate(model);
-        boolean invalid = false;
-        for (ValidatorResult result : results) {
-            if (result.type == ValidatorResult.WARNING) {
-                continue;
-            }
-            for (TemplateComponent c : result.components) {
-                if (channel == c || (cover.contains(c) && result.links.isEmpty())) {
-                    invalid = true;
-                    break;
-                }
-            }
-            if (invalid) {
-                break;
-            }
-            for (TemplateLink l : result.links) {
-                if (links.contains(l)) {
-                    invalid = true;
-                    break;
-                }
-            }
-            if (invalid) {
-                break;
-            }
-        }
-        return !invalid;
+        return new ValidationPass(model).canComputeSup(channelId);
     }
 
     /**
@@ -28,8 +28,11 @@ import java.awt.Image;
 import java.awt.Toolkit;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Set;
 
 import ides.api.core.Hub;
@@ -187,14 +190,26 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
     protected String name;
 
     /**
-     * The set of {@link TemplateComponent}s in the model.
+     * The {@link TemplateComponent}s in the model, indexed by their ids.
      */
-    protected Set<TemplateComponent> components = new HashSet<TemplateComponent>();
+    protected Map<Long, TemplateComponent> components = new HashMap<Long, TemplateComponent>();
 
     /**
-     * The set of {@link TemplateLink}s in the model.
+     * The {@link TemplateLink}s in the model, indexed by their ids.
      */
-    protected Set<TemplateLink> links = new HashSet<TemplateLink>();
+    protected Map<Long, TemplateLink> links = new HashMap<Long, TemplateLink>();
+
+    /**
+     * The {@link TemplateLink}s adjacent to each {@link TemplateComponent},
+     * indexed by the id of the component.
+     */
+    protected Map<Long, Set<TemplateLink>> adjacentLinks = new HashMap<Long, Set<TemplateLink>>();
+
+    /**
+     * The {@link TemplateComponent}s which contain an {@link FSAModel}, indexed by
+     * the {@link FSAModel}.
+     */
+    protected Map<FSAModel, TemplateComponent> fsaComponents = new IdentityHashMap<FSAModel, TemplateComponent>();
 
     /**
      * Next available id for {@link TemplateComponent}s.
@@ -223,12 +238,7 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
      *         with the given id; <code>false</code> otherwise
      */
     protected boolean containsComponentId(long id) {
-        for (TemplateComponent component : components) {
-            if (component.getId() == id) {
-                return true;
-            }
-        }
-        return false;
+        return components.containsKey(id);
     }
 
     /**
@@ -239,12 +249,37 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
      *         the given id; <code>false</code> otherwise
      */
     protected boolean containsLinkId(long id) {
-        for (TemplateLink link : links) {
-            if (link.getId() == id) {
-                return true;
+        return links.containsKey(id);
+    }
+
+    /**
+     * Adds a {@link TemplateLink} to the model and to the adjacency index.
+     * 
+     * @param link the link to be added
+     */
+    protected void putLink(TemplateLink link) {
+        links.put(link.getId(), link);
+        for (TemplateComponent component : link.getComponents()) {
+            Set<TemplateLink> adjacent = adjacentLinks.get(component.getId());
+            if (adjacent == null) {
+                adjacent = new HashSet<TemplateLink>();
+                adjacentLinks.put(component.getId(), adjacent);
             }
+            adjacent.add(link);
+        }
+    }
+
+    /**
+     * Adds a {@link TemplateComponent} to the model and to the index of the
+     * components by {@link FSAModel}.
+     * 
+     * @param component the component to be added
+     */
+    protected void putComponent(TemplateComponent component) {
+        components.put(component.getId(), component);
+        if (component.getModel() != null) {
+            fsaComponents.put(component.getModel(), component);
         }
-        return false;
     }
 
     public synchronized void addComponent(TemplateComponent component) {
@@ -254,7 +289,7 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
         if (freeComponentId <= component.getId()) {
             freeComponentId = component.getId() + 1;
         }
-        components.add(component);
+        putComponent(component);
         if (component.getModel() != null) {
             component.getModel().addSubscriber(this);
         }
@@ -267,7 +302,8 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
         if (containsLinkId(link.getId())) {
             throw new InconsistentModificationException(Hub.string("TD_inconsistencyLinkId"));
         }
-        if (!components.contains(link.getLeftComponent()) || !components.contains(link.getRightComponent())) {
+        if (components.get(link.getLeftComponent().getId()) != link.getLeftComponent()
+                || components.get(link.getRightComponent().getId()) != link.getRightComponent()) {
             throw new InconsistentModificationException(Hub.string("TD_inconsistencyLinking"));
         }
         // Collection<TemplateLink> channelLinks = getChannelLinks(link
@@ -286,7 +322,7 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
         if (freeLinkId <= link.getId()) {
             freeLinkId = link.getId() + 1;
         }
-        links.add(link);
+        putLink(link);
         fireTemplateModelStructureChanged(new TemplateModelMessage(this, link.getId(),
                 TemplateModelMessage.ELEMENT_LINK, TemplateModelMessage.OP_ADD));
         setNeedsSave(true);
@@ -294,7 +330,7 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
 
     public synchronized TemplateLink createLink(long leftId, long rightId) {
         TemplateLink link = assembleLink(leftId, rightId);
-        links.add(link);
+        putLink(link);
         fireTemplateModelStructureChanged(new TemplateModelMessage(this, link.getId(),
                 TemplateModelMessage.ELEMENT_LINK, TemplateModelMessage.OP_ADD));
         setNeedsSave(true);
@@ -303,7 +339,7 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
 
     public synchronized TemplateComponent createComponent() {
         TemplateComponent component = assembleComponent();
-        components.add(component);
+        putComponent(component);
         fireTemplateModelStructureChanged(new TemplateModelMessage(this, component.getId(),
                 TemplateModelMessage.ELEMENT_COMPONENT, TemplateModelMessage.OP_ADD));
         setNeedsSave(true);
@@ -311,25 +347,20 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
     }
 
     public Collection<TemplateComponent> getComponents() {
-        return new HashSet<TemplateComponent>(components);
+        return new HashSet<TemplateComponent>(components.values());
     }
 
     public Collection<TemplateLink> getLinks() {
-        return new HashSet<TemplateLink>(links);
+        return new HashSet<TemplateLink>(links.values());
     }
 
     public TemplateComponent getComponent(long id) {
-        for (TemplateComponent component : components) {
-            if (component.getId() == id) {
-                return component;
-            }
-        }
-        return null;
+        return components.get(id);
     }
 
     public Collection<TemplateComponent> getModules() {
         Set<TemplateComponent> modules = new HashSet<TemplateComponent>();
-        for (TemplateComponent component : components) {
+        for (TemplateComponent component : components.values()) {
             if (component.getType() == TemplateComponent.TYPE_MODULE) {
                 modules.add(component);
             }
@@ -339,7 +370,7 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
 
     public Collection<TemplateComponent> getChannels() {
         Set<TemplateComponent> channels = new HashSet<TemplateComponent>();
-        for (TemplateComponent component : components) {
+        for (TemplateComponent component : components.values()) {
             if (component.getType() == TemplateComponent.TYPE_CHANNEL) {
                 channels.add(component);
             }
@@ -348,12 +379,7 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
     }
 
     public TemplateLink getLink(long id) {
-        for (TemplateLink link : links) {
-            if (link.getId() == id) {
-                return link;
-            }
-        }
-        return null;
+        return links.get(id);
     }
 
     public int getComponentCount() {
@@ -370,8 +396,10 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
         TemplateComponent c = getComponent(id);
         if (c.getModel() != null) {
             c.getModel().removeSubscriber(this);
+            fsaComponents.remove(c.getModel());
         }
-        components.remove(c);
+        components.remove(id);
+        adjacentLinks.remove(id);
         fireTemplateModelStructureChanged(new TemplateModelMessage(this, id, TemplateModelMessage.ELEMENT_COMPONENT,
                 TemplateModelMessage.OP_REMOVE));
         setNeedsSave(true);
@@ -381,7 +409,16 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
         if (!containsLinkId(id)) {
             return;
         }
-        links.remove(getLink(id));
+        TemplateLink link = links.remove(id);
+        for (TemplateComponent component : link.getComponents()) {
+            Set<TemplateLink> adjacent = adjacentLinks.get(component.getId());
+            if (adjacent != null) {
+                adjacent.remove(link);
+                if (adjacent.isEmpty()) {
+                    adjacentLinks.remove(component.getId());
+                }
+            }
+        }
         fireTemplateModelStructureChanged(
                 new TemplateModelMessage(this, id, TemplateModelMessage.ELEMENT_LINK, TemplateModelMessage.OP_REMOVE));
         setNeedsSave(true);
@@ -396,7 +433,7 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
     }
 
     public void modelSaved() {
-        for (TemplateComponent c : components) {
+        for (TemplateComponent c : components.values()) {
             if (c.hasModel()) {
                 c.getModel().removeSubscriber(this);
                 c.getModel().modelSaved();
@@ -419,8 +456,13 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
     }
 
     public boolean existsLink(long channelId, long moduleId) {
-        for (TemplateLink link : links) {
-            if (link.getChannel().getId() == channelId && link.getModule().getId() == moduleId) {
+        Set<TemplateLink> adjacent = adjacentLinks.get(channelId);
+        if (adjacent == null) {
+            return false;
+        }
+        for (TemplateLink link : adjacent) {
+            if (link.getChannel() != null && link.getChannel().getId() == channelId && link.getModule() != null
+                    && link.getModule().getId() == moduleId) {
                 return true;
             }
         }
@@ -428,13 +470,11 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
     }
 
     public Collection<TemplateLink> getAdjacentLinks(long componentId) {
-        Set<TemplateLink> ret = new HashSet<TemplateLink>();
-        for (TemplateLink link : links) {
-            if (link.getLeftComponent().getId() == componentId || link.getRightComponent().getId() == componentId) {
-                ret.add(link);
-            }
+        Set<TemplateLink> adjacent = adjacentLinks.get(componentId);
+        if (adjacent == null) {
+            return new HashSet<TemplateLink>();
         }
-        return ret;
+        return new HashSet<TemplateLink>(adjacent);
     }
 
     public Collection<TemplateComponent> getCover(long channelId) {
@@ -451,7 +491,11 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
 
     public Collection<TemplateLink> getLinks(long leftId, long rightId) {
         Set<TemplateLink> ret = new HashSet<TemplateLink>();
-        for (TemplateLink link : links) {
+        Set<TemplateLink> adjacent = adjacentLinks.get(leftId);
+        if (adjacent == null) {
+            return ret;
+        }
+        for (TemplateLink link : adjacent) {
             if ((link.getLeftComponent().getId() == leftId && link.getRightComponent().getId() == rightId)
                     || (link.getLeftComponent().getId() == rightId && link.getRightComponent().getId() == leftId)) {
                 ret.add(link);
@@ -473,12 +517,7 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
         if (fsa == null) {
             return null;
         }
-        for (TemplateComponent component : components) {
-            if (component.getModel() == fsa) {
-                return component;
-            }
-        }
-        return null;
+        return fsaComponents.get(fsa);
     }
 
     public void assignFSA(long componentId, FSAModel fsa) {
@@ -490,6 +529,7 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
             if (c.getModel() != null) {
                 c.getModel().removeSubscriber(this);
                 c.getModel().setParentModel(null);
+                fsaComponents.remove(c.getModel());
             }
             if (fsa != null) {
                 fsa.setParentModel(this);
@@ -497,6 +537,7 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
             c.setModel(fsa);
             if (fsa != null) {
                 fsa.addSubscriber(this);
+                fsaComponents.put(fsa, c);
             }
             fireTemplateModelStructureChanged(new TemplateModelMessage(this, componentId,
                     TemplateModelMessage.ELEMENT_COMPONENT, TemplateModelMessage.OP_MODIFY));
@@ -510,6 +551,7 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
             if (c.getModel() != null) {
                 c.getModel().removeSubscriber(this);
                 c.getModel().setParentModel(null);
+                fsaComponents.remove(c.getModel());
             }
             c.setModel(null);
             fireTemplateModelStructureChanged(new TemplateModelMessage(this, componentId,
@@ -542,13 +584,7 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
         } catch (NumberFormatException e) {
             return null;
         }
-        TemplateComponent component = null;
-        for (TemplateComponent c : components) {
-            if (c.getId() == id) {
-                component = c;
-                break;
-            }
-        }
+        TemplateComponent component = components.get(id);
         if (component == null || !component.hasModel()) {
             return null;
         }
@@ -556,13 +592,7 @@ public class TemplateDesign implements TemplateModel, DESModelSubscriber {
     }
 
     public String getChildModelId(DESModel arg0) throws IllegalArgumentException {
-        TemplateComponent component = null;
-        for (TemplateComponent c : components) {
-            if (c.hasModel() && c.getModel() == arg0) {
-                component = c;
-                break;
-            }
-        }
+        TemplateComponent component = arg0 instanceof FSAModel ? fsaComponents.get(arg0) : null;
         if (component == null) {
             throw new IllegalArgumentException();
         }
@@ -0,0 +1,648 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package templates.operations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A minimal manager of reduced ordered binary decision diagrams (BDDs), used
+ * for the symbolic computation of supervisors.
+ * <p>
+ * BDD nodes are identified by integers. The constant nodes are {@link #FALSE}
+ * and {@link #TRUE}. The order of the variables is fixed: the variable with the
+ * smaller index is closer to the root.
+ * <p>
+ * Nodes which are no longer needed are reclaimed by a mark-and-sweep collection
+ * (see {@link #gc(int[])}). The collection does not run by itself, since the
+ * intermediate results of an operation in progress are not known to the
+ * manager; the user has to start it at points where all nodes still in use can
+ * be listed, e.g., between the iterations of a fixpoint computation.
+ * 
+ * @author Lenko Grigorov
+ */
+public class BDD {
+    /**
+     * The constant <code>false</code>.
+     */
+    public static final int FALSE = 0;
+
+    /**
+     * The constant <code>true</code>.
+     */
+    public static final int TRUE = 1;
+
+    /**
+     * Operation code for the cache of {@link #ite(int, int, int)}.
+     */
+    protected static final int OP_ITE = 0;
+
+    /**
+     * Operation code for the cache of {@link #exists(int, int)}.
+     */
+    protected static final int OP_EXISTS = 1;
+
+    /**
+     * Operation code for the cache of {@link #relProd(int, int, int)}.
+     */
+    protected static final int OP_RELPROD = 2;
+
+    /**
+     * Operation code for the cache of {@link #replace(int, int)}.
+     */
+    protected static final int OP_REPLACE = 3;
+
+    /**
+     * The number of bits used to index the operation cache.
+     */
+    protected static final int CACHE_BITS = 18;
+
+    /**
+     * The number of variables.
+     */
+    protected int varCount;
+
+    /**
+     * The variable of each node. For the constant nodes this is
+     * {@link #varCount}; for the reclaimed slots this is <code>-1</code>.
+     */
+    protected int[] level;
+
+    /**
+     * The node for the case when the variable is <code>false</code>.
+     */
+    protected int[] low;
+
+    /**
+     * The node for the case when the variable is <code>true</code>.
+     */
+    protected int[] high;
+
+    /**
+     * The next node in the same bucket of the unique table.
+     */
+    protected int[] next;
+
+    /**
+     * The first node in each bucket of the unique table; <code>-1</code> for
+     * empty buckets.
+     */
+    protected int[] buckets;
+
+    /**
+     * The number of slots used in the node table, including the slots of
+     * reclaimed nodes.
+     */
+    protected int size = 2;
+
+    /**
+     * The first reclaimed slot in the node table; <code>-1</code> if there are
+     * none. The reclaimed slots are chained using {@link #next}.
+     */
+    protected int free = -1;
+
+    /**
+     * The number of reclaimed slots in the node table.
+     */
+    protected int freeCount = 0;
+
+    /**
+     * The number of nodes in use above which {@link #collectGarbage(int[])}
+     * reclaims the unused nodes.
+     */
+    protected int gcThreshold = 1 << 16;
+
+    /**
+     * The operation codes of the cached results.
+     */
+    protected int[] cacheOp = new int[1 << CACHE_BITS];
+
+    /**
+     * The first arguments of the cached results.
+     */
+    protected int[] cacheA = new int[1 << CACHE_BITS];
+
+    /**
+     * The second arguments of the cached results.
+     */
+    protected int[] cacheB = new int[1 << CACHE_BITS];
+
+    /**
+     * The third arguments of the cached results.
+     */
+    protected int[] cacheC = new int[1 << CACHE_BITS];
+
+    /**
+     * The cached results.
+     */
+    protected int[] cacheResult = new int[1 << CACHE_BITS];
+
+    /**
+     * The registered sets of variables, used for quantification.
+     */
+    protected List<boolean[]> varSets = new ArrayList<boolean[]>();
+
+    /**
+     * The registered renamings of variables.
+     */
+    protected List<int[]> renamings = new ArrayList<int[]>();
+
+    /**
+     * Constructs a new manager for the given number of variables.
+     * 
+     * @param varCount the number of variables
+     */
+    public BDD(int varCount) {
+        this.varCount = varCount;
+        level = new int[1 << 16];
+        low = new int[level.length];
+        high = new int[level.length];
+        next = new int[level.length];
+        buckets = new int[level.length];
+        Arrays.fill(buckets, -1);
+        Arrays.fill(cacheOp, -1);
+        level[FALSE] = varCount;
+        level[TRUE] = varCount;
+    }
+
+    /**
+     * Returns the number of variables.
+     * 
+     * @return the number of variables
+     */
+    public int getVarCount() {
+        return varCount;
+    }
+
+    /**
+     * Returns the number of nodes in use, i.e., the nodes which were created and
+     * were not reclaimed.
+     * 
+     * @return the number of nodes in use
+     */
+    public int getNodeCount() {
+        return size - freeCount;
+    }
+
+    /**
+     * Reclaims all nodes which are not reachable from the given roots. After the
+     * collection, only the given roots and their descendants remain valid, and
+     * the operation cache is emptied.
+     * 
+     * @param roots the nodes which are still in use
+     */
+    public void gc(int[] roots) {
+        boolean[] reachable = new boolean[size];
+        reachable[FALSE] = true;
+        reachable[TRUE] = true;
+        int[] stack = new int[size];
+        int top = 0;
+        for (int root : roots) {
+            if (!reachable[root]) {
+                reachable[root] = true;
+                stack[top++] = root;
+            }
+        }
+        while (top > 0) {
+            int n = stack[--top];
+            if (!reachable[low[n]]) {
+                reachable[low[n]] = true;
+                stack[top++] = low[n];
+            }
+            if (!reachable[high[n]]) {
+                reachable[high[n]] = true;
+                stack[top++] = high[n];
+            }
+        }
+        Arrays.fill(buckets, -1);
+        free = -1;
+        freeCount = 0;
+        for (int n = size - 1; n >= 2; --n) {
+            if (reachable[n]) {
+                int bucket = hash(level[n], low[n], high[n]) & (buckets.length - 1);
+                next[n] = buckets[bucket];
+                buckets[bucket] = n;
+            } else {
+                level[n] = -1;
+                next[n] = free;
+                free = n;
+                ++freeCount;
+            }
+        }
+        Arrays.fill(cacheOp, -1);
+    }
+
+    /**
+     * Reclaims all nodes which are not reachable from the given roots, if the
+     * number of nodes in use has grown large enough to make the collection
+     * worthwhile.
+     * 
+     * @param roots the nodes which are still in use
+     * @see #gc(int[])
+     */
+    public void collectGarbage(int[] roots) {
+        if (getNodeCount() < gcThreshold) {
+            return;
+        }
+        gc(roots);
+        gcThreshold = Math.max(gcThreshold, getNodeCount() * 2);
+    }
+
+    /**
+     * Returns the node for the given variable.
+     * 
+     * @param var the index of the variable
+     * @return the node which is <code>true</code> exactly when the variable is
+     *         <code>true</code>
+     */
+    public int var(int var) {
+        return mk(var, FALSE, TRUE);
+    }
+
+    /**
+     * Returns the node for the negation of the given variable.
+     * 
+     * @param var the index of the variable
+     * @return the node which is <code>true</code> exactly when the variable is
+     *         <code>false</code>
+     */
+    public int nvar(int var) {
+        return mk(var, TRUE, FALSE);
+    }
+
+    /**
+     * Computes the conjunction of two BDDs.
+     * 
+     * @param a the first BDD
+     * @param b the second BDD
+     * @return the conjunction
+     */
+    public int and(int a, int b) {
+        return ite(a, b, FALSE);
+    }
+
+    /**
+     * Computes the disjunction of two BDDs.
+     * 
+     * @param a the first BDD
+     * @param b the second BDD
+     * @return the disjunction
+     */
+    public int or(int a, int b) {
+        return ite(a, TRUE, b);
+    }
+
+    /**
+     * Computes the negation of a BDD.
+     * 
+     * @param a the BDD
+     * @return the negation
+     */
+    public int not(int a) {
+        return ite(a, FALSE, TRUE);
+    }
+
+    /**
+     * Computes the BDD for "if <code>f</code> then <code>g</code> else
+     * <code>h</code>".
+     * 
+     * @param f the condition
+     * @param g the BDD for when the condition holds
+     * @param h the BDD for when the condition does not hold
+     * @return the resulting BDD
+     */
+    public int ite(int f, int g, int h) {
+        if (f == TRUE) {
+            return g;
+        }
+        if (f == FALSE) {
+            return h;
+        }
+        if (g == h) {
+            return g;
+        }
+        if (g == TRUE && h == FALSE) {
+            return f;
+        }
+        int slot = cacheLookup(OP_ITE, f, g, h);
+        if (slot < 0) {
+            return cacheResult[~slot];
+        }
+        int top = Math.min(level[f], Math.min(level[g], level[h]));
+        int l = ite(cofactor(f, top, false), cofactor(g, top, false), cofactor(h, top, false));
+        int r = ite(cofactor(f, top, true), cofactor(g, top, true), cofactor(h, top, true));
+        return cacheStore(slot, OP_ITE, f, g, h, mk(top, l, r));
+    }
+
+    /**
+     * Registers a set of variables for use in quantification.
+     * 
+     * @param vars for each variable, whether it is in the set
+     * @return the identifier of the set
+     */
+    public int varSet(boolean[] vars) {
+        varSets.add(vars.clone());
+        return varSets.size() - 1;
+    }
+
+    /**
+     * Registers a renaming of variables. The renaming does not need to preserve
+     * the order of the variables.
+     * 
+     * @param renaming for each variable, the index of the variable which replaces
+     *                 it
+     * @return the identifier of the renaming
+     */
+    public int renaming(int[] renaming) {
+        renamings.add(renaming.clone());
+        return renamings.size() - 1;
+    }
+
+    /**
+     * Existentially quantifies the variables in the given set.
+     * 
+     * @param f      the BDD
+     * @param varSet the identifier of the set of variables, as returned by
+     *               {@link #varSet(boolean[])}
+     * @return the BDD where the variables in the set are quantified
+     */
+    public int exists(int f, int varSet) {
+        if (f == TRUE || f == FALSE) {
+            return f;
+        }
+        int slot = cacheLookup(OP_EXISTS, f, varSet, 0);
+        if (slot < 0) {
+            return cacheResult[~slot];
+        }
+        int l = exists(low[f], varSet);
+        int r = exists(high[f], varSet);
+        int result = varSets.get(varSet)[level[f]] ? or(l, r) : mk(level[f], l, r);
+        return cacheStore(slot, OP_EXISTS, f, varSet, 0, result);
+    }
+
+    /**
+     * Computes the conjunction of two BDDs and existentially quantifies the
+     * variables in the given set, without building the conjunction first.
+     * 
+     * @param f      the first BDD
+     * @param g      the second BDD
+     * @param varSet the identifier of the set of variables, as returned by
+     *               {@link #varSet(boolean[])}
+     * @return the BDD where the variables in the set are quantified in the
+     *         conjunction of the BDDs
+     */
+    public int relProd(int f, int g, int varSet) {
+        if (f == FALSE || g == FALSE) {
+            return FALSE;
+        }
+        if (f == TRUE) {
+            return exists(g, varSet);
+        }
+        if (g == TRUE || f == g) {
+            return exists(f, varSet);
+        }
+        int slot = cacheLookup(OP_RELPROD, f, g, varSet);
+        if (slot < 0) {
+            return cacheResult[~slot];
+        }
+        int top = Math.min(level[f], level[g]);
+        int l = relProd(cofactor(f, top, false), cofactor(g, top, false), varSet);
+        int result;
+        if (varSets.get(varSet)[top]) {
+            result = l == TRUE ? TRUE : or(l, relProd(cofactor(f, top, true), cofactor(g, top, true), varSet));
+        } else {
+            result = mk(top, l, relProd(cofactor(f, top, true), cofactor(g, top, true), varSet));
+        }
+        return cacheStore(slot, OP_RELPROD, f, g, varSet, result);
+    }
+
+    /**
+     * Renames the variables of a BDD.
+     * 
+     * @param f        the BDD
+     * @param renaming the identifier of the renaming, as returned by
+     *                 {@link #renaming(int[])}
+     * @return the BDD where the variables are renamed
+     */
+    public int replace(int f, int renaming) {
+        if (f == TRUE || f == FALSE) {
+            return f;
+        }
+        int slot = cacheLookup(OP_REPLACE, f, renaming, 0);
+        if (slot < 0) {
+            return cacheResult[~slot];
+        }
+        int l = replace(low[f], renaming);
+        int r = replace(high[f], renaming);
+        int result = ite(var(renamings.get(renaming)[level[f]]), r, l);
+        return cacheStore(slot, OP_REPLACE, f, renaming, 0, result);
+    }
+
+    /**
+     * Counts the assignments to the variables in the given set which satisfy a
+     * BDD. The BDD must not depend on variables outside of the set.
+     * 
+     * @param f      the BDD
+     * @param varSet the identifier of the set of variables, as returned by
+     *               {@link #varSet(boolean[])}
+     * @return the number of satisfying assignments
+     */
+    public double satCount(int f, int varSet) {
+        boolean[] vars = varSets.get(varSet);
+        int[] below = new int[varCount + 1];
+        for (int i = varCount - 1; i >= 0; --i) {
+            below[i] = below[i + 1] + (vars[i] ? 1 : 0);
+        }
+        double[] memo = new double[size];
+        Arrays.fill(memo, -1);
+        return satCount(f, below, memo) * Math.pow(2, below[0] - below[level[f]]);
+    }
+
+    /**
+     * Recursive helper for {@link #satCount(int, int)}.
+     * 
+     * @param f     the BDD
+     * @param below for each variable, the number of variables in the set at the
+     *              same or a lower level
+     * @param memo  the counts computed so far
+     * @return the number of satisfying assignments to the variables in the set at
+     *         the level of the node or lower
+     */
+    protected double satCount(int f, int[] below, double[] memo) {
+        if (f == FALSE) {
+            return 0;
+        }
+        if (f == TRUE) {
+            return 1;
+        }
+        if (memo[f] < 0) {
+            double l = satCount(low[f], below, memo) * Math.pow(2, below[level[f] + 1] - below[level[low[f]]]);
+            double r = satCount(high[f], below, memo) * Math.pow(2, below[level[f] + 1] - below[level[high[f]]]);
+            memo[f] = l + r;
+        }
+        return memo[f];
+    }
+
+    /**
+     * Evaluates a BDD for the given assignment to the variables.
+     * 
+     * @param f          the BDD
+     * @param assignment the values of the variables
+     * @return the value of the BDD
+     */
+    public boolean evaluate(int f, boolean[] assignment) {
+        while (f != TRUE && f != FALSE) {
+            f = assignment[level[f]] ? high[f] : low[f];
+        }
+        return f == TRUE;
+    }
+
+    /**
+     * Returns the node for the given variable and children, creating it if
+     * necessary.
+     * 
+     * @param var the index of the variable
+     * @param l   the node for when the variable is <code>false</code>
+     * @param r   the node for when the variable is <code>true</code>
+     * @return the node
+     */
+    protected int mk(int var, int l, int r) {
+        if (l == r) {
+            return l;
+        }
+        int bucket = hash(var, l, r) & (buckets.length - 1);
+        for (int n = buckets[bucket]; n >= 0; n = next[n]) {
+            if (level[n] == var && low[n] == l && high[n] == r) {
+                return n;
+            }
+        }
+        int n;
+        if (free >= 0) {
+            n = free;
+            free = next[n];
+            --freeCount;
+        } else {
+            if (size == level.length) {
+                grow();
+                bucket = hash(var, l, r) & (buckets.length - 1);
+            }
+            n = size++;
+        }
+        level[n] = var;
+        low[n] = l;
+        high[n] = r;
+        next[n] = buckets[bucket];
+        buckets[bucket] = n;
+        return n;
+    }
+
+    /**
+     * Doubles the capacity of the node table and rebuilds the unique table. Used
+     * only when there are no reclaimed slots, so all nodes are in use.
+     */
+    protected void grow() {
+        int capacity = level.length * 2;
+        level = Arrays.copyOf(level, capacity);
+        low = Arrays.copyOf(low, capacity);
+        high = Arrays.copyOf(high, capacity);
+        next = Arrays.copyOf(next, capacity);
+        buckets = new int[capacity];
+        Arrays.fill(buckets, -1);
+        for (int n = 2; n < size; ++n) {
+            int bucket = hash(level[n], low[n], high[n]) & (capacity - 1);
+            next[n] = buckets[bucket];
+            buckets[bucket] = n;
+        }
+    }
+
+    /**
+     * Returns the cofactor of a BDD with respect to a variable which is not below
+     * the root of the BDD.
+     * 
+     * @param f     the BDD
+     * @param var   the index of the variable
+     * @param value the value of the variable
+     * @return the cofactor
+     */
+    protected int cofactor(int f, int var, boolean value) {
+        if (level[f] != var) {
+            return f;
+        }
+        return value ? high[f] : low[f];
+    }
+
+    /**
+     * Looks up a result in the operation cache.
+     * 
+     * @param op the operation code
+     * @param a  the first argument
+     * @param b  the second argument
+     * @param c  the third argument
+     * @return the bitwise complement of the slot if the result is cached; the slot
+     *         where the result should be stored otherwise
+     */
+    protected int cacheLookup(int op, int a, int b, int c) {
+        int slot = (hash(a, b, c) * 31 + op) & (cacheOp.length - 1);
+        if (cacheOp[slot] == op && cacheA[slot] == a && cacheB[slot] == b && cacheC[slot] == c) {
+            return ~slot;
+        }
+        return slot;
+    }
+
+    /**
+     * Stores a result in the operation cache.
+     * 
+     * @param slot   the slot returned by {@link #cacheLookup(int, int, int, int)}
+     * @param op     the operation code
+     * @param a      the first argument
+     * @param b      the second argument
+     * @param c      the third argument
+     * @param result the result
+     * @return the result
+     */
+    protected int cacheStore(int slot, int op, int a, int b, int c, int result) {
+        cacheOp[slot] = op;
+        cacheA[slot] = a;
+        cacheB[slot] = b;
+        cacheC[slot] = c;
+        cacheResult[slot] = result;
+        return result;
+    }
+
+    /**
+     * Hashes three integers.
+     * 
+     * @param a the first integer
+     * @param b the second integer
+     * @param c the third integer
+     * @return the hash
+     */
+    protected static int hash(int a, int b, int c) {
+        int h = a * 0x9E3779B1 + b;
+        h = h * 0x9E3779B1 + c;
+        return h ^ (h >>> 16);
+    }
+}
@@ -32,9 +32,9 @@ import ides.api.core.Hub;
 import ides.api.model.fsa.FSAModel;
 import ides.api.plugin.model.ModelManager;
 import ides.api.plugin.operation.Operation;
-import ides.api.plugin.operation.OperationManager;
 import ides.api.presentation.fsa.FSAStateLabeller;
 import templates.model.TemplateModel;
+import templates.operations.EventSynchronizer.SynchronizationResult;
 import templates.model.Validator;
 import templates.model.Validator.ValidatorResult;
 
@@ -54,6 +54,11 @@ import templates.model.Validator.ValidatorResult;
  * {@link FSAModel}]
  * <li>supervisor [{@link FSAModel}]
  * </ul>
+ * <p>
+ * The progress of the computation is reported to the {@link SynthesisMonitor}
+ * set with {@link #setMonitor(SynthesisMonitor)}. When the computation is
+ * canceled through the monitor, a {@link SynthesisCanceledException} is
+ * thrown.
  * 
  * @author Lenko Grigorov
  */
@@ -63,6 +68,11 @@ public class CentralizedSupSolution implements Operation {
      */
     protected List<String> warnings = new LinkedList<String>();
 
+    /**
+     * The monitor of the computation.
+     */
+    protected SynthesisMonitor monitor = new SynthesisMonitor();
+
     public String getDescription() {
         return Hub.string("TD_centralsupDesc");
     }
@@ -99,6 +109,16 @@ public class CentralizedSupSolution implements Operation {
         return warnings;
     }
 
+    /**
+     * Set the monitor which will track the progress of the following invocations
+     * of {@link #perform(Object[])} and which can be used to cancel them.
+     * 
+     * @param monitor the monitor of the computation
+     */
+    public void setMonitor(SynthesisMonitor monitor) {
+        this.monitor = monitor;
+    }
+
     public Object[] perform(Object[] arg0) {
         warnings.clear();
         if (arg0.length != 1) {
@@ -119,17 +139,22 @@ public class CentralizedSupSolution implements Operation {
                         ModelManager.instance().createModel(FSAModel.class) };
             }
         }
-        FSAModel[] models = EventSynchronizer.synchronizeAndCompose(model, model.getModules(), model.getChannels());
-        warnings.addAll(EventSynchronizer.getWarnings());
-        FSAModel moduleFSA = models[0];
-        FSAModel channelFSA = models[1];
+        SynchronizationResult composition = EventSynchronizer.synchronizeAndCompose(model, model.getModules(),
+                model.getChannels(), monitor);
+        warnings.addAll(composition.warnings);
+        FSAModel moduleFSA = composition.modules;
+        FSAModel channelFSA = composition.channels;
         FSAStateLabeller.labelCompositeStates(moduleFSA);
         FSAStateLabeller.labelCompositeStates(channelFSA);
-        EventSynchronizer.copyControllability(moduleFSA, channelFSA);
-        Operation supcon = OperationManager.instance().getOperation("supcon");
+        EventSynchronizer.copyControllability(composition.events, moduleFSA, channelFSA);
+        monitor.setPhase(SynthesisMonitor.PHASE_SUPCON);
+        Operation supcon = EventSynchronizer.getOperation("supcon");
         FSAModel supFSA = (FSAModel) supcon.perform(new Object[] { moduleFSA, channelFSA })[0];
         warnings.addAll(supcon.getWarnings());
-        EventSynchronizer.label4Humans(model, Arrays.asList(new FSAModel[] { moduleFSA, channelFSA, supFSA }));
+        monitor.addStates(supFSA.getStateCount());
+        monitor.setPhase(SynthesisMonitor.PHASE_LABEL);
+        EventSynchronizer.label4Humans(model, composition.events,
+                Arrays.asList(new FSAModel[] { moduleFSA, channelFSA, supFSA }));
         return new Object[] { moduleFSA, channelFSA, supFSA };
     }
 }
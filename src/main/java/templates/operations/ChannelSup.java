@@ -34,11 +34,12 @@ import ides.api.core.Hub;
 import ides.api.model.fsa.FSAModel;
 import ides.api.plugin.model.ModelManager;
 import ides.api.plugin.operation.Operation;
-import ides.api.plugin.operation.OperationManager;
 import ides.api.presentation.fsa.FSAStateLabeller;
 import templates.model.TemplateComponent;
 import templates.model.TemplateLink;
 import templates.model.TemplateModel;
+import templates.model.Validator.ValidationPass;
+import templates.operations.EventSynchronizer.SynchronizationResult;
 
 /**
  * Computes the supervisor for a channel with respect to the modules connected
@@ -56,6 +57,19 @@ import templates.model.TemplateModel;
  * <li>the synchronized channel [{@link FSAModel}]
  * <li>supervisor [{@link FSAModel}]
  * </ul>
+ * <p>
+ * The result is stored in the {@link SynthesisSession} of the template design
+ * and is reused until the channel, its links or the linked modules change.
+ * <p>
+ * Before the computation, the part of the design relevant to the channel is
+ * validated. Operations which compute the supervisors for multiple channels
+ * can share a single {@link ValidationPass} among the computations, see
+ * {@link #setValidation(ValidationPass)}.
+ * <p>
+ * The progress of the computation is reported to the {@link SynthesisMonitor}
+ * set with {@link #setMonitor(SynthesisMonitor)}. When the computation is
+ * canceled through the monitor, a {@link SynthesisCanceledException} is
+ * thrown.
  * 
  * @author Lenko Grigorov
  */
@@ -65,6 +79,17 @@ public class ChannelSup implements Operation {
      */
     protected List<String> warnings = new LinkedList<String>();
 
+    /**
+     * The monitor of the computation.
+     */
+    protected SynthesisMonitor monitor = new SynthesisMonitor();
+
+    /**
+     * The validation of the template design shared with other computations, or
+     * <code>null</code> if each invocation should validate the design anew.
+     */
+    protected ValidationPass validation = null;
+
     public String getDescription() {
         return Hub.string("TD_chsupDesc");
     }
@@ -101,6 +126,29 @@ public class ChannelSup implements Operation {
         return warnings;
     }
 
+    /**
+     * Set the monitor which will track the progress of the following invocations
+     * of {@link #perform(Object[])} and which can be used to cancel them.
+     * 
+     * @param monitor the monitor of the computation
+     */
+    public void setMonitor(SynthesisMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    /**
+     * Set the validation of the template design to be used by the following
+     * invocations of {@link #perform(Object[])}. The validation must have been
+     * created after the last modification of the design.
+     * 
+     * @param validation the validation of the template design, or
+     *                   <code>null</code> if each invocation should validate the
+     *                   design anew
+     */
+    public void setValidation(ValidationPass validation) {
+        this.validation = validation;
+    }
+
     public Object[] perform(Object[] arg0) {
         warnings.clear();
         if (arg0.length != 2) {
@@ -110,7 +158,32 @@ public class ChannelSup implements Operation {
             throw new IllegalArgumentException();
         }
         TemplateModel model = (TemplateModel) arg0[0];
-        TemplateComponent channel = model.getComponent((Long) arg0[1]);
+        ValidationPass pass = validation != null ? validation : new ValidationPass(model);
+        if (!pass.canComputeSup((Long) arg0[1])) {
+            Hub.getNoticeManager().postErrorTemporary(Hub.string("TD_errorsInModel"),
+                    Hub.string("TD_errorsInModel1") + " \'" + model.getName() + "\' "
+                            + Hub.string("TD_errorsInModel2"));
+            warnings.add(Hub.string("TD_errorsInModel"));
+            return new Object[] { ModelManager.instance().createModel(FSAModel.class),
+                    ModelManager.instance().createModel(FSAModel.class),
+                    ModelManager.instance().createModel(FSAModel.class) };
+        }
+        return SynthesisSession.getSession(model).getChannelSup(this, (Long) arg0[1], warnings);
+    }
+
+    /**
+     * Computes the supervisor for a channel. Used by the
+     * {@link SynthesisSession} when there is no valid stored result for the
+     * channel.
+     * 
+     * @param model     the template design
+     * @param channelId the ID of the channel
+     * @param warnings  the list where the warnings issued during the computation
+     *                  will be added
+     * @return the outputs of the operation
+     */
+    protected Object[] compute(TemplateModel model, long channelId, List<String> warnings) {
+        TemplateComponent channel = model.getComponent(channelId);
         Set<TemplateComponent> modules = new HashSet<TemplateComponent>();
         for (TemplateLink link : model.getAdjacentLinks(channel.getId())) {
             modules.add(link.getLeftComponent() == channel ? link.getRightComponent() : link.getLeftComponent());
@@ -123,18 +196,22 @@ public class ChannelSup implements Operation {
             return new Object[] { ModelManager.instance().createModel(FSAModel.class), channel.getModel().clone(),
                     ModelManager.instance().createModel(FSAModel.class) };
         }
-        FSAModel[] models = EventSynchronizer.synchronizeAndCompose(model, modules,
-                Arrays.asList(new TemplateComponent[] { channel }));
-        warnings.addAll(EventSynchronizer.getWarnings());
-        FSAModel moduleFSA = models[0];
-        FSAModel channelFSA = models[1];
+        SynchronizationResult composition = EventSynchronizer.synchronizeAndCompose(model, modules,
+                Arrays.asList(new TemplateComponent[] { channel }), monitor);
+        warnings.addAll(composition.warnings);
+        FSAModel moduleFSA = composition.modules;
+        FSAModel channelFSA = composition.channels;
         FSAStateLabeller.labelCompositeStates(moduleFSA);
         FSAStateLabeller.labelCompositeStates(channelFSA);
-        EventSynchronizer.copyControllability(moduleFSA, channelFSA);
-        Operation supcon = OperationManager.instance().getOperation("supcon");
+        EventSynchronizer.copyControllability(composition.events, moduleFSA, channelFSA);
+        monitor.setPhase(SynthesisMonitor.PHASE_SUPCON);
+        Operation supcon = EventSynchronizer.getOperation("supcon");
         FSAModel supFSA = (FSAModel) supcon.perform(new Object[] { moduleFSA, channelFSA })[0];
         warnings.addAll(supcon.getWarnings());
-        EventSynchronizer.label4Humans(model, Arrays.asList(new FSAModel[] { moduleFSA, channelFSA, supFSA }));
+        monitor.addStates(supFSA.getStateCount());
+        monitor.setPhase(SynthesisMonitor.PHASE_LABEL);
+        EventSynchronizer.label4Humans(model, composition.events,
+                Arrays.asList(new FSAModel[] { moduleFSA, channelFSA, supFSA }));
         FSAStateLabeller.labelCompositeStates(supFSA);
         return new Object[] { moduleFSA, channelFSA, supFSA };
     }
@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package templates.operations;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ides.api.model.fsa.FSAModel;
+import ides.api.model.fsa.FSAState;
+import ides.api.model.fsa.FSATransition;
+import ides.api.model.supeventset.SupervisoryEvent;
+import templates.model.TemplateComponent;
+import templates.model.TemplateModel;
+
+/**
+ * Cache of the compositions of sets of <i>modules</i>, as computed by
+ * {@link EventSynchronizer#synchronizeAndCompose(TemplateModel, Collection, Collection)}.
+ * <p>
+ * The compositions are keyed by the ids of the modules and by a structural
+ * fingerprint of the {@link FSAModel} of each module, so that a composition can
+ * be reused by all channels with the same cover and by later computations, as
+ * long as none of the modules has been modified. The events in the composition
+ * are named after the indices in an {@link EventTable}, so the table is part of
+ * the key as well. Since the fingerprints may collide, a cached composition is
+ * reused only if, in addition, the numbers of states, transitions and events
+ * and the ids of the events of the modules are the same as when the
+ * composition was stored.
+ * <p>
+ * The cache holds a limited number of compositions and the compositions are
+ * only softly referenced, so that they can be reclaimed when memory is low. The
+ * cache can be accessed concurrently.
+ * 
+ * @author Lenko Grigorov
+ */
+public class CompositionCache {
+    /**
+     * Identifies a set of modules in a specific state, with events named after
+     * the indices in a specific {@link EventTable}.
+     * 
+     * @author Lenko Grigorov
+     */
+    protected static class Key {
+        /**
+         * The table of the events used to name the events in the composition.
+         */
+        private final EventTable events;
+
+        /**
+         * The ids of the modules, in ascending order, each followed by the
+         * fingerprint of the {@link FSAModel} of the module.
+         */
+        private final long[] data;
+
+        /**
+         * The shapes of the {@link FSAModel}s of the modules (see
+         * {@link CompositionCache#shape(FSAModel)}), in the order of the ids of
+         * the modules. Not part of the identity of the key; used to verify a
+         * cache hit.
+         */
+        private final long[][] shapes;
+
+        /**
+         * The cached hash code of the key.
+         */
+        private final int hash;
+
+        /**
+         * Construct the key for the given modules.
+         * 
+         * @param events  the table of the events used to name the events in the
+         *                composition
+         * @param modules the modules
+         */
+        public Key(EventTable events, Collection<TemplateComponent> modules) {
+            this.events = events;
+            TemplateComponent[] sorted = modules.toArray(new TemplateComponent[modules.size()]);
+            Arrays.sort(sorted, new Comparator<TemplateComponent>() {
+                public int compare(TemplateComponent c1, TemplateComponent c2) {
+                    return c1.getId() < c2.getId() ? -1 : (c1.getId() == c2.getId() ? 0 : 1);
+                }
+            });
+            data = new long[sorted.length * 2];
+            shapes = new long[sorted.length][];
+            for (int i = 0; i < sorted.length; ++i) {
+                data[2 * i] = sorted[i].getId();
+                data[2 * i + 1] = fingerprint(sorted[i].getModel());
+                shapes[i] = shape(sorted[i].getModel());
+            }
+            hash = Arrays.hashCode(data) * 31 + System.identityHashCode(events);
+        }
+
+        /**
+         * Checks if the modules identified by this key have the same shapes as
+         * the modules identified by the given key.
+         * 
+         * @param key the key to compare with
+         * @return <code>true</code> if the shapes of the modules are the same;
+         *         <code>false</code> otherwise
+         */
+        public boolean sameShapes(Key key) {
+            return Arrays.deepEquals(shapes, key.shapes);
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            return events == ((Key) o).events && Arrays.equals(data, ((Key) o).data);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * A cached composition together with the warnings produced while computing
+     * it.
+     * 
+     * @author Lenko Grigorov
+     */
+    protected static class Entry {
+        /**
+         * The composition of the modules.
+         */
+        public FSAModel composition;
+
+        /**
+         * The warnings produced while computing the composition.
+         */
+        public List<String> warnings;
+
+        /**
+         * The key under which the composition was stored. Used to verify the
+         * shapes of the modules on a cache hit.
+         */
+        protected Key key;
+
+        /**
+         * Construct a new entry with the given parameters.
+         * 
+         * @param composition the composition of the modules
+         * @param warnings    the warnings produced while computing the composition
+         */
+        public Entry(FSAModel composition, List<String> warnings) {
+            this.composition = composition;
+            this.warnings = warnings;
+        }
+    }
+
+    /**
+     * The default maximum number of compositions held by a cache.
+     */
+    public static final int DEFAULT_CAPACITY = 32;
+
+    /**
+     * The cached compositions, in the order of the most recent access.
+     */
+    protected Map<Key, SoftReference<Entry>> entries;
+
+    /**
+     * Construct a cache which holds at most the given number of compositions.
+     * 
+     * @param capacity the maximum number of compositions in the cache
+     */
+    public CompositionCache(final int capacity) {
+        entries = new LinkedHashMap<Key, SoftReference<Entry>>(16, 0.75f, true) {
+            private static final long serialVersionUID = -2719438561870324532L;
+
+            protected boolean removeEldestEntry(Map.Entry<Key, SoftReference<Entry>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Retrieve the cached composition of the given modules. Since the caller may
+     * modify the composition, a copy of the cached composition is returned.
+     * 
+     * @param key the key identifying the modules, as returned by
+     *            {@link #keyOf(EventTable, Collection)}
+     * @return a copy of the cached composition and the warnings produced while
+     *         computing it; <code>null</code> if the composition is not in the
+     *         cache, or if the fingerprints of the modules match but the shapes
+     *         of the modules differ from the stored ones
+     */
+    public synchronized Entry get(Key key) {
+        SoftReference<Entry> reference = entries.get(key);
+        Entry entry = reference == null ? null : reference.get();
+        if (entry == null || !entry.key.sameShapes(key)) {
+            entries.remove(key);
+            return null;
+        }
+        return new Entry(entry.composition.clone(), entry.warnings);
+    }
+
+    /**
+     * Store the composition of the given modules in the cache. A copy of the
+     * composition is stored, so that the caller may modify the composition.
+     * 
+     * @param key         the key identifying the modules, as returned by
+     *                    {@link #keyOf(EventTable, Collection)}
+     * @param composition the composition of the modules
+     * @param warnings    the warnings produced while computing the composition
+     */
+    public synchronized void put(Key key, FSAModel composition, List<String> warnings) {
+        Entry entry = new Entry(composition.clone(), warnings);
+        entry.key = key;
+        entries.put(key, new SoftReference<Entry>(entry));
+    }
+
+    /**
+     * Remove all compositions from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Compute the key identifying the given modules in their current state.
+     * 
+     * @param events  the table of the events used to name the events in the
+     *                composition
+     * @param modules the modules
+     * @return the key identifying the given modules in their current state
+     */
+    public static Key keyOf(EventTable events, Collection<TemplateComponent> modules) {
+        return new Key(events, modules);
+    }
+
+    /**
+     * Compute a structural fingerprint of the given {@link FSAModel}. The
+     * fingerprint covers the events (including their controllability), the states
+     * (including their initial and marked status) and the transitions of the
+     * model. It does not depend on the order in which the elements of the model
+     * are iterated.
+     * 
+     * @param fsa the model
+     * @return the structural fingerprint of the model
+     */
+    public static long fingerprint(FSAModel fsa) {
+        long events = 0;
+        long states = 0;
+        long transitions = 0;
+        for (Iterator<SupervisoryEvent> i = fsa.getEventIterator(); i.hasNext();) {
+            SupervisoryEvent event = i.next();
+            events += mix(mix(event.getId()) ^ event.getSymbol().hashCode() ^ (event.isControllable() ? 1 : 2));
+        }
+        for (Iterator<FSAState> i = fsa.getStateIterator(); i.hasNext();) {
+            FSAState state = i.next();
+            states += mix(mix(state.getId()) ^ (state.isInitial() ? 1 : 2) ^ (state.isMarked() ? 4 : 8));
+        }
+        for (Iterator<FSATransition> i = fsa.getTransitionIterator(); i.hasNext();) {
+            FSATransition t = i.next();
+            transitions += mix(mix(mix(t.getSource().getId()) ^ t.getTarget().getId())
+                    ^ (t.getEvent() == null ? -1 : t.getEvent().getId()));
+        }
+        return mix(mix(mix(events) ^ states) ^ transitions);
+    }
+
+    /**
+     * Compute the shape of the given {@link FSAModel}: the numbers of states,
+     * transitions and events of the model, followed by the ids of the events in
+     * ascending order.
+     * 
+     * @param fsa the model
+     * @return the shape of the model
+     */
+    public static long[] shape(FSAModel fsa) {
+        long[] shape = new long[3 + (int) fsa.getEventCount()];
+        shape[0] = fsa.getStateCount();
+        shape[1] = fsa.getTransitionCount();
+        shape[2] = fsa.getEventCount();
+        int i = 3;
+        for (Iterator<SupervisoryEvent> events = fsa.getEventIterator(); events.hasNext() && i < shape.length;) {
+            shape[i++] = events.next().getId();
+        }
+        Arrays.sort(shape, 3, shape.length);
+        return shape;
+    }
+
+    /**
+     * Scramble the bits of the given value (the finalizer of the 64-bit MurmurHash3
+     * function).
+     * 
+     * @param value the value to be scrambled
+     * @return the scrambled value
+     */
+    protected static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
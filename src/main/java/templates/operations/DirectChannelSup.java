@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package templates.operations;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import ides.api.core.Hub;
+import ides.api.model.fsa.FSAModel;
+import ides.api.plugin.model.ModelManager;
+import ides.api.plugin.operation.Operation;
+import templates.model.TemplateComponent;
+import templates.model.TemplateLink;
+import templates.model.TemplateModel;
+import templates.model.Validator.ValidationPass;
+
+/**
+ * Computes the supervisor for a channel with respect to the modules connected
+ * to it, using the {@link OnTheFlySynthesizer}. Unlike {@link ChannelSup}, the
+ * composition of the modules and the synchronized channel are never built, so
+ * only the supervisor is output.
+ * <p>
+ * Inputs:
+ * <ul>
+ * <li>template design [{@link TemplateModel}]
+ * <li>channel ID [{@link Long}]
+ * </ul>
+ * <p>
+ * Outputs:
+ * <ul>
+ * <li>supervisor [{@link FSAModel}]
+ * </ul>
+ * <p>
+ * As with {@link ChannelSup}, the part of the design relevant to the channel is
+ * validated before the computation (see {@link #setValidation(ValidationPass)})
+ * and the progress is reported to the {@link SynthesisMonitor} set with
+ * {@link #setMonitor(SynthesisMonitor)}.
+ * 
+ * @author Lenko Grigorov
+ */
+public class DirectChannelSup implements Operation {
+    /**
+     * Collection of warnings accumulated while performing the operation.
+     */
+    protected List<String> warnings = new LinkedList<String>();
+
+    /**
+     * The monitor of the computation.
+     */
+    protected SynthesisMonitor monitor = new SynthesisMonitor();
+
+    /**
+     * The validation of the template design shared with other computations, or
+     * <code>null</code> if each invocation should validate the design anew.
+     */
+    protected ValidationPass validation = null;
+
+    public String getDescription() {
+        return Hub.string("TD_directsupDesc");
+    }
+
+    public String[] getDescriptionOfInputs() {
+        return new String[] { Hub.string("TD_modelDesc"), Hub.string("TD_channelDesc") };
+    }
+
+    public String[] getDescriptionOfOutputs() {
+        return new String[] { Hub.string("TD_supDesc") };
+    }
+
+    public String getName() {
+        return "tddirectchannelsup";
+    }
+
+    public int getNumberOfInputs() {
+        return 2;
+    }
+
+    public int getNumberOfOutputs() {
+        return 1;
+    }
+
+    public Class<?>[] getTypeOfInputs() {
+        return new Class<?>[] { TemplateModel.class, Long.class };
+    }
+
+    public Class<?>[] getTypeOfOutputs() {
+        return new Class<?>[] { FSAModel.class };
+    }
+
+    public List<String> getWarnings() {
+        return warnings;
+    }
+
+    /**
+     * Set the monitor which will track the progress of the following invocations
+     * of {@link #perform(Object[])} and which can be used to cancel them.
+     * 
+     * @param monitor the monitor of the computation
+     */
+    public void setMonitor(SynthesisMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    /**
+     * Set the validation of the template design to be used by the following
+     * invocations of {@link #perform(Object[])}. The validation must have been
+     * created after the last modification of the design.
+     * 
+     * @param validation the validation of the template design, or
+     *                   <code>null</code> if each invocation should validate the
+     *                   design anew
+     */
+    public void setValidation(ValidationPass validation) {
+        this.validation = validation;
+    }
+
+    public Object[] perform(Object[] arg0) {
+        warnings.clear();
+        if (arg0.length != 2) {
+            throw new IllegalArgumentException();
+        }
+        if (!(arg0[0] instanceof TemplateModel) || !(arg0[1] instanceof Long)) {
+            throw new IllegalArgumentException();
+        }
+        TemplateModel model = (TemplateModel) arg0[0];
+        ValidationPass pass = validation != null ? validation : new ValidationPass(model);
+        if (!pass.canComputeSup((Long) arg0[1])) {
+            Hub.getNoticeManager().postErrorTemporary(Hub.string("TD_errorsInModel"),
+                    Hub.string("TD_errorsInModel1") + " \'" + model.getName() + "\' "
+                            + Hub.string("TD_errorsInModel2"));
+            warnings.add(Hub.string("TD_errorsInModel"));
+            return new Object[] { ModelManager.instance().createModel(FSAModel.class) };
+        }
+        TemplateComponent channel = model.getComponent((Long) arg0[1]);
+        Set<TemplateComponent> modules = new HashSet<TemplateComponent>();
+        for (TemplateLink link : model.getAdjacentLinks(channel.getId())) {
+            modules.add(link.getLeftComponent() == channel ? link.getRightComponent() : link.getLeftComponent());
+        }
+        if (modules.isEmpty()) {
+            Hub.getNoticeManager().postWarningTemporary(Hub.string("TD_unconnectedChannel"),
+                    Hub.string("TD_unconnectedChannel1") + " \'" + channel.getModel().getName() + "\' "
+                            + Hub.string("TD_unconnectedChannel2"));
+            warnings.add(Hub.string("TD_unconnectedChannel"));
+            return new Object[] { ModelManager.instance().createModel(FSAModel.class) };
+        }
+        monitor.setPhase(SynthesisMonitor.PHASE_SUPCON);
+        EventTable events = new EventTable();
+        FSAModel supFSA = OnTheFlySynthesizer.synthesize(model, modules,
+                Arrays.asList(new TemplateComponent[] { channel }), events, monitor);
+        monitor.setPhase(SynthesisMonitor.PHASE_LABEL);
+        EventSynchronizer.label4Humans(model, events, Arrays.asList(new FSAModel[] { supFSA }));
+        return new Object[] { supFSA };
+    }
+}
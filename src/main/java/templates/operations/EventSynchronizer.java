@@ -24,6 +24,8 @@
 
 package templates.operations;
 
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -53,23 +55,166 @@ import templates.model.TemplateModel;
  */
 public class EventSynchronizer {
     /**
-     * Collection of warnings accumulated while performing
-     * {@link #synchronizeAndCompose(TemplateModel, Collection, Collection)}. The
-     * collection is reset every time
-     * {@link #synchronizeAndCompose(TemplateModel, Collection, Collection)} is
-     * called.
+     * The outputs of
+     * {@link EventSynchronizer#synchronizeAndCompose(TemplateModel, Collection, Collection)}.
+     * Every invocation returns a new instance, so concurrent invocations do not
+     * interfere with each other.
+     * 
+     * @author Lenko Grigorov
      */
-    protected static List<String> warnings = new LinkedList<String>();
+    public static class SynchronizationResult {
+        /**
+         * The composition of the modules.
+         */
+        public FSAModel modules;
+
+        /**
+         * The composition of the synchronized versions of the channels (or a
+         * single-state automaton where all events are self-looped, if no channels were
+         * given).
+         */
+        public FSAModel channels;
+
+        /**
+         * The table of the events in the compositions.
+         */
+        public EventTable events;
+
+        /**
+         * The warnings accumulated while composing the models.
+         */
+        public List<String> warnings;
+
+        /**
+         * Construct a new result with the given parameters.
+         * 
+         * @param modules  the composition of the modules
+         * @param channels the composition of the synchronized channels
+         * @param events   the table of the events in the compositions
+         * @param warnings the warnings accumulated while composing the models
+         */
+        public SynchronizationResult(FSAModel modules, FSAModel channels, EventTable events,
+                List<String> warnings) {
+            this.modules = modules;
+            this.channels = channels;
+            this.events = events;
+            this.warnings = warnings;
+        }
+    }
 
     /**
-     * Retrieve the warnings accumulated during the latest call to
+     * Wrapper of an {@link Operation} registered in IDES which cannot be
+     * instantiated privately. The invocations of the registered instance are
+     * serialized, and the warnings of each invocation are kept with the wrapper,
+     * so that threads using different wrappers do not see each other's
+     * warnings.
+     * 
+     * @author Lenko Grigorov
+     */
+    protected static class SerializedOperation implements Operation {
+        /**
+         * The registered instance of the operation.
+         */
+        protected Operation shared;
+
+        /**
+         * The warnings of the last invocation through this wrapper.
+         */
+        protected List<String> warnings = new LinkedList<String>();
+
+        /**
+         * Construct a wrapper of the given registered instance of an operation.
+         * 
+         * @param shared the registered instance of the operation
+         */
+        public SerializedOperation(Operation shared) {
+            this.shared = shared;
+        }
+
+        public String getDescription() {
+            return shared.getDescription();
+        }
+
+        public String[] getDescriptionOfInputs() {
+            return shared.getDescriptionOfInputs();
+        }
+
+        public String[] getDescriptionOfOutputs() {
+            return shared.getDescriptionOfOutputs();
+        }
+
+        public String getName() {
+            return shared.getName();
+        }
+
+        public int getNumberOfInputs() {
+            return shared.getNumberOfInputs();
+        }
+
+        public int getNumberOfOutputs() {
+            return shared.getNumberOfOutputs();
+        }
+
+        public Class<?>[] getTypeOfInputs() {
+            return shared.getTypeOfInputs();
+        }
+
+        public Class<?>[] getTypeOfOutputs() {
+            return shared.getTypeOfOutputs();
+        }
+
+        public List<String> getWarnings() {
+            return warnings;
+        }
+
+        /**
+         * Perform the registered operation while no other thread uses it, and
+         * copy its warnings.
+         */
+        public Object[] perform(Object[] arg0) {
+            synchronized (shared) {
+                Object[] outputs = shared.perform(arg0);
+                warnings = new LinkedList<String>(shared.getWarnings());
+                return outputs;
+            }
+        }
+    }
+
+    /**
+     * Cache of the compositions of modules, shared by all invocations of
      * {@link #synchronizeAndCompose(TemplateModel, Collection, Collection)}.
+     */
+    protected static final CompositionCache compositions = new CompositionCache(
+            CompositionCache.DEFAULT_CAPACITY);
+
+    /**
+     * Retrieve a private instance of the operation with the given name, so that
+     * the instance can be used concurrently with other threads. If the registered
+     * operation does not have a public constructor without arguments, the
+     * registered instance is returned wrapped in a {@link SerializedOperation},
+     * so that the threads take turns using it.
      * 
-     * @return the warnings accumulated during the latest call to
-     *         {@link #synchronizeAndCompose(TemplateModel, Collection, Collection)}
+     * @param name the name of the operation
+     * @return a private instance of the operation with the given name;
+     *         <code>null</code> if there is no such operation
+     * @throws IllegalStateException if the constructor of the operation fails
      */
-    public static List<String> getWarnings() {
-        return warnings;
+    protected static Operation getOperation(String name) {
+        Operation operation = OperationManager.instance().getOperation(name);
+        if (operation == null) {
+            return null;
+        }
+        try {
+            return operation.getClass().getConstructor().newInstance();
+        } catch (NoSuchMethodException e) {
+            return new SerializedOperation(operation);
+        } catch (IllegalAccessException e) {
+            return new SerializedOperation(operation);
+        } catch (InstantiationException e) {
+            return new SerializedOperation(operation);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(name, e.getCause());
+        }
     }
 
     /**
@@ -81,44 +226,89 @@ public class EventSynchronizer {
      * instead of the channel composition the output contains a single-state
      * automaton with all events in a self-loop.
      * <p>
+     * The composition of the modules is reused from the {@link CompositionCache}
+     * if the same modules were composed before and none of them was modified since.
+     * Otherwise, the modules are composed from the renamed copies kept by the
+     * {@link SynthesisSession} of the template design, so a module is copied only
+     * once for all channels adjacent to it.
+     * <p>
      * Note: as different modules may have the same event names (and as all
      * alphabets are assumed to be disjunct), the event names in the outputs are
-     * replaced with unique strings. To convert these unique string to a
-     * human-readable form, use {@link #label4Humans(TemplateModel, Collection)}.
+     * replaced with the symbols from the {@link EventTable} returned with the
+     * outputs. To convert these symbols to a human-readable form, use
+     * {@link #label4Humans(TemplateModel, EventTable, Collection)}.
      * 
      * @param model    the template model containing the modules and channels
      * @param modules  the modules to be composed
      * @param channels the channels to be synchronized and composed
-     * @return an array of two {@link FSAModel}s; the first model is the composition
-     *         of the given modules; the second model is the composition of the
+     * @return the composition of the given modules, the composition of the
      *         synchronized versions of the given channels (if no channels were
-     *         given, the second model is a single-state automaton where all events
-     *         are self-looped)
+     *         given, a single-state automaton where all events are self-looped),
+     *         the table of the events and the warnings accumulated while composing
+     *         them
      * @throws IllegalArgumentException when the list of modules is empty
-     * @see #label4Humans(TemplateModel, Collection)
+     * @see #label4Humans(TemplateModel, EventTable, Collection)
+     */
+    public static SynchronizationResult synchronizeAndCompose(TemplateModel model,
+            Collection<TemplateComponent> modules, Collection<TemplateComponent> channels) {
+        return synchronizeAndCompose(model, modules, channels, new SynthesisMonitor());
+    }
+
+    /**
+     * Same as
+     * {@link #synchronizeAndCompose(TemplateModel, Collection, Collection)},
+     * reporting the progress to the given monitor.
+     * 
+     * @param model    the template model containing the modules and channels
+     * @param modules  the modules to be composed
+     * @param channels the channels to be synchronized and composed
+     * @param monitor  the monitor of the computation
+     * @return the composition of the given modules, the composition of the
+     *         synchronized versions of the given channels, the table of the events
+     *         and the warnings accumulated while composing them
+     * @throws IllegalArgumentException   when the list of modules is empty
+     * @throws SynthesisCanceledException when the computation is canceled through
+     *                                    the monitor
      */
-    public static FSAModel[] synchronizeAndCompose(TemplateModel model, Collection<TemplateComponent> modules,
-            Collection<TemplateComponent> channels) {
-        warnings.clear();
+    public static SynchronizationResult synchronizeAndCompose(TemplateModel model,
+            Collection<TemplateComponent> modules, Collection<TemplateComponent> channels,
+            SynthesisMonitor monitor) {
+        List<String> warnings = new LinkedList<String>();
         if (modules.isEmpty()) {
             throw new IllegalArgumentException();
         }
-        Set<FSAModel> modulesFSA = new HashSet<FSAModel>();
+        SynthesisSession session = SynthesisSession.getSession(model);
+        EventTable events = session.getEvents();
         Map<TemplateComponent, Map<String, String>> eventRenaming = new HashMap<TemplateComponent, Map<String, String>>();
         for (TemplateComponent module : modules) {
-            FSAModel fsa = module.getModel().clone();
             Map<String, String> eventMap = new HashMap<String, String>();
-            for (DESEvent event : fsa.getEventSet()) {
-                String newName = getUniqueEventName(module, event.getId());
-                eventMap.put(event.getSymbol(), newName);
-                event.setSymbol(newName);
+            for (DESEvent event : module.getModel().getEventSet()) {
+                eventMap.put(event.getSymbol(), events.getSymbol(events.intern(module, event.getId())));
             }
-            modulesFSA.add(fsa);
             eventRenaming.put(module, eventMap);
         }
-        Operation sync = OperationManager.instance().getOperation("sync");
-        FSAModel moduleFSA = (FSAModel) sync.perform(modulesFSA.toArray())[0];
-        warnings.addAll(sync.getWarnings());
+        CompositionCache.Key key = CompositionCache.keyOf(events, modules);
+        CompositionCache.Entry cached = compositions.get(key);
+        monitor.setPhase(SynthesisMonitor.PHASE_SYNC);
+        FSAModel moduleFSA;
+        if (cached != null) {
+            moduleFSA = cached.composition;
+            warnings.addAll(cached.warnings);
+        } else {
+            Set<FSAModel> modulesFSA = new HashSet<FSAModel>();
+            for (TemplateComponent module : modules) {
+                modulesFSA.add(session.getRenamedModule(module, events));
+            }
+            Operation sync = getOperation("sync");
+            moduleFSA = (FSAModel) sync.perform(modulesFSA.toArray())[0];
+            if (modulesFSA.contains(moduleFSA)) {
+                // the renamed modules are shared and must not be modified
+                moduleFSA = moduleFSA.clone();
+            }
+            compositions.put(key, moduleFSA, new ArrayList<String>(sync.getWarnings()));
+            warnings.addAll(sync.getWarnings());
+        }
+        monitor.addStates(moduleFSA.getStateCount());
         DESEventSet systemEvents = moduleFSA.getEventSet().copy();
         Set<FSAModel> channelsFSA = new HashSet<FSAModel>();
         for (TemplateComponent channel : channels) {
@@ -146,18 +336,20 @@ public class EventSynchronizer {
                 if (channelEventMap.containsKey(event.getSymbol())) {
                     event.setSymbol(channelEventMap.get(event.getSymbol()));
                 } else {
-                    event.setSymbol(getUniqueEventName(channel, event.getId()));
+                    event.setSymbol(events.getSymbol(events.intern(channel, event.getId())));
                 }
             }
             DESEventSet toSelfloop = systemEvents.subtract(fsa.getEventSet());
-            Operation selfloop = OperationManager.instance().getOperation("selfloop");
+            monitor.setPhase(SynthesisMonitor.PHASE_SELFLOOP);
+            Operation selfloop = getOperation("selfloop");
             fsa = (FSAModel) selfloop.perform(new Object[] { fsa, toSelfloop })[0];
             warnings.addAll(selfloop.getWarnings());
             channelsFSA.add(fsa);
         }
         FSAModel channelFSA;
+        monitor.setPhase(SynthesisMonitor.PHASE_PRODUCT);
         if (!channelsFSA.isEmpty()) {
-            Operation product = OperationManager.instance().getOperation("product");
+            Operation product = getOperation("product");
             channelFSA = (FSAModel) product.perform(channelsFSA.toArray())[0];
             warnings.addAll(product.getWarnings());
         } else {
@@ -166,89 +358,70 @@ public class EventSynchronizer {
             s.setInitial(true);
             s.setMarked(true);
             channelFSA.add(s);
-            Operation selfloop = OperationManager.instance().getOperation("selfloop");
+            Operation selfloop = getOperation("selfloop");
             channelFSA = (FSAModel) selfloop.perform(new Object[] { channelFSA, systemEvents })[0];
             warnings.addAll(selfloop.getWarnings());
         }
-        return new FSAModel[] { moduleFSA, channelFSA };
+        monitor.addStates(channelFSA.getStateCount());
+        return new SynchronizationResult(moduleFSA, channelFSA, events, warnings);
     }
 
     /**
      * Relabel the events of the outputs of
      * {@link #synchronizeAndCompose(TemplateModel, Collection, Collection)} with
-     * names which are human-readable. The existing labels are assumed to be unique
-     * string identifiers as generated by
-     * {@link #synchronizeAndCompose(TemplateModel, Collection, Collection)}. This
-     * method may produce unexpected results if the template design has been
-     * modified in between the invocations of
+     * names which are human-readable. The existing labels are assumed to be
+     * symbols from the given {@link EventTable}. This method may produce
+     * unexpected results if the template design has been modified in between the
+     * invocations of
      * {@link #synchronizeAndCompose(TemplateModel, Collection, Collection)} and
      * this method.
      * 
-     * @param model the template design containing the inputs to
-     *              {@link #synchronizeAndCompose(TemplateModel, Collection, Collection)}
-     * @param fsas  the outputs of
-     *              {@link #synchronizeAndCompose(TemplateModel, Collection, Collection)}
+     * @param model  the template design containing the inputs to
+     *               {@link #synchronizeAndCompose(TemplateModel, Collection, Collection)}
+     * @param events the table of the events in the models
+     * @param fsas   the outputs of
+     *               {@link #synchronizeAndCompose(TemplateModel, Collection, Collection)}
      * @see #synchronizeAndCompose(TemplateModel, Collection, Collection)
      */
-    public static void label4Humans(TemplateModel model, Collection<FSAModel> fsas) {
+    public static void label4Humans(TemplateModel model, EventTable events, Collection<FSAModel> fsas) {
+        String[] labels = new String[events.size()];
         for (FSAModel fsa : fsas) {
             for (DESEvent event : fsa.getEventSet()) {
-                long[] pointer = getEventPointer(event.getSymbol());
-                FSAModel original = model.getComponent(pointer[0]).getModel();
-                String fsaName = original.getName();
-                if (fsaName.startsWith(TemplateModel.FSA_NAME_PREFIX)) {
-                    fsaName = fsaName.substring(TemplateModel.FSA_NAME_PREFIX.length());
+                int index = events.getIndex(event.getSymbol());
+                if (labels[index] == null) {
+                    FSAModel original = model.getComponent(events.getComponentId(index)).getModel();
+                    String fsaName = original.getName();
+                    if (fsaName.startsWith(TemplateModel.FSA_NAME_PREFIX)) {
+                        fsaName = fsaName.substring(TemplateModel.FSA_NAME_PREFIX.length());
+                    }
+                    labels[index] = fsaName + ":" + original.getEvent(events.getEventId(index)).getSymbol();
                 }
-                event.setSymbol(fsaName + ":" + original.getEvent(pointer[1]).getSymbol());
+                event.setSymbol(labels[index]);
             }
         }
     }
 
-    /**
-     * Generate a unique event name string for the given event.
-     * 
-     * @param c       the template design component
-     * @param eventId the id of the event in the underlying model of the given
-     *                component
-     * @return a unique event name string
-     */
-    protected static String getUniqueEventName(TemplateComponent c, long eventId) {
-        return "" + c.getId() + ":" + eventId;
-    }
-
-    /**
-     * Retrieve the ids of the template design component and the event in the
-     * underlying model from the unique event name string generated by
-     * {@link #getUniqueEventName(TemplateComponent, long)}.
-     * 
-     * @param name the unique event name
-     * @return an array of two elements: the id of the {@link TemplateComponent} and
-     *         the id of the event in the underlying model of the
-     *         {@link TemplateComponent}.
-     */
-    protected static long[] getEventPointer(String name) {
-        String[] ids = name.split(":");
-        return new long[] { Long.parseLong(ids[0]), Long.parseLong(ids[1]) };
-    }
-
     /**
      * Copies the controllability setting from the events of the given source model
      * to the events of the given destination model. The controllability is copied
-     * only for events that are present in both models.
+     * only for events that are present in both models. The events of both models
+     * are assumed to be symbols from the given {@link EventTable}.
      * 
+     * @param events the table of the events in the models
      * @param source the source model
      * @param dest   the destination model
      */
-    public static void copyControllability(FSAModel source, FSAModel dest) {
-        HashMap<String, Boolean> sourceMap = new HashMap<String, Boolean>();
+    public static void copyControllability(EventTable events, FSAModel source, FSAModel dest) {
+        Boolean[] controllability = new Boolean[events.size()];
         for (Iterator<SupervisoryEvent> i = source.getEventIterator(); i.hasNext();) {
             SupervisoryEvent event = i.next();
-            sourceMap.put(event.getSymbol(), event.isControllable());
+            controllability[events.getIndex(event.getSymbol())] = event.isControllable();
         }
         for (Iterator<SupervisoryEvent> i = dest.getEventIterator(); i.hasNext();) {
             SupervisoryEvent event = i.next();
-            if (sourceMap.containsKey(event.getSymbol())) {
-                event.setControllable(sourceMap.get(event.getSymbol()));
+            Boolean controllable = controllability[events.getIndex(event.getSymbol())];
+            if (controllable != null) {
+                event.setControllable(controllable);
             }
         }
     }
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package templates.operations;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import templates.model.TemplateComponent;
+
+/**
+ * Table of the events which take part in the synthesis of supervisors. Each
+ * pair of a template design component and an event of its underlying model is
+ * assigned a dense integer index, starting from zero. The symbol of the event
+ * in the models produced by the synthesis is the decimal representation of the
+ * index (see {@link #getSymbol(int)}), so that the events can be traced back to
+ * the components without parsing compound names.
+ * <p>
+ * The {@link SynthesisSession} of a template design keeps a table for the
+ * lifetime of the design, so that the indices of the events do not change
+ * between computations. The table can be accessed concurrently.
+ * 
+ * @author Lenko Grigorov
+ */
+public class EventTable {
+    /**
+     * The indices of the events, indexed by the id of the component and the id of
+     * the event in the underlying model of the component.
+     */
+    protected Map<Long, Map<Long, Integer>> indices = new HashMap<Long, Map<Long, Integer>>();
+
+    /**
+     * The ids of the components of the events, in the order of the indices.
+     */
+    protected long[] componentIds = new long[16];
+
+    /**
+     * The ids of the events in the underlying models of the components, in the
+     * order of the indices.
+     */
+    protected long[] eventIds = new long[16];
+
+    /**
+     * The symbols of the events, in the order of the indices.
+     */
+    protected String[] symbols = new String[16];
+
+    /**
+     * The number of events in the table.
+     */
+    protected int size = 0;
+
+    /**
+     * Retrieve the index of the given event, adding the event to the table if
+     * necessary.
+     * 
+     * @param c       the template design component
+     * @param eventId the id of the event in the underlying model of the given
+     *                component
+     * @return the index of the event
+     */
+    public synchronized int intern(TemplateComponent c, long eventId) {
+        Map<Long, Integer> componentIndices = indices.get(c.getId());
+        if (componentIndices == null) {
+            componentIndices = new HashMap<Long, Integer>();
+            indices.put(c.getId(), componentIndices);
+        }
+        Integer index = componentIndices.get(eventId);
+        if (index != null) {
+            return index;
+        }
+        if (size == symbols.length) {
+            componentIds = Arrays.copyOf(componentIds, size * 2);
+            eventIds = Arrays.copyOf(eventIds, size * 2);
+            symbols = Arrays.copyOf(symbols, size * 2);
+        }
+        componentIds[size] = c.getId();
+        eventIds[size] = eventId;
+        symbols[size] = Integer.toString(size);
+        componentIndices.put(eventId, size);
+        return size++;
+    }
+
+    /**
+     * Retrieve the number of events in the table.
+     * 
+     * @return the number of events in the table
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Retrieve the id of the component of the event with the given index.
+     * 
+     * @param index the index of the event
+     * @return the id of the template design component
+     */
+    public synchronized long getComponentId(int index) {
+        return componentIds[index];
+    }
+
+    /**
+     * Retrieve the id of the event with the given index in the underlying model
+     * of its component.
+     * 
+     * @param index the index of the event
+     * @return the id of the event in the underlying model of the component
+     */
+    public synchronized long getEventId(int index) {
+        return eventIds[index];
+    }
+
+    /**
+     * Retrieve the symbol used for the event with the given index in the models
+     * produced by the synthesis.
+     * 
+     * @param index the index of the event
+     * @return the symbol of the event
+     */
+    public synchronized String getSymbol(int index) {
+        return symbols[index];
+    }
+
+    /**
+     * Retrieve the index of the event with the given symbol, as returned by
+     * {@link #getSymbol(int)}.
+     * 
+     * @param symbol the symbol of the event
+     * @return the index of the event
+     * @throws IllegalArgumentException when the symbol does not belong to an
+     *                                  event in the table
+     */
+    public synchronized int getIndex(String symbol) {
+        int index;
+        try {
+            index = Integer.parseInt(symbol);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(symbol);
+        }
+        if (index < 0 || index >= size) {
+            throw new IllegalArgumentException(symbol);
+        }
+        return index;
+    }
+
+    /**
+     * Create a copy of the table. Events added to the copy do not affect the
+     * original table and vice versa.
+     * 
+     * @return a copy of the table
+     */
+    public synchronized EventTable copy() {
+        EventTable copy = new EventTable();
+        for (Map.Entry<Long, Map<Long, Integer>> entry : indices.entrySet()) {
+            copy.indices.put(entry.getKey(), new HashMap<Long, Integer>(entry.getValue()));
+        }
+        copy.componentIds = componentIds.clone();
+        copy.eventIds = eventIds.clone();
+        copy.symbols = symbols.clone();
+        copy.size = size;
+        return copy;
+    }
+}
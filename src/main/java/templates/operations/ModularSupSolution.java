@@ -24,17 +24,24 @@
 
 package templates.operations;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ides.api.core.Hub;
 import ides.api.model.fsa.FSAModel;
 import ides.api.plugin.operation.Operation;
-import ides.api.plugin.operation.OperationManager;
 import templates.model.TemplateComponent;
 import templates.model.TemplateModel;
-import templates.model.Validator;
-import templates.model.Validator.ValidatorResult;
+import templates.model.Validator.ValidationPass;
 
 /**
  * Computes the modular supervisory solution for a {@link TemplateModel}.
@@ -55,6 +62,22 @@ import templates.model.Validator.ValidatorResult;
  * <ul>
  * <li>are all the supervisors locally modular [{@link Boolean}]
  * </ul>
+ * <p>
+ * The outputs for the channels are ordered by the ids of the channels. In the
+ * parallel mode, the supervisors for the channels are computed concurrently on
+ * a pool with as many threads as there are available processors, and the check
+ * for local modularity is performed once all of them are available.
+ * Supervisors which are still valid since a previous run are reused (see
+ * {@link SynthesisSession}).
+ * <p>
+ * Only the parts of the template design relevant to the channels are validated
+ * (see {@link ValidationPass}). The validation is performed once and is shared
+ * by the computations of the supervisors for all channels.
+ * <p>
+ * The progress of the computation, including the number of channels processed
+ * so far, is reported to the {@link SynthesisMonitor} set with
+ * {@link #setMonitor(SynthesisMonitor)}. When the computation is canceled
+ * through the monitor, a {@link SynthesisCanceledException} is thrown.
  * 
  * @author Lenko Grigorov
  */
@@ -76,6 +99,67 @@ public class ModularSupSolution implements Operation {
      */
     private static final String[] NO_OUTPUT_DESC = new String[] { Hub.string("TD_noOutputSups") };
 
+    /**
+     * Orders {@link TemplateComponent}s by their ids.
+     */
+    private static final Comparator<TemplateComponent> ID_ORDER = new Comparator<TemplateComponent>() {
+        public int compare(TemplateComponent c1, TemplateComponent c2) {
+            return c1.getId() < c2.getId() ? -1 : (c1.getId() == c2.getId() ? 0 : 1);
+        }
+    };
+
+    /**
+     * The outputs of the computation of the supervisor for a channel.
+     * 
+     * @author Lenko Grigorov
+     */
+    protected static class ChannelSupResult {
+        /**
+         * The outputs of the operation computing the supervisor.
+         */
+        public Object[] outputs;
+
+        /**
+         * The warnings produced by the operation computing the supervisor.
+         */
+        public List<String> warnings;
+
+        /**
+         * Construct a new result with the given parameters.
+         * 
+         * @param outputs  the outputs of the operation computing the supervisor
+         * @param warnings the warnings produced by the operation computing the
+         *                 supervisor
+         */
+        public ChannelSupResult(Object[] outputs, List<String> warnings) {
+            this.outputs = outputs;
+            this.warnings = new ArrayList<String>(warnings);
+        }
+    }
+
+    /**
+     * Whether the supervisors for the channels are computed concurrently.
+     */
+    protected boolean parallel;
+
+    /**
+     * Construct the operation which computes the supervisors for the channels
+     * sequentially.
+     */
+    public ModularSupSolution() {
+        this(false);
+    }
+
+    /**
+     * Construct the operation.
+     * 
+     * @param parallel whether the supervisors for the channels should be computed
+     *                 concurrently
+     */
+    public ModularSupSolution(boolean parallel) {
+        this.parallel = parallel;
+    }
+
     /**
      * The description of the outputs.
      */
@@ -86,8 +170,13 @@ public class ModularSupSolution implements Operation {
      */
     protected List<String> warnings = new LinkedList<String>();
 
+    /**
+     * The monitor of the computation.
+     */
+    protected SynthesisMonitor monitor = new SynthesisMonitor();
+
     public String getDescription() {
-        return Hub.string("TD_modsupDesc");
+        return parallel ? Hub.string("TD_modsupParDesc") : Hub.string("TD_modsupDesc");
     }
 
     public String[] getDescriptionOfInputs() {
@@ -99,7 +188,7 @@ public class ModularSupSolution implements Operation {
     }
 
     public String getName() {
-        return "tdmodularsup";
+        return parallel ? "tdmodularsuppar" : "tdmodularsup";
     }
 
     public int getNumberOfInputs() {
@@ -122,6 +211,16 @@ public class ModularSupSolution implements Operation {
         return warnings;
     }
 
+    /**
+     * Set the monitor which will track the progress of the following invocations
+     * of {@link #perform(Object[])} and which can be used to cancel them.
+     * 
+     * @param monitor the monitor of the computation
+     */
+    public void setMonitor(SynthesisMonitor monitor) {
+        this.monitor = monitor;
+    }
+
     public Object[] perform(Object[] arg0) {
         warnings.clear();
         description = STD_DESC;
@@ -132,8 +231,11 @@ public class ModularSupSolution implements Operation {
             throw new IllegalArgumentException();
         }
         TemplateModel model = (TemplateModel) arg0[0];
-        for (ValidatorResult r : Validator.validate(model)) {
-            if (r.type == ValidatorResult.ERROR) {
+        List<TemplateComponent> channels = new ArrayList<TemplateComponent>(model.getChannels());
+        Collections.sort(channels, ID_ORDER);
+        ValidationPass validation = new ValidationPass(model);
+        for (TemplateComponent channel : channels) {
+            if (!validation.canComputeSup(channel.getId())) {
                 Hub.getNoticeManager().postErrorTemporary(Hub.string("TD_errorsInModel"),
                         Hub.string("TD_errorsInModel1") + " \'" + model.getName() + "\' "
                                 + Hub.string("TD_errorsInModel2"));
@@ -142,13 +244,25 @@ public class ModularSupSolution implements Operation {
                 return new Object[] { true };
             }
         }
-        Operation channelsup = OperationManager.instance().getOperation("tdchannelsup");
+        List<ChannelSupResult> results;
+        if (parallel && channels.size() > 1) {
+            results = computeConcurrently(model, channels, validation);
+        } else {
+            ChannelSup channelsup = new ChannelSup();
+            channelsup.setMonitor(monitor);
+            channelsup.setValidation(validation);
+            results = new ArrayList<ChannelSupResult>(channels.size());
+            for (TemplateComponent channel : channels) {
+                results.add(computeChannelSup(channelsup, model, channel));
+                monitor.setProgress(results.size(), channels.size());
+            }
+        }
         List<FSAModel> models = new LinkedList<FSAModel>();
         List<FSAModel> sups = new LinkedList<FSAModel>();
         List<String> descriptions = new LinkedList<String>();
-        for (TemplateComponent channel : model.getChannels()) {
-            Object[] result = channelsup.perform(new Object[] { model, channel.getId() });
-            String channelName = channel.getModel().getName();
+        for (int i = 0; i < channels.size(); ++i) {
+            Object[] result = results.get(i).outputs;
+            String channelName = channels.get(i).getModel().getName();
             if (channelName.startsWith(TemplateModel.FSA_NAME_PREFIX)) {
                 channelName = channelName.substring(TemplateModel.FSA_NAME_PREFIX.length());
             }
@@ -162,14 +276,15 @@ public class ModularSupSolution implements Operation {
             descriptions.add(Hub.string("TD_modulesDesc") + " \"" + channelName + "\"");
             descriptions.add(Hub.string("TD_adjChannel") + " \"" + channelName + "\"");
             descriptions.add(Hub.string("TD_supDesc") + " \"" + channelName + "\"");
-            warnings.addAll(channelsup.getWarnings());
+            warnings.addAll(results.get(i).warnings);
         }
         if (sups.isEmpty()) {
             warnings.add(NO_OUTPUT_DESC[0]);
             description = NO_OUTPUT_DESC;
             return new Object[] { true };
         }
-        Operation lm = OperationManager.instance().getOperation("localmodular");
+        monitor.setPhase(SynthesisMonitor.PHASE_LOCALMODULAR);
+        Operation lm = EventSynchronizer.getOperation("localmodular");
         Boolean isLM = (Boolean) lm.perform(sups.toArray())[0];
         warnings.addAll(lm.getWarnings());
         description = new String[models.size() + 1];
@@ -185,4 +300,68 @@ public class ModularSupSolution implements Operation {
         return ret;
     }
 
+    /**
+     * Compute the supervisor for the given channel.
+     * 
+     * @param channelsup the operation computing the supervisor for a channel
+     * @param model      the template design containing the channel
+     * @param channel    the channel
+     * @return the outputs and the warnings of the operation
+     */
+    protected ChannelSupResult computeChannelSup(Operation channelsup, TemplateModel model,
+            TemplateComponent channel) {
+        Object[] result = channelsup.perform(new Object[] { model, channel.getId() });
+        return new ChannelSupResult(result, channelsup.getWarnings());
+    }
+
+    /**
+     * Compute the supervisors for the given channels concurrently. Each
+     * computation uses a separate instance of {@link ChannelSup}, reporting to the
+     * monitor of this operation and sharing the given validation.
+     * 
+     * @param model      the template design containing the channels
+     * @param channels   the channels
+     * @param validation the validation of the template design
+     * @return the results of
+     *         {@link #computeChannelSup(Operation, TemplateModel, TemplateComponent)}
+     *         for the channels, in the order of the channels
+     */
+    protected List<ChannelSupResult> computeConcurrently(final TemplateModel model,
+            final List<TemplateComponent> channels, final ValidationPass validation) {
+        final AtomicInteger completed = new AtomicInteger();
+        ExecutorService executor = Executors
+                .newFixedThreadPool(Math.min(channels.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<ChannelSupResult>> futures = new ArrayList<Future<ChannelSupResult>>(channels.size());
+            for (final TemplateComponent channel : channels) {
+                futures.add(executor.submit(new Callable<ChannelSupResult>() {
+                    public ChannelSupResult call() {
+                        ChannelSup channelsup = new ChannelSup();
+                        channelsup.setMonitor(monitor);
+                        channelsup.setValidation(validation);
+                        ChannelSupResult result = computeChannelSup(channelsup, model, channel);
+                        monitor.setProgress(completed.incrementAndGet(), channels.size());
+                        return result;
+                    }
+                }));
+            }
+            List<ChannelSupResult> results = new ArrayList<ChannelSupResult>(channels.size());
+            for (Future<ChannelSupResult> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
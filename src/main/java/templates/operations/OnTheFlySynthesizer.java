@@ -0,0 +1,786 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package templates.operations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import ides.api.model.fsa.FSAModel;
+import ides.api.model.fsa.FSAState;
+import ides.api.model.fsa.FSATransition;
+import ides.api.model.supeventset.SupervisoryEvent;
+import ides.api.plugin.model.ModelManager;
+import templates.model.TemplateComponent;
+import templates.model.TemplateLink;
+import templates.model.TemplateModel;
+
+/**
+ * Computes the supremal controllable and nonblocking supervisor for a set of
+ * <i>modules</i> and <i>channels</i> without building the composition of the
+ * modules or the synchronized channels first.
+ * <p>
+ * The synchronous product of the modules and the channels is explored
+ * state-by-state, starting from the initial state. As soon as a state is found
+ * where a module can execute an uncontrollable event which is disabled by a
+ * channel, the state is marked as "bad" and all states which can reach it via
+ * uncontrollable events are marked as "bad" too. Bad states are not explored
+ * further. Once the exploration is complete, the states which cannot reach a
+ * marked state are iteratively removed and the supervisor is emitted directly
+ * as an {@link FSAModel}.
+ * <p>
+ * The modules and the channels may be nondeterministic. All successors of a
+ * product state are explored.
+ * <p>
+ * The progress of the exploration is reported to a {@link SynthesisMonitor},
+ * which can also be used to cancel the computation.
+ * <p>
+ * The events of the supervisor are named using the symbols from an
+ * {@link EventTable}, as in the outputs of
+ * {@link EventSynchronizer#synchronizeAndCompose(TemplateModel, Collection, Collection)},
+ * and can be converted to a human-readable form with
+ * {@link EventSynchronizer#label4Humans(TemplateModel, EventTable, Collection)}.
+ * 
+ * @author Lenko Grigorov
+ */
+public class OnTheFlySynthesizer {
+    /**
+     * Growable array of integers. Used to avoid boxing while storing the
+     * explored transitions.
+     * 
+     * @author Lenko Grigorov
+     */
+    protected static class IntList {
+        /**
+         * The elements of the list.
+         */
+        protected int[] data = new int[4];
+
+        /**
+         * The number of elements in the list.
+         */
+        protected int size = 0;
+
+        /**
+         * Append an element to the list.
+         * 
+         * @param value the element to be appended
+         */
+        public void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        /**
+         * Retrieve the element at the given position.
+         * 
+         * @param index the position of the element
+         * @return the element at the given position
+         */
+        public int get(int index) {
+            return data[index];
+        }
+
+        /**
+         * Retrieve the number of elements in the list.
+         * 
+         * @return the number of elements in the list
+         */
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Read-only indexed representation of an {@link FSAModel} where the events
+     * are replaced by the indices of the global events of the synthesis problem.
+     * 
+     * @author Lenko Grigorov
+     */
+    protected static class Automaton {
+        /**
+         * The index of the initial state; <code>-1</code> if there is no initial
+         * state.
+         */
+        public int initial = -1;
+
+        /**
+         * The marking of the states.
+         */
+        public boolean[] marked;
+
+        /**
+         * For each state, the global indices of the events of the outgoing
+         * transitions.
+         */
+        public int[][] events;
+
+        /**
+         * For each state, the indices of the target states of the outgoing
+         * transitions (in the same order as {@link #events}).
+         */
+        public int[][] targets;
+
+        /**
+         * Build the indexed representation of the given {@link FSAModel}. Transitions
+         * whose events are not mapped to a global event are ignored.
+         * 
+         * @param fsa    the model to be indexed
+         * @param events map from the ids of the events in the model to the indices
+         *               of the global events
+         */
+        public Automaton(FSAModel fsa, Map<Long, Integer> events) {
+            Map<Long, Integer> stateIndex = new HashMap<Long, Integer>();
+            List<FSAState> states = new ArrayList<FSAState>();
+            for (Iterator<FSAState> i = fsa.getStateIterator(); i.hasNext();) {
+                FSAState state = i.next();
+                stateIndex.put(state.getId(), states.size());
+                states.add(state);
+            }
+            marked = new boolean[states.size()];
+            for (int i = 0; i < states.size(); ++i) {
+                marked[i] = states.get(i).isMarked();
+                if (initial < 0 && states.get(i).isInitial()) {
+                    initial = i;
+                }
+            }
+            IntList[] outEvents = new IntList[states.size()];
+            IntList[] outTargets = new IntList[states.size()];
+            for (int i = 0; i < states.size(); ++i) {
+                outEvents[i] = new IntList();
+                outTargets[i] = new IntList();
+            }
+            for (Iterator<FSATransition> i = fsa.getTransitionIterator(); i.hasNext();) {
+                FSATransition t = i.next();
+                if (t.getEvent() == null || !events.containsKey(t.getEvent().getId())) {
+                    continue;
+                }
+                int source = stateIndex.get(t.getSource().getId());
+                outEvents[source].add(events.get(t.getEvent().getId()));
+                outTargets[source].add(stateIndex.get(t.getTarget().getId()));
+            }
+            this.events = new int[states.size()][];
+            this.targets = new int[states.size()][];
+            for (int i = 0; i < states.size(); ++i) {
+                this.events[i] = Arrays.copyOf(outEvents[i].data, outEvents[i].size);
+                this.targets[i] = Arrays.copyOf(outTargets[i].data, outTargets[i].size);
+            }
+        }
+
+        /**
+         * Construct the indexed representation directly from its parts.
+         * 
+         * @param initial the index of the initial state; <code>-1</code> if there is
+         *                no initial state
+         * @param marked  the marking of the states
+         * @param events  for each state, the global indices of the events of the
+         *                outgoing transitions
+         * @param targets for each state, the indices of the target states of the
+         *                outgoing transitions
+         */
+        public Automaton(int initial, boolean[] marked, int[][] events, int[][] targets) {
+            this.initial = initial;
+            this.marked = marked;
+            this.events = events;
+            this.targets = targets;
+        }
+
+        /**
+         * Retrieve the targets of all transitions from the given state with the given
+         * event.
+         * 
+         * @param state the index of the source state
+         * @param event the global index of the event
+         * @return the indices of the target states; empty if there is no such
+         *         transition
+         */
+        public IntList step(int state, int event) {
+            IntList result = new IntList();
+            int[] stateEvents = events[state];
+            for (int i = 0; i < stateEvents.length; ++i) {
+                if (stateEvents[i] == event) {
+                    result.add(targets[state][i]);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Key used to look up product states by the tuple of component states.
+     * 
+     * @author Lenko Grigorov
+     */
+    protected static class StateKey {
+        /**
+         * The states of the modules followed by the states of the channels.
+         */
+        public final int[] tuple;
+
+        /**
+         * The cached hash code of the tuple.
+         */
+        private final int hash;
+
+        /**
+         * Construct a key for the given tuple of component states.
+         * 
+         * @param tuple the states of the modules followed by the states of the
+         *              channels
+         */
+        public StateKey(int[] tuple) {
+            this.tuple = tuple;
+            hash = Arrays.hashCode(tuple);
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof StateKey)) {
+                return false;
+            }
+            return Arrays.equals(tuple, ((StateKey) o).tuple);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * The table of the global events. The global index of an event is its index
+     * in the table.
+     */
+    protected EventTable events;
+
+    /**
+     * The controllability of the global events.
+     */
+    protected boolean[] controllable;
+
+    /**
+     * The indexed modules.
+     */
+    protected Automaton[] modules;
+
+    /**
+     * The indexed channels.
+     */
+    protected Automaton[] channels;
+
+    /**
+     * For each global event, the indices of the channels which restrict the event.
+     */
+    protected int[][] channelsOfEvent;
+
+    /**
+     * The explored product states, indexed by the order of discovery.
+     */
+    protected List<StateKey> states = new ArrayList<StateKey>();
+
+    /**
+     * Map from the tuples of component states to the indices of product states.
+     */
+    protected Map<StateKey, Integer> stateIndex = new HashMap<StateKey, Integer>();
+
+    /**
+     * For each product state, the global events of the outgoing transitions.
+     */
+    protected List<IntList> outEvents = new ArrayList<IntList>();
+
+    /**
+     * For each product state, the targets of the outgoing transitions.
+     */
+    protected List<IntList> outTargets = new ArrayList<IntList>();
+
+    /**
+     * For each product state, the states from which it can be reached via an
+     * uncontrollable event.
+     */
+    protected List<IntList> uncontrollablePreds = new ArrayList<IntList>();
+
+    /**
+     * The product states which have to be removed from the supervisor.
+     */
+    protected boolean[] bad = new boolean[16];
+
+    /**
+     * The number of product states explored between two checks of the monitor.
+     */
+    protected static final int CHECK_INTERVAL = 1024;
+
+    /**
+     * The monitor of the computation.
+     */
+    protected SynthesisMonitor monitor = new SynthesisMonitor();
+
+    /**
+     * Instances are created only by
+     * {@link #synthesize(TemplateModel, Collection, Collection, EventTable)} and
+     * by the {@link SymbolicSynthesizer}.
+     * 
+     * @param events the table where the global events will be recorded
+     */
+    protected OnTheFlySynthesizer(EventTable events) {
+        this.events = events;
+    }
+
+    /**
+     * Compute the supremal controllable and nonblocking supervisor for the given
+     * modules with respect to the given channels. The events of the modules are
+     * synchronized with the events of the channels as specified by the links in the
+     * template design. Channel events which are not linked to any of the given
+     * modules are ignored.
+     * 
+     * @param model    the template model containing the modules and channels
+     * @param modules  the modules which form the plant
+     * @param channels the channels which form the specification
+     * @param events   the table where the events of the supervisor will be
+     *                 recorded
+     * @return the supervisor, with events named after the symbols in the table
+     * @throws IllegalArgumentException when the list of modules is empty or a
+     *                                  channel is linked to a module not in the
+     *                                  list
+     */
+    public static FSAModel synthesize(TemplateModel model, Collection<TemplateComponent> modules,
+            Collection<TemplateComponent> channels, EventTable events) {
+        return synthesize(model, modules, channels, events, new SynthesisMonitor());
+    }
+
+    /**
+     * Compute the supremal controllable and nonblocking supervisor for the given
+     * modules with respect to the given channels, reporting the progress to the
+     * given monitor.
+     * 
+     * @param model    the template model containing the modules and channels
+     * @param modules  the modules which form the plant
+     * @param channels the channels which form the specification
+     * @param events   the table where the events of the supervisor will be
+     *                 recorded
+     * @param monitor  the monitor of the computation
+     * @return the supervisor, with events named after the symbols in the table
+     * @throws IllegalArgumentException   when the list of modules is empty or a
+     *                                    channel is linked to a module not in the
+     *                                    list
+     * @throws SynthesisCanceledException when the computation is canceled through
+     *                                    the monitor
+     * @see #synthesize(TemplateModel, Collection, Collection, EventTable)
+     */
+    public static FSAModel synthesize(TemplateModel model, Collection<TemplateComponent> modules,
+            Collection<TemplateComponent> channels, EventTable events, SynthesisMonitor monitor) {
+        if (modules.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+        OnTheFlySynthesizer synthesizer = new OnTheFlySynthesizer(events);
+        synthesizer.monitor = monitor;
+        synthesizer.index(model, modules, channels);
+        synthesizer.explore();
+        synthesizer.trim();
+        return synthesizer.buildSupervisor();
+    }
+
+    /**
+     * Assign global indices to the events of the modules and build the indexed
+     * representations of the modules and channels.
+     * 
+     * @param model    the template model containing the modules and channels
+     * @param modules  the modules which form the plant
+     * @param channels the channels which form the specification
+     */
+    protected void index(TemplateModel model, Collection<TemplateComponent> modules,
+            Collection<TemplateComponent> channels) {
+        Map<TemplateComponent, Map<String, Integer>> moduleEvents = new HashMap<TemplateComponent, Map<String, Integer>>();
+        this.modules = new Automaton[modules.size()];
+        int m = 0;
+        for (TemplateComponent module : modules) {
+            Map<Long, Integer> idMap = new HashMap<Long, Integer>();
+            Map<String, Integer> symbolMap = new HashMap<String, Integer>();
+            for (Iterator<SupervisoryEvent> i = module.getModel().getEventIterator(); i.hasNext();) {
+                SupervisoryEvent event = i.next();
+                int index = events.intern(module, event.getId());
+                idMap.put(event.getId(), index);
+                symbolMap.put(event.getSymbol(), index);
+            }
+            moduleEvents.put(module, symbolMap);
+            this.modules[m++] = new Automaton(module.getModel(), idMap);
+        }
+        controllable = new boolean[events.size()];
+        for (TemplateComponent module : modules) {
+            for (Iterator<SupervisoryEvent> i = module.getModel().getEventIterator(); i.hasNext();) {
+                SupervisoryEvent event = i.next();
+                controllable[events.intern(module, event.getId())] = event.isControllable();
+            }
+        }
+        List<List<Integer>> restrictions = new ArrayList<List<Integer>>();
+        for (int i = 0; i < events.size(); ++i) {
+            restrictions.add(new LinkedList<Integer>());
+        }
+        this.channels = new Automaton[channels.size()];
+        int c = 0;
+        for (TemplateComponent channel : channels) {
+            Map<String, Integer> linked = new HashMap<String, Integer>();
+            for (TemplateLink link : model.getAdjacentLinks(channel.getId())) {
+                TemplateComponent module;
+                String moduleEvent;
+                String channelEvent;
+                if (link.getLeftComponent() == channel) {
+                    module = link.getRightComponent();
+                    moduleEvent = link.getRightEventName();
+                    channelEvent = link.getLeftEventName();
+                } else {
+                    module = link.getLeftComponent();
+                    moduleEvent = link.getLeftEventName();
+                    channelEvent = link.getRightEventName();
+                }
+                if (!moduleEvents.containsKey(module)) {
+                    throw new IllegalArgumentException();
+                }
+                Integer event = moduleEvents.get(module).get(moduleEvent);
+                if (event != null) {
+                    linked.put(channelEvent, event);
+                }
+            }
+            Map<Long, Integer> idMap = new HashMap<Long, Integer>();
+            for (Iterator<SupervisoryEvent> i = channel.getModel().getEventIterator(); i.hasNext();) {
+                SupervisoryEvent event = i.next();
+                Integer global = linked.get(event.getSymbol());
+                if (global != null) {
+                    idMap.put(event.getId(), global);
+                    restrictions.get(global).add(c);
+                }
+            }
+            this.channels[c++] = new Automaton(channel.getModel(), idMap);
+        }
+        channelsOfEvent = new int[events.size()][];
+        for (int i = 0; i < channelsOfEvent.length; ++i) {
+            channelsOfEvent[i] = new int[restrictions.get(i).size()];
+            int j = 0;
+            for (int channel : restrictions.get(i)) {
+                channelsOfEvent[i][j++] = channel;
+            }
+        }
+    }
+
+    /**
+     * Retrieve the index of the product state with the given tuple of component
+     * states, adding a new product state if necessary.
+     * 
+     * @param tuple the states of the modules followed by the states of the
+     *              channels
+     * @return the index of the product state
+     */
+    protected int intern(int[] tuple) {
+        StateKey key = new StateKey(tuple);
+        Integer index = stateIndex.get(key);
+        if (index != null) {
+            return index;
+        }
+        int newIndex = states.size();
+        states.add(key);
+        stateIndex.put(key, newIndex);
+        outEvents.add(new IntList());
+        outTargets.add(new IntList());
+        uncontrollablePreds.add(new IntList());
+        if (newIndex == bad.length) {
+            bad = Arrays.copyOf(bad, newIndex * 2);
+        }
+        return newIndex;
+    }
+
+    /**
+     * Mark the given product state as "bad" and propagate the marking backwards
+     * along uncontrollable transitions.
+     * 
+     * @param state the index of the product state
+     */
+    protected void markBad(int state) {
+        if (bad[state]) {
+            return;
+        }
+        IntList pending = new IntList();
+        bad[state] = true;
+        pending.add(state);
+        for (int i = 0; i < pending.size(); ++i) {
+            IntList preds = uncontrollablePreds.get(pending.get(i));
+            for (int j = 0; j < preds.size(); ++j) {
+                int pred = preds.get(j);
+                if (!bad[pred]) {
+                    bad[pred] = true;
+                    pending.add(pred);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute the successors of a product state when a module executes one of its
+     * transitions. The channels which restrict the event of the transition move
+     * along with the module; if a channel is nondeterministic, there is a
+     * successor for each of its targets.
+     * 
+     * @param tuple        the states of the modules followed by the states of the
+     *                     channels
+     * @param module       the index of the module
+     * @param moduleTarget the target state of the transition of the module
+     * @param event        the global index of the event of the transition
+     * @return the successor tuples; empty if a channel disables the event
+     */
+    protected List<int[]> successors(int[] tuple, int module, int moduleTarget, int event) {
+        List<int[]> result = new ArrayList<int[]>();
+        int[] next = tuple.clone();
+        next[module] = moduleTarget;
+        result.add(next);
+        for (int c : channelsOfEvent[event]) {
+            IntList targets = channels[c].step(tuple[modules.length + c], event);
+            if (targets.size() == 0) {
+                return new ArrayList<int[]>();
+            }
+            List<int[]> expanded = new ArrayList<int[]>(result.size() * targets.size());
+            for (int[] partial : result) {
+                for (int i = 0; i < targets.size(); ++i) {
+                    int[] successor = i == targets.size() - 1 ? partial : partial.clone();
+                    successor[modules.length + c] = targets.get(i);
+                    expanded.add(successor);
+                }
+            }
+            result = expanded;
+        }
+        return result;
+    }
+
+    /**
+     * Explore the reachable part of the synchronous product of the modules and
+     * channels, back-propagating "bad" states as they are discovered.
+     * 
+     * @throws SynthesisCanceledException when the computation is canceled through
+     *                                    the monitor
+     */
+    protected void explore() {
+        int[] initial = new int[modules.length + channels.length];
+        for (int i = 0; i < modules.length; ++i) {
+            initial[i] = modules[i].initial;
+        }
+        for (int i = 0; i < channels.length; ++i) {
+            initial[modules.length + i] = channels[i].initial;
+        }
+        for (int s : initial) {
+            if (s < 0) {
+                return;
+            }
+        }
+        intern(initial);
+        int reported = 0;
+        for (int current = 0; current < states.size(); ++current) {
+            if (current % CHECK_INTERVAL == 0) {
+                monitor.checkCanceled();
+                monitor.addStates(states.size() - reported);
+                reported = states.size();
+            }
+            if (bad[current]) {
+                continue;
+            }
+            int[] tuple = states.get(current).tuple;
+            expansion: for (int m = 0; m < modules.length; ++m) {
+                int[] events = modules[m].events[tuple[m]];
+                int[] targets = modules[m].targets[tuple[m]];
+                for (int i = 0; i < events.length; ++i) {
+                    int event = events[i];
+                    List<int[]> successors = successors(tuple, m, targets[i], event);
+                    if (successors.isEmpty()) {
+                        if (!controllable[event]) {
+                            markBad(current);
+                            break expansion;
+                        }
+                        continue;
+                    }
+                    for (int[] next : successors) {
+                        int target = intern(next);
+                        outEvents.get(current).add(event);
+                        outTargets.get(current).add(target);
+                        if (!controllable[event]) {
+                            uncontrollablePreds.get(target).add(current);
+                            if (bad[target]) {
+                                markBad(current);
+                                break expansion;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        monitor.addStates(states.size() - reported);
+        // the component tuples are not needed any more
+        stateIndex = null;
+    }
+
+    /**
+     * Check if the given product state is marked, i.e., if all of its component
+     * states are marked.
+     * 
+     * @param state the index of the product state
+     * @return <code>true</code> if the product state is marked; <code>false</code>
+     *         otherwise
+     */
+    protected boolean isMarked(int state) {
+        int[] tuple = states.get(state).tuple;
+        for (int i = 0; i < modules.length; ++i) {
+            if (!modules[i].marked[tuple[i]]) {
+                return false;
+            }
+        }
+        for (int i = 0; i < channels.length; ++i) {
+            if (!channels[i].marked[tuple[modules.length + i]]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Iteratively remove the product states which cannot reach a marked state, and
+     * the states which can reach such states via uncontrollable events, until a
+     * fixpoint is reached.
+     * 
+     * @throws SynthesisCanceledException when the computation is canceled through
+     *                                    the monitor
+     */
+    protected void trim() {
+        int count = states.size();
+        if (count == 0) {
+            return;
+        }
+        IntList[] preds = new IntList[count];
+        for (int i = 0; i < count; ++i) {
+            preds[i] = new IntList();
+        }
+        for (int s = 0; s < count; ++s) {
+            IntList targets = outTargets.get(s);
+            for (int i = 0; i < targets.size(); ++i) {
+                preds[targets.get(i)].add(s);
+            }
+        }
+        boolean[] marked = new boolean[count];
+        for (int s = 0; s < count; ++s) {
+            marked[s] = isMarked(s);
+        }
+        boolean changed = true;
+        while (changed && !bad[0]) {
+            monitor.checkCanceled();
+            changed = false;
+            boolean[] coreachable = new boolean[count];
+            IntList pending = new IntList();
+            for (int s = 0; s < count; ++s) {
+                if (!bad[s] && marked[s]) {
+                    coreachable[s] = true;
+                    pending.add(s);
+                }
+            }
+            for (int i = 0; i < pending.size(); ++i) {
+                IntList statePreds = preds[pending.get(i)];
+                for (int j = 0; j < statePreds.size(); ++j) {
+                    int pred = statePreds.get(j);
+                    if (!bad[pred] && !coreachable[pred]) {
+                        coreachable[pred] = true;
+                        pending.add(pred);
+                    }
+                }
+            }
+            for (int s = 0; s < count; ++s) {
+                if (!bad[s] && !coreachable[s]) {
+                    markBad(s);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the supervisor from the explored product states which were not
+     * removed and are reachable from the initial state.
+     * 
+     * @return the supervisor
+     * @throws SynthesisCanceledException when the computation is canceled through
+     *                                    the monitor
+     */
+    protected FSAModel buildSupervisor() {
+        FSAModel sup = ModelManager.instance().createModel(FSAModel.class);
+        long[] eventIds = new long[events.size()];
+        for (int i = 0; i < eventIds.length; ++i) {
+            SupervisoryEvent event = sup.assembleEvent(events.getSymbol(i));
+            event.setControllable(controllable[i]);
+            sup.add(event);
+            eventIds[i] = event.getId();
+        }
+        if (states.isEmpty() || bad[0]) {
+            return sup;
+        }
+        long[] stateIds = new long[states.size()];
+        Arrays.fill(stateIds, -1);
+        IntList pending = new IntList();
+        pending.add(0);
+        stateIds[0] = addState(sup, 0, true);
+        for (int i = 0; i < pending.size(); ++i) {
+            if (i % CHECK_INTERVAL == 0) {
+                monitor.checkCanceled();
+            }
+            int s = pending.get(i);
+            IntList events = outEvents.get(s);
+            IntList targets = outTargets.get(s);
+            for (int j = 0; j < targets.size(); ++j) {
+                int target = targets.get(j);
+                if (bad[target]) {
+                    continue;
+                }
+                if (stateIds[target] < 0) {
+                    stateIds[target] = addState(sup, target, false);
+                    pending.add(target);
+                }
+                sup.add(sup.assembleTransition(stateIds[s], stateIds[target], eventIds[events.get(j)]));
+            }
+        }
+        return sup;
+    }
+
+    /**
+     * Add a state corresponding to the given product state to the supervisor.
+     * 
+     * @param sup     the supervisor
+     * @param state   the index of the product state
+     * @param initial whether the state is the initial state
+     * @return the id of the new state in the supervisor
+     */
+    protected long addState(FSAModel sup, int state, boolean initial) {
+        FSAState s = sup.assembleState();
+        s.setInitial(initial);
+        s.setMarked(isMarked(state));
+        sup.add(s);
+        return s.getId();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package templates.operations;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import ides.api.core.Hub;
+import ides.api.model.fsa.FSAModel;
+import ides.api.plugin.model.ModelManager;
+import ides.api.plugin.operation.Operation;
+import templates.model.TemplateModel;
+import templates.model.Validator;
+import templates.model.Validator.ValidatorResult;
+
+/**
+ * Computes the centralized (monolithic) supervisory solution for a
+ * {@link TemplateModel} using the {@link SymbolicSynthesizer}. Unlike
+ * {@link CentralizedSupSolution}, the compositions of the modules and of the
+ * channels are never built. The supervisor is built only if its number of
+ * states does not exceed the given limit; otherwise, an empty model is output.
+ * <p>
+ * Inputs:
+ * <ul>
+ * <li>template design [{@link TemplateModel}]
+ * <li>maximum number of states of the supervisor to be built [{@link Integer}]
+ * </ul>
+ * <p>
+ * Outputs:
+ * <ul>
+ * <li>supervisor [{@link FSAModel}]
+ * <li>number of states of the supervisor [{@link Long}]
+ * </ul>
+ * <p>
+ * The progress of the computation is reported to the {@link SynthesisMonitor}
+ * set with {@link #setMonitor(SynthesisMonitor)}. When the computation is
+ * canceled through the monitor, a {@link SynthesisCanceledException} is
+ * thrown.
+ * 
+ * @author Lenko Grigorov
+ */
+public class SymbolicSupSolution implements Operation {
+    /**
+     * Collection of warnings accumulated while performing the operation.
+     */
+    protected List<String> warnings = new LinkedList<String>();
+
+    /**
+     * The monitor of the computation.
+     */
+    protected SynthesisMonitor monitor = new SynthesisMonitor();
+
+    public String getDescription() {
+        return Hub.string("TD_symbolicsupDesc");
+    }
+
+    public String[] getDescriptionOfInputs() {
+        return new String[] { Hub.string("TD_modelDesc"), Hub.string("TD_maxStatesDesc") };
+    }
+
+    public String[] getDescriptionOfOutputs() {
+        return new String[] { Hub.string("TD_supDesc"), Hub.string("TD_supStatesDesc") };
+    }
+
+    public String getName() {
+        return "tdsymbolicsup";
+    }
+
+    public int getNumberOfInputs() {
+        return 2;
+    }
+
+    public int getNumberOfOutputs() {
+        return 2;
+    }
+
+    public Class<?>[] getTypeOfInputs() {
+        return new Class<?>[] { TemplateModel.class, Integer.class };
+    }
+
+    public Class<?>[] getTypeOfOutputs() {
+        return new Class<?>[] { FSAModel.class, Long.class };
+    }
+
+    public List<String> getWarnings() {
+        return warnings;
+    }
+
+    /**
+     * Set the monitor which will track the progress of the following invocations
+     * of {@link #perform(Object[])} and which can be used to cancel them.
+     * 
+     * @param monitor the monitor of the computation
+     */
+    public void setMonitor(SynthesisMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    public Object[] perform(Object[] arg0) {
+        warnings.clear();
+        if (arg0.length != 2) {
+            throw new IllegalArgumentException();
+        }
+        if (!(arg0[0] instanceof TemplateModel) || !(arg0[1] instanceof Integer)) {
+            throw new IllegalArgumentException();
+        }
+        TemplateModel model = (TemplateModel) arg0[0];
+        int maxStates = (Integer) arg0[1];
+        for (ValidatorResult r : Validator.validate(model)) {
+            if (r.type == ValidatorResult.ERROR) {
+                Hub.getNoticeManager().postErrorTemporary(Hub.string("TD_errorsInModel"),
+                        Hub.string("TD_errorsInModel1") + " \'" + model.getName() + "\' "
+                                + Hub.string("TD_errorsInModel2"));
+                warnings.add(Hub.string("TD_errorsInModel"));
+                return new Object[] { ModelManager.instance().createModel(FSAModel.class), 0L };
+            }
+        }
+        monitor.setPhase(SynthesisMonitor.PHASE_SUPCON);
+        SymbolicSynthesizer synthesizer = SymbolicSynthesizer.synthesize(model, model.getModules(),
+                model.getChannels(), monitor);
+        long stateCount = (long) synthesizer.getStateCount();
+        if (stateCount > maxStates) {
+            Hub.getNoticeManager().postWarningTemporary(Hub.string("TD_supTooLarge"),
+                    Hub.string("TD_supTooLarge1") + " \'" + model.getName() + "\' "
+                            + Hub.string("TD_supTooLarge2"));
+            warnings.add(Hub.string("TD_supTooLarge"));
+            return new Object[] { ModelManager.instance().createModel(FSAModel.class), stateCount };
+        }
+        FSAModel supFSA = synthesizer.buildSupervisor();
+        monitor.addStates(supFSA.getStateCount());
+        monitor.setPhase(SynthesisMonitor.PHASE_LABEL);
+        EventSynchronizer.label4Humans(model, synthesizer.getEvents(), Arrays.asList(new FSAModel[] { supFSA }));
+        return new Object[] { supFSA, stateCount };
+    }
+}
@@ -0,0 +1,620 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package templates.operations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ides.api.model.fsa.FSAModel;
+import ides.api.model.fsa.FSAState;
+import ides.api.model.supeventset.SupervisoryEvent;
+import ides.api.plugin.model.ModelManager;
+import templates.model.TemplateComponent;
+import templates.model.TemplateModel;
+import templates.operations.OnTheFlySynthesizer.Automaton;
+import templates.operations.OnTheFlySynthesizer.StateKey;
+
+/**
+ * Computes the supremal controllable and nonblocking supervisor for a set of
+ * <i>modules</i> and <i>channels</i> symbolically, using {@link BDD}s.
+ * <p>
+ * The states of each module and channel are binary-encoded with a set of BDD
+ * variables for the current state and a set of variables for the next state.
+ * For each event, the transition relation is the conjunction of the transition
+ * relations of the components which participate in the event; the remaining
+ * components keep their state. The reachable states, the states to be removed
+ * because of uncontrollable events and the states which cannot reach a marked
+ * state are all computed as fixpoints over sets of states represented by BDDs,
+ * so the synchronous product of the components is never enumerated.
+ * <p>
+ * The number of states of the supervisor can be obtained without building the
+ * supervisor. The supervisor is built explicitly only on request (see
+ * {@link #buildSupervisor()}).
+ * <p>
+ * The events are indexed as in {@link OnTheFlySynthesizer} and the supervisor
+ * uses the symbols from the table returned by {@link #getEvents()}.
+ * <p>
+ * The monitor of the computation is checked for cancellation after every
+ * iteration of the fixpoints. Between the iterations, the BDD nodes which are no
+ * longer needed are also reclaimed (see {@link #collectGarbage(int[])}).
+ * 
+ * @author Lenko Grigorov
+ */
+public class SymbolicSynthesizer {
+    /**
+     * The indexed events, modules and channels.
+     */
+    protected OnTheFlySynthesizer problem;
+
+    /**
+     * The modules followed by the channels.
+     */
+    protected Automaton[] components;
+
+    /**
+     * For each component, the index of its first state bit.
+     */
+    protected int[] offset;
+
+    /**
+     * For each component, the number of bits used to encode its states.
+     */
+    protected int[] bits;
+
+    /**
+     * The BDD manager.
+     */
+    protected BDD bdd;
+
+    /**
+     * For each event, the transition relation over the participating components;
+     * {@link BDD#FALSE} if the event cannot occur.
+     */
+    protected int[] relation;
+
+    /**
+     * For each event, the set of current-state variables of the participating
+     * components.
+     */
+    protected int[] currentVars;
+
+    /**
+     * For each event, the set of next-state variables of the participating
+     * components.
+     */
+    protected int[] nextVars;
+
+    /**
+     * For each event, the renaming of the next-state variables of the
+     * participating components to current-state variables.
+     */
+    protected int[] toCurrent;
+
+    /**
+     * For each event, the renaming of the current-state variables of the
+     * participating components to next-state variables.
+     */
+    protected int[] toNext;
+
+    /**
+     * The set of all current-state variables.
+     */
+    protected int stateVars;
+
+    /**
+     * The initial state.
+     */
+    protected int initial;
+
+    /**
+     * The marked states.
+     */
+    protected int marked;
+
+    /**
+     * The states where an uncontrollable event is enabled by a module but
+     * disabled by a channel.
+     */
+    protected int bad;
+
+    /**
+     * The states of the supervisor, once computed.
+     */
+    protected int supervisor = BDD.FALSE;
+
+    /**
+     * The monitor of the computation.
+     */
+    protected SynthesisMonitor monitor = new SynthesisMonitor();
+
+    /**
+     * Instances are created only by
+     * {@link #synthesize(TemplateModel, Collection, Collection, SynthesisMonitor)}.
+     */
+    protected SymbolicSynthesizer() {
+    }
+
+    /**
+     * Compute the set of states of the supremal controllable and nonblocking
+     * supervisor for the given modules with respect to the given channels. The
+     * supervisor itself can then be built with {@link #buildSupervisor()}.
+     * 
+     * @param model    the template model containing the modules and channels
+     * @param modules  the modules which form the plant
+     * @param channels the channels which form the specification
+     * @return the synthesizer holding the result of the computation
+     * @throws IllegalArgumentException when the list of modules is empty or a
+     *                                  channel is linked to a module not in the
+     *                                  list
+     */
+    public static SymbolicSynthesizer synthesize(TemplateModel model, Collection<TemplateComponent> modules,
+            Collection<TemplateComponent> channels) {
+        return synthesize(model, modules, channels, new SynthesisMonitor());
+    }
+
+    /**
+     * Compute the set of states of the supremal controllable and nonblocking
+     * supervisor for the given modules with respect to the given channels,
+     * reporting the progress to the given monitor.
+     * 
+     * @param model    the template model containing the modules and channels
+     * @param modules  the modules which form the plant
+     * @param channels the channels which form the specification
+     * @param monitor  the monitor of the computation
+     * @return the synthesizer holding the result of the computation
+     * @throws IllegalArgumentException   when the list of modules is empty or a
+     *                                    channel is linked to a module not in the
+     *                                    list
+     * @throws SynthesisCanceledException when the computation is canceled through
+     *                                    the monitor
+     * @see #synthesize(TemplateModel, Collection, Collection)
+     */
+    public static SymbolicSynthesizer synthesize(TemplateModel model, Collection<TemplateComponent> modules,
+            Collection<TemplateComponent> channels, SynthesisMonitor monitor) {
+        if (modules.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+        SymbolicSynthesizer synthesizer = new SymbolicSynthesizer();
+        synthesizer.monitor = monitor;
+        synthesizer.problem = new OnTheFlySynthesizer(new EventTable());
+        synthesizer.problem.monitor = monitor;
+        synthesizer.problem.index(model, modules, channels);
+        synthesizer.encode();
+        synthesizer.solve();
+        return synthesizer;
+    }
+
+    /**
+     * Returns the number of states of the supervisor.
+     * 
+     * @return the number of states of the supervisor
+     */
+    public double getStateCount() {
+        return bdd.satCount(supervisor, stateVars);
+    }
+
+    /**
+     * Returns the table of the events of the supervisor.
+     * 
+     * @return the table of the events of the supervisor
+     */
+    public EventTable getEvents() {
+        return problem.events;
+    }
+
+    /**
+     * Returns the number of BDD nodes in use after the computation.
+     * 
+     * @return the number of BDD nodes in use after the computation
+     */
+    public int getNodeCount() {
+        return bdd.getNodeCount();
+    }
+
+    /**
+     * Encode the components and the transition relations of the events as BDDs.
+     * 
+     * @throws SynthesisCanceledException when the computation is canceled through
+     *                                    the monitor
+     */
+    protected void encode() {
+        Automaton[] modules = problem.modules;
+        Automaton[] channels = problem.channels;
+        components = new Automaton[modules.length + channels.length];
+        System.arraycopy(modules, 0, components, 0, modules.length);
+        System.arraycopy(channels, 0, components, modules.length, channels.length);
+        offset = new int[components.length];
+        bits = new int[components.length];
+        int bitCount = 0;
+        for (int k = 0; k < components.length; ++k) {
+            offset[k] = bitCount;
+            bits[k] = 32 - Integer.numberOfLeadingZeros(Math.max(components[k].marked.length - 1, 0));
+            bitCount += bits[k];
+        }
+        bdd = new BDD(bitCount * 2);
+        boolean[] all = new boolean[bitCount * 2];
+        for (int i = 0; i < bitCount; ++i) {
+            all[currentVar(i)] = true;
+        }
+        stateVars = bdd.varSet(all);
+        initial = BDD.TRUE;
+        marked = BDD.TRUE;
+        for (int k = components.length - 1; k >= 0; --k) {
+            Automaton component = components[k];
+            initial = component.initial < 0 ? BDD.FALSE : bdd.and(stateCube(k, component.initial), initial);
+            int markedStates = BDD.FALSE;
+            for (int s = 0; s < component.marked.length; ++s) {
+                if (component.marked[s]) {
+                    markedStates = bdd.or(markedStates, stateCube(k, s));
+                }
+            }
+            marked = bdd.and(markedStates, marked);
+        }
+        int eventCount = problem.controllable.length;
+        int[] owner = new int[eventCount];
+        Arrays.fill(owner, -1);
+        for (int m = 0; m < modules.length; ++m) {
+            for (int[] events : modules[m].events) {
+                for (int event : events) {
+                    owner[event] = m;
+                }
+            }
+        }
+        relation = new int[eventCount];
+        currentVars = new int[eventCount];
+        nextVars = new int[eventCount];
+        toCurrent = new int[eventCount];
+        toNext = new int[eventCount];
+        bad = BDD.FALSE;
+        for (int e = 0; e < eventCount; ++e) {
+            monitor.checkCanceled();
+            collectGarbage(new int[0]);
+            if (owner[e] < 0) {
+                relation[e] = BDD.FALSE;
+                continue;
+            }
+            int[] participants = new int[problem.channelsOfEvent[e].length + 1];
+            participants[0] = owner[e];
+            for (int i = 0; i < problem.channelsOfEvent[e].length; ++i) {
+                participants[i + 1] = modules.length + problem.channelsOfEvent[e][i];
+            }
+            boolean[] current = new boolean[bitCount * 2];
+            boolean[] next = new boolean[bitCount * 2];
+            int[] renameToCurrent = new int[bitCount * 2];
+            int[] renameToNext = new int[bitCount * 2];
+            for (int v = 0; v < renameToCurrent.length; ++v) {
+                renameToCurrent[v] = v;
+                renameToNext[v] = v;
+            }
+            for (int k : participants) {
+                for (int b = offset[k]; b < offset[k] + bits[k]; ++b) {
+                    current[currentVar(b)] = true;
+                    next[nextVar(b)] = true;
+                    renameToCurrent[nextVar(b)] = currentVar(b);
+                    renameToNext[currentVar(b)] = nextVar(b);
+                }
+            }
+            currentVars[e] = bdd.varSet(current);
+            nextVars[e] = bdd.varSet(next);
+            toCurrent[e] = bdd.renaming(renameToCurrent);
+            toNext[e] = bdd.renaming(renameToNext);
+            int plant = transitionRelation(owner[e], e);
+            int spec = BDD.TRUE;
+            int enabledBySpec = BDD.TRUE;
+            for (int i = 1; i < participants.length; ++i) {
+                int channel = transitionRelation(participants[i], e);
+                spec = bdd.and(spec, channel);
+                enabledBySpec = bdd.and(enabledBySpec, bdd.exists(channel, nextVars[e]));
+            }
+            relation[e] = bdd.and(plant, spec);
+            if (!problem.controllable[e] && enabledBySpec != BDD.TRUE) {
+                bad = bdd.or(bad, bdd.and(bdd.exists(plant, nextVars[e]), bdd.not(enabledBySpec)));
+            }
+        }
+    }
+
+    /**
+     * Compute the states of the supervisor.
+     * 
+     * @throws SynthesisCanceledException when the computation is canceled through
+     *                                    the monitor
+     */
+    protected void solve() {
+        int reachable = forward(initial, BDD.TRUE);
+        int good = bdd.and(reachable, bdd.not(bad));
+        int previous;
+        do {
+            previous = good;
+            int controllable;
+            do {
+                controllable = good;
+                monitor.checkCanceled();
+                collectGarbage(new int[] { previous, good });
+                good = bdd.and(good, bdd.not(backward(bdd.not(good), true)));
+            } while (good != controllable);
+            int coreachable = bdd.and(good, marked);
+            int last;
+            do {
+                last = coreachable;
+                monitor.checkCanceled();
+                collectGarbage(new int[] { previous, good, coreachable });
+                coreachable = bdd.or(coreachable, bdd.and(good, backward(coreachable, false)));
+            } while (coreachable != last);
+            good = coreachable;
+        } while (good != previous);
+        supervisor = forward(bdd.and(initial, good), good);
+    }
+
+    /**
+     * Compute the states reachable from the given states, staying within the
+     * given set of states.
+     * 
+     * @param from   the states where the search starts
+     * @param within the states which may be visited
+     * @return the reachable states
+     * @throws SynthesisCanceledException when the computation is canceled through
+     *                                    the monitor
+     */
+    protected int forward(int from, int within) {
+        int reached = from;
+        int frontier = from;
+        while (frontier != BDD.FALSE) {
+            monitor.checkCanceled();
+            collectGarbage(new int[] { reached, frontier, within });
+            int image = BDD.FALSE;
+            for (int e = 0; e < relation.length; ++e) {
+                if (relation[e] != BDD.FALSE) {
+                    int successors = bdd.relProd(frontier, relation[e], currentVars[e]);
+                    image = bdd.or(image, bdd.replace(successors, toCurrent[e]));
+                }
+            }
+            frontier = bdd.and(bdd.and(image, within), bdd.not(reached));
+            reached = bdd.or(reached, frontier);
+        }
+        return reached;
+    }
+
+    /**
+     * Reclaim the BDD nodes which are no longer needed, if there are enough of
+     * them. Besides the given nodes, the transition relations, the initial,
+     * marked and bad states and the supervisor are kept.
+     * <p>
+     * Must be called only between the steps of the computation, when the given
+     * nodes are all the intermediate results which are still needed.
+     * 
+     * @param live the intermediate results which are still needed
+     */
+    protected void collectGarbage(int[] live) {
+        int[] roots = Arrays.copyOf(live, live.length + relation.length + 4);
+        System.arraycopy(relation, 0, roots, live.length, relation.length);
+        roots[roots.length - 4] = initial;
+        roots[roots.length - 3] = marked;
+        roots[roots.length - 2] = bad;
+        roots[roots.length - 1] = supervisor;
+        bdd.collectGarbage(roots);
+    }
+
+    /**
+     * Compute the states from which one of the given states can be reached in
+     * one step.
+     * 
+     * @param to                 the target states
+     * @param uncontrollableOnly whether only uncontrollable events should be
+     *                           considered
+     * @return the states from which one of the target states can be reached in
+     *         one step
+     */
+    protected int backward(int to, boolean uncontrollableOnly) {
+        int preimage = BDD.FALSE;
+        for (int e = 0; e < relation.length; ++e) {
+            if (relation[e] != BDD.FALSE && !(uncontrollableOnly && problem.controllable[e])) {
+                preimage = bdd.or(preimage, bdd.relProd(relation[e], bdd.replace(to, toNext[e]), nextVars[e]));
+            }
+        }
+        return preimage;
+    }
+
+    /**
+     * Build the BDD for the transitions of a component with the given event.
+     * 
+     * @param k     the index of the component
+     * @param event the global index of the event
+     * @return the BDD over the current-state and next-state variables of the
+     *         component
+     */
+    protected int transitionRelation(int k, int event) {
+        Automaton component = components[k];
+        int result = BDD.FALSE;
+        for (int s = 0; s < component.events.length; ++s) {
+            for (int i = 0; i < component.events[s].length; ++i) {
+                if (component.events[s][i] == event) {
+                    result = bdd.or(result, transitionCube(k, s, component.targets[s][i]));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Build the BDD which is true exactly for the given state of a component.
+     * 
+     * @param k     the index of the component
+     * @param state the index of the state in the component
+     * @return the BDD over the current-state variables of the component
+     */
+    protected int stateCube(int k, int state) {
+        int result = BDD.TRUE;
+        for (int b = bits[k] - 1; b >= 0; --b) {
+            int v = currentVar(offset[k] + b);
+            result = (state & (1 << b)) != 0 ? bdd.mk(v, BDD.FALSE, result) : bdd.mk(v, result, BDD.FALSE);
+        }
+        return result;
+    }
+
+    /**
+     * Build the BDD which is true exactly for the given transition of a
+     * component.
+     * 
+     * @param k      the index of the component
+     * @param source the index of the source state in the component
+     * @param target the index of the target state in the component
+     * @return the BDD over the current-state and next-state variables of the
+     *         component
+     */
+    protected int transitionCube(int k, int source, int target) {
+        int result = BDD.TRUE;
+        for (int b = bits[k] - 1; b >= 0; --b) {
+            int v = nextVar(offset[k] + b);
+            result = (target & (1 << b)) != 0 ? bdd.mk(v, BDD.FALSE, result) : bdd.mk(v, result, BDD.FALSE);
+            v = currentVar(offset[k] + b);
+            result = (source & (1 << b)) != 0 ? bdd.mk(v, BDD.FALSE, result) : bdd.mk(v, result, BDD.FALSE);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the BDD variable for the current value of the given state bit.
+     * 
+     * @param bit the index of the state bit
+     * @return the index of the BDD variable
+     */
+    protected static int currentVar(int bit) {
+        return bit * 2;
+    }
+
+    /**
+     * Returns the BDD variable for the next value of the given state bit.
+     * 
+     * @param bit the index of the state bit
+     * @return the index of the BDD variable
+     */
+    protected static int nextVar(int bit) {
+        return bit * 2 + 1;
+    }
+
+    /**
+     * Check if the given tuple of component states is a state of the supervisor.
+     * 
+     * @param tuple the states of the modules followed by the states of the
+     *              channels
+     * @return <code>true</code> if the tuple is a state of the supervisor;
+     *         <code>false</code> otherwise
+     */
+    protected boolean isSupervisorState(int[] tuple) {
+        boolean[] assignment = new boolean[bdd.getVarCount()];
+        for (int k = 0; k < tuple.length; ++k) {
+            for (int b = 0; b < bits[k]; ++b) {
+                assignment[currentVar(offset[k] + b)] = (tuple[k] & (1 << b)) != 0;
+            }
+        }
+        return bdd.evaluate(supervisor, assignment);
+    }
+
+    /**
+     * Build the supervisor explicitly by enumerating its states from the initial
+     * state.
+     * 
+     * @return the supervisor, with events named after the symbols in the table
+     *         returned by {@link #getEvents()}
+     * @throws SynthesisCanceledException when the computation is canceled through
+     *                                    the monitor
+     */
+    public FSAModel buildSupervisor() {
+        FSAModel sup = ModelManager.instance().createModel(FSAModel.class);
+        long[] eventIds = new long[problem.events.size()];
+        for (int i = 0; i < eventIds.length; ++i) {
+            SupervisoryEvent event = sup.assembleEvent(problem.events.getSymbol(i));
+            event.setControllable(problem.controllable[i]);
+            sup.add(event);
+            eventIds[i] = event.getId();
+        }
+        if (supervisor == BDD.FALSE) {
+            return sup;
+        }
+        int moduleCount = problem.modules.length;
+        int[] start = new int[components.length];
+        for (int k = 0; k < components.length; ++k) {
+            start[k] = components[k].initial;
+        }
+        Map<StateKey, Long> stateIds = new HashMap<StateKey, Long>();
+        List<int[]> pending = new ArrayList<int[]>();
+        stateIds.put(new StateKey(start), addState(sup, start, true));
+        pending.add(start);
+        for (int p = 0; p < pending.size(); ++p) {
+            if (p % OnTheFlySynthesizer.CHECK_INTERVAL == 0) {
+                monitor.checkCanceled();
+            }
+            int[] tuple = pending.get(p);
+            long sourceId = stateIds.get(new StateKey(tuple));
+            for (int m = 0; m < moduleCount; ++m) {
+                int[] events = components[m].events[tuple[m]];
+                int[] targets = components[m].targets[tuple[m]];
+                for (int i = 0; i < events.length; ++i) {
+                    int event = events[i];
+                    for (int[] next : problem.successors(tuple, m, targets[i], event)) {
+                        if (!isSupervisorState(next)) {
+                            continue;
+                        }
+                        StateKey key = new StateKey(next);
+                        Long targetId = stateIds.get(key);
+                        if (targetId == null) {
+                            targetId = addState(sup, next, false);
+                            stateIds.put(key, targetId);
+                            pending.add(next);
+                        }
+                        sup.add(sup.assembleTransition(sourceId, targetId, eventIds[event]));
+                    }
+                }
+            }
+        }
+        return sup;
+    }
+
+    /**
+     * Add a state corresponding to the given tuple of component states to the
+     * supervisor.
+     * 
+     * @param sup     the supervisor
+     * @param tuple   the states of the modules followed by the states of the
+     *                channels
+     * @param initial whether the state is the initial state
+     * @return the id of the new state in the supervisor
+     */
+    protected long addState(FSAModel sup, int[] tuple, boolean initial) {
+        boolean isMarked = true;
+        for (int k = 0; k < tuple.length; ++k) {
+            isMarked &= components[k].marked[tuple[k]];
+        }
+        FSAState s = sup.assembleState();
+        s.setInitial(initial);
+        s.setMarked(isMarked);
+        sup.add(s);
+        return s.getId();
+    }
+}
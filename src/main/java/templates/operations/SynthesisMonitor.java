@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package templates.operations;
+
+/**
+ * Tracks the progress of the computation of supervisors and allows the
+ * computation to be canceled. The operations computing supervisors report the
+ * current phase of the computation and the number of states of the models they
+ * build, and check for cancellation at the start of each phase. The
+ * computation is canceled cooperatively: once {@link #cancel()} is called, the
+ * operation throws a {@link SynthesisCanceledException} when it enters the
+ * next phase.
+ * <p>
+ * A monitor can be shared by computations running concurrently. To be notified
+ * about the progress, override {@link #progressChanged()}.
+ * 
+ * @author Lenko Grigorov
+ */
+public class SynthesisMonitor {
+    /**
+     * The phase where modules are composed.
+     */
+    public static final String PHASE_SYNC = "sync";
+
+    /**
+     * The phase where the irrelevant events of channels are self-looped.
+     */
+    public static final String PHASE_SELFLOOP = "selfloop";
+
+    /**
+     * The phase where channels are composed.
+     */
+    public static final String PHASE_PRODUCT = "product";
+
+    /**
+     * The phase where the supremal controllable sublanguage is computed.
+     */
+    public static final String PHASE_SUPCON = "supcon";
+
+    /**
+     * The phase where the events of the results are relabelled.
+     */
+    public static final String PHASE_LABEL = "label";
+
+    /**
+     * The phase where the local modularity of supervisors is checked.
+     */
+    public static final String PHASE_LOCALMODULAR = "localmodular";
+
+    /**
+     * Whether the computation was canceled.
+     */
+    protected volatile boolean canceled = false;
+
+    /**
+     * The current phase of the computation.
+     */
+    protected volatile String phase = null;
+
+    /**
+     * The number of states in the models built so far.
+     */
+    protected long states = 0;
+
+    /**
+     * The number of completed tasks (e.g., channels).
+     */
+    protected volatile int done = 0;
+
+    /**
+     * The total number of tasks (e.g., channels).
+     */
+    protected volatile int total = 1;
+
+    /**
+     * Requests the cancellation of the computation.
+     */
+    public void cancel() {
+        canceled = true;
+        progressChanged();
+    }
+
+    /**
+     * Returns whether the cancellation of the computation was requested.
+     * 
+     * @return <code>true</code> if the cancellation of the computation was
+     *         requested; <code>false</code> otherwise
+     */
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * Throws an exception if the cancellation of the computation was requested.
+     * 
+     * @throws SynthesisCanceledException if the cancellation of the computation
+     *                                    was requested
+     */
+    public void checkCanceled() {
+        if (canceled) {
+            throw new SynthesisCanceledException();
+        }
+    }
+
+    /**
+     * Reports the start of a new phase of the computation.
+     * 
+     * @param phase the new phase, one of the <code>PHASE_</code> constants
+     * @throws SynthesisCanceledException if the cancellation of the computation
+     *                                    was requested
+     */
+    public void setPhase(String phase) {
+        checkCanceled();
+        this.phase = phase;
+        progressChanged();
+    }
+
+    /**
+     * Returns the current phase of the computation.
+     * 
+     * @return the current phase of the computation; <code>null</code> if the
+     *         computation has not started
+     */
+    public String getPhase() {
+        return phase;
+    }
+
+    /**
+     * Reports that models with the given number of states were built.
+     * 
+     * @param count the number of states
+     */
+    public void addStates(long count) {
+        synchronized (this) {
+            states += count;
+        }
+        progressChanged();
+    }
+
+    /**
+     * Returns the number of states in the models built so far.
+     * 
+     * @return the number of states in the models built so far
+     */
+    public synchronized long getStates() {
+        return states;
+    }
+
+    /**
+     * Reports the number of completed tasks.
+     * 
+     * @param done  the number of completed tasks
+     * @param total the total number of tasks
+     */
+    public void setProgress(int done, int total) {
+        this.done = done;
+        this.total = total;
+        progressChanged();
+    }
+
+    /**
+     * Returns the number of completed tasks.
+     * 
+     * @return the number of completed tasks
+     */
+    public int getDone() {
+        return done;
+    }
+
+    /**
+     * Returns the total number of tasks.
+     * 
+     * @return the total number of tasks
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Called whenever the progress of the computation changes. Note that this
+     * method may be called from any thread. The default implementation does
+     * nothing.
+     */
+    protected void progressChanged() {
+    }
+}
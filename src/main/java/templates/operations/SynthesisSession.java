@@ -0,0 +1,475 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package templates.operations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ides.api.model.fsa.FSAMessage;
+import ides.api.model.fsa.FSAModel;
+import ides.api.model.fsa.FSASubscriber;
+import ides.api.plugin.model.DESEvent;
+import ides.api.plugin.model.DESModelMessage;
+import ides.api.plugin.model.DESModelSubscriber;
+import templates.model.TemplateComponent;
+import templates.model.TemplateLink;
+import templates.model.TemplateModel;
+import templates.model.TemplateModelMessage;
+import templates.model.TemplateModelSubscriber;
+
+/**
+ * Keeps the channel supervisors computed for a {@link TemplateModel} between
+ * runs of the synthesis operations. The session listens to the changes in the
+ * template design and in the FSAs of its components, and discards only the
+ * supervisors which depend on the components and links which were modified.
+ * <p>
+ * The session also keeps the {@link EventTable} used to name the events in the
+ * synthesis, and the copies of the FSAs of the modules where the events are
+ * renamed accordingly, so that a module is copied only once for all channels
+ * and computations until it is modified. The events of removed components and
+ * of events removed from the FSAs are not dropped from the table one by one;
+ * instead, once such events outnumber the events still in the design, the
+ * table is replaced with a new one (see {@link #getEvents()}). Since the
+ * table is part of the key of the {@link CompositionCache}, the compositions
+ * named after the old table are not reused.
+ * <p>
+ * A session is attached to the template design as an annotation; use
+ * {@link #getSession(TemplateModel)} to obtain it.
+ * 
+ * @author Lenko Grigorov
+ */
+public class SynthesisSession implements TemplateModelSubscriber, FSASubscriber, DESModelSubscriber {
+    /**
+     * Key for the annotation of the template design which stores the session.
+     */
+    protected static final String SESSION = "templates.operations.SynthesisSession";
+
+    /**
+     * The result of the computation of the supervisor for a channel, together
+     * with the IDs of the components and links used in the computation.
+     */
+    protected static class Entry {
+        /**
+         * The outputs of {@link ChannelSup}.
+         */
+        public Object[] outputs;
+
+        /**
+         * The warnings issued during the computation.
+         */
+        public List<String> warnings;
+
+        /**
+         * The IDs of the components used in the computation.
+         */
+        public Set<Long> components = new HashSet<Long>();
+
+        /**
+         * The IDs of the links used in the computation.
+         */
+        public Set<Long> links = new HashSet<Long>();
+    }
+
+    /**
+     * The template design monitored by the session.
+     */
+    protected TemplateModel model;
+
+    /**
+     * The valid results, indexed by the ID of the channel.
+     */
+    protected Map<Long, Entry> entries = new HashMap<Long, Entry>();
+
+    /**
+     * The dependencies of the results which are being computed at the moment,
+     * indexed by the ID of the channel.
+     */
+    protected Map<Long, Entry> pending = new HashMap<Long, Entry>();
+
+    /**
+     * The number of invalidations for each channel. A result is stored only if
+     * no invalidation took place while it was being computed.
+     */
+    protected Map<Long, Integer> generations = new HashMap<Long, Integer>();
+
+    /**
+     * The table of the events used in the synthesis for the template design.
+     */
+    protected EventTable events = new EventTable();
+
+    /**
+     * Whether components or events were removed since the table of the events
+     * was last checked for events which are no longer in the design.
+     */
+    protected boolean eventsRemoved = false;
+
+    /**
+     * The copies of the FSAs of the modules where the events are renamed with
+     * the symbols from {@link #events}, indexed by the ID of the module.
+     */
+    protected Map<Long, FSAModel> renamedModules = new HashMap<Long, FSAModel>();
+
+    /**
+     * The FSAs of the components to which the session subscribes, indexed by
+     * the ID of the component.
+     */
+    protected Map<Long, FSAModel> fsas = new HashMap<Long, FSAModel>();
+
+    /**
+     * The IDs of the components, indexed by the FSA of the component.
+     */
+    protected Map<FSAModel, Long> fsa2component = new IdentityHashMap<FSAModel, Long>();
+
+    /**
+     * Constructs a new session for the given template design and subscribes to
+     * the design and the FSAs of its components.
+     * 
+     * @param model the template design to be monitored
+     */
+    protected SynthesisSession(TemplateModel model) {
+        this.model = model;
+        for (TemplateComponent component : model.getComponents()) {
+            track(component.getId());
+        }
+        model.addSubscriber((TemplateModelSubscriber) this);
+    }
+
+    /**
+     * Retrieves the synthesis session for the given template design. If the
+     * design does not have a session yet, a new session is created.
+     * 
+     * @param model the template design
+     * @return the synthesis session for the template design
+     */
+    public static synchronized SynthesisSession getSession(TemplateModel model) {
+        if (!model.hasAnnotation(SESSION)) {
+            model.setAnnotation(SESSION, new SynthesisSession(model));
+        }
+        return (SynthesisSession) model.getAnnotation(SESSION);
+    }
+
+    /**
+     * Retrieves the supervisor for a channel. If the supervisor computed
+     * previously is still valid, copies of the stored outputs are returned.
+     * Otherwise, the supervisor is computed using the given operation and the
+     * result is stored for later use.
+     * <p>
+     * The computation is performed outside of the lock of the session, so that
+     * the supervisors for different channels can be computed concurrently.
+     * 
+     * @param channelSup the operation to compute the supervisor, if necessary
+     * @param channelId  the ID of the channel
+     * @param warnings   the list where the warnings issued during the
+     *                   computation of the supervisor will be added
+     * @return the outputs of {@link ChannelSup} for the channel
+     */
+    public Object[] getChannelSup(ChannelSup channelSup, long channelId, List<String> warnings) {
+        Entry entry;
+        int generation;
+        synchronized (this) {
+            entry = entries.get(channelId);
+            if (entry != null) {
+                warnings.addAll(entry.warnings);
+                return copy(entry.outputs);
+            }
+            generation = getGeneration(channelId);
+            entry = new Entry();
+            entry.components.add(channelId);
+            for (TemplateLink link : model.getAdjacentLinks(channelId)) {
+                entry.links.add(link.getId());
+                entry.components.add(link.getLeftComponent().getId());
+                entry.components.add(link.getRightComponent().getId());
+            }
+            pending.put(channelId, entry);
+        }
+        List<String> computed = new ArrayList<String>();
+        Object[] outputs = null;
+        try {
+            outputs = channelSup.compute(model, channelId, computed);
+        } finally {
+            synchronized (this) {
+                pending.remove(channelId);
+                if (outputs != null && getGeneration(channelId) == generation) {
+                    entry.outputs = copy(outputs);
+                    entry.warnings = computed;
+                    entries.put(channelId, entry);
+                }
+            }
+        }
+        warnings.addAll(computed);
+        return outputs;
+    }
+
+    /**
+     * Retrieves the table of the events used in the synthesis for the template
+     * design.
+     * <p>
+     * If components or events were removed from the design since the last
+     * invocation and the events in the table which are no longer in the design
+     * outnumber the rest, the table is replaced with a new, empty table, and the
+     * renamed copies of the modules are discarded. The old table is not
+     * modified, so computations which already use it are not affected.
+     * 
+     * @return the table of the events used in the synthesis
+     */
+    public synchronized EventTable getEvents() {
+        if (eventsRemoved) {
+            eventsRemoved = false;
+            int live = 0;
+            for (int i = 0; i < events.size(); ++i) {
+                TemplateComponent component = model.getComponent(events.getComponentId(i));
+                if (component != null && component.hasModel()
+                        && component.getModel().getEvent(events.getEventId(i)) != null) {
+                    live++;
+                }
+            }
+            if (events.size() - live > live) {
+                events = new EventTable();
+                renamedModules.clear();
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Retrieves a copy of the FSA of the given module where the symbols of the
+     * events are replaced with the symbols from the given table. If the table is
+     * the one returned by {@link #getEvents()}, the same copy is returned until
+     * the module is modified, so the copy must not be modified by the caller.
+     * 
+     * @param module the module
+     * @param events the table of the events used in the synthesis, as returned
+     *               by {@link #getEvents()}
+     * @return the FSA of the module with renamed events
+     */
+    public synchronized FSAModel getRenamedModule(TemplateComponent module, EventTable events) {
+        FSAModel fsa = events == this.events ? renamedModules.get(module.getId()) : null;
+        if (fsa == null) {
+            fsa = module.getModel().clone();
+            for (DESEvent event : fsa.getEventSet()) {
+                event.setSymbol(events.getSymbol(events.intern(module, event.getId())));
+            }
+            if (events == this.events) {
+                renamedModules.put(module.getId(), fsa);
+            }
+        }
+        return fsa;
+    }
+
+    /**
+     * Discards all stored results.
+     */
+    public synchronized void clear() {
+        renamedModules.clear();
+        Set<Long> channelIds = new HashSet<Long>(entries.keySet());
+        channelIds.addAll(pending.keySet());
+        for (Long channelId : channelIds) {
+            invalidateChannel(channelId);
+        }
+    }
+
+    /**
+     * Returns the number of invalidations so far for the given channel.
+     * 
+     * @param channelId the ID of the channel
+     * @return the number of invalidations so far for the channel
+     */
+    protected int getGeneration(long channelId) {
+        Integer generation = generations.get(channelId);
+        return generation == null ? 0 : generation;
+    }
+
+    /**
+     * Discards the stored result for the given channel, and any result for the
+     * channel which is being computed at the moment.
+     * 
+     * @param channelId the ID of the channel
+     */
+    protected void invalidateChannel(long channelId) {
+        entries.remove(channelId);
+        generations.put(channelId, getGeneration(channelId) + 1);
+    }
+
+    /**
+     * Discards the results and the renamed FSA which depend on the given
+     * component. Results which are being computed at the moment are discarded
+     * too.
+     * 
+     * @param componentId the ID of the component
+     */
+    protected void invalidateComponent(long componentId) {
+        renamedModules.remove(componentId);
+        for (Long channelId : dependents(componentId, true)) {
+            invalidateChannel(channelId);
+        }
+    }
+
+    /**
+     * Discards the results which depend on the given link. Results which are
+     * being computed at the moment are discarded too.
+     * 
+     * @param linkId the ID of the link
+     */
+    protected void invalidateLink(long linkId) {
+        for (Long channelId : dependents(linkId, false)) {
+            invalidateChannel(channelId);
+        }
+    }
+
+    /**
+     * Returns the IDs of the channels whose stored or pending results depend on
+     * the given component or link.
+     * 
+     * @param id          the ID of the component or link
+     * @param isComponent <code>true</code> if the ID is of a component,
+     *                    <code>false</code> if it is of a link
+     * @return the IDs of the channels whose results depend on the element
+     */
+    protected Set<Long> dependents(long id, boolean isComponent) {
+        Set<Long> channelIds = new HashSet<Long>();
+        List<Map<Long, Entry>> maps = new ArrayList<Map<Long, Entry>>();
+        maps.add(entries);
+        maps.add(pending);
+        for (Map<Long, Entry> map : maps) {
+            for (Map.Entry<Long, Entry> entry : map.entrySet()) {
+                if ((isComponent ? entry.getValue().components : entry.getValue().links).contains(id)) {
+                    channelIds.add(entry.getKey());
+                }
+            }
+        }
+        return channelIds;
+    }
+
+    /**
+     * Updates the subscription of the session to the FSA of the given component.
+     * 
+     * @param componentId the ID of the component
+     */
+    protected void track(long componentId) {
+        untrack(componentId);
+        TemplateComponent component = model.getComponent(componentId);
+        if (component == null || !component.hasModel()) {
+            return;
+        }
+        FSAModel fsa = component.getModel();
+        fsas.put(componentId, fsa);
+        fsa2component.put(fsa, componentId);
+        fsa.addSubscriber((FSASubscriber) this);
+        fsa.addSubscriber((DESModelSubscriber) this);
+    }
+
+    /**
+     * Removes the subscription of the session to the FSA of the given component.
+     * 
+     * @param componentId the ID of the component
+     */
+    protected void untrack(long componentId) {
+        FSAModel fsa = fsas.remove(componentId);
+        if (fsa != null) {
+            fsa2component.remove(fsa);
+            fsa.removeSubscriber((FSASubscriber) this);
+            fsa.removeSubscriber((DESModelSubscriber) this);
+        }
+    }
+
+    /**
+     * Creates copies of the FSAs output by {@link ChannelSup}.
+     * 
+     * @param outputs the outputs of {@link ChannelSup}
+     * @return copies of the outputs
+     */
+    protected static Object[] copy(Object[] outputs) {
+        Object[] copies = new Object[outputs.length];
+        for (int i = 0; i < outputs.length; ++i) {
+            copies[i] = ((FSAModel) outputs[i]).clone();
+        }
+        return copies;
+    }
+
+    /**
+     * Invalidates the results affected by a change in the template design.
+     */
+    public synchronized void templateModelStructureChanged(TemplateModelMessage message) {
+        long id = message.getElementId();
+        if (message.getElementType() == TemplateModelMessage.ELEMENT_COMPONENT) {
+            invalidateComponent(id);
+            if (message.getOperationType() == TemplateModelMessage.OP_REMOVE) {
+                untrack(id);
+                eventsRemoved = true;
+            } else {
+                track(id);
+            }
+        } else if (message.getElementType() == TemplateModelMessage.ELEMENT_LINK) {
+            invalidateLink(id);
+            TemplateLink link = model.getLink(id);
+            if (link != null) {
+                invalidateComponent(link.getLeftComponent().getId());
+                invalidateComponent(link.getRightComponent().getId());
+            }
+        }
+    }
+
+    /**
+     * Invalidates the results which depend on the FSA whose events changed.
+     */
+    public synchronized void fsaEventSetChanged(FSAMessage message) {
+        Long componentId = fsa2component.get(message.getSource());
+        if (componentId != null) {
+            invalidateComponent(componentId);
+        }
+        if (message.getEventType() == FSAMessage.REMOVE) {
+            eventsRemoved = true;
+        }
+    }
+
+    /**
+     * Invalidates the results which depend on the FSA whose structure changed.
+     */
+    public synchronized void fsaStructureChanged(FSAMessage message) {
+        Long componentId = fsa2component.get(message.getSource());
+        if (componentId != null) {
+            invalidateComponent(componentId);
+        }
+    }
+
+    /**
+     * Invalidates the results which depend on the renamed FSA, since the names
+     * of the events in the results are derived from the names of the FSAs.
+     */
+    public synchronized void modelNameChanged(DESModelMessage message) {
+        Long componentId = fsa2component.get(message.getSource());
+        if (componentId != null) {
+            invalidateComponent(componentId);
+        }
+    }
+
+    public void saveStatusChanged(DESModelMessage message) {
+    }
+}
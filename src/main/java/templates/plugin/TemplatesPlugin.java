@@ -34,15 +34,19 @@ import ides.api.plugin.io.IOPluginManager;
 import ides.api.plugin.model.ModelManager;
 import ides.api.plugin.operation.OperationManager;
 import ides.api.plugin.presentation.ToolsetManager;
+import templates.io.BinaryDesignIO;
 import templates.io.JPEGExporter;
 import templates.io.PNGExporter;
+import templates.io.TemplateArchiveIO;
 import templates.io.TemplateFileIO;
 import templates.library.TemplateMetaIO;
 import templates.model.TemplateModel;
 import templates.model.v3.TemplateDesign;
 import templates.operations.CentralizedSupSolution;
 import templates.operations.ChannelSup;
+import templates.operations.DirectChannelSup;
 import templates.operations.ModularSupSolution;
+import templates.operations.SymbolicSupSolution;
 import templates.presentation.TemplateToolset;
 
 /**
@@ -110,11 +114,22 @@ public class TemplatesPlugin implements Plugin {
         // export
         IOPluginManager.instance().registerExport(new JPEGExporter(), TemplateModel.class);
         IOPluginManager.instance().registerExport(new PNGExporter(), TemplateModel.class);
+        // single-file archive
+        TemplateArchiveIO archive = new TemplateArchiveIO();
+        IOPluginManager.instance().registerExport(archive, TemplateModel.class);
+        IOPluginManager.instance().registerImport(archive);
+        // compact binary format
+        BinaryDesignIO binary = new BinaryDesignIO();
+        IOPluginManager.instance().registerExport(binary, TemplateModel.class);
+        IOPluginManager.instance().registerImport(binary);
 
         // Operations
         OperationManager.instance().register(new ChannelSup());
+        OperationManager.instance().register(new DirectChannelSup());
         OperationManager.instance().register(new ModularSupSolution());
+        OperationManager.instance().register(new ModularSupSolution(true));
         OperationManager.instance().register(new CentralizedSupSolution());
+        OperationManager.instance().register(new SymbolicSupSolution());
     }
 
     /**
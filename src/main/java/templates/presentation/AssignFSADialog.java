@@ -497,7 +497,7 @@ public class AssignFSADialog extends EscapeDialog {
         openModelsCombo.addActionListener(onSelectModel);
 
         // prepare ComboBox with templates
-        Vector<Template> templates = new Vector<Template>(TemplateManager.instance().getMainLibrary().getTemplates());
+        Vector<Template> templates = new Vector<Template>(TemplateManager.instance().getTemplates());
         Collections.sort(templates, new Comparator<Template>() {
 
             public int compare(Template arg0, Template arg1) {
@@ -40,6 +40,7 @@ import templates.diagram.DiagramElement;
 import templates.diagram.Entity;
 import templates.diagram.TemplateDiagram;
 import templates.diagram.actions.DiagramActions;
+import templates.model.IncrementalValidator;
 import templates.model.TemplateComponent;
 import templates.model.TemplateLink;
 import templates.model.Validator;
@@ -223,11 +224,11 @@ public class IssuesWrapper {
      *                assembled
      * @return a list of {@link IssueDescriptor}s for the consistency issues in the
      *         template diagram
-     * @see Validator
+     * @see IncrementalValidator
      */
     public static List<IssueDescriptor> getIssues(TemplateDiagram diagram) {
         LinkedList<IssueDescriptor> issues = new LinkedList<IssueDescriptor>();
-        List<ValidatorResult> results = Validator.validate(diagram.getModel());
+        List<ValidatorResult> results = IncrementalValidator.getValidator(diagram.getModel()).validate();
 
         Set<Connector> moduleChannels = new HashSet<Connector>();
         Set<Connector> noEvents = new HashSet<Connector>();
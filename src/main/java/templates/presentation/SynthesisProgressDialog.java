@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package templates.presentation;
+
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.Arrays;
+
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
+
+import ides.api.core.Hub;
+import ides.api.utilities.EscapeDialog;
+import templates.operations.SynthesisMonitor;
+
+/**
+ * The modal UI dialog which displays the progress of a supervisor computation
+ * running in the background and lets the user cancel it.
+ * <p>
+ * The dialog is modal so that the user cannot modify the template design while
+ * the computation reads it in the background.
+ * 
+ * @author Lenko Grigorov
+ */
+public class SynthesisProgressDialog extends EscapeDialog {
+    private static final long serialVersionUID = 2470961865140313846L;
+
+    /**
+     * The phases of the computation, in the order they are performed.
+     */
+    protected static final String[] PHASES = new String[] { SynthesisMonitor.PHASE_SYNC,
+            SynthesisMonitor.PHASE_SELFLOOP, SynthesisMonitor.PHASE_PRODUCT, SynthesisMonitor.PHASE_SUPCON,
+            SynthesisMonitor.PHASE_LABEL };
+
+    /**
+     * The monitor of the computation, which reports the progress to this dialog.
+     */
+    protected SynthesisMonitor monitor;
+
+    /**
+     * The label with the current phase of the computation.
+     */
+    protected JLabel note;
+
+    /**
+     * The bar with the progress through the phases of the computation.
+     */
+    protected JProgressBar progress;
+
+    /**
+     * The button to cancel the computation.
+     */
+    protected JButton cancelButton;
+
+    /**
+     * Construct a dialog to display the progress of a supervisor computation.
+     * 
+     * @param message the description of the computation
+     */
+    public SynthesisProgressDialog(String message) {
+        super(Hub.getMainWindow(), Hub.string("TD_synthesisProgressTitle"), true);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                onEscapeEvent();
+            }
+        });
+        setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
+
+        Box mainBox = Box.createVerticalBox();
+        mainBox.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        Box messageBox = Box.createHorizontalBox();
+        messageBox.add(new JLabel(message));
+        messageBox.add(Box.createHorizontalGlue());
+        mainBox.add(messageBox);
+        mainBox.add(Box.createRigidArea(new Dimension(0, 5)));
+        Box noteBox = Box.createHorizontalBox();
+        note = new JLabel(" ");
+        noteBox.add(note);
+        noteBox.add(Box.createHorizontalGlue());
+        mainBox.add(noteBox);
+        mainBox.add(Box.createRigidArea(new Dimension(0, 5)));
+        progress = new JProgressBar(0, PHASES.length);
+        mainBox.add(progress);
+        mainBox.add(Box.createRigidArea(new Dimension(0, 5)));
+        Box buttonBox = Box.createHorizontalBox();
+        buttonBox.add(Box.createHorizontalGlue());
+        cancelButton = new JButton(Hub.string("TD_cancel"));
+        cancelButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                onEscapeEvent();
+            }
+        });
+        buttonBox.add(cancelButton);
+        buttonBox.add(Box.createHorizontalGlue());
+        mainBox.add(buttonBox);
+        getContentPane().add(mainBox);
+        setMinimumSize(new Dimension(350, 0));
+        pack();
+        setLocation(Hub.getCenteredLocationForDialog(getSize()));
+
+        monitor = new SynthesisMonitor() {
+            @Override
+            protected void progressChanged() {
+                final String phase = getPhase();
+                final long states = getStates();
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        showProgress(phase, states);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Retrieve the monitor which has to be used by the computation to report its
+     * progress to this dialog.
+     * 
+     * @return the monitor of the computation
+     */
+    public SynthesisMonitor getMonitor() {
+        return monitor;
+    }
+
+    /**
+     * Display the progress of the computation.
+     * 
+     * @param phase  the current phase of the computation
+     * @param states the number of states built so far
+     */
+    protected void showProgress(String phase, long states) {
+        if (monitor.isCanceled()) {
+            return;
+        }
+        note.setText(Hub.string("TD_synthesisPhase") + " " + (phase == null ? "" : phase) + ", "
+                + Hub.string("TD_synthesisStates") + " " + states);
+        progress.setValue(Arrays.asList(PHASES).indexOf(phase) + 1);
+    }
+
+    /**
+     * Cancel the computation. The dialog stays open until the computation stops.
+     */
+    @Override
+    protected void onEscapeEvent() {
+        monitor.cancel();
+        cancelButton.setEnabled(false);
+        note.setText(Hub.string("TD_synthesisCanceling"));
+    }
+}
@@ -49,7 +49,6 @@ import javax.swing.SwingUtilities;
 
 import ides.api.core.Annotable;
 import ides.api.core.Hub;
-import templates.diagram.Connector;
 import templates.diagram.DiagramElement;
 import templates.diagram.Entity;
 import templates.diagram.TemplateDiagramMessage;
@@ -374,16 +373,10 @@ public class TemplateEditableCanvas extends TemplateCanvas implements MouseListe
         selectionBox = r;
         if (selectionBox != null) {
             Collection<DiagramElement> selected = new HashSet<DiagramElement>();
-            for (Connector c : diagram.getConnectors()) {
-                if (c.intersects(selectionBox)) {
-                    selected.add(c);
-                }
-            }
-            for (Entity e : diagram.getEntities()) {
-                if (e.intersects(selectionBox)) {
-                    selected.add(e);
-                    selected.addAll(diagram.getAdjacentConnectors(e));
-                }
+            selected.addAll(diagram.getConnectorsIn(selectionBox));
+            for (Entity e : diagram.getEntitiesIn(selectionBox)) {
+                selected.add(e);
+                selected.addAll(diagram.getAdjacentConnectors(e));
             }
             diagram.setSelection(selected);
         }
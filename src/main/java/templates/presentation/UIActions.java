@@ -30,15 +30,15 @@ import java.awt.event.ActionEvent;
 import java.awt.event.InputEvent;
 import java.awt.event.MouseEvent;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.AbstractAction;
 import javax.swing.JColorChooser;
+import javax.swing.SwingWorker;
 import javax.swing.undo.CompoundEdit;
 
 import ides.api.core.Hub;
 import ides.api.model.fsa.FSAModel;
-import ides.api.plugin.operation.Operation;
-import ides.api.plugin.operation.OperationManager;
 import ides.api.utilities.GeneralUtils;
 import templates.diagram.Connector;
 import templates.diagram.DiagramElement;
@@ -46,10 +46,13 @@ import templates.diagram.Entity;
 import templates.diagram.actions.DiagramActions;
 import templates.diagram.actions.DiagramUndoableEdits;
 import templates.library.AddTemplateDialog;
+import templates.library.SharedFSA;
 import templates.library.TemplateManager;
 import templates.model.TemplateComponent;
 import templates.model.TemplateModel;
-import templates.model.Validator;
+import templates.model.Validator.ValidationPass;
+import templates.operations.ChannelSup;
+import templates.operations.SynthesisCanceledException;
 
 /**
  * Collection of the actions available in the UI while working on a
@@ -146,7 +149,8 @@ public class UIActions {
         /**
          * Load and activate in IDES the underlying model of the specified template
          * component. If the model is already loaded, only activate it. Do nothing if
-         * the template component does not have an underlying model.
+         * the template component does not have an underlying model. If the model
+         * cannot be read from its file, notify the user.
          */
         public void actionPerformed(ActionEvent evt) {
             FSAModel fsa = entity.getComponent().getModel();
@@ -154,7 +158,13 @@ public class UIActions {
                 return;
             }
             if (Hub.getWorkspace().getModel(fsa.getName()) != fsa) {
-                Hub.getWorkspace().addModel(fsa);
+                try {
+                    SharedFSA.materialize(fsa);
+                    Hub.getWorkspace().addModel(fsa);
+                } catch (IllegalStateException e) {
+                    Hub.getNoticeManager().postErrorTemporary(Hub.string("TD_ioCantLoadFSATitle"), e.getMessage());
+                    return;
+                }
             }
             Hub.getWorkspace().setActiveModel(fsa.getName());
         }
@@ -731,17 +741,66 @@ public class UIActions {
         }
 
         /**
-         * Compute and display the supervisor for the channel. If there are consistency
-         * issues in the template design involving the channel, warn the user and do
-         * nothing.
+         * Start the computation of the supervisor for the channel in the background.
+         * The progress is displayed in a modal dialog which allows the user to cancel
+         * the computation and which keeps the user from modifying the template design
+         * while the computation reads it. Once the computation is complete, the
+         * supervisor is displayed. If there are consistency issues in the template
+         * design involving the channel, warn the user and do nothing.
          */
         public void actionPerformed(ActionEvent evt) {
-            if (!Validator.canComputeSup(canvas.getDiagram().getModel(), channel.getComponent().getId())) {
+            final TemplateModel model = canvas.getDiagram().getModel();
+            final long channelId = channel.getComponent().getId();
+            ValidationPass validation = new ValidationPass(model);
+            if (!validation.canComputeSup(channelId)) {
                 Hub.displayAlert(Hub.string("TD_cantComputeSup"));
                 return;
             }
-            Operation channelsup = OperationManager.instance().getOperation("tdchannelsup");
-            Object[] result = channelsup.perform(new Object[] { canvas.getModel(), channel.getComponent().getId() });
+            final ChannelSup channelsup = new ChannelSup();
+            channelsup.setValidation(validation);
+            final SynthesisProgressDialog progress = new SynthesisProgressDialog(
+                    Hub.string("TD_synthesisProgress") + " \'" + channel.getLabel() + "\'");
+            channelsup.setMonitor(progress.getMonitor());
+            new SwingWorker<Object[], Object>() {
+                @Override
+                protected Object[] doInBackground() {
+                    return channelsup.perform(new Object[] { model, channelId });
+                }
+
+                @Override
+                protected void done() {
+                    progress.dispose();
+                    try {
+                        showSupervisor(channelsup, get());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof SynthesisCanceledException) {
+                            Hub.getNoticeManager().postWarningTemporary(Hub.string("TD_synthesisCanceled"),
+                                    Hub.string("TD_synthesisCanceled1") + " \'" + channel.getLabel() + "\' "
+                                            + Hub.string("TD_synthesisCanceled2"));
+                            return;
+                        } else if (e.getCause() instanceof IllegalStateException) {
+                            Hub.getNoticeManager().postErrorTemporary(Hub.string("TD_ioCantLoadFSATitle"),
+                                    e.getCause().getMessage());
+                            return;
+                        }
+                        Hub.getNoticeManager().postErrorTemporary(Hub.string("TD_synthesisFailed"),
+                                Hub.string("TD_synthesisFailed1") + " \'" + channel.getLabel() + "\' "
+                                        + Hub.string("TD_synthesisFailed2") + " " + e.getCause());
+                    }
+                }
+            }.execute();
+            progress.setVisible(true);
+        }
+
+        /**
+         * Display the results of the computation of the supervisor for the channel.
+         * 
+         * @param channelsup the operation which computed the supervisor
+         * @param result     the outputs of the operation
+         */
+        protected void showSupervisor(ChannelSup channelsup, Object[] result) {
             FSAModel sys = (FSAModel) result[0];
             FSAModel spec = (FSAModel) result[1];
             FSAModel sup = (FSAModel) result[2];
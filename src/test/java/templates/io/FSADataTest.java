@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package templates.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the parsing of the files of FSAs with {@link FSAData}.
+ * 
+ * @author Lenko Grigorov
+ */
+public class FSADataTest {
+    /**
+     * The contents of the file of an FSA with two states, two events and two
+     * transitions, one of which is an epsilon transition.
+     */
+    protected static final String FSA = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<model version=\"2.1\" type=\"FSA\" id=\"machine\">\n<data>\n"
+            + "\t<state id=\"1\"><properties><initial/></properties><name>idle</name></state>\n"
+            + "\t<state id=\"2\"><properties><marked/></properties><name>busy</name></state>\n"
+            + "\t<event id=\"3\"><properties><controllable/><observable/></properties><name>start</name></event>\n"
+            + "\t<event id=\"4\"><properties><observable/></properties><name>finish</name></event>\n"
+            + "\t<transition id=\"5\" source=\"1\" target=\"2\" event=\"3\"/>\n"
+            + "\t<transition id=\"6\" source=\"2\" target=\"1\"/>\n" + "</data>\n"
+            + "<meta tag=\"layout\" version=\"2.1\"><font size=\"12.0\"/><state id=\"1\">a &amp; b</state></meta>\n"
+            + "</model>\n";
+
+    /**
+     * The file of the FSA.
+     */
+    protected File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("fsa", ".xmd");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * The states, events, transitions and meta-data sections of the file are
+     * read.
+     */
+    @Test
+    public void readsWholeFile() throws IOException {
+        write(FSA);
+        FSAData data = FSAData.read(file);
+        assertEquals("2.1", data.version);
+        assertEquals("machine", data.name);
+        assertEquals(2, data.states.size());
+        assertEquals("idle", data.states.get(0).name);
+        assertTrue(data.states.get(0).initial);
+        assertFalse(data.states.get(0).marked);
+        assertTrue(data.states.get(1).marked);
+        assertEquals(2, data.events.size());
+        assertEquals(3, data.events.get(0).id);
+        assertTrue(data.events.get(0).controllable);
+        assertFalse(data.events.get(1).controllable);
+        assertTrue(data.events.get(1).observable);
+        assertEquals(2, data.transitions.size());
+        assertEquals(5, data.transitions.get(0).id);
+        assertEquals(Long.valueOf(3), data.transitions.get(0).event);
+        assertNull(data.transitions.get(1).event);
+        assertEquals(1, data.metas.size());
+        assertEquals("layout", data.metas.get(0).tag);
+        assertTrue(data.metas.get(0).contents.startsWith("<font size=\"12.0\""));
+        assertTrue(data.metas.get(0).contents.endsWith("<state id=\"1\">a &amp; b</state>"));
+    }
+
+    /**
+     * Only the name and the events of the FSA are read as the header.
+     */
+    @Test
+    public void readsHeader() throws IOException {
+        write(FSA);
+        FSAData data = FSAData.readHeader(file);
+        assertEquals("machine", data.name);
+        assertEquals(2, data.events.size());
+        assertEquals("finish", data.events.get(1).name);
+        assertTrue(data.states.isEmpty());
+        assertTrue(data.transitions.isEmpty());
+        assertTrue(data.metas.isEmpty());
+    }
+
+    /**
+     * The header is read without reading the rest of the file, so errors in the
+     * rest of the file are reported only when the whole file is read.
+     */
+    @Test
+    public void headerStopsAfterEvents() throws IOException {
+        write(FSA.replace("</data>", "</dat>"));
+        assertEquals(2, FSAData.readHeader(file).events.size());
+        try {
+            FSAData.read(file);
+            fail("the malformed file was read");
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Files which do not contain an FSA, or whose data cannot be read, are left
+     * to be loaded by IDES.
+     */
+    @Test
+    public void leavesUnknownFilesToIDES() throws IOException {
+        write(FSA.replace("type=\"FSA\"", "type=\"TemplateDesign\""));
+        assertNull(FSAData.read(file));
+        write(FSA.replace("<transition id=\"6\"", "<bend id=\"6\""));
+        assertNull(FSAData.read(file));
+    }
+
+    protected void write(String contents) throws IOException {
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
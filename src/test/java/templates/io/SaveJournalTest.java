@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package templates.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the transactional saving with {@link SaveJournal}.
+ * 
+ * @author Lenko Grigorov
+ */
+public class SaveJournalTest {
+    /**
+     * The directory where the files of the template design are saved.
+     */
+    protected File directory;
+
+    /**
+     * The file of the template design.
+     */
+    protected File design;
+
+    /**
+     * The file of the component model referenced by the template design.
+     */
+    protected File first;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal").toFile();
+        design = new File(directory, "design.tdf");
+        first = new File(directory, "first.fsm");
+        writeDesign("first.fsm");
+        write(first, "old first");
+    }
+
+    @After
+    public void tearDown() {
+        erase(directory);
+    }
+
+    /**
+     * The temporary files are moved and the obsolete files are erased by
+     * {@link SaveJournal#recover(File)} only after the template design which
+     * references the new files is written.
+     */
+    @Test
+    public void recoverCompletesSaveOnceDesignIsWritten() throws IOException {
+        File next = new File(directory, "first.1.fsm");
+        SaveJournal journal = stage(next);
+        journal.erase(first);
+        journal.commit();
+        assertTrue(journal.isCommitted());
+        assertEquals("old first", read(first));
+        assertFalse(next.exists());
+        assertTrue(SaveJournal.getJournalFile(design).exists());
+
+        writeDesign("first.1.fsm");
+        SaveJournal.recover(design);
+        assertEquals("new first", read(next));
+        assertFalse(first.exists());
+        assertFalse(SaveJournal.getJournalFile(design).exists());
+        assertEquals(0, countTempFiles());
+    }
+
+    /**
+     * A saving which fails after the journal is committed but before the template
+     * design is written leaves the template design on the disk and the files it
+     * references intact.
+     */
+    @Test
+    public void failureBeforeDesignWriteKeepsSavedDesign() throws IOException {
+        File next = new File(directory, "first.1.fsm");
+        SaveJournal journal = stage(next);
+        journal.erase(first);
+        journal.commit();
+        // the writing of the template design fails here
+        journal.abort();
+        assertTrue(journal.isCommitted());
+
+        SaveJournal.recover(design);
+        assertEquals("old first", read(first));
+        assertFalse(next.exists());
+        assertFalse(SaveJournal.getJournalFile(design).exists());
+        assertEquals(0, countTempFiles());
+    }
+
+    /**
+     * If the writing of the template design is interrupted, the journal and the
+     * files listed in it are left in place until the template design can be read.
+     */
+    @Test
+    public void interruptedDesignWriteLeavesJournal() throws IOException {
+        File next = new File(directory, "first.1.fsm");
+        SaveJournal journal = stage(next);
+        journal.erase(first);
+        journal.commit();
+        write(design, "<model><data><component id=\"1\" model=\"first.1.f");
+
+        SaveJournal.recover(design);
+        assertEquals("old first", read(first));
+        assertFalse(next.exists());
+        assertTrue(SaveJournal.getJournalFile(design).exists());
+        assertEquals(1, countTempFiles());
+
+        writeDesign("first.1.fsm");
+        SaveJournal.recover(design);
+        assertEquals("new first", read(next));
+        assertFalse(first.exists());
+        assertFalse(SaveJournal.getJournalFile(design).exists());
+    }
+
+    /**
+     * A saving whose temporary files cannot be moved is completed by a later
+     * invocation of {@link SaveJournal#recover(File)}.
+     */
+    @Test
+    public void recoverRetriesFailedMove() throws IOException {
+        File second = new File(directory, "second.fsm");
+        assertTrue(second.mkdir());
+        write(new File(second, "blocker"), "blocker");
+        SaveJournal journal = stage(second);
+        journal.commit();
+        writeDesign("first.fsm", "second.fsm");
+        try {
+            SaveJournal.recover(design);
+            fail("the move over the directory should fail");
+        } catch (IOException e) {
+        }
+        assertTrue(SaveJournal.getJournalFile(design).exists());
+
+        erase(second);
+        SaveJournal.recover(design);
+        assertEquals("new second", read(second));
+        assertEquals("old first", read(first));
+        assertFalse(SaveJournal.getJournalFile(design).exists());
+        assertEquals(0, countTempFiles());
+    }
+
+    /**
+     * A saving which fails before its journal is written leaves the target files
+     * intact and does not leave temporary files behind.
+     */
+    @Test
+    public void abortBeforeCommitErasesTemporaryFiles() throws IOException {
+        File second = new File(directory, "second.fsm");
+        SaveJournal journal = stage(new File(directory, "first.1.fsm"), second);
+        journal.abort();
+        assertFalse(journal.isCommitted());
+        assertEquals("old first", read(first));
+        assertFalse(second.exists());
+        assertFalse(SaveJournal.getJournalFile(design).exists());
+        assertEquals(0, countTempFiles());
+    }
+
+    /**
+     * A new journal does not replace the journal of a saving which was not
+     * completed.
+     */
+    @Test
+    public void commitCompletesPendingJournal() throws IOException {
+        File next = new File(directory, "first.1.fsm");
+        SaveJournal journal = stage(next);
+        journal.erase(first);
+        journal.commit();
+        writeDesign("first.1.fsm");
+
+        File third = new File(directory, "third.fsm");
+        SaveJournal following = stage(third);
+        following.commit();
+        assertEquals("new first", read(next));
+        assertFalse(first.exists());
+        assertFalse(third.exists());
+
+        writeDesign("first.1.fsm", "third.fsm");
+        SaveJournal.recover(design);
+        assertEquals("new third", read(third));
+        assertFalse(SaveJournal.getJournalFile(design).exists());
+    }
+
+    /**
+     * The archive of a packed template design is kept once the template design
+     * which refers to it is written, and the previous archive is erased.
+     */
+    @Test
+    public void recoverKeepsReferencedArchive() throws IOException {
+        File archive = new File(directory, "design.tdz");
+        write(archive, "old design");
+        write(design, "<model><data><archive file=\"design.tdz\"/></data></model>");
+        File next = new File(directory, "design.1.tdz");
+        SaveJournal journal = stage(next);
+        journal.erase(archive);
+        journal.commit();
+
+        write(design, "<model><data><archive file=\"design.1.tdz\"/></data></model>");
+        SaveJournal.recover(design);
+        assertEquals("new design", read(next));
+        assertFalse(archive.exists());
+        assertFalse(SaveJournal.getJournalFile(design).exists());
+    }
+
+    /**
+     * Create a journal with temporary files for the given targets. The contents
+     * of each temporary file is "new " followed by the name of the target without
+     * the extension.
+     * 
+     * @param targets the targets of the temporary files
+     * @return the journal
+     * @throws IOException if a temporary file cannot be written
+     */
+    protected SaveJournal stage(File... targets) throws IOException {
+        SaveJournal journal = new SaveJournal(design);
+        for (File target : targets) {
+            File temp = journal.stage(target);
+            write(temp, "new " + target.getName().substring(0, target.getName().indexOf('.')));
+        }
+        return journal;
+    }
+
+    /**
+     * Count the temporary files left in the directory of the template design.
+     * 
+     * @return the number of temporary files
+     */
+    protected int countTempFiles() {
+        int count = 0;
+        for (File file : directory.listFiles()) {
+            if (file.getName().endsWith("." + SaveJournal.TEMP_EXT)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write a template design which references the component files with the
+     * given names.
+     * 
+     * @param names the names of the referenced files
+     * @throws IOException if the template design cannot be written
+     */
+    protected void writeDesign(String... names) throws IOException {
+        StringBuilder contents = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<model><data>\n");
+        for (int i = 0; i < names.length; ++i) {
+            contents.append("\t<component id=\"" + i + "\" type=\"0\" model=\"" + names[i] + "\"/>\n");
+        }
+        contents.append("</data></model>\n");
+        write(design, contents.toString());
+    }
+
+    protected static void write(File file, String contents) throws IOException {
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    protected static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    protected static void erase(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                erase(child);
+            }
+        }
+        file.delete();
+    }
+}
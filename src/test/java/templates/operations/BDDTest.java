@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package templates.operations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of the reclamation of nodes in {@link BDD}.
+ * 
+ * @author Lenko Grigorov
+ */
+public class BDDTest {
+    /**
+     * The number of variables used in the tests.
+     */
+    protected static final int VARS = 6;
+
+    /**
+     * After a collection, the roots still represent the same functions, the
+     * unused nodes are reclaimed and their slots are reused.
+     */
+    @Test
+    public void collectionKeepsRoots() {
+        BDD bdd = new BDD(VARS);
+        int f = majority(bdd);
+        for (int i = 0; i < VARS; ++i) {
+            for (int j = i + 1; j < VARS; ++j) {
+                bdd.or(bdd.and(bdd.var(i), bdd.nvar(j)), f);
+            }
+        }
+        int before = bdd.getNodeCount();
+        bdd.gc(new int[] { f });
+        assertTrue(bdd.getNodeCount() < before);
+        for (int a = 0; a < 1 << VARS; ++a) {
+            assertEquals(Integer.bitCount(a) * 2 > VARS, bdd.evaluate(f, assignment(a)));
+        }
+        int size = bdd.size;
+        assertEquals(f, majority(bdd));
+        bdd.and(bdd.var(0), bdd.var(VARS - 1));
+        assertEquals(size, bdd.size);
+    }
+
+    /**
+     * A node which is not reachable from the roots is reclaimed, and building
+     * the same function again results in a valid node.
+     */
+    @Test
+    public void collectionReclaimsUnreachable() {
+        BDD bdd = new BDD(VARS);
+        bdd.and(bdd.var(1), bdd.var(2));
+        int g = bdd.or(bdd.var(3), bdd.var(4));
+        bdd.gc(new int[] { g });
+        assertEquals(4, bdd.getNodeCount());
+        int f = bdd.and(bdd.var(1), bdd.var(2));
+        boolean[] vars = new boolean[VARS];
+        for (int i = 0; i < VARS; ++i) {
+            vars[i] = true;
+        }
+        int all = bdd.varSet(vars);
+        assertEquals(16, (long) bdd.satCount(f, all));
+        assertEquals(48, (long) bdd.satCount(g, all));
+    }
+
+    /**
+     * Build the function which is <code>true</code> when more than half of the
+     * variables are <code>true</code>.
+     * 
+     * @param bdd the BDD manager
+     * @return the function
+     */
+    protected static int majority(BDD bdd) {
+        int[] atLeast = new int[VARS + 2];
+        atLeast[0] = BDD.TRUE;
+        for (int k = 1; k < atLeast.length; ++k) {
+            atLeast[k] = BDD.FALSE;
+        }
+        for (int v = VARS - 1; v >= 0; --v) {
+            for (int k = atLeast.length - 1; k > 0; --k) {
+                atLeast[k] = bdd.ite(bdd.var(v), atLeast[k - 1], atLeast[k]);
+            }
+        }
+        return atLeast[VARS / 2 + 1];
+    }
+
+    /**
+     * Returns the assignment to the variables encoded by the bits of an integer.
+     * 
+     * @param bits the bits of the assignment
+     * @return the assignment
+     */
+    protected static boolean[] assignment(int bits) {
+        boolean[] result = new boolean[VARS];
+        for (int i = 0; i < VARS; ++i) {
+            result[i] = (bits & (1 << i)) != 0;
+        }
+        return result;
+    }
+}
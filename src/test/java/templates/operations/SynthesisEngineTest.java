@@ -0,0 +1,470 @@
+/*
+ * Copyright (c) 2010-2020, Lenko Grigorov
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package templates.operations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import templates.operations.OnTheFlySynthesizer.Automaton;
+import templates.operations.OnTheFlySynthesizer.StateKey;
+
+/**
+ * Tests which compare the supervisors computed by the
+ * {@link OnTheFlySynthesizer} and the {@link SymbolicSynthesizer} with the
+ * supervisor computed by composing the modules and the channels explicitly and
+ * removing the bad and blocking states, as done by {@link ChannelSup}.
+ * <p>
+ * The components are built directly in their indexed representation, so the
+ * tests do not require the IDES models.
+ * 
+ * @author Lenko Grigorov
+ */
+public class SynthesisEngineTest {
+    /**
+     * Two machines connected through a buffer of capacity one. The first machine
+     * takes a workpiece (<code>0</code>, controllable) and outputs it into the
+     * buffer (<code>1</code>, uncontrollable); the second machine takes a
+     * workpiece from the buffer (<code>2</code>, controllable) and finishes it
+     * (<code>3</code>, uncontrollable).
+     */
+    @Test
+    public void bufferBetweenMachines() {
+        boolean[] controllable = new boolean[] { true, false, true, false };
+        Automaton[] modules = new Automaton[] {
+                automaton(2, new int[][] { { 0, 0, 1 }, { 1, 1, 0 } }, new boolean[] { true, false }),
+                automaton(2, new int[][] { { 0, 2, 1 }, { 1, 3, 0 } }, new boolean[] { true, false }) };
+        Automaton[] channels = new Automaton[] {
+                automaton(2, new int[][] { { 0, 1, 1 }, { 1, 2, 0 } }, new boolean[] { true, false }) };
+        Set<StateKey> expected = assertEnginesAgree(controllable, modules, channels);
+        assertTrue(expected.contains(new StateKey(new int[] { 1, 0, 0 })));
+        assertFalse(expected.contains(new StateKey(new int[] { 1, 0, 1 })));
+    }
+
+    /**
+     * A nondeterministic channel which, with the same event, moves to one of two
+     * states allowing different events. Both branches have to be explored.
+     */
+    @Test
+    public void nondeterministicChannel() {
+        boolean[] controllable = new boolean[] { true, true, true };
+        Automaton[] modules = new Automaton[] { automaton(2, new int[][] { { 0, 0, 1 }, { 1, 1, 0 }, { 1, 2, 0 } },
+                new boolean[] { true, false }) };
+        Automaton[] channels = new Automaton[] {
+                automaton(3, new int[][] { { 0, 0, 1 }, { 0, 0, 2 }, { 1, 1, 0 }, { 2, 2, 0 } },
+                new boolean[] { true, false, false }) };
+        Set<StateKey> expected = assertEnginesAgree(controllable, modules, channels);
+        assertEquals(3, expected.size());
+        assertTrue(expected.contains(new StateKey(new int[] { 1, 1 })));
+        assertTrue(expected.contains(new StateKey(new int[] { 1, 2 })));
+    }
+
+    /**
+     * A nondeterministic channel where only one of the branches disables an
+     * uncontrollable event of the module. Only the state reached through this
+     * branch has to be removed.
+     */
+    @Test
+    public void nondeterministicChannelWithBadBranch() {
+        boolean[] controllable = new boolean[] { true, false };
+        Automaton[] modules = new Automaton[] {
+                automaton(2, new int[][] { { 0, 0, 1 }, { 1, 1, 0 } }, new boolean[] { true, false }) };
+        Automaton[] channels = new Automaton[] { automaton(3, new int[][] { { 0, 0, 1 }, { 0, 0, 2 }, { 1, 1, 0 } },
+                new boolean[] { true, true, true }) };
+        Set<StateKey> expected = assertEnginesAgree(controllable, modules, channels);
+        assertEquals(2, expected.size());
+        assertTrue(expected.contains(new StateKey(new int[] { 1, 1 })));
+        assertFalse(expected.contains(new StateKey(new int[] { 1, 2 })));
+    }
+
+    /**
+     * Randomly generated designs with two modules and up to two, possibly
+     * nondeterministic, channels.
+     */
+    @Test
+    public void randomDesigns() {
+        Random random = new Random(1);
+        for (int n = 0; n < 200; ++n) {
+            int eventsPerModule = 3;
+            boolean[] controllable = new boolean[eventsPerModule * 2];
+            for (int e = 0; e < controllable.length; ++e) {
+                controllable[e] = random.nextBoolean();
+            }
+            Automaton[] modules = new Automaton[2];
+            for (int m = 0; m < modules.length; ++m) {
+                List<int[]> transitions = new ArrayList<int[]>();
+                for (int s = 0; s < 3; ++s) {
+                    for (int e = m * eventsPerModule; e < (m + 1) * eventsPerModule; ++e) {
+                        if (random.nextBoolean()) {
+                            transitions.add(new int[] { s, e, random.nextInt(3) });
+                        }
+                    }
+                }
+                modules[m] = automaton(3, transitions.toArray(new int[0][]), randomMarking(random, 3));
+            }
+            Automaton[] channels = new Automaton[1 + random.nextInt(2)];
+            for (int c = 0; c < channels.length; ++c) {
+                int stateCount = 2 + random.nextInt(2);
+                List<int[]> transitions = new ArrayList<int[]>();
+                for (int e = 0; e < controllable.length; ++e) {
+                    if (random.nextInt(3) != 0) {
+                        continue;
+                    }
+                    for (int s = 0; s < stateCount; ++s) {
+                        for (int k = random.nextInt(3); k > 0; --k) {
+                            transitions.add(new int[] { s, e, random.nextInt(stateCount) });
+                        }
+                    }
+                }
+                channels[c] = automaton(stateCount, transitions.toArray(new int[0][]),
+                        randomMarking(random, stateCount));
+            }
+            assertEnginesAgree(controllable, modules, channels);
+        }
+    }
+
+    /**
+     * The exploration stops when the computation is canceled through the
+     * monitor.
+     */
+    @Test
+    public void explorationCanBeCanceled() {
+        OnTheFlySynthesizer synthesizer = problem(new boolean[] { true },
+                new Automaton[] { automaton(1, new int[][] { { 0, 0, 0 } }, new boolean[] { true }) },
+                new Automaton[0]);
+        synthesizer.monitor.cancel();
+        try {
+            synthesizer.explore();
+            fail("the exploration was not canceled");
+        } catch (SynthesisCanceledException e) {
+        }
+    }
+
+    /**
+     * Check that the {@link OnTheFlySynthesizer}, the {@link SymbolicSynthesizer}
+     * and the explicit computation result in the same supervisor states.
+     * 
+     * @param controllable the controllability of the events
+     * @param modules      the modules
+     * @param channels     the channels
+     * @return the states of the supervisor
+     */
+    protected Set<StateKey> assertEnginesAgree(boolean[] controllable, Automaton[] modules, Automaton[] channels) {
+        Set<StateKey> expected = reference(controllable, modules, channels);
+
+        OnTheFlySynthesizer onTheFly = problem(controllable, modules, channels);
+        onTheFly.explore();
+        onTheFly.trim();
+        Set<StateKey> actual = new HashSet<StateKey>();
+        if (!onTheFly.states.isEmpty() && !onTheFly.bad[0]) {
+            List<Integer> pending = new ArrayList<Integer>();
+            pending.add(0);
+            actual.add(onTheFly.states.get(0));
+            for (int i = 0; i < pending.size(); ++i) {
+                OnTheFlySynthesizer.IntList targets = onTheFly.outTargets.get(pending.get(i));
+                for (int j = 0; j < targets.size(); ++j) {
+                    int target = targets.get(j);
+                    if (!onTheFly.bad[target] && actual.add(onTheFly.states.get(target))) {
+                        pending.add(target);
+                    }
+                }
+            }
+        }
+        assertEquals(expected, actual);
+
+        SymbolicSynthesizer symbolic = new SymbolicSynthesizer() {
+            @Override
+            protected void collectGarbage(int[] live) {
+                // collect at every opportunity to check that no live node is lost
+                bdd.gcThreshold = 0;
+                super.collectGarbage(live);
+            }
+        };
+        symbolic.problem = problem(controllable, modules, channels);
+        symbolic.encode();
+        symbolic.solve();
+        assertEquals(expected.size(), (long) symbolic.getStateCount());
+        for (StateKey state : expected) {
+            assertTrue(symbolic.isSupervisorState(state.tuple));
+        }
+        return expected;
+    }
+
+    /**
+     * Compute the states of the supervisor by building the reachable part of the
+     * synchronous product of the components explicitly and then removing the bad
+     * and blocking states until a fixpoint is reached.
+     * 
+     * @param controllable the controllability of the events
+     * @param modules      the modules
+     * @param channels     the channels
+     * @return the states of the supervisor
+     */
+    protected Set<StateKey> reference(boolean[] controllable, Automaton[] modules, Automaton[] channels) {
+        int[] start = new int[modules.length + channels.length];
+        for (int k = 0; k < modules.length; ++k) {
+            start[k] = modules[k].initial;
+        }
+        for (int c = 0; c < channels.length; ++c) {
+            start[modules.length + c] = channels[c].initial;
+        }
+        List<StateKey> states = new ArrayList<StateKey>();
+        Map<StateKey, Integer> index = new HashMap<StateKey, Integer>();
+        List<List<int[]>> transitions = new ArrayList<List<int[]>>();
+        List<Boolean> blocked = new ArrayList<Boolean>();
+        states.add(new StateKey(start));
+        index.put(states.get(0), 0);
+        for (int s = 0; s < states.size(); ++s) {
+            int[] tuple = states.get(s).tuple;
+            List<int[]> out = new ArrayList<int[]>();
+            boolean isBlocked = false;
+            for (int m = 0; m < modules.length; ++m) {
+                Automaton module = modules[m];
+                for (int i = 0; i < module.events[tuple[m]].length; ++i) {
+                    int event = module.events[tuple[m]][i];
+                    List<int[]> next = new ArrayList<int[]>();
+                    int[] moved = tuple.clone();
+                    moved[m] = module.targets[tuple[m]][i];
+                    next.add(moved);
+                    for (int c = 0; c < channels.length; ++c) {
+                        if (!hasEvent(channels[c], event)) {
+                            continue;
+                        }
+                        List<int[]> expanded = new ArrayList<int[]>();
+                        int state = tuple[modules.length + c];
+                        for (int j = 0; j < channels[c].events[state].length; ++j) {
+                            if (channels[c].events[state][j] == event) {
+                                for (int[] partial : next) {
+                                    int[] successor = partial.clone();
+                                    successor[modules.length + c] = channels[c].targets[state][j];
+                                    expanded.add(successor);
+                                }
+                            }
+                        }
+                        next = expanded;
+                    }
+                    if (next.isEmpty() && !controllable[event]) {
+                        isBlocked = true;
+                    }
+                    for (int[] successor : next) {
+                        StateKey key = new StateKey(successor);
+                        if (!index.containsKey(key)) {
+                            index.put(key, states.size());
+                            states.add(key);
+                        }
+                        out.add(new int[] { event, index.get(key) });
+                    }
+                }
+            }
+            transitions.add(out);
+            blocked.add(isBlocked);
+        }
+        boolean[] good = new boolean[states.size()];
+        for (int s = 0; s < good.length; ++s) {
+            good[s] = !blocked.get(s);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int s = 0; s < good.length; ++s) {
+                for (int[] t : transitions.get(s)) {
+                    if (good[s] && !controllable[t[0]] && !good[t[1]]) {
+                        good[s] = false;
+                        changed = true;
+                    }
+                }
+            }
+            boolean[] coreachable = new boolean[good.length];
+            for (int s = 0; s < good.length; ++s) {
+                coreachable[s] = good[s] && isMarked(states.get(s).tuple, modules, channels);
+            }
+            boolean grown = true;
+            while (grown) {
+                grown = false;
+                for (int s = 0; s < good.length; ++s) {
+                    for (int[] t : transitions.get(s)) {
+                        if (good[s] && !coreachable[s] && coreachable[t[1]]) {
+                            coreachable[s] = true;
+                            grown = true;
+                        }
+                    }
+                }
+            }
+            for (int s = 0; s < good.length; ++s) {
+                if (good[s] && !coreachable[s]) {
+                    good[s] = false;
+                    changed = true;
+                }
+            }
+        }
+        Set<StateKey> result = new HashSet<StateKey>();
+        if (!good[0]) {
+            return result;
+        }
+        List<Integer> pending = new ArrayList<Integer>();
+        pending.add(0);
+        result.add(states.get(0));
+        for (int i = 0; i < pending.size(); ++i) {
+            for (int[] t : transitions.get(pending.get(i))) {
+                if (good[t[1]] && result.add(states.get(t[1]))) {
+                    pending.add(t[1]);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Set up a synthesis problem from indexed components.
+     * 
+     * @param controllable the controllability of the events
+     * @param modules      the modules
+     * @param channels     the channels
+     * @return the synthesizer for the problem
+     */
+    protected static OnTheFlySynthesizer problem(boolean[] controllable, Automaton[] modules,
+            Automaton[] channels) {
+        OnTheFlySynthesizer synthesizer = new OnTheFlySynthesizer(new EventTable());
+        synthesizer.controllable = controllable;
+        synthesizer.modules = modules;
+        synthesizer.channels = channels;
+        synthesizer.channelsOfEvent = new int[controllable.length][];
+        for (int e = 0; e < controllable.length; ++e) {
+            List<Integer> restricting = new ArrayList<Integer>();
+            for (int c = 0; c < channels.length; ++c) {
+                if (hasEvent(channels[c], e)) {
+                    restricting.add(c);
+                }
+            }
+            synthesizer.channelsOfEvent[e] = new int[restricting.size()];
+            for (int i = 0; i < restricting.size(); ++i) {
+                synthesizer.channelsOfEvent[e][i] = restricting.get(i);
+            }
+        }
+        return synthesizer;
+    }
+
+    /**
+     * Build an indexed component with the initial state <code>0</code>.
+     * 
+     * @param stateCount  the number of states
+     * @param transitions the transitions, as triples of source state, event and
+     *                    target state
+     * @param marked      the marking of the states
+     * @return the indexed component
+     */
+    protected static Automaton automaton(int stateCount, int[][] transitions, boolean[] marked) {
+        int[][] events = new int[stateCount][];
+        int[][] targets = new int[stateCount][];
+        for (int s = 0; s < stateCount; ++s) {
+            int count = 0;
+            for (int[] t : transitions) {
+                if (t[0] == s) {
+                    ++count;
+                }
+            }
+            events[s] = new int[count];
+            targets[s] = new int[count];
+            int i = 0;
+            for (int[] t : transitions) {
+                if (t[0] == s) {
+                    events[s][i] = t[1];
+                    targets[s][i++] = t[2];
+                }
+            }
+        }
+        return new Automaton(0, marked, events, targets);
+    }
+
+    /**
+     * Check if a component has a transition with the given event.
+     * 
+     * @param component the component
+     * @param event     the event
+     * @return <code>true</code> if the component has a transition with the event;
+     *         <code>false</code> otherwise
+     */
+    protected static boolean hasEvent(Automaton component, int event) {
+        for (int[] events : component.events) {
+            for (int e : events) {
+                if (e == event) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if a tuple of component states is marked.
+     * 
+     * @param tuple    the states of the modules followed by the states of the
+     *                 channels
+     * @param modules  the modules
+     * @param channels the channels
+     * @return <code>true</code> if all component states are marked;
+     *         <code>false</code> otherwise
+     */
+    protected static boolean isMarked(int[] tuple, Automaton[] modules, Automaton[] channels) {
+        for (int m = 0; m < modules.length; ++m) {
+            if (!modules[m].marked[tuple[m]]) {
+                return false;
+            }
+        }
+        for (int c = 0; c < channels.length; ++c) {
+            if (!channels[c].marked[tuple[modules.length + c]]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Generate a random marking where the initial state is always marked.
+     * 
+     * @param random     the source of randomness
+     * @param stateCount the number of states
+     * @return the marking
+     */
+    protected static boolean[] randomMarking(Random random, int stateCount) {
+        boolean[] marked = new boolean[stateCount];
+        marked[0] = true;
+        for (int s = 1; s < stateCount; ++s) {
+            marked[s] = random.nextBoolean();
+        }
+        return marked;
+    }
+}